@@ -0,0 +1,533 @@
+/*******************************************************************************
+ *  Imixs Workflow
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,
+ *  http://www.imixs.com
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *
+ *  Project:
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *
+ *  Contributors:
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+
+package org.imixs.workflow;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * The ExpressionCompiler evaluates simple boolean expressions of conditional
+ * and split events without a script engine. An expression is compiled once into
+ * a tree of Java lambdas and cached by its text.
+ * <p>
+ * The compiler supports a safe subset of JavaScript:
+ * 
+ * <ul>
+ * <li>item values: workitem.txtname, workitem['txtname'], workitem.txtname[0],
+ * workitem.txtname.length</li>
+ * <li>literals: numbers, strings, true, false, null</li>
+ * <li>comparisons: ==, ===, !=, !==, &lt;, &lt;=, &gt;, &gt;=</li>
+ * <li>boolean logic: &amp;&amp;, ||, ! and parentheses</li>
+ * </ul>
+ * 
+ * <code>
+ *   (workitem._budget &amp;&amp; workitem._budget[0]&gt;100)
+ * </code>
+ * 
+ * The results are the same as evaluated by the RuleEngine. If an expression is
+ * not part of the subset, or a value can not be evaluated with the same result
+ * as JavaScript (e.g. a type conversion or a script error), the method
+ * evaluate() returns null and the expression has to be evaluated by the
+ * RuleEngine.
+ * 
+ * @author rsoika
+ * @version 1.0
+ * @see org.imixs.workflow.RuleEngine
+ */
+public class ExpressionCompiler {
+
+	// max number of cached expressions
+	public static final int CACHE_SIZE = 1000;
+	private static Logger logger = Logger.getLogger(ExpressionCompiler.class.getName());
+
+	// result of an expression which can not be evaluated by the compiler
+	private static final Object UNSUPPORTED = new Object();
+	private static final Expression NOT_COMPILABLE = doc -> UNSUPPORTED;
+	private static final Map<String, Expression> cache = new ConcurrentHashMap<String, Expression>();
+
+	/**
+	 * A compiled expression. The result is a JavaScript like value (null, Boolean,
+	 * Double, String or the value list of an item).
+	 */
+	@FunctionalInterface
+	interface Expression {
+		Object evaluate(ItemCollection documentContext);
+	}
+
+	/**
+	 * Evaluates a boolean expression. The method returns null if the expression
+	 * is not supported by the compiler. In this case the expression must be
+	 * evaluated by the RuleEngine.
+	 * 
+	 * @param expression
+	 * @param documentContext
+	 * @return result of the expression or null if the expression is not
+	 *         supported
+	 */
+	public static Boolean evaluate(String expression, ItemCollection documentContext) {
+		if (expression == null) {
+			return null;
+		}
+		Object result = compile(expression).evaluate(documentContext);
+		if (result == UNSUPPORTED) {
+			return null;
+		}
+		// like RuleEngine.evaluateBooleanExpression
+		return (result instanceof Boolean) ? (Boolean) result : Boolean.FALSE;
+	}
+
+	/**
+	 * Returns true if the expression is part of the supported subset.
+	 * 
+	 * @param expression
+	 * @return
+	 */
+	public static boolean isCompilable(String expression) {
+		return expression != null && compile(expression) != NOT_COMPILABLE;
+	}
+
+	/**
+	 * Returns the compiled expression from the cache or compiles the expression.
+	 */
+	private static Expression compile(String expression) {
+		Expression result = cache.get(expression);
+		if (result == null) {
+			try {
+				result = new Parser(expression).parse();
+			} catch (IllegalArgumentException e) {
+				logger.finest("expression not compilable: " + e.getMessage());
+				result = NOT_COMPILABLE;
+			}
+			if (cache.size() >= CACHE_SIZE) {
+				cache.clear();
+			}
+			cache.put(expression, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Converts a value into the JavaScript representation used by the
+	 * expressions. Numbers which are treated as a JavaScript number by the script
+	 * engine are converted into a Double. Other types are not supported.
+	 */
+	private static Object toValue(Object value) {
+		if (value == null || value instanceof String || value instanceof Boolean) {
+			return value;
+		}
+		if (value instanceof Integer || value instanceof Double || value instanceof Float || value instanceof Short
+				|| value instanceof Byte) {
+			return ((Number) value).doubleValue();
+		}
+		return UNSUPPORTED;
+	}
+
+	/**
+	 * Returns the JavaScript truthiness of a value.
+	 */
+	private static Object isTrue(Object value) {
+		if (value == null) {
+			return Boolean.FALSE;
+		}
+		if (value instanceof Boolean) {
+			return value;
+		}
+		if (value instanceof Double) {
+			double d = (Double) value;
+			return !(d == 0 || Double.isNaN(d));
+		}
+		if (value instanceof String) {
+			return !((String) value).isEmpty();
+		}
+		if (value instanceof List) {
+			// value list of an item
+			return Boolean.TRUE;
+		}
+		return UNSUPPORTED;
+	}
+
+	/**
+	 * Compares two values with the JavaScript semantic of the operator.
+	 */
+	private static Object compare(String operator, Object a, Object b) {
+		if (a == UNSUPPORTED || b == UNSUPPORTED) {
+			return UNSUPPORTED;
+		}
+		boolean strict = operator.length() == 3;
+		if (operator.startsWith("=") || operator.startsWith("!")) {
+			Object equal;
+			if (a instanceof List || b instanceof List) {
+				if (a instanceof List && b instanceof List) {
+					return UNSUPPORTED;
+				}
+				// an item value list is never equal to a primitive value
+				equal = (a == null || b == null || strict) ? Boolean.FALSE : UNSUPPORTED;
+			} else if (a == null || b == null) {
+				equal = (a == b);
+			} else if (a.getClass() == b.getClass()) {
+				equal = (a instanceof Double) ? ((Double) a).doubleValue() == ((Double) b).doubleValue() : a.equals(b);
+			} else {
+				// type conversion is only supported for strict operators
+				equal = strict ? Boolean.FALSE : UNSUPPORTED;
+			}
+			if (equal == UNSUPPORTED || operator.startsWith("=")) {
+				return equal;
+			}
+			return !(Boolean) equal;
+		}
+		int result;
+		if (a instanceof Double && b instanceof Double) {
+			double d1 = (Double) a;
+			double d2 = (Double) b;
+			if (Double.isNaN(d1) || Double.isNaN(d2)) {
+				return Boolean.FALSE;
+			}
+			result = Double.compare(d1, d2);
+			if (d1 == d2) {
+				// -0 and 0 are equal
+				result = 0;
+			}
+		} else if (a instanceof String && b instanceof String) {
+			result = ((String) a).compareTo((String) b);
+		} else {
+			return UNSUPPORTED;
+		}
+		switch (operator) {
+		case "<":
+			return result < 0;
+		case "<=":
+			return result <= 0;
+		case ">":
+			return result > 0;
+		default:
+			return result >= 0;
+		}
+	}
+
+	/**
+	 * Recursive descent parser for the supported subset. The parser throws an
+	 * IllegalArgumentException for unsupported expressions.
+	 */
+	private static class Parser {
+		private static final String[] COMPARE_OPERATORS = { "===", "!==", "==", "!=", "<=", ">=", "<", ">" };
+		private final String expression;
+		private int pos = 0;
+
+		Parser(String expression) {
+			this.expression = expression;
+		}
+
+		Expression parse() {
+			Expression result = parseOr();
+			while (match(";")) {
+				// ignore trailing semicolons
+			}
+			skipWhitespace();
+			if (pos < expression.length()) {
+				throw error();
+			}
+			return result;
+		}
+
+		private Expression parseOr() {
+			Expression result = parseAnd();
+			while (match("||")) {
+				final Expression left = result;
+				final Expression right = parseAnd();
+				result = doc -> {
+					Object a = left.evaluate(doc);
+					Object b = isTrue(a);
+					if (b == UNSUPPORTED) {
+						return UNSUPPORTED;
+					}
+					return (Boolean) b ? a : right.evaluate(doc);
+				};
+			}
+			return result;
+		}
+
+		private Expression parseAnd() {
+			Expression result = parseComparison();
+			while (match("&&")) {
+				final Expression left = result;
+				final Expression right = parseComparison();
+				result = doc -> {
+					Object a = left.evaluate(doc);
+					Object b = isTrue(a);
+					if (b == UNSUPPORTED) {
+						return UNSUPPORTED;
+					}
+					return (Boolean) b ? right.evaluate(doc) : a;
+				};
+			}
+			return result;
+		}
+
+		private Expression parseComparison() {
+			final Expression left = parseUnary();
+			final String operator = matchCompareOperator();
+			if (operator == null) {
+				return left;
+			}
+			final Expression right = parseUnary();
+			if (matchCompareOperator() != null) {
+				// chained comparisons are not supported
+				throw error();
+			}
+			return doc -> compare(operator, left.evaluate(doc), right.evaluate(doc));
+		}
+
+		private Expression parseUnary() {
+			skipWhitespace();
+			if (peek("!") && !peek("!=")) {
+				pos++;
+				final Expression operand = parseUnary();
+				return doc -> {
+					Object b = isTrue(operand.evaluate(doc));
+					return (b == UNSUPPORTED) ? b : !(Boolean) b;
+				};
+			}
+			return parsePrimary();
+		}
+
+		private Expression parsePrimary() {
+			skipWhitespace();
+			if (match("(")) {
+				Expression result = parseOr();
+				if (!match(")")) {
+					throw error();
+				}
+				return result;
+			}
+			if (pos >= expression.length()) {
+				throw error();
+			}
+			char c = expression.charAt(pos);
+			if (c == '\'' || c == '"') {
+				final String value = parseString();
+				return doc -> value;
+			}
+			if (Character.isDigit(c) || c == '-' || c == '.') {
+				final Double value = parseNumber();
+				return doc -> value;
+			}
+			String identifier = parseIdentifier();
+			switch (identifier) {
+			case "true":
+				return doc -> Boolean.TRUE;
+			case "false":
+				return doc -> Boolean.FALSE;
+			case "null":
+				return doc -> null;
+			case "workitem":
+				return parseItem();
+			default:
+				throw error();
+			}
+		}
+
+		/**
+		 * Parses an item access like workitem.txtname[0]
+		 */
+		private Expression parseItem() {
+			String name;
+			if (match("[")) {
+				skipWhitespace();
+				name = parseString();
+				if (!match("]")) {
+					throw error();
+				}
+			} else if (match(".")) {
+				name = parseIdentifier();
+			} else {
+				throw error();
+			}
+			if ("empty".equals(name) || "class".equals(name)) {
+				// bean properties of the script object
+				throw error();
+			}
+			final Expression item;
+			if (name.equals(ItemCollection.normalizeItemName(name))) {
+				final String itemName = name;
+				item = doc -> {
+					List<?> values = doc.readItemValue(itemName);
+					if (values.isEmpty() || values.get(0) == null
+							|| !RuleEngine.isBasicObjectType(values.get(0).getClass())) {
+						return null;
+					}
+					return values;
+				};
+			} else {
+				// item names are lower case in the script
+				item = doc -> null;
+			}
+
+			if (peek("[") || peek(".")) {
+				if (match("[")) {
+					skipWhitespace();
+					int start = pos;
+					while (pos < expression.length() && Character.isDigit(expression.charAt(pos))) {
+						pos++;
+					}
+					if (start == pos) {
+						throw error();
+					}
+					final int index = Integer.parseInt(expression.substring(start, pos));
+					if (!match("]")) {
+						throw error();
+					}
+					return doc -> {
+						List<?> values = (List<?>) item.evaluate(doc);
+						if (values == null || index >= values.size()) {
+							// script error or undefined value
+							return UNSUPPORTED;
+						}
+						return toValue(values.get(index));
+					};
+				}
+				match(".");
+				if (!"length".equals(parseIdentifier())) {
+					throw error();
+				}
+				return doc -> {
+					List<?> values = (List<?>) item.evaluate(doc);
+					if (values == null) {
+						return UNSUPPORTED;
+					}
+					return (double) values.size();
+				};
+			}
+			return item;
+		}
+
+		private String parseIdentifier() {
+			skipWhitespace();
+			int start = pos;
+			while (pos < expression.length()) {
+				char c = expression.charAt(pos);
+				if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$'
+						|| (pos > start && c >= '0' && c <= '9')) {
+					pos++;
+				} else {
+					break;
+				}
+			}
+			if (start == pos) {
+				throw error();
+			}
+			return expression.substring(start, pos);
+		}
+
+		private String parseString() {
+			char quote = expression.charAt(pos);
+			if (quote != '\'' && quote != '"') {
+				throw error();
+			}
+			StringBuilder result = new StringBuilder();
+			pos++;
+			while (pos < expression.length()) {
+				char c = expression.charAt(pos++);
+				if (c == quote) {
+					return result.toString();
+				}
+				if (c == '\\') {
+					if (pos >= expression.length()) {
+						break;
+					}
+					c = expression.charAt(pos++);
+					if (c != '\'' && c != '"' && c != '\\') {
+						// other escape sequences are not supported
+						throw error();
+					}
+				}
+				result.append(c);
+			}
+			throw error();
+		}
+
+		private Double parseNumber() {
+			int start = pos;
+			if (expression.charAt(pos) == '-') {
+				pos++;
+			}
+			while (pos < expression.length()
+					&& (Character.isDigit(expression.charAt(pos)) || expression.charAt(pos) == '.')) {
+				pos++;
+			}
+			if (pos < expression.length() && Character.isLetter(expression.charAt(pos))) {
+				// hex or exponent notation
+				throw error();
+			}
+			String digits = expression.substring(expression.charAt(start) == '-' ? start + 1 : start, pos);
+			if (digits.length() > 1 && digits.charAt(0) == '0' && digits.charAt(1) != '.') {
+				// octal notation
+				throw error();
+			}
+			try {
+				return Double.valueOf(expression.substring(start, pos));
+			} catch (NumberFormatException e) {
+				throw error();
+			}
+		}
+
+		private String matchCompareOperator() {
+			for (String operator : COMPARE_OPERATORS) {
+				if (match(operator)) {
+					return operator;
+				}
+			}
+			return null;
+		}
+
+		private boolean match(String token) {
+			if (peek(token)) {
+				pos += token.length();
+				return true;
+			}
+			return false;
+		}
+
+		private boolean peek(String token) {
+			skipWhitespace();
+			return expression.startsWith(token, pos);
+		}
+
+		private void skipWhitespace() {
+			while (pos < expression.length() && Character.isWhitespace(expression.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		private IllegalArgumentException error() {
+			return new IllegalArgumentException("'" + expression + "' at position " + pos);
+		}
+	}
+}
@@ -27,11 +27,6 @@
 
 package org.imixs.workflow;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -45,8 +40,11 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
+import org.imixs.workflow.util.DeepCopier;
+
 /**
  * This Class defines a ValueObject to be used to exchange data structures used
  * by the org.imixs.workflow Framework. Most components of this framework use
@@ -56,9 +54,9 @@ import java.util.logging.Logger;
  * ItemCcollection enables a very flexibly and easy to use data structure.
  * 
  * A ItemCollection contains various Items (attributes). Every Item exist of a
- * Name (String) and a list of values (List of Object). Internal every Value is
- * stored inside a Vector Class. All values are stored internally in a Map
- * containing key values pairs.
+ * Name (String) and a list of values (List of Object). Single values are
+ * stored inside a compact SingleValueList. All values are stored internally in
+ * a Map containing key values pairs. Item names are normalized (lower cased).
  * 
  * NOTE: An ItemCollection is not serializable and can not be stored into
  * another ItemCollection. To serialize a ItemCollection use the
@@ -75,8 +73,15 @@ public class ItemCollection implements Cloneable {
 
 	private static Logger logger = Logger.getLogger(ItemCollection.class.getName());
 
+	// cache of normalized item names
+	private static final Map<String, String> itemNameCache = new ConcurrentHashMap<String, String>();
+	private static final int MAX_ITEMNAME_CACHE_SIZE = 10000;
+
 	private Map<String, List<Object>> hash = new Hashtable<String, List<Object>>();
 
+	// read-only value map shared by copy-on-write instances
+	private Map<String, List<Object>> sharedHash = null;
+
 	/**
 	 * Creates a new empty ItemCollection
 	 * 
@@ -107,6 +112,8 @@ public class ItemCollection implements Cloneable {
 	 */
 	public ItemCollection(ItemCollection itemCol) {
 		super();
+		// a copy-on-write instance can share the read-only value map
+		this.sharedHash = itemCol.sharedHash;
 		this.replaceAllItems(itemCol.hash);
 	}
 
@@ -125,6 +132,25 @@ public class ItemCollection implements Cloneable {
 		reference.hash=map;
 		return reference;
 	}
+
+	/**
+	 * Creates a new copy-on-write ItemCollection from a given value Map. The new
+	 * instance shares the value map with the source for all read operations. An
+	 * item is copied into the new instance on its first modification or if its
+	 * value list is accessed by the method getItemValue(). Changes to the
+	 * ItemCollection are never reflected into the given map.
+	 * <p>
+	 * This method can be used for read-mostly data like model entities. The given
+	 * map must not be modified after the instance was created.
+	 * 
+	 * @param map
+	 *            - read-only map with item values
+	 */
+	public static ItemCollection createCopyOnWrite(final Map<String, List<Object>> map) {
+		ItemCollection copy = new ItemCollection();
+		copy.sharedHash = map;
+		return copy;
+	}
 	
 	/**
 	 * This method clones the current ItemCollection. The method makes a deep
@@ -150,7 +176,7 @@ public class ItemCollection implements Cloneable {
 		ItemCollection clone = (ItemCollection) this.clone();
 		// remove all undefined items
 		if (itemNames != null && itemNames.size() > 0) {
-			Iterator<?> it = hash.entrySet().iterator();
+			Iterator<?> it = new ArrayList<Object>(clone.getAllItems().entrySet()).iterator();
 			while (it.hasNext()) {
 				Map.Entry<String, List<Object>> entry = (Map.Entry<String, List<Object>>) it.next();
 				if (!itemNames.contains(entry.getKey())) {
@@ -168,7 +194,7 @@ public class ItemCollection implements Cloneable {
 	public boolean equals(Object o) {
 		if (!(o instanceof ItemCollection))
 			return false;
-		return hash.equals(((ItemCollection) o).hash);
+		return getAllItems().equals(((ItemCollection) o).getAllItems());
 	}
 
 	/**
@@ -177,6 +203,11 @@ public class ItemCollection implements Cloneable {
 	 * specified name exists, this method returns an empty vector. It does not
 	 * throw an exception. The ItemName is not case sensitive. Use hasItem to
 	 * verify the existence of an item.
+	 * <p>
+	 * The method returns the value list by reference and does not modify the
+	 * list. Null values are removed when an item value is set. So the list
+	 * returned by this method is null-free as long as the caller does not add
+	 * null values.
 	 * 
 	 * @param aName
 	 *            The name of an item.
@@ -184,24 +215,64 @@ public class ItemCollection implements Cloneable {
 	 *         value depends on the data type of the item.
 	 * 
 	 */
-	@SuppressWarnings("rawtypes")
+	@SuppressWarnings({ "rawtypes" })
 	public List getItemValue(String aName) {
 		if (aName == null) {
 			return null;
 		}
-		aName = aName.toLowerCase().trim();
+		aName = normalizeItemName(aName);
 		List<Object> o = hash.get(aName);
+		if (o == null && sharedHash != null) {
+			List<Object> sharedValue = sharedHash.get(aName);
+			if (sharedValue != null) {
+				// copy-on-write: the returned list may be modified by the caller
+				o = DeepCopier.copyOfItemValue(sharedValue);
+				hash.put(aName, o);
+			}
+		}
 		if (o == null)
 			return new Vector<Object>();
-		else {
-			List<Object> v = o;
-			// scan vector for null values
-			for (int i = 0; i < v.size(); i++) {
-				if (v.get(i) == null)
-					v.remove(i);
-			}
-			return v;
+		else
+			return o;
+	}
+
+	/**
+	 * Returns the value list of an item for read-only access. In difference to
+	 * getItemValue this method does not copy the value list of a copy-on-write
+	 * instance and does not create a new list for a missing item. The method has
+	 * no side effects. The returned list is an unmodifiable view of the value
+	 * list.
+	 * <p>
+	 * The method can be used to read many items of a document, e.g. to build a
+	 * search index, without copying the value lists.
+	 * 
+	 * @param aName
+	 * @return value list - or an empty list if the item does not exist
+	 */
+	public List<?> readItemValue(String aName) {
+		return Collections.unmodifiableList(getItemValueList(aName));
+	}
+
+	/**
+	 * Returns the internal value list of an item without copying it. Used by
+	 * the typed getters to read the first value.
+	 * 
+	 * @param aName
+	 * @return value list - or an empty list if the item does not exist
+	 */
+	private List<?> getItemValueList(String aName) {
+		if (aName == null) {
+			return Collections.emptyList();
+		}
+		String name = normalizeItemName(aName);
+		List<Object> o = hash.get(name);
+		if (o == null && sharedHash != null) {
+			o = sharedHash.get(name);
 		}
+		if (o == null) {
+			return Collections.emptyList();
+		}
+		return o;
 	}
 
 	/**
@@ -218,7 +289,7 @@ public class ItemCollection implements Cloneable {
 	 * 
 	 */
 	public String getItemValueString(String aName) {
-		List<?> v = (List<?>) getItemValue(aName);
+		List<?> v = getItemValueList(aName);
 		if (v.size() == 0)
 			return "";
 		else {
@@ -247,8 +318,8 @@ public class ItemCollection implements Cloneable {
 	 */
 	public int getItemValueInteger(String aName) {
 		try {
-			List<?> v = getItemValue(aName);
-			if (v.size() == 0)
+			List<?> v = getItemValueList(aName);
+			if (v.size() == 0 || v.get(0) == null)
 				return 0;
 
 			String sValue = v.get(0).toString();
@@ -274,8 +345,8 @@ public class ItemCollection implements Cloneable {
 	 */
 	public long getItemValueLong(String aName) {
 		try {
-			List<?> v = getItemValue(aName);
-			if (v.size() == 0)
+			List<?> v = getItemValueList(aName);
+			if (v.size() == 0 || v.get(0) == null)
 				return 0;
 
 			String sValue = v.get(0).toString();
@@ -301,7 +372,7 @@ public class ItemCollection implements Cloneable {
 	 */
 	public Date getItemValueDate(String aName) {
 		try {
-			List<?> v = getItemValue(aName);
+			List<?> v = getItemValueList(aName);
 			if (v.size() == 0)
 				return null;
 
@@ -329,8 +400,8 @@ public class ItemCollection implements Cloneable {
 	 */
 	public double getItemValueDouble(String aName) {
 		try {
-			List<?> v = getItemValue(aName);
-			if (v.size() == 0)
+			List<?> v = getItemValueList(aName);
+			if (v.size() == 0 || v.get(0) == null)
 				return 0.0;
 			else {
 				// test for object type...
@@ -373,8 +444,8 @@ public class ItemCollection implements Cloneable {
 	 */
 	public float getItemValueFloat(String aName) {
 		try {
-			List<?> v = getItemValue(aName);
-			if (v.size() == 0)
+			List<?> v = getItemValueList(aName);
+			if (v.size() == 0 || v.get(0) == null)
 				return (float) 0.0;
 			else {
 				// test for object type...
@@ -421,8 +492,8 @@ public class ItemCollection implements Cloneable {
 	 */
 	public boolean getItemValueBoolean(String aName) {
 		try {
-			List<?> v = getItemValue(aName);
-			if (v.size() == 0)
+			List<?> v = getItemValueList(aName);
+			if (v.size() == 0 || v.get(0) == null)
 				return false;
 			Object sValue = v.get(0);// .firstElement().toString();
 			// return new Boolean(sValue).booleanValue();
@@ -445,8 +516,8 @@ public class ItemCollection implements Cloneable {
 		if (aName == null) {
 			return false;
 		}
-		aName = aName.toLowerCase().trim();
-		return (hash.get(aName) != null);
+		aName = normalizeItemName(aName);
+		return (hash.get(aName) != null || (sharedHash != null && sharedHash.get(aName) != null));
 	}
 
 	/**
@@ -458,7 +529,7 @@ public class ItemCollection implements Cloneable {
 	 * 
 	 */
 	public boolean isItemValueInteger(String aName) {
-		List<?> v = getItemValue(aName);
+		List<?> v = getItemValueList(aName);
 		if (v.size() == 0)
 			return false;
 		else {
@@ -477,7 +548,7 @@ public class ItemCollection implements Cloneable {
 	 * 
 	 */
 	public boolean isItemValueLong(String aName) {
-		List<?> v = getItemValue(aName);
+		List<?> v = getItemValueList(aName);
 		if (v.size() == 0)
 			return false;
 		else {
@@ -496,7 +567,7 @@ public class ItemCollection implements Cloneable {
 	 * 
 	 */
 	public boolean isItemValueDouble(String aName) {
-		List<?> v = getItemValue(aName);
+		List<?> v = getItemValueList(aName);
 		if (v.size() == 0)
 			return false;
 		else {
@@ -515,7 +586,7 @@ public class ItemCollection implements Cloneable {
 	 * 
 	 */
 	public boolean isItemValueFloat(String aName) {
-		List<?> v = getItemValue(aName);
+		List<?> v = getItemValueList(aName);
 		if (v.size() == 0)
 			return false;
 		else {
@@ -533,7 +604,7 @@ public class ItemCollection implements Cloneable {
 	 * 
 	 */
 	public boolean isItemValueDate(String aName) {
-		List<?> v = getItemValue(aName);
+		List<?> v = getItemValueList(aName);
 		if (v.size() == 0)
 			return false;
 		else {
@@ -549,6 +620,15 @@ public class ItemCollection implements Cloneable {
 	 * @return Map with all Items
 	 */
 	public Map<String, List<Object>> getAllItems() {
+		if (sharedHash != null) {
+			// copy all items of a copy-on-write instance
+			for (Map.Entry<String, List<Object>> entry : sharedHash.entrySet()) {
+				if (!hash.containsKey(entry.getKey())) {
+					hash.put(entry.getKey(), DeepCopier.copyOfItemValue(entry.getValue()));
+				}
+			}
+			sharedHash = null;
+		}
 		return hash;
 
 	}
@@ -562,6 +642,7 @@ public class ItemCollection implements Cloneable {
 	 */
 	public void setAllItems(Map<String, List<Object>> aHash) {
 		hash = aHash;
+		sharedHash = null;
 
 	}
 
@@ -635,7 +716,7 @@ public class ItemCollection implements Cloneable {
 		if (itemName == null)
 			return;
 		// lower case itemname
-		itemName = itemName.toLowerCase().trim();
+		itemName = normalizeItemName(itemName);
 
 		// test if value is null
 		if (itemValue == null) {
@@ -672,9 +753,8 @@ public class ItemCollection implements Cloneable {
 				}
 			}
 		} else {
-			// create an instance of Vector
-			itemValueList = new Vector<Object>();
-			itemValueList.add(itemValue);
+			// create a compact list for the single value
+			itemValueList = new SingleValueList<Object>(itemValue);
 		}
 
 		// now itemValue is of instance List
@@ -699,19 +779,18 @@ public class ItemCollection implements Cloneable {
 	 * Replaces all items specified in the map with new items, which are
 	 * assigned to the specified values inside the map.
 	 * 
-	 * The method makes a deep copy of the source map using serialization. This
-	 * is to make sure, that no object reference is copied. Other wise for
-	 * example embedded arrays are not cloned. This is also important for JPA to
-	 * avoid changes of attached entity beans with references in the data of an
-	 * ItemCollection.
+	 * The method makes a deep copy of the source map. This is to make sure, that
+	 * no object reference is copied. Other wise for example embedded arrays are
+	 * not cloned. This is also important for JPA to avoid changes of attached
+	 * entity beans with references in the data of an ItemCollection.
 	 * 
-	 * @see deepCopyOfMap
+	 * @see DeepCopier
 	 * @param map
 	 */
 	@SuppressWarnings("unchecked")
 	public void replaceAllItems(Map<String, List<Object>> map) {
 		// make a deep copy of the map
-		Map<String, List<Object>> clonedMap = (Map<String, List<Object>>) deepCopyOfMap(map);
+		Map<String, List<Object>> clonedMap = DeepCopier.copyOfMap(map);
 		Iterator<?> it = clonedMap.entrySet().iterator();
 		while (it.hasNext()) {
 			Map.Entry<String, List<Object>> entry = (Map.Entry<String, List<Object>>) it.next();
@@ -719,36 +798,6 @@ public class ItemCollection implements Cloneable {
 		}
 	}
 
-	/**
-	 * This helper method makes a deep copy of a map by serializing and
-	 * deserializing.
-	 * 
-	 * It is assumed that all elements in the object's source graph are
-	 * serializable.
-	 * 
-	 * @see http://www.javaworld.com/article/2077578/learn-java/java-tip-76--an-alternative-to-the-deep-copy-technique.html
-	 * @param map
-	 * @return
-	 */
-	private Object deepCopyOfMap(Map<String, List<Object>> map) {
-		try {
-			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			ObjectOutputStream oos = new ObjectOutputStream(bos);
-			// serialize and pass the object
-			oos.writeObject(map);
-			oos.flush();
-			ByteArrayInputStream bais = new ByteArrayInputStream(bos.toByteArray());
-			ObjectInputStream ois = new ObjectInputStream(bais);
-			return ois.readObject();
-		} catch (IOException e) {
-			logger.warning("Unable to clone values of ItemCollection - " + e);
-			return null;
-		} catch (ClassNotFoundException e) {
-			logger.warning("Unable to clone values of ItemCollection - " + e);
-			return null;
-		}
-	}
-
 	/**
 	 * removes a attribute from the item collection
 	 * 
@@ -756,7 +805,10 @@ public class ItemCollection implements Cloneable {
 	 */
 	public void removeItem(String name) {
 		if (name != null) {
-			name = name.toLowerCase().trim();
+			name = normalizeItemName(name);
+			if (sharedHash != null && sharedHash.containsKey(name)) {
+				getAllItems();
+			}
 			this.hash.remove(name);
 		}
 	}
@@ -809,6 +861,12 @@ public class ItemCollection implements Cloneable {
 	/**
 	 * Returns a data object for a attached file. The data object is a list
 	 * containing the contentType (String) and the content (byte[])
+	 * <p>
+	 * A document loaded by the DocumentService contains only a reference to the
+	 * content of a file. In this case the content is null and the list contains
+	 * the digest and the size of the content as additional elements. The content
+	 * can be loaded by the methods getFile() and loadFiles() of the
+	 * DocumentService.
 	 * 
 	 * @param filename
 	 * @return file data contentType (String) and the content (byte[])
@@ -844,6 +902,9 @@ public class ItemCollection implements Cloneable {
 	 * Map interface where the key is the filename and the value is a list with
 	 * two elements - the ContenType and the file content (byte[]). s Files can
 	 * be added into a ItemCollection using the method addFile().
+	 * <p>
+	 * The content of a file referred by a document loaded by the DocumentService
+	 * is null. See getFile(String).
 	 * 
 	 * @return
 	 */
@@ -912,6 +973,56 @@ public class ItemCollection implements Cloneable {
 		return new ItemListArrayAdapter(this);
 	}
 
+	/**
+	 * Returns the normalized item name. Item names are lower cased and trimmed.
+	 * Names which are already normalized (e.g. WorkflowKernel.PROCESSID) are
+	 * returned without creating a new String. All other names are normalized
+	 * once and cached, so the same name instance is used as the key in all
+	 * ItemCollections.
+	 * 
+	 * @param name
+	 *            - item name
+	 * @return normalized item name
+	 */
+	public static String normalizeItemName(String name) {
+		if (isNormalizedItemName(name)) {
+			return name;
+		}
+		String result = itemNameCache.get(name);
+		if (result == null) {
+			result = name.toLowerCase().trim();
+			if (itemNameCache.size() < MAX_ITEMNAME_CACHE_SIZE) {
+				itemNameCache.put(name, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if the name is lower cased and has no leading or trailing
+	 * whitespace.
+	 */
+	private static boolean isNormalizedItemName(String name) {
+		int length = name.length();
+		if (length == 0) {
+			return true;
+		}
+		if (name.charAt(0) <= ' ' || name.charAt(length - 1) <= ' ') {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			char c = name.charAt(i);
+			if (c < 128) {
+				if (c >= 'A' && c <= 'Z') {
+					return false;
+				}
+			} else if (Character.isSurrogate(c) || Character.toLowerCase(c) != c) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/*
 	 * convenience methods
 	 */
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ *  Imixs Workflow
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,
+ *  http://www.imixs.com
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *
+ *  Project:
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *
+ *  Contributors:
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+
+package org.imixs.workflow;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The ItemCollectionScriptMap adapts an ItemCollection to be used as a script
+ * object by the RuleEngine (e.g. 'workitem' or 'event'). An item value is
+ * resolved on first access and cached for the lifetime of the map, which is
+ * one script evaluation. So the cost of an evaluation depends on the number of
+ * items accessed by the script and not on the size of the document.
+ * <p>
+ * Each item is provided as an Object array with its values. Only items with a
+ * basic value type are visible. The item names are lower case. Values changed
+ * by the script are stored in the map and not in the ItemCollection.
+ * 
+ * @author rsoika
+ * @version 1.0
+ * @see org.imixs.workflow.RuleEngine
+ */
+class ItemCollectionScriptMap extends AbstractMap<String, Object> {
+
+	private final ItemCollection itemCollection;
+	// resolved or changed values. A null value marks an item without a value
+	private final Map<String, Object> values = new HashMap<String, Object>();
+	private boolean complete = false;
+
+	public ItemCollectionScriptMap(ItemCollection itemCollection) {
+		super();
+		this.itemCollection = itemCollection;
+	}
+
+	@Override
+	public Object get(Object key) {
+		if (!(key instanceof String)) {
+			return null;
+		}
+		String name = (String) key;
+		if (values.containsKey(name)) {
+			return values.get(name);
+		}
+		Object value = null;
+		// item names are lower case in the script
+		if (!complete && name.equals(ItemCollection.normalizeItemName(name))) {
+			value = toScriptValue(itemCollection.readItemValue(name));
+		}
+		values.put(name, value);
+		return value;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		Object oldValue = get(key);
+		values.put(key, value);
+		return oldValue;
+	}
+
+	@Override
+	public Object remove(Object key) {
+		Object oldValue = get(key);
+		if (key instanceof String) {
+			values.put((String) key, null);
+		}
+		return oldValue;
+	}
+
+	/**
+	 * Resolves all items of the ItemCollection. This is only needed if the script
+	 * object is iterated.
+	 */
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		if (!complete) {
+			for (Map.Entry<String, List<Object>> entry : itemCollection.getAllItems().entrySet()) {
+				if (!values.containsKey(entry.getKey())) {
+					values.put(entry.getKey(), toScriptValue(entry.getValue()));
+				}
+			}
+			complete = true;
+		}
+		Set<Map.Entry<String, Object>> result = new HashSet<Map.Entry<String, Object>>();
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			if (entry.getValue() != null) {
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Converts a value list into an Object array. Returns null if the list is
+	 * empty or the first value is not a basic type.
+	 */
+	private Object toScriptValue(List<?> value) {
+		if (value == null || value.size() == 0 || value.get(0) == null) {
+			return null;
+		}
+		if (!RuleEngine.isBasicObjectType(value.get(0).getClass())) {
+			return null;
+		}
+		return value.toArray();
+	}
+}
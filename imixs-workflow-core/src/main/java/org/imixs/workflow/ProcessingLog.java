@@ -0,0 +1,132 @@
+/*******************************************************************************
+ *  Imixs Workflow
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,
+ *  http://www.imixs.com
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *
+ *  Project:
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *
+ *  Contributors:
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+
+package org.imixs.workflow;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ProcessingLog is a ring buffer used by the WorkflowKernel to record the
+ * plugins executed during the processing of an event. Each record consists of
+ * the index of the plugin in the plugin registry and the System.nanoTime() when
+ * the plugin finished. The records are stored in primitive arrays and only
+ * formatted if the log is printed (e.g. in case of a plugin error).
+ * 
+ * @author rsoika
+ * @version 1.0
+ * @see org.imixs.workflow.WorkflowKernel
+ */
+class ProcessingLog {
+
+	static final DateTimeFormatter ISO8601_FORMATTER = DateTimeFormatter.ofPattern(WorkflowKernel.ISO8601_FORMAT);
+
+	private final int[] pluginIndexes;
+	private final long[] nanoTimes;
+	private int next = 0;
+	private int size = 0;
+	// used to compute the wall clock time of a record
+	private final long baseMillis;
+	private final long baseNanos;
+
+	ProcessingLog(int capacity) {
+		pluginIndexes = new int[capacity];
+		nanoTimes = new long[capacity];
+		baseMillis = System.currentTimeMillis();
+		baseNanos = System.nanoTime();
+	}
+
+	/**
+	 * Adds a new record. If the buffer is full, the oldest record is
+	 * overwritten.
+	 * 
+	 * @param pluginIndex
+	 * @param nanoTime
+	 */
+	void add(int pluginIndex, long nanoTime) {
+		pluginIndexes[next] = pluginIndex;
+		nanoTimes[next] = nanoTime;
+		next = (next + 1) % pluginIndexes.length;
+		if (size < pluginIndexes.length) {
+			size++;
+		}
+	}
+
+	void clear() {
+		next = 0;
+		size = 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the plugin index of a record. The index 0 is the oldest record.
+	 */
+	int getPluginIndex(int i) {
+		return pluginIndexes[position(i)];
+	}
+
+	/**
+	 * Returns the nano time of a record. The index 0 is the oldest record.
+	 */
+	long getNanoTime(int i) {
+		return nanoTimes[position(i)];
+	}
+
+	/**
+	 * Formats the records in the format 'timestamp pluginclass'.
+	 * 
+	 * @param plugins
+	 *            - the plugin registry
+	 * @return list of log entries
+	 */
+	List<String> format(List<Plugin> plugins) {
+		List<String> result = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			int pluginIndex = getPluginIndex(i);
+			String pluginName = (pluginIndex < plugins.size()) ? plugins.get(pluginIndex).getClass().getName()
+					: "plugin[" + pluginIndex + "]";
+			long millis = baseMillis + (getNanoTime(i) - baseNanos) / 1000000;
+			result.add(ISO8601_FORMATTER.format(Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault())) + " "
+					+ pluginName);
+		}
+		return result;
+	}
+
+	private int position(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		}
+		return (next - size + i + pluginIndexes.length) % pluginIndexes.length;
+	}
+}
@@ -2,21 +2,31 @@ package org.imixs.workflow;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
+import javax.script.SimpleBindings;
 
 import org.imixs.workflow.exceptions.PluginException;
 
@@ -73,19 +83,62 @@ import org.imixs.workflow.exceptions.PluginException;
  * 
  * NOTE: all variable names are case sensitive! All JSON object elements are
  * lower case!
+ * <p>
+ * Creating a ScriptEngine and parsing a script is expensive. For that reason
+ * the RuleEngine does not create a new engine per instance. The script engines
+ * are held in a pool shared by all threads. A RuleEngine instance takes an
+ * engine from the pool and uses it exclusively, because a ScriptEngine like
+ * Nashorn is not thread safe. The method close() resets the engine to an empty
+ * global scope and returns it to the pool. An instance which is not closed
+ * does not return its engine, so the engine is garbage collected with the
+ * instance. A RuleEngine instance must not be shared between threads.
+ * <p>
+ * Scripts are compiled once per engine (if the engine implements the interface
+ * Compilable), because a compiled script is evaluated by the engine which
+ * compiled it. The compiled scripts are held in a bounded LRU cache shared by
+ * all threads. Each RuleEngine instance evaluates its scripts in its own global
+ * scope (Bindings), so script variables of one instance are not visible to
+ * other instances. After each evaluation the engine is reset to an empty
+ * global scope, so the engine does not hold a reference to the last workitem.
+ * <p>
+ * The objects 'workitem' and 'event' are provided as an
+ * ItemCollectionScriptMap. Item values are resolved only if the script
+ * accesses the item.
  * 
  * @author Ralph Soika
  * @version 3.0
  * 
  */
-public class RuleEngine {
+public class RuleEngine implements AutoCloseable {
 	public static final String DEFAULT_SCRIPT_LANGUAGE = "javascript";
 	public static final String INVALID_SCRIPT = "INVALID_SCRIPT";
+	// max number of compiled scripts in the shared cache
+	public static final int SCRIPT_CACHE_SIZE = 500;
+	// max number of idle script engines per language in the pool
+	public static final int ENGINE_POOL_SIZE = 16;
 	private static Logger logger = Logger.getLogger(RuleEngine.class.getName());
 
+	private static ScriptEngineManager sharedScriptEngineManager = null;
+	// idle script engines per language
+	private static final Map<String, Deque<ScriptEngine>> enginePool = new HashMap<String, Deque<ScriptEngine>>();
+	// access ordered map used as a LRU cache
+	private static final Map<ScriptKey, CompiledScript> scriptCache = Collections
+			.synchronizedMap(new LinkedHashMap<ScriptKey, CompiledScript>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<ScriptKey, CompiledScript> eldest) {
+					return size() > SCRIPT_CACHE_SIZE;
+				}
+			});
+	private static final AtomicLong scriptCacheHits = new AtomicLong();
+	private static final AtomicLong scriptCacheMisses = new AtomicLong();
+
 	ScriptEngineManager scriptEngineManager;
 	ScriptEngine scriptEngine = null;
 	String scriptLanguage;
+	// global scope of this instance
+	private Bindings bindings = null;
 
 	/**
 	 * This method initializes the default script engine.
@@ -111,14 +164,29 @@ public class RuleEngine {
 	 * @param scriptLanguage
 	 */
 	void init(String scriptLanguage) {
-		this.scriptLanguage = scriptLanguage;
 		// set default engine to javascript if no engine is specified
 		if ("".equals(scriptLanguage)) {
 			scriptLanguage = DEFAULT_SCRIPT_LANGUAGE;
 		}
-		// initialize the script engine...
-		scriptEngineManager = new ScriptEngineManager();
-		scriptEngine = scriptEngineManager.getEngineByName(scriptLanguage);
+		this.scriptLanguage = scriptLanguage;
+		// get a script engine from the pool...
+		scriptEngineManager = getSharedScriptEngineManager();
+		scriptEngine = borrowScriptEngine(scriptLanguage);
+		bindings = null;
+	}
+
+	/**
+	 * Resets the script engine to an empty global scope and returns it to the
+	 * pool. The instance can not be used after this method was called.
+	 */
+	@Override
+	public void close() {
+		if (scriptEngine != null) {
+			releaseBindings();
+			returnScriptEngine(scriptLanguage, scriptEngine);
+			scriptEngine = null;
+		}
+		bindings = null;
 	}
 
 	/**
@@ -131,14 +199,183 @@ public class RuleEngine {
 	}
 
 	/**
-	 * Returns the instance of the current ScriptEngine
+	 * Returns the instance of the current ScriptEngine. The engine is used
+	 * exclusively by this RuleEngine instance until the method close() is
+	 * called. The engine is bound to the global scope of this instance, so
+	 * script variables can be read by the method get(). The engine stays bound
+	 * to this scope until the next evaluation. To read a script variable the
+	 * method getVariable() should be used.
 	 * 
 	 * @return
 	 */
 	public ScriptEngine getScriptEngine() {
+		if (scriptEngine != null) {
+			activateBindings();
+		}
 		return scriptEngine;
 	}
 
+	/**
+	 * Returns the value of a script variable from the global scope of this
+	 * instance.
+	 * 
+	 * @param variable
+	 * @return value of the variable or null if not defined
+	 */
+	public Object getVariable(String variable) {
+		if (scriptEngine == null) {
+			return null;
+		}
+		try {
+			activateBindings();
+			return scriptEngine.get(variable);
+		} finally {
+			releaseBindings();
+		}
+	}
+
+	/**
+	 * Returns the number of script evaluations served by the compiled script
+	 * cache.
+	 * 
+	 * @return
+	 */
+	public static long getScriptCacheHits() {
+		return scriptCacheHits.get();
+	}
+
+	/**
+	 * Returns the number of script evaluations which needed to compile the
+	 * script.
+	 * 
+	 * @return
+	 */
+	public static long getScriptCacheMisses() {
+		return scriptCacheMisses.get();
+	}
+
+	/**
+	 * Evaluates a script in the global scope of this instance. The script is
+	 * compiled once and cached if the engine supports the interface Compilable.
+	 * 
+	 * @param script
+	 * @return result of the script
+	 * @throws ScriptException
+	 */
+	Object eval(String script) throws ScriptException {
+		activateBindings();
+		if (!(scriptEngine instanceof Compilable)) {
+			return scriptEngine.eval(script);
+		}
+		ScriptKey key = new ScriptKey(scriptEngine, script);
+		CompiledScript compiledScript = scriptCache.get(key);
+		if (compiledScript == null) {
+			scriptCacheMisses.incrementAndGet();
+			// the engine is used exclusively by this instance
+			compiledScript = ((Compilable) scriptEngine).compile(script);
+			scriptCache.put(key, compiledScript);
+		} else {
+			scriptCacheHits.incrementAndGet();
+		}
+		return compiledScript.eval();
+	}
+
+	/**
+	 * Binds the script engine to the global scope of this instance. The scope is
+	 * created on first usage.
+	 */
+	private void activateBindings() {
+		if (bindings == null) {
+			bindings = scriptEngine.createBindings();
+		}
+		if (scriptEngine.getBindings(ScriptContext.ENGINE_SCOPE) != bindings) {
+			scriptEngine.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+		}
+	}
+
+	/**
+	 * Resets the pooled script engine to an empty global scope. The global scope
+	 * of this instance is bound again by the next evaluation.
+	 */
+	private void releaseBindings() {
+		if (scriptEngine != null) {
+			scriptEngine.setBindings(new SimpleBindings(), ScriptContext.ENGINE_SCOPE);
+		}
+	}
+
+	/**
+	 * Returns the ScriptEngineManager shared by all RuleEngine instances.
+	 */
+	private static synchronized ScriptEngineManager getSharedScriptEngineManager() {
+		if (sharedScriptEngineManager == null) {
+			sharedScriptEngineManager = new ScriptEngineManager();
+		}
+		return sharedScriptEngineManager;
+	}
+
+	/**
+	 * Takes a script engine for the given language from the pool. A new engine
+	 * is created if the pool has no idle engine for the language.
+	 */
+	private static ScriptEngine borrowScriptEngine(String scriptLanguage) {
+		synchronized (enginePool) {
+			Deque<ScriptEngine> engines = enginePool.get(scriptLanguage);
+			if (engines != null && !engines.isEmpty()) {
+				return engines.pop();
+			}
+		}
+		ScriptEngineManager manager = getSharedScriptEngineManager();
+		synchronized (manager) {
+			return manager.getEngineByName(scriptLanguage);
+		}
+	}
+
+	/**
+	 * Returns a script engine to the pool. The engine must be reset to an empty
+	 * global scope before. If the pool holds ENGINE_POOL_SIZE idle engines for
+	 * the language, the engine is discarded.
+	 */
+	private static void returnScriptEngine(String scriptLanguage, ScriptEngine engine) {
+		synchronized (enginePool) {
+			Deque<ScriptEngine> engines = enginePool.get(scriptLanguage);
+			if (engines == null) {
+				engines = new ArrayDeque<ScriptEngine>();
+				enginePool.put(scriptLanguage, engines);
+			}
+			if (engines.size() < ENGINE_POOL_SIZE) {
+				engines.push(engine);
+			}
+		}
+	}
+
+	/**
+	 * Key of a compiled script. A compiled script is bound to the engine which
+	 * compiled it, so the key contains the engine instance and the script text.
+	 */
+	private static final class ScriptKey {
+		private final ScriptEngine engine;
+		private final String script;
+
+		ScriptKey(ScriptEngine engine, String script) {
+			this.engine = engine;
+			this.script = script;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ScriptKey)) {
+				return false;
+			}
+			ScriptKey other = (ScriptKey) obj;
+			return engine == other.engine && script.equals(other.script);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(engine) + script.hashCode();
+		}
+	}
+
 	/**
 	 * This method evaluates the business rule defined by the provided activity. The
 	 * method returns the instance of the script engine which can be used to
@@ -158,16 +395,19 @@ public class RuleEngine {
 			return null; // nothing to do
 
 		// set activity properties into engine
-		scriptEngine.put("event", convertItemCollection(event));
-		scriptEngine.put("workitem", convertItemCollection(documentContext));
+		activateBindings();
+		scriptEngine.put("event", new ItemCollectionScriptMap(event));
+		scriptEngine.put("workitem", new ItemCollectionScriptMap(documentContext));
 
 		logger.fine("SCRIPT:" + script);
 		try {
-			scriptEngine.eval(script);
+			eval(script);
 		} catch (ScriptException e) {
 			// script not valid
 			throw new PluginException(RuleEngine.class.getSimpleName(), INVALID_SCRIPT,
 					"BusinessRule contains invalid script:" + e.getMessage(), e);
+		} finally {
+			releaseBindings();
 		}
 
 		// get the optional result object
@@ -191,16 +431,19 @@ public class RuleEngine {
 			return false; // nothing to do
 
 		// set activity properties into engine
-		scriptEngine.put("workitem", convertItemCollection(documentContext));
+		activateBindings();
+		scriptEngine.put("workitem", new ItemCollectionScriptMap(documentContext));
 
 		logger.fine("SCRIPT:" + script);
 		Object result = null;
 		try {
-			result = scriptEngine.eval(script);
+			result = eval(script);
 		} catch (ScriptException e) {
 			// script not valid
 			throw new PluginException(RuleEngine.class.getSimpleName(), INVALID_SCRIPT,
 					"BusinessRule contains invalid script:" + e.getMessage(), e);
+		} finally {
+			releaseBindings();
 		}
 		if (result instanceof Boolean) {
 			return (boolean) result;
@@ -221,14 +464,28 @@ public class RuleEngine {
 	 * @return
 	 */
 	public Object[] evaluateNativeScriptArray(String expression) {
-		Object[] params = null;
-
 		if (scriptEngine == null) {
 			logger.severe("evaluateScritpObject error: no script engine! - call run()");
 			return null;
 		}
+		try {
+			return evaluateNativeScriptArrayInScope(expression);
+		} finally {
+			releaseBindings();
+		}
+	}
+
+	/**
+	 * Evaluates a script variable as an native Script array in the global scope
+	 * of this instance.
+	 * 
+	 * @see evaluateNativeScriptArray
+	 */
+	private Object[] evaluateNativeScriptArrayInScope(String expression) {
+		Object[] params = null;
 
 		// first test if expression is a basic string var
+		activateBindings();
 		Object objectResult = scriptEngine.get(expression);
 		if (objectResult != null && objectResult instanceof String) {
 			// just return a simple array with one value
@@ -247,7 +504,7 @@ public class RuleEngine {
 			String jsCode = "importPackage(java.util);" + "var _evaluateScriptParam = Arrays.asList(" + expression
 					+ "); ";
 			// pass a collection from javascript to java;
-			scriptEngine.eval(jsNashorn + jsCode);
+			eval(jsNashorn + jsCode);
 
 			@SuppressWarnings("unchecked")
 			List<Object> resultList = (List<Object>) scriptEngine.get("_evaluateScriptParam");
@@ -275,30 +532,6 @@ public class RuleEngine {
 
 	}
 
-	/**
-	 * This method converts the values of an ItemCollection into a Map Object with
-	 * Arrays of Objects for each value
-	 * 
-	 * @param itemCol
-	 * @return
-	 */
-	private Map<String, Object[]> convertItemCollection(ItemCollection itemCol) {
-		Map<String, Object[]> result = new HashMap<String, Object[]>();
-		Map<String, List<Object>> itemList = itemCol.getAllItems();
-		for (Map.Entry<String, List<Object>> entry : itemList.entrySet()) {
-			String key = entry.getKey().toLowerCase();
-			List<?> value = (List<?>) entry.getValue();
-			// do only put basic values
-			if (value.size() > 0) {
-				if (isBasicObjectType(value.get(0).getClass())) {
-					result.put(key, value.toArray());
-				}
-
-			}
-		}
-		return result;
-	}
-
 	/**
 	 * This method converts a JSON variable by name into a ItemCollection. The
 	 * variable is expected as a JSON object holding single values or arrays in the
@@ -323,7 +556,7 @@ public class RuleEngine {
 	public ItemCollection convertScriptVariableToItemCollection(String variable) {
 		ItemCollection result = null;
 		// get result object from engine
-		Map<String, Object> scriptResult = (Map) scriptEngine.get(variable);
+		Map<String, Object> scriptResult = (Map) getVariable(variable);
 		// test if the json object exists and has child objects...
 		if (scriptResult != null) {
 			result = new ItemCollection();
@@ -358,7 +591,7 @@ public class RuleEngine {
 
 	private static final HashSet<Class<?>> BASIC_OBJECT_TYPES = getBasicObjectTypes();
 
-	private static boolean isBasicObjectType(Class<?> clazz) {
+	static boolean isBasicObjectType(Class<?> clazz) {
 		return BASIC_OBJECT_TYPES.contains(clazz);
 	}
 
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ *  Imixs Workflow
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,
+ *  http://www.imixs.com
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *
+ *  Project:
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *
+ *  Contributors:
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Vector;
+
+/**
+ * The SingleValueList is a compact List implementation used by the
+ * ItemCollection to store single value items. The list holds the value in a
+ * single slot and switches to an internal ArrayList if more values are added.
+ * Most items of a workitem hold exactly one value, so this avoids the
+ * allocation of a Vector with its default capacity for each of these items.
+ * <p>
+ * The list is serialized as a Vector. So the persisted data format of an
+ * ItemCollection does not change.
+ * <p>
+ * Like a Vector, the methods accessing the values are synchronized on the
+ * list. So callers which synchronize on a value list returned by the
+ * ItemCollection, or share it between threads, keep the behavior of a Vector.
+ *
+ * @author rsoika
+ * @version 1.0
+ * @see org.imixs.workflow.ItemCollection
+ */
+public class SingleValueList<E> extends AbstractList<E> implements RandomAccess, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private E value = null;
+	private boolean hasValue = false;
+	// used if the list contains more than one value
+	private List<E> values = null;
+
+	/**
+	 * Creates an empty list
+	 */
+	public SingleValueList() {
+		super();
+	}
+
+	/**
+	 * Creates a list with one value
+	 *
+	 * @param value
+	 */
+	public SingleValueList(E value) {
+		super();
+		this.value = value;
+		this.hasValue = true;
+	}
+
+	@Override
+	public synchronized E get(int index) {
+		if (values != null) {
+			return values.get(index);
+		}
+		rangeCheck(index);
+		return value;
+	}
+
+	@Override
+	public synchronized E set(int index, E element) {
+		if (values != null) {
+			return values.set(index, element);
+		}
+		rangeCheck(index);
+		E oldValue = value;
+		value = element;
+		return oldValue;
+	}
+
+	@Override
+	public synchronized void add(int index, E element) {
+		modCount++;
+		if (values != null) {
+			values.add(index, element);
+			return;
+		}
+		if (!hasValue && index == 0) {
+			value = element;
+			hasValue = true;
+			return;
+		}
+		if (index < 0 || index > size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+		// switch to a list
+		values = new ArrayList<E>(4);
+		if (hasValue) {
+			values.add(value);
+		}
+		values.add(index, element);
+		value = null;
+		hasValue = false;
+	}
+
+	@Override
+	public synchronized E remove(int index) {
+		modCount++;
+		if (values != null) {
+			return values.remove(index);
+		}
+		rangeCheck(index);
+		E oldValue = value;
+		value = null;
+		hasValue = false;
+		return oldValue;
+	}
+
+	@Override
+	public synchronized int size() {
+		if (values != null) {
+			return values.size();
+		}
+		return hasValue ? 1 : 0;
+	}
+
+	/**
+	 * The list is serialized as a Vector to keep the data format of persisted
+	 * ItemCollections.
+	 */
+	private synchronized Object writeReplace() {
+		return new Vector<E>(this);
+	}
+
+	private void rangeCheck(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+	}
+}
@@ -27,9 +27,11 @@
 
 package org.imixs.workflow;
 
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -85,7 +87,12 @@ public class WorkflowKernel {
 	/** Plugin objects **/
 	private List<Plugin> pluginRegistry = null;
 	private WorkflowContext ctx = null;
-	private Vector<String> vectorEdgeHistory = new Vector<String>();
+	// processed edges encoded as (processid << 32 | activityid)
+	private long[] edgeHistory = new long[8];
+	private int edgeHistorySize = 0;
+	private ProcessingLog processingLog = new ProcessingLog(64);
+	// total runtime in nanoseconds per registered plugin
+	private long[] pluginRuntimes = new long[0];
 	private List<ItemCollection> splitWorkitems = null;
 	private RuleEngine ruleEngine = null;
 
@@ -177,27 +184,42 @@ public class WorkflowKernel {
 			if (logger.isLoggable(Level.FINE))
 				logger.info("register plugin class: " + pluginClass + "...");
 
-			Class<?> clazz = null;
 			try {
-				clazz = Class.forName(pluginClass);
-				Plugin plugin = (Plugin) clazz.newInstance();
-				registerPlugin(plugin);
-
+				registerPlugin(Class.forName(pluginClass));
 			} catch (ClassNotFoundException e) {
 				throw new PluginException(WorkflowKernel.class.getSimpleName(), PLUGIN_NOT_CREATEABLE,
 						"unable to register plugin: " + pluginClass + " - reason: " + e.toString(), e);
-			} catch (InstantiationException e) {
-				throw new PluginException(WorkflowKernel.class.getSimpleName(), PLUGIN_NOT_CREATEABLE,
-						"unable to register plugin: " + pluginClass + " - reason: " + e.toString(), e);
-			} catch (IllegalAccessException e) {
-				throw new PluginException(WorkflowKernel.class.getSimpleName(), PLUGIN_NOT_CREATEABLE,
-						"unable to register plugin: " + pluginClass + " - reason: " + e.toString(), e);
 			}
 
 		}
 
 	}
 
+	/**
+	 * This method registers a new plugin based on a plugin class. The plugin will
+	 * be instantiated by its default constructor. The method throws a
+	 * PluginException if the plugin class can not be created.
+	 * 
+	 * @param pluginClass
+	 * @throws PluginException
+	 */
+	public void registerPlugin(final Class<?> pluginClass) throws PluginException {
+		if (!Plugin.class.isAssignableFrom(pluginClass)) {
+			throw new PluginException(WorkflowKernel.class.getSimpleName(), PLUGIN_NOT_CREATEABLE,
+					"unable to register plugin: " + pluginClass.getName() + " - reason: no Plugin class");
+		}
+		try {
+			Plugin plugin = (Plugin) pluginClass.newInstance();
+			registerPlugin(plugin);
+		} catch (InstantiationException e) {
+			throw new PluginException(WorkflowKernel.class.getSimpleName(), PLUGIN_NOT_CREATEABLE,
+					"unable to register plugin: " + pluginClass.getName() + " - reason: " + e.toString(), e);
+		} catch (IllegalAccessException e) {
+			throw new PluginException(WorkflowKernel.class.getSimpleName(), PLUGIN_NOT_CREATEABLE,
+					"unable to register plugin: " + pluginClass.getName() + " - reason: " + e.toString(), e);
+		}
+	}
+
 	/**
 	 * This method removes a registered plugin based on its class name.
 	 * 
@@ -210,6 +232,7 @@ public class WorkflowKernel {
 		for (Plugin plugin : pluginRegistry) {
 			if (plugin.getClass().getName().equals(pluginClass)) {
 				pluginRegistry.remove(plugin);
+				pluginRuntimes = new long[0];
 				return;
 			}
 		}
@@ -227,6 +250,7 @@ public class WorkflowKernel {
 	public void unregisterAllPlugins() {
 		logger.fine("unregisterAllPlugins");
 		pluginRegistry = new ArrayList<Plugin>();
+		pluginRuntimes = new long[0];
 	}
 
 	/**
@@ -238,6 +262,24 @@ public class WorkflowKernel {
 		return pluginRegistry;
 	}
 
+	/**
+	 * Returns the total runtime of each registered plugin in nanoseconds measured
+	 * by all process calls of this kernel. The map is sorted in the order of the
+	 * plugin registry. The key is the plugin class name.
+	 * 
+	 * @return map of plugin class names and runtimes
+	 */
+	public Map<String, Long> getPluginRuntimes() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < pluginRegistry.size(); i++) {
+			String pluginName = pluginRegistry.get(i).getClass().getName();
+			long runtime = (i < pluginRuntimes.length) ? pluginRuntimes[i] : 0;
+			Long previous = result.get(pluginName);
+			result.put(pluginName, (previous == null) ? runtime : previous + runtime);
+		}
+		return result;
+	}
+
 	/**
 	 * Processes a workitem. The Workitem have at least provide the properties
 	 * PROCESSID and ACTIVITYID
@@ -255,7 +297,7 @@ public class WorkflowKernel {
 					"processing error: workitem is null");
 
 		ItemCollection documentResult = new ItemCollection(workitem);
-		vectorEdgeHistory = new Vector<String>();
+		edgeHistorySize = 0;
 
 		// check $processID
 		if (workitem.getItemValueInteger(PROCESSID) <= 0)
@@ -354,16 +396,16 @@ public class WorkflowKernel {
 	private ItemCollection processEvent(final ItemCollection documentContext, final ItemCollection event)
 			throws PluginException, ModelException {
 		ItemCollection documentResult = documentContext;
-		// log the general processing message
-		String msg = "processing=" + documentContext.getItemValueString(UNIQUEID) + ", MODELVERSION="
-				+ documentContext.getItemValueString(MODELVERSION) + ", $processid="
-				+ documentContext.getItemValueInteger(PROCESSID) + ", $activityid="
-				+ documentContext.getItemValueInteger(ACTIVITYID);
-
 		if (ctx == null) {
 			logger.warning("no WorkflowContext defined!");
 		}
-		logger.info(msg);
+		// log the general processing message
+		if (logger.isLoggable(Level.INFO)) {
+			logger.info("processing=" + documentContext.getItemValueString(UNIQUEID) + ", MODELVERSION="
+					+ documentContext.getItemValueString(MODELVERSION) + ", $processid="
+					+ documentContext.getItemValueInteger(PROCESSID) + ", $activityid="
+					+ documentContext.getItemValueInteger(ACTIVITYID));
+		}
 
 		// compute next task..
 		ItemCollection itemColNextTask = findNextTask(documentContext, event);
@@ -394,8 +436,7 @@ public class WorkflowKernel {
 		documentResult = logEvent(documentResult, event);
 
 		// put current edge in history
-		vectorEdgeHistory.addElement(
-				event.getItemValueInteger("numprocessid") + "." + event.getItemValueInteger("numactivityid"));
+		addEdge(event.getItemValueInteger("numprocessid"), event.getItemValueInteger("numactivityid"));
 
 		// evaluate a split-event and create new versions of the current process
 		// instance.
@@ -471,6 +512,24 @@ public class WorkflowKernel {
 		return itemColNextTask;
 	}
 
+	/**
+	 * This method evaluates the condition of a conditional or split event. Simple
+	 * expressions are evaluated by the ExpressionCompiler. All other expressions
+	 * are evaluated by the RuleEngine.
+	 * 
+	 * @param expression
+	 * @param documentContext
+	 * @return result of the condition
+	 * @throws PluginException
+	 */
+	private boolean evaluateCondition(String expression, ItemCollection documentContext) throws PluginException {
+		Boolean result = ExpressionCompiler.evaluate(expression, documentContext);
+		if (result != null) {
+			return result;
+		}
+		return ruleEngine.evaluateBooleanExpression(expression, documentContext);
+	}
+
 	/**
 	 * This method returns the first conditional Task or Event of a given Event
 	 * object. The method evaluates conditional expressions to 'true'. If no
@@ -501,7 +560,7 @@ public class WorkflowKernel {
 					String expression = entry.getValue();
 					if (key.startsWith("task=")) {
 						int taskID = Integer.parseInt(key.substring(5));
-						boolean bmatch = ruleEngine.evaluateBooleanExpression(expression, documentContext);
+						boolean bmatch = evaluateCondition(expression, documentContext);
 						if (bmatch) {
 							logger.fine("matching conditional event: " + expression);
 							ItemCollection conditionslTask = this.ctx.getModelManager()
@@ -514,7 +573,7 @@ public class WorkflowKernel {
 
 					if (key.startsWith("event=")) {
 						int eventID = Integer.parseInt(key.substring(6));
-						boolean bmatch = ruleEngine.evaluateBooleanExpression(expression, documentContext);
+						boolean bmatch = evaluateCondition(expression, documentContext);
 						if (bmatch) {
 							logger.fine("matching conditional event: " + expression);
 							// we update the documentContext....
@@ -575,7 +634,7 @@ public class WorkflowKernel {
 					String expression = entry.getValue();
 					if (key.startsWith("task=")) {
 						int taskID = Integer.parseInt(key.substring(5));
-						boolean bmatch = ruleEngine.evaluateBooleanExpression(expression, documentContext);
+						boolean bmatch = evaluateCondition(expression, documentContext);
 						if (bmatch) {
 							logger.fine("matching split Task found: " + expression);
 							ItemCollection itemColNextTask = this.ctx.getModelManager()
@@ -589,7 +648,7 @@ public class WorkflowKernel {
 
 					if (key.startsWith("event=")) {
 						int eventID = Integer.parseInt(key.substring(6));
-						boolean bmatch = ruleEngine.evaluateBooleanExpression(expression, documentContext);
+						boolean bmatch = evaluateCondition(expression, documentContext);
 						if (bmatch) {
 							logger.fine("matching split Event found: " + expression);
 							// we update the documentContext....
@@ -651,7 +710,7 @@ public class WorkflowKernel {
 					String expression = entry.getValue();
 					if (key.startsWith("task=")) {
 						// if a task evaluated to false, the model is invalid.
-						boolean bmatch = ruleEngine.evaluateBooleanExpression(expression, documentContext);
+						boolean bmatch = evaluateCondition(expression, documentContext);
 						if (!bmatch) {
 							String sErrorMessage = "Outcome of Split-Event " + event.getItemValueInteger("numProcessid")
 									+ "." + +event.getItemValueInteger("numActivityid") + " (" + event.getModelVersion()
@@ -664,7 +723,7 @@ public class WorkflowKernel {
 
 					if (key.startsWith("event=")) {
 						int eventID = Integer.parseInt(key.substring(6));
-						boolean bmatch = ruleEngine.evaluateBooleanExpression(expression, documentContext);
+						boolean bmatch = evaluateCondition(expression, documentContext);
 						if (!bmatch) {
 							logger.fine("matching conditional event: " + expression);
 							// we update the documentContext....
@@ -792,20 +851,21 @@ public class WorkflowKernel {
 	private ItemCollection logEvent(final ItemCollection documentContext, final ItemCollection event) {
 
 		ItemCollection documentResult = documentContext;
-		StringBuffer sLogEntry = new StringBuffer();
+		StringBuilder sLogEntry = new StringBuilder(64);
 		// 22.9.2004 13:50:41|modelversion|1000.90|1000|
 
-		sLogEntry.append(new SimpleDateFormat(ISO8601_FORMAT).format(new Date()));
+		ProcessingLog.ISO8601_FORMATTER.formatTo(LocalDateTime.now(), sLogEntry);
 
-		sLogEntry.append("|");
+		sLogEntry.append('|');
 		sLogEntry.append(documentContext.getItemValueString(MODELVERSION));
 
-		sLogEntry.append("|");
-		sLogEntry.append(event.getItemValueInteger("numprocessid") + "." + event.getItemValueInteger("numactivityid"));
+		sLogEntry.append('|');
+		sLogEntry.append(event.getItemValueInteger("numprocessid")).append('.')
+				.append(event.getItemValueInteger("numactivityid"));
 
-		sLogEntry.append("|");
+		sLogEntry.append('|');
 		sLogEntry.append(event.getItemValueInteger("numnextprocessid"));
-		sLogEntry.append("|");
+		sLogEntry.append('|');
 		
 		
 
@@ -870,11 +930,9 @@ public class WorkflowKernel {
 			logger.info("[loadEvent] WorkflowActivity: " + aProcessID + "." + aActivityID + " loaded successful");
 
 		// Check for loop in edge history
-		if (vectorEdgeHistory != null) {
-			if (vectorEdgeHistory.indexOf((aProcessID + "." + aActivityID)) != -1)
-				throw new ProcessingErrorException(WorkflowKernel.class.getSimpleName(), MODEL_ERROR,
-						"[loadEvent] loop detected " + aProcessID + "." + aActivityID + ","
-								+ vectorEdgeHistory.toString());
+		if (containsEdge(aProcessID, aActivityID)) {
+			throw new ProcessingErrorException(WorkflowKernel.class.getSimpleName(), MODEL_ERROR,
+					"[loadEvent] loop detected " + aProcessID + "." + aActivityID + "," + formatEdgeHistory());
 		}
 
 		return event;
@@ -891,11 +949,15 @@ public class WorkflowKernel {
 			throws PluginException {
 		ItemCollection documentResult = documentContext;
 		String sPluginName = null;
-		List<String> localPluginLog = new Vector<String>();
+		processingLog.clear();
+		if (pluginRuntimes.length < pluginRegistry.size()) {
+			pluginRuntimes = Arrays.copyOf(pluginRuntimes, pluginRegistry.size());
+		}
+		long lastTime = System.nanoTime();
 
 		try {
-			for (Plugin plugin : pluginRegistry) {
-
+			for (int i = 0; i < pluginRegistry.size(); i++) {
+				Plugin plugin = pluginRegistry.get(i);
 				sPluginName = plugin.getClass().getName();
 				if (logger.isLoggable(Level.FINE))
 					logger.info("running Plugin: " + sPluginName + "...");
@@ -903,18 +965,17 @@ public class WorkflowKernel {
 				documentResult = plugin.run(documentResult, event);
 				if (documentResult == null) {
 					logger.severe("[runPlugins] PLUGIN_ERROR: " + sPluginName);
-					for (String sLogEntry : localPluginLog)
+					for (String sLogEntry : processingLog.format(pluginRegistry))
 						logger.severe("[runPlugins]   " + sLogEntry);
 
 					throw new PluginException(WorkflowKernel.class.getSimpleName(), PLUGIN_ERROR,
 							"plugin: " + sPluginName + " returned null");
 				}
 				// write PluginLog
-				String sLog = new SimpleDateFormat(ISO8601_FORMAT).format(new Date());
-				sLog = sLog + " " + plugin.getClass().getName();
-
-				localPluginLog.add(sLog);
-
+				long time = System.nanoTime();
+				pluginRuntimes[i] += time - lastTime;
+				lastTime = time;
+				processingLog.add(i, time);
 			}
 			return documentResult;
 
@@ -924,7 +985,7 @@ public class WorkflowKernel {
 					"Plugin-Error at " + e.getErrorContext() + ": " + e.getErrorCode() + " (" + e.getMessage() + ")");
 			if (logger.isLoggable(Level.FINE)) {
 				logger.severe("Last Plugins run successfull:");
-				for (String sLogEntry : localPluginLog)
+				for (String sLogEntry : processingLog.format(pluginRegistry))
 					logger.severe("   ..." + sLogEntry);
 			}
 			throw e;
@@ -932,6 +993,48 @@ public class WorkflowKernel {
 
 	}
 
+	/**
+	 * Adds an edge (processid.activityid) to the edge history of the current
+	 * processing life-cycle.
+	 */
+	private void addEdge(int processID, int activityID) {
+		if (edgeHistorySize == edgeHistory.length) {
+			edgeHistory = Arrays.copyOf(edgeHistory, edgeHistorySize * 2);
+		}
+		edgeHistory[edgeHistorySize++] = toEdge(processID, activityID);
+	}
+
+	/**
+	 * Returns true if the edge is part of the edge history.
+	 */
+	private boolean containsEdge(int processID, int activityID) {
+		long edge = toEdge(processID, activityID);
+		for (int i = 0; i < edgeHistorySize; i++) {
+			if (edgeHistory[i] == edge) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Formats the edge history in the format [1000.10, 1000.20]
+	 */
+	private String formatEdgeHistory() {
+		StringBuilder result = new StringBuilder("[");
+		for (int i = 0; i < edgeHistorySize; i++) {
+			if (i > 0) {
+				result.append(", ");
+			}
+			result.append((int) (edgeHistory[i] >> 32)).append('.').append((int) edgeHistory[i]);
+		}
+		return result.append(']').toString();
+	}
+
+	private static long toEdge(int processID, int activityID) {
+		return ((long) processID << 32) | (activityID & 0xffffffffL);
+	}
+
 	private void closePlugins(boolean rollbackTransaction) throws PluginException {
 		for (int i = 0; i < pluginRegistry.size(); i++) {
 			Plugin plugin = (Plugin) pluginRegistry.get(i);
@@ -2,6 +2,7 @@ package org.imixs.workflow.bpmn;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -25,6 +26,10 @@ public class BPMNModel implements Model {
 
 	private Map<Integer, ItemCollection> taskList = null;
 	private Map<Integer, List<ItemCollection>> eventList = null;
+	// index of events by processid and activityid
+	private Map<Integer, Map<Integer, ItemCollection>> eventIndex = null;
+	// index of tasks by workflow group sorted by processid
+	private Map<String, Map<Integer, ItemCollection>> groupIndex = null;
 	private List<String> workflowGroups = null;
 	private ItemCollection definition = null;
 	private byte[] rawData = null;
@@ -33,6 +38,8 @@ public class BPMNModel implements Model {
 	public BPMNModel() {
 		taskList = new TreeMap<Integer, ItemCollection>();
 		eventList = new TreeMap<Integer, List<ItemCollection>>();
+		eventIndex = new HashMap<Integer, Map<Integer, ItemCollection>>();
+		groupIndex = new HashMap<String, Map<Integer, ItemCollection>>();
 		workflowGroups = new ArrayList<String>();
 	}
 
@@ -68,14 +75,14 @@ public class BPMNModel implements Model {
 	 * @return
 	 */
 	public ItemCollection getDefinition() {
-		return new ItemCollection(definition);
+		return ItemCollection.createCopyOnWrite(definition.getAllItems());
 	}
 
 	@Override
 	public ItemCollection getTask(int processid) throws ModelException {
 		ItemCollection process = taskList.get(processid);
 		if (process != null) {
-			return new ItemCollection(process);
+			return ItemCollection.createCopyOnWrite(process.getAllItems());
 		} else {
 			throw new ModelException(ModelException.UNDEFINED_MODEL_ENTRY,
 					"BPMN Task " + processid + " not defined by version '" + this.getVersion() + "'");
@@ -84,10 +91,11 @@ public class BPMNModel implements Model {
 
 	@Override
 	public ItemCollection getEvent(int processid, int activityid) throws ModelException {
-		List<ItemCollection> activities = findAllEventsByTask(processid);
-		for (ItemCollection aactivity : activities) {
-			if (activityid == aactivity.getItemValueInteger("numactivityid")) {
-				return new ItemCollection(aactivity);
+		Map<Integer, ItemCollection> activities = eventIndex.get(processid);
+		if (activities != null) {
+			ItemCollection aactivity = activities.get(activityid);
+			if (aactivity != null) {
+				return ItemCollection.createCopyOnWrite(aactivity.getAllItems());
 			}
 		}
 		// not found!
@@ -102,17 +110,17 @@ public class BPMNModel implements Model {
 	/**
 	 * Returns a list of all tasks. The result set is sorted by taskID.
 	 * 
-	 * The list is a clone of the internal map values!
+	 * The list contains copy-on-write instances of the internal map values!
 	 * 
 	 * @return list of tasks
 	 */
 	@Override
 	public List<ItemCollection> findAllTasks() {
 		List<ItemCollection> _tasks = new ArrayList<ItemCollection>(taskList.values());
-		// clone task list
+		// copy task list
 		ArrayList<ItemCollection> result = new ArrayList<ItemCollection>();
 		for (ItemCollection _task : _tasks) {
-			result.add(new ItemCollection(_task));
+			result.add(ItemCollection.createCopyOnWrite(_task.getAllItems()));
 		}
 		return result;
 
@@ -130,10 +138,10 @@ public class BPMNModel implements Model {
 		if (_events == null) {
 			return new ArrayList<ItemCollection>();
 		}
-		// clone event list
+		// copy event list
 		ArrayList<ItemCollection> result = new ArrayList<ItemCollection>();
 		for (ItemCollection _event : _events) {
-			result.add(new ItemCollection(_event));
+			result.add(ItemCollection.createCopyOnWrite(_event.getAllItems()));
 		}
 		return result;
 	}
@@ -146,10 +154,10 @@ public class BPMNModel implements Model {
 	public List<ItemCollection> findTasksByGroup(String group) {
 		List<ItemCollection> result = new ArrayList<ItemCollection>();
 		if (group != null && !group.isEmpty()) {
-			List<ItemCollection> allTasks = findAllTasks();
-			for (ItemCollection task : allTasks) {
-				if (group.equals(task.getItemValueString("txtworkflowgroup"))) {
-					result.add(task);
+			Map<Integer, ItemCollection> groupTasks = groupIndex.get(group);
+			if (groupTasks != null) {
+				for (ItemCollection task : groupTasks.values()) {
+					result.add(ItemCollection.createCopyOnWrite(task.getAllItems()));
 				}
 			}
 		}
@@ -157,7 +165,9 @@ public class BPMNModel implements Model {
 	}
 
 	protected void setDefinition(ItemCollection profile) {
-		this.definition = profile;
+		// the model entities are shared by copy-on-write instances and must not
+		// be changed from outside
+		this.definition = new ItemCollection(profile);
 	}
 
 	/**
@@ -181,7 +191,24 @@ public class BPMNModel implements Model {
 		if (!workflowGroups.contains(group)) {
 			workflowGroups.add(group);
 		}
-		taskList.put(entity.getItemValueInteger("numprocessid"), entity);
+		int pID = entity.getItemValueInteger("numprocessid");
+		ItemCollection task = new ItemCollection(entity);
+		ItemCollection oldTask = taskList.put(pID, task);
+
+		// update group index
+		if (oldTask != null) {
+			Map<Integer, ItemCollection> oldGroupTasks = groupIndex
+					.get(oldTask.getItemValueString("txtworkflowgroup"));
+			if (oldGroupTasks != null) {
+				oldGroupTasks.remove(pID);
+			}
+		}
+		Map<Integer, ItemCollection> groupTasks = groupIndex.get(group);
+		if (groupTasks == null) {
+			groupTasks = new TreeMap<Integer, ItemCollection>();
+			groupIndex.put(group, groupTasks);
+		}
+		groupTasks.put(pID, task);
 	}
 
 	/**
@@ -217,14 +244,28 @@ public class BPMNModel implements Model {
 					"Invalid Activiyt Entity - no numprocessid defined!");
 		}
 
-		List<ItemCollection> activities = findAllEventsByTask(pID);
-
+		List<ItemCollection> activities = eventList.get(pID);
+		if (activities == null) {
+			activities = new ArrayList<ItemCollection>();
+		}
 		activities.add(clonedEntity);
 
 		// sort event list
 		Collections.sort(activities, new ItemCollectionComparator("numactivityid", true));
 
 		eventList.put(pID, activities);
+
+		// update event index
+		Map<Integer, ItemCollection> eventsByID = eventIndex.get(pID);
+		if (eventsByID == null) {
+			eventsByID = new HashMap<Integer, ItemCollection>();
+			eventIndex.put(pID, eventsByID);
+		}
+		// the first event with a given id wins (same behavior as the sorted list)
+		int aID = clonedEntity.getItemValueInteger("numactivityid");
+		if (!eventsByID.containsKey(aID)) {
+			eventsByID.put(aID, clonedEntity);
+		}
 	}
 
 }
@@ -0,0 +1,271 @@
+package org.imixs.workflow.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.logging.Logger;
+
+import org.imixs.workflow.SingleValueList;
+
+/**
+ * The DeepCopier provides helper methods to make a deep copy of the item values
+ * stored in an ItemCollection.
+ * <p>
+ * The known value types of an item (String, Number, Boolean, Date, Calendar,
+ * byte[] and nested Lists and Maps like the file attachment structure of the
+ * item '$file') are copied structurally. Immutable values are shared. Java
+ * serialization is only used as a fallback for unknown Serializable types.
+ * This is much faster than serializing the whole value map and avoids the
+ * allocation of large byte buffers for file attachments.
+ *
+ * @author rsoika
+ *
+ */
+public class DeepCopier {
+
+	private static Logger logger = Logger.getLogger(DeepCopier.class.getName());
+
+	private static final Set<Class<?>> IMMUTABLE_TYPES = getImmutableTypes();
+
+	/**
+	 * This method makes a deep copy of a value map. The copy is a new Hashtable
+	 * holding a copy of each value list.
+	 *
+	 * @param map
+	 * @return deep copy of the map or null if the map is null
+	 */
+	public static Map<String, List<Object>> copyOfMap(Map<String, List<Object>> map) {
+		if (map == null) {
+			return null;
+		}
+		Map<String, List<Object>> result = new Hashtable<String, List<Object>>();
+		for (Map.Entry<String, List<Object>> entry : map.entrySet()) {
+			List<Object> value = copyOfItemValue(entry.getValue());
+			if (entry.getKey() != null && value != null) {
+				result.put(entry.getKey(), value);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * This method makes a deep copy of the value list of an item. Lists with
+	 * exactly one value are copied into a compact SingleValueList.
+	 *
+	 * @param list
+	 * @return deep copy of the list or null if the list is null
+	 */
+	public static List<Object> copyOfItemValue(List<Object> list) {
+		if (list != null && list.size() == 1) {
+			return new SingleValueList<Object>(copy(list.get(0)));
+		}
+		return copyOfList(list);
+	}
+
+	/**
+	 * This method makes a deep copy of a single object. Immutable objects are
+	 * returned as is. Lists, Maps, Arrays, Dates and Calendars are copied.
+	 * Unknown types are copied by serialization.
+	 *
+	 * @param value
+	 * @return deep copy of the object or null if the object can not be copied
+	 */
+	@SuppressWarnings("unchecked")
+	public static Object copy(Object value) {
+		if (value == null) {
+			return null;
+		}
+		Class<?> clazz = value.getClass();
+		if (IMMUTABLE_TYPES.contains(clazz) || value instanceof Enum) {
+			return value;
+		}
+		if (value instanceof byte[]) {
+			return ((byte[]) value).clone();
+		}
+		if (value instanceof Date) {
+			// also handles subclasses like java.sql.Timestamp
+			return ((Date) value).clone();
+		}
+		if (value instanceof Calendar) {
+			return ((Calendar) value).clone();
+		}
+		if (value instanceof List && isKnownListType(clazz)) {
+			return copyOfList((List<Object>) value);
+		}
+		if (value instanceof Map && isKnownMapType(clazz)) {
+			return copyOfMapValue((Map<Object, Object>) value);
+		}
+		if (clazz.isArray()) {
+			return copyOfArray(value);
+		}
+		// fallback
+		return copyBySerialization(value);
+	}
+
+	/**
+	 * This method makes a deep copy of an object by serializing and
+	 * deserializing. It is assumed that all elements in the object's source
+	 * graph are serializable.
+	 *
+	 * @see http://www.javaworld.com/article/2077578/learn-java/java-tip-76--an-alternative-to-the-deep-copy-technique.html
+	 * @param value
+	 * @return deep copy of the object or null if the object is not serializable
+	 */
+	public static Object copyBySerialization(Object value) {
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bos);
+			// serialize and pass the object
+			oos.writeObject(value);
+			oos.flush();
+			ByteArrayInputStream bais = new ByteArrayInputStream(bos.toByteArray());
+			ObjectInputStream ois = new ObjectInputStream(bais);
+			return ois.readObject();
+		} catch (IOException e) {
+			logger.warning("Unable to copy object of type '" + value.getClass().getName() + "' - " + e);
+			return null;
+		} catch (ClassNotFoundException e) {
+			logger.warning("Unable to copy object of type '" + value.getClass().getName() + "' - " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Copies a value list. The copy is of the same type as the source list for
+	 * ArrayList, LinkedList, Vector and SingleValueList. All other list types are
+	 * copied into an ArrayList.
+	 */
+	private static List<Object> copyOfList(List<Object> list) {
+		if (list == null) {
+			return null;
+		}
+		List<Object> result;
+		if (list instanceof SingleValueList) {
+			result = new SingleValueList<Object>();
+		} else if (list instanceof Vector) {
+			result = new Vector<Object>(list.size());
+		} else if (list instanceof LinkedList) {
+			result = new LinkedList<Object>();
+		} else {
+			result = new ArrayList<Object>(list.size());
+		}
+		for (Object element : list) {
+			result.add(copy(element));
+		}
+		return result;
+	}
+
+	/**
+	 * Copies a nested map (e.g. the file attachment map of the item '$file'). The
+	 * copy is of the same type as the source map.
+	 */
+	private static Map<Object, Object> copyOfMapValue(Map<Object, Object> map) {
+		Map<Object, Object> result;
+		if (map instanceof Hashtable) {
+			result = new Hashtable<Object, Object>();
+		} else if (map instanceof LinkedHashMap) {
+			result = new LinkedHashMap<Object, Object>();
+		} else if (map instanceof TreeMap) {
+			result = new TreeMap<Object, Object>(((TreeMap<Object, Object>) map).comparator());
+		} else {
+			result = new HashMap<Object, Object>();
+		}
+		for (Map.Entry<Object, Object> entry : map.entrySet()) {
+			Object value = copy(entry.getValue());
+			// Hashtable does not accept null values
+			if (value != null || !(result instanceof Hashtable)) {
+				result.put(entry.getKey(), value);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Copies an array. Primitive arrays are cloned, object arrays are copied
+	 * element by element.
+	 */
+	private static Object copyOfArray(Object array) {
+		if (array instanceof Object[]) {
+			Object[] source = (Object[]) array;
+			Object[] result = source.clone();
+			for (int i = 0; i < result.length; i++) {
+				result[i] = copy(source[i]);
+			}
+			return result;
+		}
+		if (array instanceof int[]) {
+			return ((int[]) array).clone();
+		}
+		if (array instanceof long[]) {
+			return ((long[]) array).clone();
+		}
+		if (array instanceof double[]) {
+			return ((double[]) array).clone();
+		}
+		if (array instanceof float[]) {
+			return ((float[]) array).clone();
+		}
+		if (array instanceof char[]) {
+			return ((char[]) array).clone();
+		}
+		if (array instanceof short[]) {
+			return ((short[]) array).clone();
+		}
+		if (array instanceof boolean[]) {
+			return ((boolean[]) array).clone();
+		}
+		return copyBySerialization(array);
+	}
+
+	/**
+	 * Returns true for list implementations which can be copied structurally
+	 * without changing the semantic of the list.
+	 */
+	private static boolean isKnownListType(Class<?> clazz) {
+		return clazz == ArrayList.class || clazz == Vector.class || clazz == LinkedList.class
+				|| clazz == SingleValueList.class
+				|| "java.util.Arrays$ArrayList".equals(clazz.getName());
+	}
+
+	/**
+	 * Returns true for map implementations which can be copied structurally
+	 * without changing the semantic of the map.
+	 */
+	private static boolean isKnownMapType(Class<?> clazz) {
+		return clazz == HashMap.class || clazz == LinkedHashMap.class || clazz == Hashtable.class
+				|| clazz == TreeMap.class;
+	}
+
+	private static Set<Class<?>> getImmutableTypes() {
+		Set<Class<?>> ret = new HashSet<Class<?>>();
+		ret.add(String.class);
+		ret.add(Boolean.class);
+		ret.add(Character.class);
+		ret.add(Byte.class);
+		ret.add(Short.class);
+		ret.add(Integer.class);
+		ret.add(Long.class);
+		ret.add(Float.class);
+		ret.add(Double.class);
+		ret.add(BigDecimal.class);
+		ret.add(BigInteger.class);
+		return ret;
+	}
+}
@@ -40,6 +40,7 @@ public class DocumentCollection implements java.io.Serializable {
 
 	private static final long serialVersionUID = 1L;
 	private XMLItemCollection[] document;
+	private String cursor;
 
 	public DocumentCollection() {
 		setDocument(new XMLItemCollection[] {});
@@ -53,6 +54,19 @@ public class DocumentCollection implements java.io.Serializable {
 		this.document = entity;
 	}
 
+	/**
+	 * Returns an optional cursor pointing to the next page of a search result.
+	 * 
+	 * @return cursor or null
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	public void setCursor(String cursor) {
+		this.cursor = cursor;
+	}
+
 	
 	
 	
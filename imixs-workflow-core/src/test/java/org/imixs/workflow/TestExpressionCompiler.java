@@ -0,0 +1,117 @@
+package org.imixs.workflow;
+
+import java.util.Arrays;
+
+import org.imixs.workflow.exceptions.PluginException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for the ExpressionCompiler. The results of the compiled
+ * expressions are verified against the RuleEngine.
+ * 
+ * @author rsoika
+ */
+public class TestExpressionCompiler {
+
+	static final String[] EXPRESSIONS = { "(workitem._budget && workitem._budget[0]>100)",
+			"(workitem._budget && workitem._budget[0]<=100)", "workitem._budget[0] > 1000",
+			"workitem._budget[0] >= 1500.5", "workitem._budget[0] === 1500", "workitem._budget[0] !== -5",
+			"workitem.txtname[0]=='Anna'", "workitem['txtname'][0] === \"Anna\"", "workitem.txtname[0] < 'B'",
+			"!workitem.txtname", "!(workitem.txtname[0]=='Anna') || workitem._flag[0]",
+			"workitem._missing == null", "workitem._missing === null", "workitem.txtname != null",
+			"workitem.txtName == null", "workitem.txtname.length > 1", "workitem.txtname[1] == 'Eddy'",
+			"workitem._flag[0] == true && workitem._budget[0] > 0;", "workitem._empty[0]", "workitem._empty[0]==''",
+			"workitem._zero[0] || workitem._budget[0] > 10", "workitem.txtname", "true", "false || null",
+			"workitem._budget[0] == '1500'", "workitem._long[0] > 1", "workitem._missing[0] > 1",
+			"workitem._budget[0] == 010", "workitem.txtname.indexOf('Anna')>-1", "workitem._budget[0] + 1 > 2",
+			"workitem._budget[0] > 1 > 0" };
+
+	/**
+	 * Verifies the results of the supported expressions against the RuleEngine.
+	 * Unsupported expressions must return null.
+	 * 
+	 * @throws PluginException
+	 */
+	@Test
+	public void testEvaluate() throws PluginException {
+		RuleEngine ruleEngine = new RuleEngine();
+		ItemCollection[] workitems = { createWorkitem(1500), createWorkitem(50), new ItemCollection() };
+		int compiled = 0;
+		for (String expression : EXPRESSIONS) {
+			for (ItemCollection workitem : workitems) {
+				Boolean result = ExpressionCompiler.evaluate(expression, workitem);
+				if (result != null) {
+					compiled++;
+					Assert.assertEquals(expression, ruleEngine.evaluateBooleanExpression(expression, workitem),
+							result.booleanValue());
+				}
+			}
+		}
+		Assert.assertTrue(compiled > 50);
+
+		// unsupported expressions
+		ItemCollection workitem = createWorkitem(1500);
+		Assert.assertNull(ExpressionCompiler.evaluate("workitem._budget[0] == '1500'", workitem));
+		Assert.assertNull(ExpressionCompiler.evaluate("workitem._long[0] > 1", workitem));
+		Assert.assertNull(ExpressionCompiler.evaluate("workitem._missing[0] > 1", workitem));
+		Assert.assertFalse(ExpressionCompiler.isCompilable("workitem._budget[0] == 010"));
+		Assert.assertFalse(ExpressionCompiler.isCompilable("workitem.txtname.indexOf('Anna')>-1"));
+		Assert.assertFalse(ExpressionCompiler.isCompilable("workitem._budget[0] > 1 > 0"));
+		Assert.assertTrue(ExpressionCompiler.isCompilable("workitem._budget[0] > 1000"));
+	}
+
+	/**
+	 * This test compares the throughput of gateway conditions evaluated by the
+	 * RuleEngine with the ExpressionCompiler.
+	 * 
+	 * @throws PluginException
+	 */
+	@Test
+	public void testPerformanceGatewayConditions() throws PluginException {
+		String[] conditions = { "workitem._budget[0] > 10000", "workitem._budget[0] > 1000",
+				"(workitem._budget && workitem._budget[0]>100)" };
+		ItemCollection workitem = createWorkitem(1500);
+		RuleEngine ruleEngine = new RuleEngine();
+		int loops = 5000;
+
+		// warm up
+		for (int i = 0; i < 200; i++) {
+			for (String condition : conditions) {
+				ruleEngine.evaluateBooleanExpression(condition, workitem);
+				ExpressionCompiler.evaluate(condition, workitem);
+			}
+		}
+
+		long l = System.nanoTime();
+		for (int i = 0; i < loops; i++) {
+			for (String condition : conditions) {
+				ruleEngine.evaluateBooleanExpression(condition, workitem);
+			}
+		}
+		long timeRuleEngine = System.nanoTime() - l;
+
+		l = System.nanoTime();
+		for (int i = 0; i < loops; i++) {
+			for (String condition : conditions) {
+				ExpressionCompiler.evaluate(condition, workitem);
+			}
+		}
+		long timeCompiler = System.nanoTime() - l;
+
+		System.out.println("Performancetest gateway conditions: RuleEngine="
+				+ (loops * 1000000000L / timeRuleEngine) + " gateways/s ExpressionCompiler="
+				+ (loops * 1000000000L / timeCompiler) + " gateways/s");
+	}
+
+	private ItemCollection createWorkitem(int budget) {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue("_budget", budget);
+		workitem.replaceItemValue("txtName", Arrays.asList("Anna", "Eddy"));
+		workitem.replaceItemValue("_flag", true);
+		workitem.replaceItemValue("_empty", "");
+		workitem.replaceItemValue("_zero", 0);
+		workitem.replaceItemValue("_long", 5L);
+		return workitem;
+	}
+}
@@ -1,11 +1,18 @@
 package org.imixs.workflow;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.imixs.workflow.util.DeepCopier;
 import org.imixs.workflow.xml.XMLItemCollection;
 import org.imixs.workflow.xml.XMLItemCollectionAdapter;
 import org.junit.Assert;
@@ -659,4 +666,216 @@ public class TestItemCollection {
 		
 	}
 
+
+	/**
+	 * This test verifies the copy-on-write mode of an ItemCollection. Changes
+	 * of the copy must never be reflected into the shared value map.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Test
+	public void testCopyOnWrite() {
+		ItemCollection source = new ItemCollection();
+		source.replaceItemValue("txtName", "Anna");
+		source.replaceItemValue("numValue", 1);
+		List<String> list = new Vector<String>();
+		list.add("a");
+		source.replaceItemValue("txtList", list);
+
+		ItemCollection copy = ItemCollection.createCopyOnWrite(source.getAllItems());
+		Assert.assertEquals("Anna", copy.getItemValueString("txtname"));
+		Assert.assertEquals(1, copy.getItemValueInteger("numvalue"));
+		Assert.assertTrue(copy.hasItem("txtList"));
+		Assert.assertFalse(copy.hasItem("txtUnknown"));
+
+		// modify an item of the copy
+		copy.replaceItemValue("txtName", "Manfred");
+		Assert.assertEquals("Manfred", copy.getItemValueString("txtname"));
+		Assert.assertEquals("Anna", source.getItemValueString("txtname"));
+
+		// modify a value list of the copy
+		List values = copy.getItemValue("txtList");
+		values.add("b");
+		copy.appendItemValue("txtList", "c");
+		Assert.assertEquals(3, copy.getItemValue("txtList").size());
+		Assert.assertEquals(1, source.getItemValue("txtList").size());
+
+		// remove an item of the copy
+		copy.removeItem("numValue");
+		Assert.assertFalse(copy.hasItem("numValue"));
+		Assert.assertTrue(source.hasItem("numValue"));
+
+		// test the map of all items
+		ItemCollection copy2 = ItemCollection.createCopyOnWrite(source.getAllItems());
+		Assert.assertEquals(source, copy2);
+		copy2.getAllItems().remove("txtname");
+		Assert.assertEquals("Anna", source.getItemValueString("txtname"));
+
+		// a clone of a copy-on-write instance is isolated from the copy
+		ItemCollection copy3 = ItemCollection.createCopyOnWrite(source.getAllItems());
+		copy3.replaceItemValue("txtName", "Eddy");
+		ItemCollection clone = (ItemCollection) copy3.clone();
+		Assert.assertEquals("Eddy", clone.getItemValueString("txtname"));
+		Assert.assertEquals(1, clone.getItemValueInteger("numvalue"));
+		clone.replaceItemValue("txtName", "Gaby");
+		Assert.assertEquals("Eddy", copy3.getItemValueString("txtname"));
+
+		// the typed getters read the shared value list without copying it
+		Date date = new Date();
+		source.replaceItemValue("datDate", date);
+		ItemCollection copy4 = ItemCollection.createCopyOnWrite(source.getAllItems());
+		Assert.assertSame(date, copy4.getItemValueDate("datdate"));
+		Date otherDate = new Date(date.getTime() + 1000);
+		source.getItemValue("datDate").set(0, otherDate);
+		Assert.assertSame(otherDate, copy4.getItemValueDate("datdate"));
+
+		// readItemValue returns a read-only view of the shared value list
+		List<?> readValues = copy4.readItemValue("txtList");
+		Assert.assertEquals(1, readValues.size());
+		try {
+			readValues.clear();
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		Assert.assertEquals(1, source.getItemValue("txtList").size());
+	}
+
+
+	/**
+	 * This test verifies the normalization of item names
+	 */
+	@Test
+	public void testNormalizeItemName() {
+		String name = WorkflowKernel.PROCESSID;
+		Assert.assertSame(name, ItemCollection.normalizeItemName(name));
+		Assert.assertEquals("txtname", ItemCollection.normalizeItemName("txtName"));
+		Assert.assertEquals("txtname", ItemCollection.normalizeItemName(" txtname "));
+		// the normalized name is cached
+		Assert.assertSame(ItemCollection.normalizeItemName("txtName"), ItemCollection.normalizeItemName("txtName"));
+		Assert.assertEquals("", ItemCollection.normalizeItemName(""));
+		Assert.assertEquals("\u00e4nderung", ItemCollection.normalizeItemName("\u00c4nderung"));
+	}
+
+	/**
+	 * This test verifies that single values are stored in a SingleValueList
+	 * which can be extended and is serialized as a Vector.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Test
+	public void testSingleValueList() {
+		ItemCollection itemCollection = new ItemCollection();
+		itemCollection.replaceItemValue("txtName", "Anna");
+		List values = itemCollection.getItemValue("txtName");
+		Assert.assertTrue(values instanceof SingleValueList);
+		Assert.assertEquals(1, values.size());
+		Assert.assertEquals("Anna", values.get(0));
+
+		// add values
+		values.add("Manfred");
+		values.add(0, "Eddy");
+		Assert.assertEquals(3, values.size());
+		Assert.assertEquals("Eddy", values.get(0));
+		Assert.assertEquals("Manfred", values.get(2));
+		itemCollection.appendItemValue("txtName", "Gaby");
+		Assert.assertEquals(4, itemCollection.getItemValue("txtName").size());
+
+		// remove values
+		SingleValueList<Object> list = new SingleValueList<Object>("a");
+		list.remove(0);
+		Assert.assertTrue(list.isEmpty());
+		list.add("b");
+		Assert.assertEquals("b", list.get(0));
+		Vector<Object> vector = new Vector<Object>();
+		vector.add("b");
+		Assert.assertEquals(vector, list);
+
+		// serialization
+		Object copy = DeepCopier.copyBySerialization(list);
+		Assert.assertTrue(copy instanceof Vector);
+		Assert.assertEquals(vector, copy);
+	}
+
+
+	/**
+	 * This test verifies that read access to an ItemCollection created by
+	 * reference has no side effects and can be done by several threads
+	 * concurrently.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		final Map<String, List<Object>> map = new Hashtable<String, List<Object>>();
+		List<Object> list = new ArrayList<Object>();
+		list.add("a");
+		list.add(null);
+		list.add("b");
+		map.put("txtlist", list);
+		List<Object> numbers = new ArrayList<Object>();
+		numbers.add(42);
+		map.put("numvalue", numbers);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int t = 0; t < 8; t++) {
+			results.add(executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					ItemCollection reader = ItemCollection.createByReference(map);
+					for (int i = 0; i < 10000; i++) {
+						if (!"a".equals(reader.getItemValueString("txtList"))
+								|| reader.getItemValue("txtList").size() != 3
+								|| reader.getItemValueInteger("numValue") != 42
+								|| !reader.hasItem("numValue")) {
+							return false;
+						}
+					}
+					return true;
+				}
+			}));
+		}
+		for (Future<Boolean> result : results) {
+			Assert.assertTrue(result.get());
+		}
+		executor.shutdown();
+
+		// the shared map was not modified
+		Assert.assertEquals(3, map.get("txtlist").size());
+	}
+
+	/**
+	 * This test verifies that null values are removed when an item value is
+	 * set.
+	 */
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testNullValuesAppendAndRead() {
+		ItemCollection itemCollection = new ItemCollection();
+		List<Object> list = new ArrayList<Object>();
+		list.add(null);
+		list.add("a");
+		list.add(null);
+		itemCollection.replaceItemValue("txtList", list);
+		List values = itemCollection.getItemValue("txtList");
+		Assert.assertEquals(1, values.size());
+		Assert.assertEquals("a", values.get(0));
+
+		list = new ArrayList<Object>();
+		list.add(null);
+		list.add("b");
+		itemCollection.appendItemValue("txtList", list);
+		Assert.assertEquals(2, itemCollection.getItemValue("txtList").size());
+
+		// null as first value of a map set by reference
+		Map<String, List<Object>> map = new Hashtable<String, List<Object>>();
+		List<Object> nullList = new ArrayList<Object>();
+		nullList.add(null);
+		map.put("numvalue", nullList);
+		itemCollection = ItemCollection.createByReference(map);
+		Assert.assertEquals(0, itemCollection.getItemValueInteger("numvalue"));
+		Assert.assertEquals(0, itemCollection.getItemValueDouble("numvalue"), 0);
+		Assert.assertFalse(itemCollection.getItemValueBoolean("numvalue"));
+		Assert.assertEquals("", itemCollection.getItemValueString("numvalue"));
+	}
+
 }
@@ -1,5 +1,7 @@
 package org.imixs.workflow;
 
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 
 import org.imixs.workflow.exceptions.PluginException;
@@ -73,4 +75,180 @@ public class TestRuleEngine {
 
 	}
 
+	/**
+	 * This test verifies that a compiled script is reused, that script variables
+	 * of one RuleEngine instance are not visible to another instance and that a
+	 * closed instance returns its engine to the pool.
+	 * 
+	 * @throws PluginException
+	 */
+	@Test
+	public void testScriptCache() throws PluginException {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue("_budget", 1000);
+		String script = "var isValid=false; (workitem._budget && workitem._budget[0]>100)";
+
+		long misses = RuleEngine.getScriptCacheMisses();
+		long hits = RuleEngine.getScriptCacheHits();
+		Assert.assertTrue(ruleEngine.evaluateBooleanExpression(script, workitem));
+		Assert.assertTrue(ruleEngine.evaluateBooleanExpression(script, workitem));
+		Assert.assertEquals(misses + 1, RuleEngine.getScriptCacheMisses());
+		Assert.assertEquals(hits + 1, RuleEngine.getScriptCacheHits());
+
+		// variables are bound to the instance
+		Assert.assertEquals(Boolean.FALSE, ruleEngine.getScriptEngine().get("isValid"));
+		RuleEngine otherRuleEngine = new RuleEngine();
+		Assert.assertNotSame(ruleEngine.getScriptEngine(), otherRuleEngine.getScriptEngine());
+		Assert.assertNull(otherRuleEngine.getScriptEngine().get("isValid"));
+		Assert.assertEquals(Boolean.FALSE, ruleEngine.getScriptEngine().get("isValid"));
+		otherRuleEngine.close();
+
+		// the engine is reset and reused with its compiled scripts
+		ScriptEngine engine = ruleEngine.getScriptEngine();
+		ruleEngine.close();
+		Assert.assertNull(engine.get("isValid"));
+		Assert.assertNull(ruleEngine.getScriptEngine());
+		RuleEngine pooledRuleEngine = new RuleEngine();
+		Assert.assertSame(engine, pooledRuleEngine.getScriptEngine());
+		Assert.assertNull(pooledRuleEngine.getVariable("isValid"));
+		Assert.assertTrue(pooledRuleEngine.evaluateBooleanExpression(script, workitem));
+		Assert.assertEquals(misses + 1, RuleEngine.getScriptCacheMisses());
+		Assert.assertEquals(hits + 2, RuleEngine.getScriptCacheHits());
+		pooledRuleEngine.close();
+	}
+
+	/**
+	 * This test verifies that the pooled script engine does not hold the
+	 * workitem after an evaluation. The variables of an instance are still
+	 * available.
+	 * 
+	 * @throws PluginException
+	 */
+	@Test
+	public void testReleaseBindings() throws PluginException {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue("_budget", 1000);
+		ItemCollection event = new ItemCollection();
+
+		Assert.assertTrue(ruleEngine.evaluateBooleanExpression("var isValid=true; workitem._budget[0]>100", workitem));
+		Assert.assertNull(ruleEngine.scriptEngine.getBindings(ScriptContext.ENGINE_SCOPE).get("workitem"));
+		Assert.assertEquals(Boolean.TRUE, ruleEngine.getVariable("isValid"));
+
+		ItemCollection result = ruleEngine.evaluateBusinessRule("var result={ someitem:'Hello World'};", workitem,
+				event);
+		Assert.assertEquals("Hello World", result.getItemValueString("someitem"));
+		Assert.assertNull(ruleEngine.scriptEngine.getBindings(ScriptContext.ENGINE_SCOPE).get("workitem"));
+		Assert.assertNull(ruleEngine.scriptEngine.getBindings(ScriptContext.ENGINE_SCOPE).get("event"));
+		Assert.assertNotNull(ruleEngine.getVariable("workitem"));
+
+		// an invalid script also releases the engine
+		try {
+			ruleEngine.evaluateBooleanExpression("workitem._budget[0]>", workitem);
+			Assert.fail();
+		} catch (PluginException e) {
+			Assert.assertNull(ruleEngine.scriptEngine.getBindings(ScriptContext.ENGINE_SCOPE).get("workitem"));
+		}
+	}
+
+	/**
+	 * This test compares the evaluation of a boolean expression by a new
+	 * ScriptEngine per evaluation with the pooled engine and the compiled script
+	 * cache.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testPerformanceBooleanExpression() throws Exception {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue("_budget", 1000);
+		String script = "(workitem._budget && workitem._budget[0]>100)";
+		int loops = 200;
+
+		// warm up
+		for (int i = 0; i < 20; i++) {
+			try (RuleEngine pooledRuleEngine = new RuleEngine()) {
+				pooledRuleEngine.evaluateBooleanExpression(script, workitem);
+			}
+		}
+
+		long l = System.nanoTime();
+		for (int i = 0; i < loops; i++) {
+			javax.script.ScriptEngine engine = new javax.script.ScriptEngineManager().getEngineByName("javascript");
+			engine.put("workitem", workitem.getAllItems());
+			engine.eval(script);
+		}
+		long timeUncached = (System.nanoTime() - l) / loops / 1000;
+
+		l = System.nanoTime();
+		for (int i = 0; i < loops; i++) {
+			try (RuleEngine pooledRuleEngine = new RuleEngine()) {
+				Assert.assertTrue(pooledRuleEngine.evaluateBooleanExpression(script, workitem));
+			}
+		}
+		long timeCached = (System.nanoTime() - l) / loops / 1000;
+
+		System.out.println("Performancetest RuleEngine boolean expression: new engine=" + timeUncached
+				+ "us pooled engine and compiled script=" + timeCached + "us");
+	}
+
+	/**
+	 * This test verifies that the script objects 'workitem' and 'event' resolve
+	 * item values on access and that changes of the event object are reflected
+	 * back.
+	 * 
+	 * @throws PluginException
+	 */
+	@Test
+	public void testLazyItemBinding() throws PluginException {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue("_amount", 1500);
+		workitem.replaceItemValue("$file", new java.util.HashMap<String, Object>());
+		ItemCollection event = new ItemCollection();
+		event.replaceItemValue("keyMailEnabled", "1");
+
+		String script = "var result={ amount:workitem._amount[0], file:(workitem.$file==null), upper:(workitem._Amount==null) };"
+				+ " event.keymailenabled='0';";
+		ItemCollection result = ruleEngine.evaluateBusinessRule(script, workitem, event);
+		Assert.assertEquals(1500, result.getItemValueInteger("amount"));
+		// only basic types are visible
+		Assert.assertTrue(result.getItemValueBoolean("file"));
+		// item names are lower case
+		Assert.assertTrue(result.getItemValueBoolean("upper"));
+
+		ItemCollection newEvent = ruleEngine.convertScriptVariableToItemCollection("event");
+		Assert.assertEquals("0", newEvent.getItemValueString("keymailenabled"));
+		// the event itself is not changed by the script
+		Assert.assertEquals("1", event.getItemValueString("keymailenabled"));
+	}
+
+	/**
+	 * This test measures the evaluation of a boolean expression on workitems
+	 * with 10 and 2000 items. The time should not depend on the number of items.
+	 * 
+	 * @throws PluginException
+	 */
+	@Test
+	public void testPerformanceLargeWorkitem() throws PluginException {
+		String script = "(workitem._budget && workitem._budget[0]>100)";
+		int[] sizes = { 10, 2000 };
+		int loops = 500;
+		for (int size : sizes) {
+			ItemCollection workitem = new ItemCollection();
+			for (int i = 0; i < size; i++) {
+				workitem.replaceItemValue("txtvalue" + i, "some text " + i);
+			}
+			workitem.replaceItemValue("_budget", 1000);
+			// warm up
+			for (int i = 0; i < 50; i++) {
+				ruleEngine.evaluateBooleanExpression(script, workitem);
+			}
+			long l = System.nanoTime();
+			for (int i = 0; i < loops; i++) {
+				Assert.assertTrue(ruleEngine.evaluateBooleanExpression(script, workitem));
+			}
+			System.out.println("Performancetest RuleEngine boolean expression " + size + " items: "
+					+ ((System.nanoTime() - l) / loops / 1000) + "us");
+		}
+	}
+
 }
@@ -429,4 +429,49 @@ public class TestWorkflowKernel {
 		// expected length is 36
 		Assert.assertEquals(36, uid.length());
 	}
+
+	/**
+	 * This test verifies the runtime measured for each plugin
+	 * 
+	 * @throws PluginException
+	 * @throws ModelException
+	 */
+	@Test
+	@Category(org.imixs.workflow.WorkflowKernel.class)
+	public void testPluginRuntimes() throws PluginException, ModelException {
+		ItemCollection itemCollection = new ItemCollection();
+		itemCollection.replaceItemValue("txtTitel", "Hello");
+		itemCollection.replaceItemValue("$processid", 100);
+		itemCollection.replaceItemValue("$activityid", 10);
+		itemCollection.replaceItemValue("$modelversion", MokModel.DEFAULT_MODEL_VERSION);
+
+		Assert.assertEquals(Long.valueOf(0), kernel.getPluginRuntimes().get(MokPlugin.class.getName()));
+		kernel.process(itemCollection);
+		Assert.assertEquals(1, kernel.getPluginRuntimes().size());
+		Assert.assertTrue(kernel.getPluginRuntimes().get(MokPlugin.class.getName()) > 0);
+	}
+
+	/**
+	 * This test verifies the ring buffer of the ProcessingLog
+	 */
+	@Test
+	@Category(org.imixs.workflow.WorkflowKernel.class)
+	public void testProcessingLog() {
+		ProcessingLog log = new ProcessingLog(3);
+		for (int i = 0; i < 5; i++) {
+			log.add(i, 1000 + i);
+		}
+		Assert.assertEquals(3, log.size());
+		// the oldest entries are overwritten
+		Assert.assertEquals(2, log.getPluginIndex(0));
+		Assert.assertEquals(1004, log.getNanoTime(2));
+
+		List<Plugin> plugins = new Vector<Plugin>();
+		plugins.add(new MokPlugin());
+		log.clear();
+		log.add(0, System.nanoTime());
+		List<String> entries = log.format(plugins);
+		Assert.assertEquals(1, entries.size());
+		Assert.assertTrue(entries.get(0).endsWith(" " + MokPlugin.class.getName()));
+	}
 }
@@ -270,4 +270,65 @@ public class TestBPMNModelSimple {
 
 	}
 
+
+	/**
+	 * This test verifies that the cost of an event lookup is independent of the
+	 * model size. The test builds a small and a large model and compares the
+	 * lookup time.
+	 * 
+	 * @throws ModelException
+	 */
+	@Test
+	public void testPerformanceGetEvent() throws ModelException {
+		int loops = 100000;
+		int[] sizes = { 10, 1000 };
+		for (int size : sizes) {
+			BPMNModel largeModel = createModel(size, 30);
+			// warm up
+			for (int i = 0; i < loops; i++) {
+				largeModel.getEvent(1000 + (i % size) * 10, 10 + (i % 30) * 10);
+			}
+			long l = System.nanoTime();
+			for (int i = 0; i < loops; i++) {
+				ItemCollection event = largeModel.getEvent(1000 + (i % size) * 10, 10 + (i % 30) * 10);
+				Assert.assertNotNull(event);
+			}
+			System.out.println("Performancetest BPMNModel.getEvent " + size + " tasks: "
+					+ ((System.nanoTime() - l) / loops) + "ns");
+
+			l = System.nanoTime();
+			for (int i = 0; i < 1000; i++) {
+				Assert.assertEquals(size / 10, largeModel.findTasksByGroup("group" + (i % 10)).size());
+			}
+			System.out.println("Performancetest BPMNModel.findTasksByGroup " + size + " tasks: "
+					+ ((System.nanoTime() - l) / 1000) + "ns");
+		}
+	}
+
+	/**
+	 * Creates a model with a given count of tasks and events per task.
+	 */
+	private BPMNModel createModel(int tasks, int events) throws ModelException {
+		BPMNModel result = new BPMNModel();
+		ItemCollection definition = new ItemCollection();
+		definition.replaceItemValue("$modelversion", "1.0.0");
+		result.setDefinition(definition);
+		for (int t = 0; t < tasks; t++) {
+			ItemCollection task = new ItemCollection();
+			task.replaceItemValue("type", "ProcessEntity");
+			task.replaceItemValue("numprocessid", 1000 + t * 10);
+			task.replaceItemValue("txtworkflowgroup", "group" + (t % 10));
+			result.addTask(task);
+			for (int e = 0; e < events; e++) {
+				ItemCollection event = new ItemCollection();
+				event.replaceItemValue("type", "ActivityEntity");
+				event.replaceItemValue("numprocessid", 1000 + t * 10);
+				event.replaceItemValue("numactivityid", 10 + e * 10);
+				event.replaceItemValue("txtname", "event " + e);
+				result.addEvent(event);
+			}
+		}
+		return result;
+	}
+
 }
@@ -0,0 +1,173 @@
+package org.imixs.workflow.util;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Vector;
+
+import org.imixs.workflow.ItemCollection;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for the DeepCopier. The class verifies that the structural copy
+ * of item values results in the same data as the serialization based copy and
+ * compares the performance of both strategies.
+ *
+ * @author rsoika
+ */
+public class TestDeepCopier {
+
+	/**
+	 * Test copy of basic types
+	 */
+	@Test
+	public void testBasicTypes() {
+		String s = "Hello";
+		Assert.assertSame(s, DeepCopier.copy(s));
+		Integer i = 4711;
+		Assert.assertSame(i, DeepCopier.copy(i));
+
+		Date date = new Date();
+		Date dateCopy = (Date) DeepCopier.copy(date);
+		Assert.assertEquals(date, dateCopy);
+		Assert.assertNotSame(date, dateCopy);
+
+		Calendar cal = Calendar.getInstance();
+		Calendar calCopy = (Calendar) DeepCopier.copy(cal);
+		Assert.assertEquals(cal, calCopy);
+		Assert.assertNotSame(cal, calCopy);
+
+		byte[] data = { 1, 2, 3 };
+		byte[] dataCopy = (byte[]) DeepCopier.copy(data);
+		Assert.assertArrayEquals(data, dataCopy);
+		Assert.assertNotSame(data, dataCopy);
+	}
+
+	/**
+	 * Test copy of nested lists and maps. The copy must not share mutable
+	 * objects with the source.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testNestedStructures() {
+		Map<String, List<Object>> source = new Hashtable<String, List<Object>>();
+		List<Object> list = new Vector<Object>();
+		list.add("a");
+		List<Object> nested = new ArrayList<Object>();
+		nested.add(new Date());
+		list.add(nested);
+		source.put("list", list);
+
+		Map<String, List<Object>> copy = DeepCopier.copyOfMap(source);
+		Assert.assertEquals(source, copy);
+		Assert.assertNotSame(source.get("list"), copy.get("list"));
+		Assert.assertTrue(copy.get("list") instanceof Vector);
+		List<Object> nestedCopy = (List<Object>) copy.get("list").get(1);
+		Assert.assertNotSame(nested, nestedCopy);
+		Assert.assertNotSame(nested.get(0), nestedCopy.get(0));
+
+		// change the copy
+		nestedCopy.add("b");
+		Assert.assertEquals(1, nested.size());
+	}
+
+	/**
+	 * Test copy of the file attachment structure
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testFileAttachments() {
+		ItemCollection itemCol = new ItemCollection();
+		byte[] data = { 1, 2, 3 };
+		itemCol.addFile(data, "test.txt", "text/plain");
+
+		Map<String, List<Object>> copy = DeepCopier.copyOfMap(itemCol.getAllItems());
+		Map<String, List<Object>> files = (Map<String, List<Object>>) copy.get("$file").get(0);
+		Assert.assertTrue(files instanceof LinkedHashMap);
+		byte[] dataCopy = (byte[]) files.get("test.txt").get(1);
+		Assert.assertArrayEquals(data, dataCopy);
+		Assert.assertNotSame(data, dataCopy);
+		Assert.assertEquals("text/plain", files.get("test.txt").get(0));
+	}
+
+	/**
+	 * This test compares the structural copy with the serialization based copy
+	 * on workitems with 50 and 500 items and some MB of file data.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPerformanceCopy() {
+		int[] sizes = { 50, 500 };
+		int loops = 20;
+		for (int size : sizes) {
+			ItemCollection workitem = createWorkitem(size, 2 * 1024 * 1024);
+
+			// warm up
+			for (int i = 0; i < 5; i++) {
+				DeepCopier.copyBySerialization(workitem.getAllItems());
+				DeepCopier.copyOfMap(workitem.getAllItems());
+			}
+
+			long l = System.nanoTime();
+			Map<String, List<Object>> serialized = null;
+			for (int i = 0; i < loops; i++) {
+				serialized = (Map<String, List<Object>>) DeepCopier.copyBySerialization(workitem.getAllItems());
+			}
+			long timeSerialization = (System.nanoTime() - l) / loops / 1000;
+
+			l = System.nanoTime();
+			Map<String, List<Object>> copied = null;
+			for (int i = 0; i < loops; i++) {
+				copied = DeepCopier.copyOfMap(workitem.getAllItems());
+			}
+			long timeStructural = (System.nanoTime() - l) / loops / 1000;
+
+			System.out.println("Performancetest DeepCopier " + size + " items: serialization=" + timeSerialization
+					+ "us structural=" + timeStructural + "us");
+
+			Assert.assertEquals(serialized.keySet(), copied.keySet());
+			Assert.assertEquals(workitem.getItemValueString("txtname0"),
+					new ItemCollection(copied).getItemValueString("txtname0"));
+		}
+	}
+
+	/**
+	 * Creates a realistic workitem with a given number of items and a file
+	 * attachment
+	 */
+	private ItemCollection createWorkitem(int size, int fileSize) {
+		ItemCollection workitem = new ItemCollection();
+		for (int i = 0; i < size; i++) {
+			switch (i % 5) {
+			case 0:
+				workitem.replaceItemValue("txtname" + i, "Some text value " + i);
+				break;
+			case 1:
+				workitem.replaceItemValue("numvalue" + i, i);
+				break;
+			case 2:
+				workitem.replaceItemValue("datvalue" + i, new Date());
+				break;
+			case 3:
+				workitem.replaceItemValue("dblvalue" + i, i * 1.5);
+				break;
+			default:
+				List<String> list = new Vector<String>();
+				list.add("Anna");
+				list.add("Manfred");
+				list.add("Eddy");
+				workitem.replaceItemValue("namvalue" + i, list);
+			}
+		}
+		byte[] data = new byte[fileSize];
+		new Random().nextBytes(data);
+		workitem.addFile(data, "scan.pdf", "application/pdf");
+		return workitem;
+	}
+}
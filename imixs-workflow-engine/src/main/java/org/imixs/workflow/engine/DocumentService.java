@@ -33,11 +33,18 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Vector;
 import java.util.logging.Logger;
@@ -57,14 +64,15 @@ import javax.persistence.EntityManager;
 import javax.persistence.FlushModeType;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.apache.lucene.search.Sort;
-import org.apache.lucene.search.SortField;
-import org.apache.lucene.search.SortField.Type;
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.engine.jpa.Document;
+import org.imixs.workflow.engine.jpa.FileContent;
 import org.imixs.workflow.engine.lucene.LuceneSearchService;
 import org.imixs.workflow.engine.lucene.LuceneUpdateService;
+import org.imixs.workflow.engine.lucene.SearchResult;
 import org.imixs.workflow.exceptions.AccessDeniedException;
 import org.imixs.workflow.exceptions.InvalidAccessException;
 import org.imixs.workflow.exceptions.QueryException;
@@ -98,6 +106,11 @@ import org.imixs.workflow.exceptions.QueryException;
  * A collection of ItemCollections can be read using the find() method using EQL
  * syntax.
  * <p>
+ * The content of file attachments (item '$file') is stored separately from the
+ * document data by the entity FileContent. A loaded ItemCollection contains
+ * only a reference to the content of each file. The content can be read by the
+ * methods getFile() and loadFiles().
+ * <p>
  * 
  * Additional to the basic functionality to save and load instances of the
  * object org.imixs.workflow.ItemCollection the method also manages the read-
@@ -152,15 +165,30 @@ public class DocumentService {
 	public static final String INVALID_PARAMETER = "INVALID_PARAMETER";
 	public static final String INVALID_UNIQUEID = "INVALID_UNIQUEID";
 
+	// max number of IDs in one IN query
+	private static final int MAX_IN_QUERY_SIZE = 1000;
+
+	// key of the file contents released by the current transaction
+	private static final String RELEASED_FILE_CONTENTS = DocumentService.class.getName() + ".releasedFileContents";
+
+	// default number of documents flushed together by the method saveAll()
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
 	@Resource
 	SessionContext ctx;
 
+	@Resource
+	TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
 	@Resource(name = "ACCESS_ROLES")
 	private String accessRoles = "";
 
 	@Resource(name = "DISABLE_OPTIMISTIC_LOCKING")
 	private Boolean disableOptimisticLocking = false;
 
+	@Resource(name = "BATCH_SIZE")
+	private Integer batchSize = DEFAULT_BATCH_SIZE;
+
 	@PersistenceContext(unitName = "org.imixs.workflow.jpa")
 	private EntityManager manager;
 
@@ -200,6 +228,20 @@ public class DocumentService {
 		return disableOptimisticLocking;
 	}
 
+	/**
+	 * Returns the number of documents written to the database together by the
+	 * method saveAll()
+	 * 
+	 * @return batch size
+	 */
+	public Integer getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(Integer batchSize) {
+		this.batchSize = batchSize;
+	}
+
 	/**
 	 * This method returns a list of user names, roles and application groups the
 	 * user belongs to.
@@ -296,12 +338,18 @@ public class DocumentService {
 	 * org.imixs.ACCESSLEVEL.AUTHORACCESS
 	 * 
 	 * <p>
-	 * The method adds/updates the document into the lucene index.
+	 * The method adds/updates the document into the lucene index. All index
+	 * updates of a transaction are written together after the transaction was
+	 * committed.
 	 * 
 	 * <p>
 	 * The method returns a itemCollection without the $VersionNumber from the
 	 * persisted entity. (see issue #226)
 	 * <p>
+	 * The data of the ItemCollection is encoded into the Document entity
+	 * immediately. So the returned ItemCollection can be changed by the caller
+	 * without affecting the persisted data and no deep copy is needed.
+	 * <p>
 	 * 
 	 * <p>
 	 * issue #230:
@@ -341,16 +389,204 @@ public class DocumentService {
 			}
 		}
 
-		// did the document exist?
+		CallerAccess callerAccess = new CallerAccess();
+		verifyWriteAccess(persistedDocument, callerAccess);
+		saveDocument(document, persistedDocument, callerAccess);
+
+		// add/update document into lucene index after the transaction was committed
+		if (!document.getItemValueBoolean(NOINDEX)) {
+			luceneUpdateService.updateDocumentOnCommit(document);
+		} else {
+			// remove from index
+			luceneUpdateService.removeDocumentOnCommit(document.getUniqueID());
+		}
+
+		// return the updated document
+		return document;
+	}
+
+	/**
+	 * This method saves a collection of ItemCollections. The method can be used to
+	 * import or update a larger number of documents in one transaction. Each
+	 * document is saved in the same way as by the method save().
+	 * <p>
+	 * The existing Document entities are loaded with one query and the access of
+	 * the CallerPrincipal is verified for all documents before any document is
+	 * changed. So the method throws an AccessDeniedException without any change if
+	 * the CallerPrincipal is not allowed to save one of the documents.
+	 * <p>
+	 * The documents are written to the database in blocks of the size defined by
+	 * the property 'BATCH_SIZE' (default 100). Each block is flushed and the
+	 * Document entities loaded or created by the block are detached afterwards.
+	 * This allows the JPA provider to use JDBC batch writing and keeps the memory
+	 * usage of large imports constant. Entities saved before in the same
+	 * transaction and other entities managed by the caller are not detached. All
+	 * documents are added to the lucene index in one batch.
+	 * 
+	 * @param documents
+	 *            - collection of ItemCollections to be saved
+	 * @return list of updated ItemCollections
+	 * @throws AccessDeniedException
+	 */
+	public List<ItemCollection> saveAll(Collection<ItemCollection> documents) throws AccessDeniedException {
+		List<ItemCollection> result = new ArrayList<ItemCollection>();
+		if (documents == null || documents.isEmpty()) {
+			return result;
+		}
+		long l = System.currentTimeMillis();
+		manager.setFlushMode(FlushModeType.COMMIT);
+
+		// load all existing documents and verify the access before any document
+		// is changed
+		List<ItemCollection> documentList = new ArrayList<ItemCollection>(documents);
+		Map<String, Document> persistedDocuments = findDocuments(getUniqueIDs(documentList));
+		CallerAccess callerAccess = new CallerAccess();
+		for (ItemCollection document : documentList) {
+			verifyWriteAccess(persistedDocuments.get(document.getItemValueString(UNIQUEID)), callerAccess);
+		}
+
+		int size = getValidBatchSize();
+		List<ItemCollection> indexList = new ArrayList<ItemCollection>();
+		for (int i = 0; i < documentList.size(); i += size) {
+			List<ItemCollection> block = documentList.subList(i, Math.min(i + size, documentList.size()));
+			if (i > 0) {
+				// the entities of the next block are loaded again
+				persistedDocuments = findDocuments(getUniqueIDs(block));
+			}
+			List<Document> blockEntities = new ArrayList<Document>();
+			for (ItemCollection document : block) {
+				Document persistedDocument = persistedDocuments.get(document.getItemValueString(UNIQUEID));
+				// a pending entity was saved before in the current transaction
+				boolean pending = persistedDocument != null && persistedDocument.isPending();
+				persistedDocument = saveDocument(document, persistedDocument, callerAccess);
+				if (!pending) {
+					blockEntities.add(persistedDocument);
+				}
+				// a document can be contained more than once
+				persistedDocuments.put(persistedDocument.getId(), persistedDocument);
+				if (!document.getItemValueBoolean(NOINDEX)) {
+					indexList.add(document);
+				} else {
+					luceneUpdateService.removeDocumentOnCommit(document.getUniqueID());
+				}
+				result.add(document);
+			}
+			// write the block and release the entities of the block
+			manager.flush();
+			for (Document entity : blockEntities) {
+				manager.detach(entity);
+			}
+		}
+
+		// add/update all documents into lucene index after the transaction was
+		// committed
+		luceneUpdateService.updateDocumentsOnCommit(indexList);
+
+		logger.fine("saveAll - " + result.size() + " documents saved in " + (System.currentTimeMillis() - l) + " ms");
+		return result;
+	}
+
+	/**
+	 * Returns the batch size or the DEFAULT_BATCH_SIZE if no valid batch size is
+	 * defined.
+	 * 
+	 * @return batch size
+	 */
+	private int getValidBatchSize() {
+		return (batchSize == null || batchSize <= 0) ? DEFAULT_BATCH_SIZE : batchSize;
+	}
+
+	/**
+	 * Returns the $uniqueid of all ItemCollections providing an id
+	 * 
+	 * @param documents
+	 * @return set of $uniqueid
+	 */
+	private Set<String> getUniqueIDs(Collection<ItemCollection> documents) {
+		Set<String> ids = new LinkedHashSet<String>();
+		for (ItemCollection document : documents) {
+			String id = document.getItemValueString(UNIQUEID);
+			if (!id.isEmpty()) {
+				ids.add(id);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Loads a set of Document entities by their $uniqueid with one IN query per
+	 * block of MAX_IN_QUERY_SIZE ids. The access of the CallerPrincipal is not
+	 * verified.
+	 * 
+	 * @param ids
+	 * @return map of Document entities by $uniqueid
+	 */
+	private Map<String, Document> findDocuments(Collection<String> ids) {
+		Map<String, Document> documents = new HashMap<String, Document>();
+		List<String> idList = new ArrayList<String>(ids);
+		for (int i = 0; i < idList.size(); i += MAX_IN_QUERY_SIZE) {
+			List<String> block = idList.subList(i, Math.min(i + MAX_IN_QUERY_SIZE, idList.size()));
+			Query q = manager.createQuery("SELECT document FROM Document AS document WHERE document.id IN :ids");
+			q.setParameter("ids", block);
+			@SuppressWarnings("unchecked")
+			List<Document> documentList = q.getResultList();
+			for (Document doc : documentList) {
+				documents.put(doc.getId(), doc);
+			}
+		}
+		return documents;
+	}
+
+	/**
+	 * Verifies if the CallerPrincipal is allowed to create a new document or to
+	 * update the given persisted document. A new document can be created with the
+	 * access level AUTHORACCESS. A persisted document can only be updated with read
+	 * and write access and if it is not immutable.
+	 * 
+	 * @param persistedDocument
+	 *            - the persisted document or null for a new document
+	 * @param callerAccess
+	 * @throws AccessDeniedException
+	 */
+	private void verifyWriteAccess(Document persistedDocument, CallerAccess callerAccess)
+			throws AccessDeniedException {
 		if (persistedDocument == null) {
-			// entity not found in database, create a new instance using the
-			// provided id. Test if user is allowed to create Entities....
-			if (!(ctx.isCallerInRole(ACCESSLEVEL_MANAGERACCESS) || ctx.isCallerInRole(ACCESSLEVEL_EDITORACCESS)
-					|| ctx.isCallerInRole(ACCESSLEVEL_AUTHORACCESS))) {
+			// Test if user is allowed to create Entities....
+			if (!callerAccess.isCreator()) {
+				throw new AccessDeniedException(OPERATION_NOTALLOWED, "You are not allowed to perform this operation");
+			}
+		} else {
+			// activeEntity exists - verify if current user has write- and
+			// readaccess
+			if (!callerAccess.isAuthor(persistedDocument) || !callerAccess.isReader(persistedDocument)) {
 				throw new AccessDeniedException(OPERATION_NOTALLOWED, "You are not allowed to perform this operation");
 			}
-			// create new one with the provided id
-			persistedDocument = new Document(sID);
+
+			// test if persistedDocument is IMMUTABLE
+			if (ItemCollection.createByReference(persistedDocument.getData()).getItemValueBoolean(IMMUTABLE)) {
+				throw new AccessDeniedException(OPERATION_NOTALLOWED, "Operation not allowed, document is immutable!");
+			}
+		}
+	}
+
+	/**
+	 * Updates the data of a Document entity with the given ItemCollection. If no
+	 * persisted document is given, a new Document entity is created. The write
+	 * access must be verified by the caller. The lucene index is not updated.
+	 * 
+	 * @param document
+	 *            - the ItemCollection to be saved
+	 * @param persistedDocument
+	 *            - the managed Document entity or null
+	 * @param callerAccess
+	 * @return the managed Document entity
+	 */
+	private Document saveDocument(ItemCollection document, Document persistedDocument, CallerAccess callerAccess) {
+		// did the document exist?
+		if (persistedDocument == null) {
+			// entity not found in database, create a new instance using the
+			// provided id.
+			persistedDocument = new Document(document.getItemValueString(UNIQUEID));
 			// if $Created is provided than overtake this information
 			Date datCreated = document.getItemValueDate("$created");
 			if (datCreated != null) {
@@ -362,21 +598,9 @@ public class DocumentService {
 			// now persist the new EntityBean!
 			logger.finest("persist activeEntity");
 			manager.persist(persistedDocument);
-
-		} else {
-			// activeEntity exists - verify if current user has write- and
-			// readaccess
-			if (!isCallerAuthor(persistedDocument) || !isCallerReader(persistedDocument)) {
-				throw new AccessDeniedException(OPERATION_NOTALLOWED, "You are not allowed to perform this operation");
-			}
-			
-			// test if persistedDocument is IMMUTABLE
-			if (ItemCollection.createByReference(persistedDocument.getData()).getItemValueBoolean(IMMUTABLE)) {
-				throw new AccessDeniedException(OPERATION_NOTALLOWED, "Operation not allowed, document is immutable!");
-			}
-			// there is no need to merge the persistedDocument because it is
-			// already managed by JPA!
 		}
+		// there is no need to merge the persistedDocument because it is
+		// already managed by JPA!
 
 		// after all the persistedDocument is now managed through JPA!
 		logger.finest("save - ID=" + document.getUniqueID() + " managed version=" + persistedDocument.getVersion());
@@ -422,9 +646,13 @@ public class DocumentService {
 			persistedDocument.setVersion(version);
 		}
 
-		// finally update the data field by cloning the map object (deep copy)
-		ItemCollection clone = (ItemCollection) document.clone();
-		persistedDocument.setData(clone.getAllItems());
+		// finally update the data field. The data is encoded immediately, so no
+		// deep copy of the document is needed. Only the item map is copied to
+		// replace the file content by references.
+		Map<String, List<Object>> data = new Hashtable<String, List<Object>>(document.getAllItems());
+		// store the content of file attachments separately
+		storeFiles(persistedDocument.getData(), data);
+		persistedDocument.encodeData(data);
 
 		/*
 		 * Issue #220
@@ -445,15 +673,7 @@ public class DocumentService {
 		document.removeItem("$version");
 
 		// update the $isauthor flag
-		document.replaceItemValue("$isauthor", isCallerAuthor(persistedDocument));
-
-		// add/update document into lucene index
-		if (!document.getItemValueBoolean(NOINDEX)) {
-			luceneUpdateService.updateDocument(document);
-		} else {
-			// remove from index
-			luceneUpdateService.removeDocument(document.getUniqueID());
-		}
+		document.replaceItemValue("$isauthor", callerAccess.isAuthor(persistedDocument));
 
 		/*
 		 * issue #230
@@ -462,8 +682,7 @@ public class DocumentService {
 		 */
 		persistedDocument.setPending(true);
 
-		// return the updated document
-		return document;
+		return persistedDocument;
 	}
 
 	/**
@@ -553,6 +772,65 @@ public class DocumentService {
 			return null;
 	}
 
+	/**
+	 * Loads a collection of documents by their $uniqueid. All documents are
+	 * fetched with one query (or one query per block of 1000 IDs). The method
+	 * returns only documents readable by the CallerPrincipal. The result keeps
+	 * the order of the given IDs. IDs of unknown documents are ignored.
+	 * <p>
+	 * The method can be used to load the documents of a search result page.
+	 * 
+	 * @param ids
+	 *            - collection of $uniqueid
+	 * @return list of ItemCollections
+	 */
+	public List<ItemCollection> load(Collection<String> ids) {
+		List<ItemCollection> result = new ArrayList<ItemCollection>();
+		if (ids == null || ids.isEmpty()) {
+			return result;
+		}
+		long l = System.currentTimeMillis();
+		List<String> idList = new ArrayList<String>(new LinkedHashSet<String>(ids));
+		Map<String, Document> documents = findDocuments(idList);
+
+		// the access roles are evaluated only once
+		CallerAccess callerAccess = new CallerAccess();
+		List<Document> detachList = new ArrayList<Document>();
+		for (String id : idList) {
+			Document persistedDocument = documents.get(id);
+			if (persistedDocument == null || !callerAccess.isReader(persistedDocument)) {
+				continue;
+			}
+			ItemCollection itemCol = null;
+			if (persistedDocument.isPending()) {
+				// we clone but do not detach
+				itemCol = new ItemCollection(persistedDocument.getData());
+			} else {
+				itemCol = new ItemCollection();
+				itemCol.setAllItems(persistedDocument.getData());
+				detachList.add(persistedDocument);
+			}
+			if (disableOptimisticLocking) {
+				itemCol.removeItem("$Version");
+			} else {
+				itemCol.replaceItemValue("$Version", persistedDocument.getVersion());
+			}
+			itemCol.replaceItemValue("$isauthor", callerAccess.isAuthor(persistedDocument));
+			// fire event
+			events.fire(new DocumentEvent(itemCol, DocumentEvent.ON_DOCUMENT_LOAD));
+			result.add(itemCol);
+		}
+
+		// the documents are not managed, so we detach them
+		for (Document doc : detachList) {
+			manager.detach(doc);
+		}
+
+		logger.fine("load - " + result.size() + " of " + idList.size() + " documents loaded in "
+				+ (System.currentTimeMillis() - l) + " ms");
+		return result;
+	}
+
 	/**
 	 * This method removes an ItemCollection from the database. If the
 	 * CallerPrincipal is not allowed to access the ItemColleciton the method throws
@@ -561,7 +839,8 @@ public class DocumentService {
 	 * The CallerPrincipial should have at least the access Role
 	 * org.imixs.ACCESSLEVEL.AUTHORACCESS
 	 * <p>
-	 * Also the method removes the document form the lucene index.
+	 * Also the method removes the document form the lucene index after the
+	 * transaction was committed.
 	 * 
 	 * 
 	 * @param ItemCollection
@@ -578,14 +857,122 @@ public class DocumentService {
 				throw new AccessDeniedException(OPERATION_NOTALLOWED,
 						"remove - You are not allowed to perform this operation");
 
-			// remove document...
+			// release the file content and remove document...
+			releaseFiles(FileContent.getDigests(persistedDocument.getData()));
 			manager.remove(persistedDocument);
-			// remove document form index
-			luceneUpdateService.removeDocument(itemcol.getUniqueID());
+			// remove document form index after the transaction was committed
+			luceneUpdateService.removeDocumentOnCommit(itemcol.getUniqueID());
 		} else
 			throw new AccessDeniedException(INVALID_UNIQUEID, "remove - invalid $uniqueid");
 	}
 
+	/**
+	 * Returns a file attachment of a document. The file data is a list
+	 * containing the contentType (String) and the content (byte[]). The content
+	 * of file attachments is stored separately from the document data and is
+	 * loaded by this method.
+	 * <p>
+	 * The method returns null if the document does not exist, the
+	 * CallerPrincipal has no read access or the document has no file with the
+	 * given name.
+	 * 
+	 * @see FileContent
+	 * @param uniqueId
+	 *            - the $uniqueid of the document
+	 * @param fileName
+	 *            - name of the file attachment
+	 * @return file data or null
+	 */
+	public List<Object> getFile(String uniqueId, String fileName) {
+		return getFile(uniqueId, Arrays.asList(fileName));
+	}
+
+	/**
+	 * Returns the first file attachment of a document matching one of the given
+	 * file names. The method can be used if the encoding of a file name is not
+	 * known. The document is read once and only the content of the matching
+	 * file is loaded.
+	 * <p>
+	 * The method returns null if the document does not exist, the
+	 * CallerPrincipal has no read access or the document has no file with one
+	 * of the given names.
+	 * 
+	 * @see getFile(String, String)
+	 * @param uniqueId
+	 *            - the $uniqueid of the document
+	 * @param fileNames
+	 *            - the possible names of the file attachment
+	 * @return file data or null
+	 */
+	public List<Object> getFile(String uniqueId, List<String> fileNames) {
+		Document persistedDocument = manager.find(Document.class, uniqueId);
+		if (persistedDocument == null || !isCallerReader(persistedDocument)) {
+			return null;
+		}
+		ItemCollection document = ItemCollection.createByReference(persistedDocument.getData());
+		List<Object> fileData = null;
+		for (String fileName : fileNames) {
+			fileData = document.getFile(fileName);
+			if (fileData != null) {
+				break;
+			}
+		}
+		if (!persistedDocument.isPending()) {
+			// the document is not managed, so we detach it (issue #230)
+			manager.detach(persistedDocument);
+		}
+		return loadFileContent(fileData);
+	}
+
+	/**
+	 * This method loads the content of all file attachments of a document into
+	 * the item '$file'. A document loaded by the DocumentService contains only
+	 * references to the content of its files. The method can be used if the
+	 * content of all files is needed, e.g. to export a document.
+	 * <p>
+	 * Only files referred by the persisted document are loaded. If the
+	 * CallerPrincipal has no read access to the document, no file is loaded.
+	 * 
+	 * @see FileContent
+	 * @param document
+	 */
+	@SuppressWarnings("unchecked")
+	public void loadFiles(ItemCollection document) {
+		List<?> vFiles = document.getItemValue("$file");
+		if (vFiles == null || vFiles.isEmpty() || !(vFiles.get(0) instanceof Map)) {
+			return;
+		}
+		Document persistedDocument = null;
+		Set<String> digests = null;
+		// the file map of the caller is not changed, because it can be shared
+		// with other documents. So the loaded files are put into a new map.
+		Map<String, Object> files = new LinkedHashMap<String, Object>((Map<String, Object>) vFiles.get(0));
+		boolean loaded = false;
+		for (Map.Entry<String, Object> entry : files.entrySet()) {
+			if (!(entry.getValue() instanceof List) || !FileContent.isReference((List<?>) entry.getValue())) {
+				continue;
+			}
+			if (digests == null) {
+				persistedDocument = manager.find(Document.class, document.getUniqueID());
+				if (persistedDocument == null || !isCallerReader(persistedDocument)) {
+					return;
+				}
+				digests = FileContent.getDigests(persistedDocument.getData());
+				if (!persistedDocument.isPending()) {
+					manager.detach(persistedDocument);
+				}
+			}
+			List<Object> fileData = (List<Object>) entry.getValue();
+			if (digests.contains(FileContent.getDigest(fileData))) {
+				entry.setValue(loadFileContent(fileData));
+				loaded = true;
+			}
+		}
+		if (loaded) {
+			document.replaceItemValue("$file", files);
+		}
+	}
+
 	/**
 	 * Returns the total hits for a given search query. The provided search term
 	 * will be extended with a users roles to test the read access level of each
@@ -698,20 +1085,91 @@ public class DocumentService {
 	 */
 	public List<ItemCollection> find(String searchTerm, int pageSize, int pageIndex, String sortBy, boolean sortReverse)
 			throws QueryException {
+		return find(searchTerm, pageSize, pageIndex, sortBy, sortReverse, null);
+	}
+
+	/**
+	 * The method returns a sorted list of ItemCollections by calling the
+	 * LuceneSearchService. The result list can be sorted by a sortField and a sort
+	 * direction.
+	 * <p>
+	 * If the optional param 'itemNames' is provided, the documents are not loaded
+	 * from the database. The result contains only the $uniqueid and the given
+	 * items stored in the search index (see property 'lucence.storeFieldList').
+	 * This is much faster for views showing only some columns. Such a projection
+	 * must not be saved. The full document can be loaded on demand by the method
+	 * load().
+	 * 
+	 * @param searchTerm
+	 *            - Lucene search term
+	 * @param pageSize
+	 *            - total docs per page
+	 * @param pageIndex
+	 *            - number of page to start (default = 0)
+	 * @param sortBy
+	 *            -optional field to sort the result
+	 * @param sortReverse
+	 *            - optional sort direction
+	 * @param itemNames
+	 *            - optional list of items to be returned from the search index
+	 * 
+	 * @return list of ItemCollection elements
+	 * @throws QueryException
+	 * 
+	 * @see org.imixs.workflow.engine.lucene.LuceneSearchService
+	 */
+	public List<ItemCollection> find(String searchTerm, int pageSize, int pageIndex, String sortBy, boolean sortReverse,
+			List<String> itemNames) throws QueryException {
 		logger.fine("find - SearchTerm=" + searchTerm + "  , pageSize=" + pageSize + " pageNumber=" + pageIndex
 				+ " , sortBy=" + sortBy + " reverse=" + sortReverse);
 
 		// create sort object
 		Sort sortOrder = null;
 		if (sortBy != null && !sortBy.isEmpty()) {
-			// we do not support multi values here - see
-			// LuceneUpdateService.addItemValues
-			// it would be possible if we use a SortedSetSortField class here
-			sortOrder = new Sort(new SortField[] { new SortField(sortBy, Type.STRING, sortReverse) });
+			// the type of the sort field depends on the index field type
+			sortOrder = new Sort(luceneSearchService.createSortField(sortBy, sortReverse));
 		}
 
-		return luceneSearchService.search(searchTerm, pageSize, pageIndex, sortOrder, null);
+		return luceneSearchService.search(searchTerm, pageSize, pageIndex, sortOrder, null, itemNames);
+
+	}
 
+	/**
+	 * The method returns one page of a sorted list of ItemCollections by calling
+	 * the LuceneSearchService. The page is defined by a cursor returned by the
+	 * previous call. The first page is requested with an empty cursor. The cursor
+	 * of the result is null if the end of the result list is reached.
+	 * <p>
+	 * The cost of the method does not depend on the position of the page. So the
+	 * method should be used to iterate over large result sets.
+	 * 
+	 * @param searchTerm
+	 *            - Lucene search term
+	 * @param pageSize
+	 *            - total docs per page
+	 * @param cursor
+	 *            - cursor of the previous page or null for the first page
+	 * @param sortBy
+	 *            -optional field to sort the result
+	 * @param sortReverse
+	 *            - optional sort direction
+	 * @param itemNames
+	 *            - optional list of items to be returned from the search index
+	 * 
+	 * @return search result with the cursor of the next page
+	 * @throws QueryException
+	 * 
+	 * @see org.imixs.workflow.engine.lucene.LuceneSearchService
+	 */
+	public SearchResult find(String searchTerm, int pageSize, String cursor, String sortBy, boolean sortReverse,
+			List<String> itemNames) throws QueryException {
+		logger.fine("find - SearchTerm=" + searchTerm + "  , pageSize=" + pageSize + " cursor=" + cursor
+				+ " , sortBy=" + sortBy + " reverse=" + sortReverse);
+		Sort sortOrder = null;
+		if (sortBy != null && !sortBy.isEmpty()) {
+			sortOrder = new Sort(luceneSearchService.createSortField(sortBy, sortReverse));
+		}
+		return luceneSearchService.search(searchTerm, pageSize, cursor, sortOrder, null, itemNames);
 	}
 
 	/**
@@ -842,17 +1300,22 @@ public class DocumentService {
 	 * The document list will be stored into the file system. The method stores the
 	 * Map from the ItemCollection to be independent from version upgrades. To
 	 * manage large dataSets the method reads the documents in smaller blocks
+	 * sorted by the $uniqueid. So the blocks do not depend on the relevance of
+	 * the documents, which changes if documents are updated during the backup.
+	 * <p>
+	 * If the search index is reindexed because the sort field of the $uniqueid
+	 * is missing, the backup fails with an InvalidAccessException instead of
+	 * writing an incomplete backup.
 	 * 
 	 * @param entities
 	 * @throws IOException
 	 * @throws QueryException
 	 */
 	public void backup(String query, String filePath) throws IOException, QueryException {
-		boolean hasMoreData = true;
 		int JUNK_SIZE = 100;
 		long totalcount = 0;
-		int startpos = 0;
 		int icount = 0;
+		String cursor = "";
 
 		logger.info("backup - starting...");
 		logger.info("backup - query=" + query);
@@ -865,17 +1328,16 @@ public class DocumentService {
 
 		FileOutputStream fos = new FileOutputStream(filePath);
 		ObjectOutputStream out = new ObjectOutputStream(fos);
-		while (hasMoreData) {
+		while (cursor != null) {
 			// read a junk....
-
-			Collection<ItemCollection> col = find(query, JUNK_SIZE, startpos);
-
-			if (col.size() < JUNK_SIZE)
-				hasMoreData = false;
-			startpos = startpos + col.size();
+			SearchResult result = find(query, JUNK_SIZE, cursor, "$uniqueid", false, null);
+			Collection<ItemCollection> col = result.getDocuments();
+			cursor = result.getCursor();
 			totalcount = totalcount + col.size();
 
 			for (ItemCollection aworkitem : col) {
+				// the backup contains the content of all file attachments
+				loadFiles(aworkitem);
 				// get serialized data
 				Map<?, ?> hmap = aworkitem.getAllItems();
 				// write object
@@ -890,48 +1352,61 @@ public class DocumentService {
 
 	/**
 	 * This method restores a backup from the file system and imports the Documents
-	 * into the database.
+	 * into the database. The Documents are saved in blocks by the method saveAll().
+	 * If the CallerPrincipal is not allowed to save a document of a block, the
+	 * documents of this block are saved one by one.
 	 * 
 	 * @param filepath
 	 * @throws IOException
 	 */
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public void restore(String filePath) throws IOException {
-		int JUNK_SIZE = 100;
 		long totalcount = 0;
 		long errorCount = 0;
-		int icount = 0;
+		int blockSize = getValidBatchSize();
 
 		FileInputStream fis = new FileInputStream(filePath);
 		ObjectInputStream in = new ObjectInputStream(fis);
 
-		while (true) {
+		List<ItemCollection> block = new ArrayList<ItemCollection>();
+		boolean eof = false;
+		while (!eof) {
 			try {
 				// read one more object
 				Map hmap = (Map) in.readObject();
 				ItemCollection itemCol = new ItemCollection(hmap);
 				// remove the $version property!
 				itemCol.removeItem("$Version");
-				// now save imported data
-				save(itemCol);
-				totalcount++;
-				icount++;
-				if (icount >= JUNK_SIZE) {
-					icount = 0;
-					logger.info("[EntityService] Restored " + totalcount + " entities....");
-
-				}
-
+				block.add(itemCol);
 			} catch (java.io.EOFException eofe) {
-				break;
+				eof = true;
 			} catch (ClassNotFoundException e) {
 				errorCount++;
-				logger.warning("[EntityService] error importing workitem at position " + (totalcount + errorCount)
-						+ " Error: " + e.getMessage());
-			} catch (AccessDeniedException e) {
-				errorCount++;
-				logger.warning("[EntityService] error importing workitem at position " + (totalcount + errorCount)
-						+ " Error: " + e.getMessage());
+				logger.warning("[EntityService] error importing workitem at position "
+						+ (totalcount + block.size() + errorCount) + " Error: " + e.getMessage());
+			}
+
+			if (block.size() >= blockSize || (eof && !block.isEmpty())) {
+				// now save imported data
+				try {
+					saveAll(block);
+					totalcount += block.size();
+				} catch (AccessDeniedException e) {
+					// no document of the block was saved, so we save the documents
+					// one by one to skip only the documents not allowed
+					for (ItemCollection itemCol : block) {
+						try {
+							save(itemCol);
+							totalcount++;
+						} catch (AccessDeniedException ade) {
+							errorCount++;
+							logger.warning("[EntityService] error importing workitem at position "
+									+ (totalcount + errorCount) + " Error: " + ade.getMessage());
+						}
+					}
+				}
+				block.clear();
+				logger.info("[EntityService] Restored " + totalcount + " entities....");
 			}
 		}
 		in.close();
@@ -942,6 +1417,283 @@ public class DocumentService {
 		logger.info(loginfo);
 	}
 
+	/**
+	 * This method stores the content of new file attachments separately from the
+	 * document data. The content of each file in the item '$file' is replaced by
+	 * a reference. The content is stored once per SHA-256 digest. The reference
+	 * count of a content is updated for each document referring to it. The
+	 * content of files no longer referred by the document is released.
+	 * <p>
+	 * A reference to a content not yet referred by the document is only accepted
+	 * together with the content. Otherwise an AccessDeniedException is thrown.
+	 * <p>
+	 * The reference count is updated by a bulk update, so documents sharing the
+	 * same content can be saved concurrently. A new content is inserted by the
+	 * method storeFileContent.
+	 * 
+	 * @param oldData
+	 *            - the data of the persisted document or null
+	 * @param data
+	 *            - the data to be persisted
+	 */
+	private void storeFiles(Map<String, List<Object>> oldData, Map<String, List<Object>> data) {
+		Set<String> oldDigests = FileContent.getDigests(oldData);
+		Map<String, byte[]> contents = FileContent.createReferences(data);
+		Set<String> newDigests = FileContent.getDigests(data);
+		for (String digest : newDigests) {
+			if (oldDigests.contains(digest)) {
+				continue;
+			}
+			// a reference is only accepted if it was already stored with the
+			// document. Otherwise the caller must provide the content of the file,
+			// so a reference can not be used to access the files of other documents.
+			if (!contents.containsKey(digest)) {
+				throw new AccessDeniedException(OPERATION_NOTALLOWED,
+						"save - file reference '" + digest + "' not allowed, content missing!");
+			}
+			if (!existsFileContent(digest)) {
+				storeFileContent(digest, contents.get(digest));
+			}
+			if (updateRefCount(digest, 1) == 0) {
+				// the content was removed by a concurrent transaction
+				storeFileContent(digest, contents.get(digest));
+				if (updateRefCount(digest, 1) == 0) {
+					throw new InvalidAccessException(InvalidAccessException.INVALID_ID,
+							"save - file content '" + digest + "' could not be stored!");
+				}
+			}
+		}
+		oldDigests.removeAll(newDigests);
+		releaseFiles(oldDigests);
+	}
+
+	/**
+	 * Inserts a new FileContent. The content is inserted by the method
+	 * insertFileContent in a separate transaction, so a duplicate key of a
+	 * concurrent transaction does not affect the calling transaction.
+	 * <p>
+	 * If the content was released by the current transaction before, the
+	 * current transaction holds the lock on the row of the content. A separate
+	 * transaction would wait for this lock until the current transaction ends
+	 * and so the request would deadlock with itself. In this case the content
+	 * is inserted by the current transaction. No concurrent transaction can
+	 * insert the same content as long as the lock is held.
+	 * 
+	 * @param digest
+	 * @param content
+	 */
+	private void storeFileContent(String digest, byte[] content) {
+		Set<String> releasedDigests = getReleasedFileContents();
+		if (releasedDigests == null || !releasedDigests.contains(digest)) {
+			ctx.getBusinessObject(DocumentService.class).insertFileContent(content);
+			return;
+		}
+		if (existsFileContent(digest)) {
+			return;
+		}
+		FileContent fileContent = new FileContent(content.clone());
+		manager.persist(fileContent);
+		manager.flush();
+		// the refCount is updated by bulk updates only
+		manager.detach(fileContent);
+	}
+
+	/**
+	 * This method inserts a new FileContent in a new transaction. The reference
+	 * count of the new content is 0 and is incremented by the calling
+	 * transaction. If the content already exists - e.g. inserted by a concurrent
+	 * transaction - the method returns without changes. So the calling
+	 * transaction is not affected by a duplicate key.
+	 * <p>
+	 * If the calling transaction is rolled back, the content remains with a
+	 * reference count of 0 and is reused by the next document storing the same
+	 * content.
+	 * 
+	 * To call this method a EJB session context is necessary: <code>
+	 * 		sessionContext.getBusinessObject(DocumentService.class)
+						.insertFileContent(content);
+	 * </code>
+	 * 
+	 * @param content
+	 */
+	@TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
+	public void insertFileContent(byte[] content) {
+		// the content is copied, because the byte array is still referred by the
+		// caller
+		FileContent fileContent = new FileContent(content.clone());
+		if (existsFileContent(fileContent.getId())) {
+			return;
+		}
+		try {
+			manager.persist(fileContent);
+			manager.flush();
+		} catch (RuntimeException e) {
+			// the content was inserted by a concurrent transaction (EntityExistsException)
+			logger.fine("insertFileContent - file content '" + fileContent.getId() + "' already exists");
+			ctx.setRollbackOnly();
+		}
+	}
+
+	/**
+	 * Returns true if a FileContent with the given digest exists. The content
+	 * is not loaded.
+	 * 
+	 * @param digest
+	 * @return true if the content exists
+	 */
+	private boolean existsFileContent(String digest) {
+		Query query = manager.createQuery("SELECT f.id FROM FileContent f WHERE f.id = :id");
+		query.setParameter("id", digest);
+		return !query.getResultList().isEmpty();
+	}
+
+	/**
+	 * Adds the given delta to the reference count of a FileContent. The count is
+	 * updated by a single bulk update, so concurrent transactions do not
+	 * overwrite each other.
+	 * 
+	 * @param digest
+	 * @param delta
+	 * @return number of updated contents
+	 */
+	private int updateRefCount(String digest, int delta) {
+		Query query = manager.createQuery("UPDATE FileContent f SET f.refCount = f.refCount + :delta WHERE f.id = :id");
+		query.setParameter("delta", delta);
+		query.setParameter("id", digest);
+		return query.executeUpdate();
+	}
+
+	/**
+	 * Decrements the reference count of the given file contents. A content is
+	 * removed if it is no longer referred by any document.
+	 * 
+	 * @param digests
+	 */
+	private void releaseFiles(Set<String> digests) {
+		Set<String> releasedDigests = getReleasedFileContents();
+		for (String digest : digests) {
+			// the update locks the row of the content until the end of the
+			// transaction
+			if (releasedDigests != null) {
+				releasedDigests.add(digest);
+			}
+			if (updateRefCount(digest, -1) == 0) {
+				continue;
+			}
+			Query query = manager.createQuery("DELETE FROM FileContent f WHERE f.id = :id AND f.refCount <= 0");
+			query.setParameter("id", digest);
+			query.executeUpdate();
+		}
+	}
+
+	/**
+	 * Returns the digests of the file contents released by the current
+	 * transaction. The method returns null if no transaction is active.
+	 */
+	@SuppressWarnings("unchecked")
+	private Set<String> getReleasedFileContents() {
+		if (transactionSynchronizationRegistry == null
+				|| transactionSynchronizationRegistry.getTransactionKey() == null) {
+			return null;
+		}
+		Set<String> releasedDigests = (Set<String>) transactionSynchronizationRegistry
+				.getResource(RELEASED_FILE_CONTENTS);
+		if (releasedDigests == null) {
+			releasedDigests = new HashSet<String>();
+			transactionSynchronizationRegistry.putResource(RELEASED_FILE_CONTENTS, releasedDigests);
+		}
+		return releasedDigests;
+	}
+
+	/**
+	 * Returns the file data with the content loaded from the FileContent
+	 * referred by the given file data. If the file data is not a reference, the
+	 * file data is returned as is.
+	 * 
+	 * @param fileData
+	 * @return file data containing the contentType and the content
+	 */
+	private List<Object> loadFileContent(List<Object> fileData) {
+		String digest = FileContent.getDigest(fileData);
+		if (digest == null) {
+			return fileData;
+		}
+		FileContent fileContent = manager.find(FileContent.class, digest);
+		if (fileContent == null) {
+			logger.warning("getFile - file content '" + digest + "' not found!");
+			return fileData;
+		}
+		List<Object> result = new ArrayList<Object>(2);
+		result.add(fileData.get(0));
+		result.add(fileContent.getData());
+		// the content is read only and the refCount is updated by bulk updates, so
+		// the entity is not kept in the persistence context
+		manager.detach(fileContent);
+		return result;
+	}
+
+	/**
+	 * The CallerAccess evaluates the roles and names of the CallerPrincipal once
+	 * to test the access level of a collection of documents.
+	 * 
+	 * @see isCallerReader, isCallerAuthor
+	 */
+	private class CallerAccess {
+		private final boolean noAccess;
+		private final boolean managerAccess;
+		private final boolean editorAccess;
+		private final boolean authorAccess;
+		private final Set<String> userNames;
+
+		CallerAccess() {
+			noAccess = ctx.isCallerInRole(ACCESSLEVEL_NOACCESS);
+			managerAccess = ctx.isCallerInRole(ACCESSLEVEL_MANAGERACCESS);
+			editorAccess = ctx.isCallerInRole(ACCESSLEVEL_EDITORACCESS);
+			authorAccess = ctx.isCallerInRole(ACCESSLEVEL_AUTHORACCESS);
+			userNames = new HashSet<String>(getUserNameList());
+		}
+
+		boolean isCreator() {
+			return managerAccess || editorAccess || authorAccess;
+		}
+
+		@SuppressWarnings("unchecked")
+		boolean isReader(Document document) {
+			if (noAccess) {
+				return false;
+			}
+			if (managerAccess) {
+				return true;
+			}
+			List<String> readAccessList = ItemCollection.createByReference(document.getData())
+					.getItemValue(READACCESS);
+			return isEmptyList(readAccessList) || isContained(readAccessList);
+		}
+
+		@SuppressWarnings("unchecked")
+		boolean isAuthor(Document document) {
+			if (noAccess) {
+				return false;
+			}
+			if (managerAccess || editorAccess) {
+				return true;
+			}
+			if (authorAccess) {
+				return isContained(ItemCollection.createByReference(document.getData()).getItemValue(WRITEACCESS));
+			}
+			return false;
+		}
+
+		private boolean isContained(List<String> nameList) {
+			for (String aName : nameList) {
+				if (aName != null && !aName.isEmpty() && userNames.contains(aName)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
 	/**
 	 * This method checks if the Caller Principal has read access for the document.
 	 * 
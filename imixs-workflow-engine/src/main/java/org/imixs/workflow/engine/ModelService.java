@@ -32,6 +32,7 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -88,6 +89,7 @@ import org.imixs.workflow.exceptions.QueryException;
 public class ModelService implements ModelManager {
 
 	private Map<String, Model> modelStore = null;
+	private Map<String, PluginPipeline> pluginPipelineStore = new HashMap<String, PluginPipeline>();
 	private static Logger logger = Logger.getLogger(ModelService.class.getName());
 	@EJB
 	DocumentService documentService;
@@ -112,6 +114,7 @@ public class ModelService implements ModelManager {
 		// first remove existing model entities
 		Collection<ItemCollection> col = documentService.getDocumentsByType("model");
 		for (ItemCollection modelEntity : col) {
+			documentService.loadFiles(modelEntity);
 			Map<String, List<Object>> files = modelEntity.getFiles();
 			if (files != null) {
 				Iterator<Map.Entry<String, List<Object>>> entries = files.entrySet().iterator();
@@ -147,6 +150,7 @@ public class ModelService implements ModelManager {
 		
 		logger.fine("add BPMNModel '" + modelVersion + "'...");
 		getModelStore().put(modelVersion, model);
+		pluginPipelineStore.put(modelVersion, new PluginPipeline(model));
 	}
 
 	/**
@@ -157,6 +161,7 @@ public class ModelService implements ModelManager {
 	 */
 	public void removeModel(String modelversion) {
 		getModelStore().remove(modelversion);
+		pluginPipelineStore.remove(modelversion);
 		logger.fine("removed BPMNModel '" + modelversion + "'...");
 	}
 
@@ -174,6 +179,26 @@ public class ModelService implements ModelManager {
 		return model;
 	}
 
+	/**
+	 * Returns the PluginPipeline of a model. The pipeline is created once when
+	 * the model is added and replaced if the model is updated.
+	 * 
+	 * @param model
+	 * @return plugin pipeline of the model
+	 */
+	public PluginPipeline getPluginPipeline(Model model) {
+		String modelVersion = model.getVersion();
+		PluginPipeline pipeline = pluginPipelineStore.get(modelVersion);
+		if (pipeline == null || pipeline.getModel() != model) {
+			// model was not added by this ModelService
+			pipeline = new PluginPipeline(model);
+			if (getModelStore().get(modelVersion) == model) {
+				pluginPipelineStore.put(modelVersion, pipeline);
+			}
+		}
+		return pipeline;
+	}
+
 	/**
 	 * Returns a Model matching a given workitem. In case not matching model
 	 * version exits, the method returns the highest Model Version matching the
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.Model;
+
+/**
+ * The PluginPipeline holds the plugins defined by the item 'txtPlugins' of a
+ * model definition. The plugin classes are resolved once when the pipeline is
+ * created. A pipeline is immutable and cached by the ModelService for each
+ * model version, so the WorkflowService does not need to read the model
+ * definition and load the plugin classes for each processing call.
+ * <p>
+ * The pipeline holds no plugin instances, because plugins are stateful and are
+ * initialized for each processing call.
+ * 
+ * @see org.imixs.workflow.engine.ModelService
+ * @author rsoika
+ * 
+ */
+public class PluginPipeline {
+
+	private static Logger logger = Logger.getLogger(PluginPipeline.class.getName());
+
+	private final Model model;
+	private final List<String> pluginClassNames;
+	private final Map<String, Class<?>> pluginClasses;
+
+	/**
+	 * Creates a new pipeline for the given model.
+	 * 
+	 * @param model
+	 */
+	@SuppressWarnings("unchecked")
+	public PluginPipeline(Model model) {
+		super();
+		this.model = model;
+		List<String> names = new ArrayList<String>();
+		Map<String, Class<?>> classes = new HashMap<String, Class<?>>();
+		ItemCollection definition = model.getDefinition();
+		if (definition != null) {
+			for (Object value : definition.getItemValue("txtPlugins")) {
+				if (value == null || value.toString().isEmpty()) {
+					continue;
+				}
+				String pluginClassName = value.toString();
+				names.add(pluginClassName);
+				try {
+					classes.put(pluginClassName, Class.forName(pluginClassName));
+				} catch (ClassNotFoundException e) {
+					// the WorkflowKernel will throw a PluginException on processing
+					logger.warning("Plugin class '" + pluginClassName + "' not found (model version '"
+							+ model.getVersion() + "')");
+				}
+			}
+		}
+		this.pluginClassNames = Collections.unmodifiableList(names);
+		this.pluginClasses = Collections.unmodifiableMap(classes);
+	}
+
+	/**
+	 * Returns the model of this pipeline.
+	 * 
+	 * @return
+	 */
+	public Model getModel() {
+		return model;
+	}
+
+	/**
+	 * Returns the plugin class names in the order defined by the model.
+	 * 
+	 * @return unmodifiable list of class names
+	 */
+	public List<String> getPluginClassNames() {
+		return pluginClassNames;
+	}
+
+	/**
+	 * Returns the plugin class for a class name or null if the class could not be
+	 * loaded.
+	 * 
+	 * @param pluginClassName
+	 * @return plugin class or null
+	 */
+	public Class<?> getPluginClass(String pluginClassName) {
+		return pluginClasses.get(pluginClassName);
+	}
+}
@@ -563,7 +563,6 @@ public class WorkflowService implements WorkflowManager, WorkflowContext {
 	 *             - thrown if processing by a plugin fails
 	 * @throws ModelException
 	 */
-	@SuppressWarnings("unchecked")
 	public ItemCollection processWorkItem(ItemCollection workitem)
 			throws AccessDeniedException, ProcessingErrorException, PluginException, ModelException {
 
@@ -601,8 +600,11 @@ public class WorkflowService implements WorkflowManager, WorkflowContext {
 			// merge workitem into current instance (issue #86)
 			// an instance of this WorkItem still exists! so we update the new
 			// values....
-			// currentInstance.getAllItems().putAll(workitem.getAllItems());
-			currentInstance.replaceAllItems(workitem.getAllItems());
+			// The values are not copied here because the WorkflowKernel makes a
+			// deep copy of the merged instance before any plugin is called.
+			for (Map.Entry<String, List<Object>> entry : workitem.getAllItems().entrySet()) {
+				currentInstance.replaceItemValue(entry.getKey(), entry.getValue());
+			}
 			workitem = currentInstance;
 
 		}
@@ -619,25 +621,23 @@ public class WorkflowService implements WorkflowManager, WorkflowContext {
 					ProcessingErrorException.INVALID_PROCESSID, e.getMessage(), e);
 		}
 
-		// Fetch the current Profile Entity for this version.
-		ItemCollection profile = model.getDefinition();
+		// register plugins defined by the model definition ....
 		WorkflowKernel workflowkernel = new WorkflowKernel(this);
-		// register plugins defined in the environment.profile ....
-		List<String> vPlugins = (List<String>) profile.getItemValue("txtPlugins");
-		for (int i = 0; i < vPlugins.size(); i++) {
-			String aPluginClassName = vPlugins.get(i);
-
-			Plugin aPlugin = findPluginByName(aPluginClassName);
-			// aPlugin=null;
+		PluginPipeline pluginPipeline = modelService.getPluginPipeline(model);
+		for (String aPluginClassName : pluginPipeline.getPluginClassNames()) {
+			Class<?> pluginClass = pluginPipeline.getPluginClass(aPluginClassName);
+			Plugin aPlugin = findPluginByClass(aPluginClassName, pluginClass);
 			if (aPlugin != null) {
 				// register injected CDI Plugin
 				logger.fine("register CDI plugin class: " + aPluginClassName + "...");
 				workflowkernel.registerPlugin(aPlugin);
+			} else if (pluginClass != null) {
+				// register plugin by class
+				workflowkernel.registerPlugin(pluginClass);
 			} else {
 				// register plugin by class name
 				workflowkernel.registerPlugin(aPluginClassName);
 			}
-
 		}
 
 		// identify Caller and update CurrentEditor
@@ -962,6 +962,36 @@ public class WorkflowService implements WorkflowManager, WorkflowContext {
 		return evalWorkflowResult(activityEntity, documentContext, true);
 	}
 
+	/**
+	 * This method returns an injected Plugin by its class or null if no plugin
+	 * with the requested class is injected. If the class is not known, the method
+	 * searches the plugin by name.
+	 * 
+	 * @param pluginClassName
+	 * @param pluginClass
+	 *            - the plugin class or null
+	 * @return plugin or null if not found
+	 */
+	private Plugin findPluginByClass(String pluginClassName, Class<?> pluginClass) {
+		if (pluginClass == null || plugins == null || !Plugin.class.isAssignableFrom(pluginClass)) {
+			return findPluginByName(pluginClassName);
+		}
+		Instance<? extends Plugin> instance = plugins.select(pluginClass.asSubclass(Plugin.class));
+		if (instance.isUnsatisfied()) {
+			return null;
+		}
+		if (instance.isAmbiguous()) {
+			return findPluginByName(pluginClassName);
+		}
+		Plugin plugin = instance.get();
+		// plugins with a normal scope are proxies and not supported
+		if (plugin.getClass().getName().equals(pluginClassName)) {
+			logger.fine("[WorkflowService] CDI plugin '" + pluginClassName + "' successful injected");
+			return plugin;
+		}
+		return null;
+	}
+
 	/**
 	 * This method returns a n injected Plugin by name or null if not plugin with
 	 * the requested class name is injected.
@@ -1,7 +1,11 @@
 package org.imixs.workflow.engine.adminp;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import javax.annotation.Resource;
@@ -113,19 +117,28 @@ public class JobHandlerMigration3X implements JobHandler {
 		logger.info("Job " + AdminPService.JOB_MIGRATION + " (" + adminp.getUniqueID() + ") - verifying " + col.size() + " Entity objects for migration. ("
 				+ iUpdates + " Entity objects already migrated) ...");
 
+		// test which entities we already have migrated
+		List<String> uids = new ArrayList<String>();
+		for (ItemCollection oldEntiy : col) {
+			uids.add(oldEntiy.getUniqueID());
+		}
+		Set<String> migratedIDs = new HashSet<String>();
+		for (ItemCollection migratedEntity : documentService.load(uids)) {
+			migratedIDs.add(migratedEntity.getUniqueID());
+		}
+		List<ItemCollection> newDocuments = new ArrayList<ItemCollection>();
 		for (ItemCollection oldEntiy : col) {
-			// test if we already have migrated this entity
 			String uid = oldEntiy.getUniqueID();
-			ItemCollection migratedEntity = documentService.load(uid);
-			if (migratedEntity == null) {
+			if (!migratedIDs.contains(uid)) {
 				// create log entry....
 				oldEntiy.appendItemValue("txtAdminpLog", new Date(System.currentTimeMillis()) + " Migrated from Imixs-Workflow 3.X");
-				// save as new Document
-				documentService.save(oldEntiy);
+				newDocuments.add(oldEntiy);
 				logger.info("  -> Entity '" + uid + "' migrated.");
 				iUpdates++;
 			}
 		}
+		// save as new Documents
+		documentService.saveAll(newDocuments);
 
 		iIndex = iIndex + col.size();
 
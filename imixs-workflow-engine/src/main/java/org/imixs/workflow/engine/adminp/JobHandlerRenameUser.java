@@ -1,5 +1,6 @@
 package org.imixs.workflow.engine.adminp;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
@@ -20,6 +21,7 @@ import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.WorkflowKernel;
 import org.imixs.workflow.engine.DocumentService;
 import org.imixs.workflow.engine.lucene.LuceneUpdateService;
+import org.imixs.workflow.engine.lucene.SearchResult;
 import org.imixs.workflow.exceptions.AccessDeniedException;
 import org.imixs.workflow.exceptions.InvalidAccessException;
 import org.imixs.workflow.exceptions.QueryException;
@@ -131,25 +133,30 @@ public class JobHandlerRenameUser implements JobHandler {
 				+ fromUserID + "\" OR $creator:\"" + fromUserID + "\" OR namcreator:\"" + fromUserID + "\" )";
 
 		Collection<ItemCollection> col;
+		String cursor = adminp.getItemValueString("txtCursor");
 		try {
 			// ASC sorting is important here!
-			col = documentService.find(sQuery, iBlockSize, iIndex, "$created", false);
+			SearchResult searchResult = documentService.find(sQuery, iBlockSize, cursor, "$created", false, null);
+			col = searchResult.getDocuments();
+			cursor = searchResult.getCursor();
 		} catch (QueryException e) {
 			throw new InvalidAccessException(InvalidAccessException.INVALID_ID, e.getMessage(), e);
 		}
 		int colSize = col.size();
 		// check all selected documents
-		for (ItemCollection entity : col) {
-			iProcessed++;
-			// call from new instance because of transaction new...
-			// see: http://blog.imixs.org/?p=155
-			// see: https://www.java.net/node/705304
-			boolean result = ctx.getBusinessObject(JobHandlerRenameUser.class).updateWorkitemUserIds(entity, fromUserID,
+		iProcessed += colSize;
+		// call from new instance because of transaction new...
+		// see: http://blog.imixs.org/?p=155
+		// see: https://www.java.net/node/705304
+		try {
+			iUpdates += ctx.getBusinessObject(JobHandlerRenameUser.class).updateWorkitemUserIds(col, fromUserID,
 					toUserID, replace);
-			if (result == true) {
-				// inc counter
-				iUpdates++;
-			}
+		} catch (RuntimeException e) {
+			// the block was rolled back, so we update the workitems one by one to
+			// skip only the workitems which can not be saved
+			logger.warning("Job " + AdminPService.JOB_RENAME_USER + " (" + adminp.getUniqueID()
+					+ ") - block update failed, updating workitems one by one: " + e.getMessage());
+			iUpdates += updateWorkitemUserIdsOneByOne(col, fromUserID, toUserID, replace);
 		}
 
 		// adjust start pos and update count
@@ -158,14 +165,15 @@ public class JobHandlerRenameUser implements JobHandler {
 		adminp.replaceItemValue("numLastCount", col.size());
 		iIndex++;
 		adminp.replaceItemValue("numIndex", iIndex);
+		adminp.replaceItemValue("txtCursor", cursor != null ? cursor : "");
 
 		long time = (System.currentTimeMillis() - lProfiler) / 1000;
 
 		logger.info("Job " + AdminPService.JOB_RENAME_USER + " (" + adminp.getUniqueID() + ") - " + col.size()
 				+ " workitems processed in " + time + " sec.");
 
-		// if colSize<numBlockSize we can stop the timer
-		if (colSize < iBlockSize) {
+		// if no cursor is returned we can stop the timer
+		if (colSize < iBlockSize || cursor == null) {
 			// prepare for rerun
 			adminp.replaceItemValue("$workflowStatus", "Finished");
 			adminp = ctx.getBusinessObject(JobHandlerRenameUser.class).saveJobEntity(adminp);
@@ -193,6 +201,81 @@ public class JobHandlerRenameUser implements JobHandler {
 	public boolean updateWorkitemUserIds(ItemCollection entity, String from, String to, boolean replace)
 			throws AccessDeniedException {
 
+		if (updateUserIds(entity, from, to, replace)) {
+			documentService.save(entity);
+			logger.fine("updated: " + entity.getItemValueString(WorkflowKernel.UNIQUEID));
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Updates read,write and owner of a collection of entities. All modified
+	 * entities are saved together in one transaction. If one entity can not be
+	 * saved, no entity is updated and the method throws an exception. In this
+	 * case the run method updates the entities one by one.
+	 * 
+	 * @param entities
+	 * @param from
+	 * @param to
+	 * @param replace
+	 * @return number of modified entities
+	 * @throws AccessDeniedException
+	 */
+	@TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
+	public int updateWorkitemUserIds(Collection<ItemCollection> entities, String from, String to, boolean replace)
+			throws AccessDeniedException {
+
+		List<ItemCollection> updates = new ArrayList<ItemCollection>();
+		for (ItemCollection entity : entities) {
+			if (updateUserIds(entity, from, to, replace)) {
+				updates.add(entity);
+			}
+		}
+		documentService.saveAll(updates);
+		logger.fine("updated: " + updates.size() + " of " + entities.size() + " workitems");
+		return updates.size();
+	}
+
+	/**
+	 * Updates read,write and owner of a collection of entities. Each entity is
+	 * loaded again and saved in a separate transaction. An entity which can not
+	 * be saved is skipped. The method is used if the update of a block of
+	 * entities failed.
+	 * 
+	 * @param entities
+	 * @param from
+	 * @param to
+	 * @param replace
+	 * @return number of modified entities
+	 */
+	private int updateWorkitemUserIdsOneByOne(Collection<ItemCollection> entities, String from, String to,
+			boolean replace) {
+		int updates = 0;
+		for (ItemCollection entity : entities) {
+			String id = entity.getItemValueString(WorkflowKernel.UNIQUEID);
+			try {
+				// the entity is loaded again, because the failed block may have
+				// modified the given entity
+				ItemCollection workitem = documentService.load(id);
+				if (ctx.getBusinessObject(JobHandlerRenameUser.class).updateWorkitemUserIds(workitem, from, to,
+						replace)) {
+					updates++;
+				}
+			} catch (RuntimeException e) {
+				logger.warning("unable to update workitem '" + id + "': " + e.getMessage());
+			}
+		}
+		return updates;
+	}
+
+	/**
+	 * Updates read,write and owner of a entity without saving it. If the entity
+	 * was modified, a log entry is added.
+	 * 
+	 * @return true if the entity was modified.
+	 */
+	private boolean updateUserIds(ItemCollection entity, String from, String to, boolean replace) {
 		boolean bUpdate = false;
 		if (entity == null)
 			return false;
@@ -217,8 +300,6 @@ public class JobHandlerRenameUser implements JobHandler {
 			// create log entry....
 			String summary = "Rename: " + from + " -> " + to + " (replace=" + replace + ")";
 			entity.appendItemValue("txtAdminpLog", new Date(System.currentTimeMillis()) + " " + summary);
-			documentService.save(entity);
-			logger.fine("updated: " + entity.getItemValueString(WorkflowKernel.UNIQUEID));
 		}
 		return bUpdate;
 	}
@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.Map;
 
 import javax.persistence.Basic;
+import javax.persistence.Column;
 import javax.persistence.FetchType;
 import javax.persistence.Id;
 import javax.persistence.Lob;
@@ -68,7 +69,10 @@ import org.imixs.workflow.WorkflowKernel;
  * mapped to the type property.
  * <p>
  * The data attribute is used to hold the ItemCollection data. It is mapped by a
- * OR-Mapper to a large object (Lob).
+ * OR-Mapper to a large object (Lob). The data is converted by the DocumentCodec
+ * into a compact binary format. Data stored as a serialized Java object by
+ * former versions is read and converted with the next update. Changes of the
+ * data must be applied by the method setData or encodeData.
  * 
  * A Client should not work directly with an instance of the Document entity.
  * It's recommended to use the DocumentService which acts as a session facade to
@@ -92,6 +96,7 @@ public class Document implements java.io.Serializable {
 	private Calendar created;
 	private Calendar modified;
 	private Map<String, List<Object>> data;
+	private byte[] rawData;
 	private boolean pending;
 
 	/**
@@ -217,14 +222,15 @@ public class Document implements java.io.Serializable {
 	/**
 	 * returns the data object part of the Entity represented by a java.util.Map
 	 * 
-	 * Data is loaded eager because it is read in any case by the
-	 * DocumentService.
+	 * The map is decoded from the raw data on the first call.
 	 * 
 	 * @return Map
 	 */
-	@Lob
-	@Basic(fetch = FetchType.EAGER)
+	@Transient
 	public Map<String, List<Object>> getData() {
+		if (data == null && rawData != null) {
+			data = DocumentCodec.decode(rawData);
+		}
 		return data;
 	}
 
@@ -235,6 +241,49 @@ public class Document implements java.io.Serializable {
 	 */
 	public void setData(Map<String, List<Object>> itemCol) {
 		this.data = itemCol;
+		// encode the data with the next flush
+		this.rawData = null;
+	}
+
+	/**
+	 * sets a data object for this Entity and encodes the data immediately. In
+	 * difference to the method setData the entity does not keep a reference to
+	 * the given map. So the map can be changed by the caller after this call
+	 * without changing the persisted data. The method can be used instead of
+	 * making a deep copy of the data.
+	 * 
+	 * @param itemCol
+	 */
+	public void encodeData(Map<String, List<Object>> itemCol) {
+		this.rawData = DocumentCodec.encode(itemCol);
+		// decoded on the next call of getData
+		this.data = null;
+	}
+
+	/**
+	 * returns the encoded data persisted in the column 'DATA'. The data is
+	 * encoded only if it was changed by the method setData. So a document which
+	 * was just read is not updated.
+	 * 
+	 * Data is loaded eager because it is read in any case by the
+	 * DocumentService.
+	 * 
+	 * @see DocumentCodec
+	 * @return encoded data
+	 */
+	@Lob
+	@Basic(fetch = FetchType.EAGER)
+	@Column(name = "DATA")
+	protected byte[] getRawData() {
+		if (rawData == null && data != null) {
+			rawData = DocumentCodec.encode(data);
+		}
+		return rawData;
+	}
+
+	protected void setRawData(byte[] rawData) {
+		this.rawData = rawData;
+		this.data = null;
 	}
 
 }
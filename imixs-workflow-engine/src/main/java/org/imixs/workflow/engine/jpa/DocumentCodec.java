@@ -0,0 +1,592 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine.jpa;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.imixs.workflow.SingleValueList;
+
+/**
+ * The DocumentCodec converts the data of a Document entity into a byte array
+ * and back. The data is a map of item names and value lists.
+ * <p>
+ * The codec writes a compact binary format. The format starts with the magic
+ * bytes 'IX' and a format version followed by the data encoded as
+ * tag-length-value entries. The known value types of an item (String, Integer,
+ * Long, Double, Float, Boolean, Date, byte[] and nested Lists and Maps like the
+ * file attachments of the item '$file') are written without class descriptors.
+ * Large text values are compressed with Deflate. All other values are written
+ * by Java serialization.
+ * <p>
+ * Data written by former versions as a serialized Java object is detected by
+ * the serialization stream header and deserialized. So existing documents can
+ * be read and are converted into the binary format with the next save.
+ * <p>
+ * The system property 'imixs.document.dataformat=serialized' can be set to
+ * write the former format, e.g. during the migration of a cluster.
+ * 
+ * @see Document
+ * @author rsoika
+ * @version 1.0
+ */
+public class DocumentCodec {
+
+	public static final String PROPERTY_DATA_FORMAT = "imixs.document.dataformat";
+	public static final String FORMAT_BINARY = "binary";
+	public static final String FORMAT_SERIALIZED = "serialized";
+
+	public static final int FORMAT_VERSION = 1;
+	// text values larger than this number of bytes are compressed
+	public static final int COMPRESSION_THRESHOLD = 4096;
+
+	private static final byte MAGIC_1 = 'I';
+	private static final byte MAGIC_2 = 'X';
+	// header of a Java serialization stream
+	private static final byte STREAM_MAGIC_1 = (byte) 0xAC;
+	private static final byte STREAM_MAGIC_2 = (byte) 0xED;
+
+	private static final int TAG_NULL = 0;
+	private static final int TAG_STRING = 1;
+	private static final int TAG_STRING_DEFLATED = 2;
+	private static final int TAG_INTEGER = 3;
+	private static final int TAG_LONG = 4;
+	private static final int TAG_DOUBLE = 5;
+	private static final int TAG_FLOAT = 6;
+	private static final int TAG_TRUE = 7;
+	private static final int TAG_FALSE = 8;
+	private static final int TAG_DATE = 9;
+	private static final int TAG_BYTES = 10;
+	private static final int TAG_SHORT = 11;
+	private static final int TAG_BYTE = 12;
+	private static final int TAG_CHARACTER = 13;
+	private static final int TAG_BIGDECIMAL = 14;
+	private static final int TAG_BIGINTEGER = 15;
+	private static final int TAG_VECTOR = 16;
+	private static final int TAG_ARRAYLIST = 17;
+	private static final int TAG_LINKEDLIST = 18;
+	private static final int TAG_HASHTABLE = 19;
+	private static final int TAG_HASHMAP = 20;
+	private static final int TAG_LINKEDHASHMAP = 21;
+	private static final int TAG_TREEMAP = 22;
+	private static final int TAG_SERIALIZED = 23;
+
+	private static final boolean writeSerialized = FORMAT_SERIALIZED
+			.equalsIgnoreCase(System.getProperty(PROPERTY_DATA_FORMAT, FORMAT_BINARY));
+
+	private static Logger logger = Logger.getLogger(DocumentCodec.class.getName());
+
+	/**
+	 * Encodes the data of a document. The format depends on the system property
+	 * 'imixs.document.dataformat' (default = binary).
+	 * 
+	 * @param data
+	 * @return encoded data or null if data is null
+	 */
+	public static byte[] encode(Map<String, List<Object>> data) {
+		if (writeSerialized) {
+			return encodeSerialized(data);
+		}
+		return encodeBinary(data);
+	}
+
+	/**
+	 * Encodes the data of a document in the binary format.
+	 * 
+	 * @param data
+	 * @return encoded data or null if data is null
+	 */
+	public static byte[] encodeBinary(Map<String, List<Object>> data) {
+		if (data == null) {
+			return null;
+		}
+		Output out = new Output(256 + data.size() * 32);
+		out.writeByte(MAGIC_1);
+		out.writeByte(MAGIC_2);
+		out.writeByte(FORMAT_VERSION);
+		writeValue(out, data);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Encodes the data of a document as a serialized Java object (the former
+	 * format).
+	 * 
+	 * @param data
+	 * @return encoded data or null if data is null
+	 */
+	public static byte[] encodeSerialized(Map<String, List<Object>> data) {
+		if (data == null) {
+			return null;
+		}
+		return serialize(data);
+	}
+
+	/**
+	 * Decodes the data of a document. The method detects the format of the data.
+	 * 
+	 * @param data
+	 *            - binary format or serialized Java object
+	 * @return map of items or null if data is null
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, List<Object>> decode(byte[] data) {
+		if (data == null || data.length == 0) {
+			return null;
+		}
+		if (isSerialized(data)) {
+			return (Map<String, List<Object>>) deserialize(data, 0, data.length);
+		}
+		if (data.length < 3 || data[0] != MAGIC_1 || data[1] != MAGIC_2) {
+			throw new IllegalArgumentException("Unknown document data format");
+		}
+		if (data[2] != FORMAT_VERSION) {
+			throw new IllegalArgumentException("Unsupported document data format version " + data[2]);
+		}
+		Input in = new Input(data, 3);
+		return (Map<String, List<Object>>) readValue(in);
+	}
+
+	/**
+	 * Returns true if the data is a serialized Java object (the former format)
+	 * 
+	 * @param data
+	 * @return true if serialized
+	 */
+	public static boolean isSerialized(byte[] data) {
+		return data != null && data.length > 1 && data[0] == STREAM_MAGIC_1 && data[1] == STREAM_MAGIC_2;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void writeValue(Output out, Object value) {
+		if (value == null) {
+			out.writeByte(TAG_NULL);
+			return;
+		}
+		Class<?> clazz = value.getClass();
+		if (clazz == String.class) {
+			writeString(out, (String) value);
+		} else if (clazz == Integer.class) {
+			out.writeByte(TAG_INTEGER);
+			out.writeVarLong(zigZag((Integer) value));
+		} else if (clazz == Long.class) {
+			out.writeByte(TAG_LONG);
+			out.writeVarLong(zigZag((Long) value));
+		} else if (clazz == Double.class) {
+			out.writeByte(TAG_DOUBLE);
+			out.writeLong(Double.doubleToLongBits((Double) value));
+		} else if (clazz == Float.class) {
+			out.writeByte(TAG_FLOAT);
+			out.writeInt(Float.floatToIntBits((Float) value));
+		} else if (clazz == Boolean.class) {
+			out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+		} else if (clazz == Date.class) {
+			// subclasses like java.sql.Timestamp are serialized
+			out.writeByte(TAG_DATE);
+			out.writeVarLong(zigZag(((Date) value).getTime()));
+		} else if (clazz == byte[].class) {
+			out.writeByte(TAG_BYTES);
+			out.writeBytes((byte[]) value);
+		} else if (clazz == Short.class) {
+			out.writeByte(TAG_SHORT);
+			out.writeVarLong(zigZag((Short) value));
+		} else if (clazz == Byte.class) {
+			out.writeByte(TAG_BYTE);
+			out.writeByte((Byte) value);
+		} else if (clazz == Character.class) {
+			out.writeByte(TAG_CHARACTER);
+			out.writeVarLong((Character) value);
+		} else if (clazz == BigDecimal.class) {
+			out.writeByte(TAG_BIGDECIMAL);
+			out.writeBytes(value.toString().getBytes(StandardCharsets.UTF_8));
+		} else if (clazz == BigInteger.class) {
+			out.writeByte(TAG_BIGINTEGER);
+			out.writeBytes(((BigInteger) value).toByteArray());
+		} else if (clazz == Vector.class || clazz == SingleValueList.class) {
+			// a SingleValueList is serialized as a Vector
+			writeList(out, TAG_VECTOR, (List<Object>) value);
+		} else if (clazz == ArrayList.class || "java.util.Arrays$ArrayList".equals(clazz.getName())) {
+			writeList(out, TAG_ARRAYLIST, (List<Object>) value);
+		} else if (clazz == LinkedList.class) {
+			writeList(out, TAG_LINKEDLIST, (List<Object>) value);
+		} else if (clazz == Hashtable.class) {
+			writeMap(out, TAG_HASHTABLE, (Map<Object, Object>) value);
+		} else if (clazz == HashMap.class) {
+			writeMap(out, TAG_HASHMAP, (Map<Object, Object>) value);
+		} else if (clazz == LinkedHashMap.class) {
+			writeMap(out, TAG_LINKEDHASHMAP, (Map<Object, Object>) value);
+		} else if (clazz == TreeMap.class && ((TreeMap<Object, Object>) value).comparator() == null) {
+			writeMap(out, TAG_TREEMAP, (Map<Object, Object>) value);
+		} else {
+			// fallback
+			out.writeByte(TAG_SERIALIZED);
+			out.writeBytes(serialize(value));
+		}
+	}
+
+	private static void writeString(Output out, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > COMPRESSION_THRESHOLD) {
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			try {
+				deflater.setInput(bytes);
+				deflater.finish();
+				byte[] buffer = new byte[bytes.length];
+				int length = deflater.deflate(buffer);
+				if (deflater.finished() && length < bytes.length) {
+					out.writeByte(TAG_STRING_DEFLATED);
+					out.writeVarLong(bytes.length);
+					out.writeBytes(buffer, length);
+					return;
+				}
+			} finally {
+				deflater.end();
+			}
+		}
+		out.writeByte(TAG_STRING);
+		out.writeBytes(bytes);
+	}
+
+	private static void writeList(Output out, int tag, List<Object> list) {
+		out.writeByte(tag);
+		out.writeVarLong(list.size());
+		for (Object element : list) {
+			writeValue(out, element);
+		}
+	}
+
+	private static void writeMap(Output out, int tag, Map<Object, Object> map) {
+		out.writeByte(tag);
+		out.writeVarLong(map.size());
+		for (Map.Entry<Object, Object> entry : map.entrySet()) {
+			writeValue(out, entry.getKey());
+			writeValue(out, entry.getValue());
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object readValue(Input in) {
+		int tag = in.readByte();
+		switch (tag) {
+		case TAG_NULL:
+			return null;
+		case TAG_STRING:
+			return in.readString();
+		case TAG_STRING_DEFLATED:
+			return readDeflatedString(in);
+		case TAG_INTEGER:
+			return (int) unZigZag(in.readVarLong());
+		case TAG_LONG:
+			return unZigZag(in.readVarLong());
+		case TAG_DOUBLE:
+			return Double.longBitsToDouble(in.readLong());
+		case TAG_FLOAT:
+			return Float.intBitsToFloat(in.readInt());
+		case TAG_TRUE:
+			return Boolean.TRUE;
+		case TAG_FALSE:
+			return Boolean.FALSE;
+		case TAG_DATE:
+			return new Date(unZigZag(in.readVarLong()));
+		case TAG_BYTES:
+			return in.readBytes();
+		case TAG_SHORT:
+			return (short) unZigZag(in.readVarLong());
+		case TAG_BYTE:
+			return (byte) in.readByte();
+		case TAG_CHARACTER:
+			return (char) in.readVarLong();
+		case TAG_BIGDECIMAL:
+			return new BigDecimal(in.readString());
+		case TAG_BIGINTEGER:
+			return new BigInteger(in.readBytes());
+		case TAG_VECTOR: {
+			int size = in.readSize();
+			return readList(in, new Vector<Object>(size), size);
+		}
+		case TAG_ARRAYLIST: {
+			int size = in.readSize();
+			return readList(in, new ArrayList<Object>(size), size);
+		}
+		case TAG_LINKEDLIST:
+			return readList(in, new LinkedList<Object>(), in.readSize());
+		case TAG_HASHTABLE: {
+			int size = in.readSize();
+			return readMap(in, new Hashtable(Math.max(11, size * 4 / 3 + 1)), size);
+		}
+		case TAG_HASHMAP: {
+			int size = in.readSize();
+			return readMap(in, new HashMap(Math.max(16, size * 4 / 3 + 1)), size);
+		}
+		case TAG_LINKEDHASHMAP: {
+			int size = in.readSize();
+			return readMap(in, new LinkedHashMap(Math.max(16, size * 4 / 3 + 1)), size);
+		}
+		case TAG_TREEMAP:
+			return readMap(in, new TreeMap(), in.readSize());
+		case TAG_SERIALIZED: {
+			int length = in.readSize();
+			in.checkLength(length);
+			Object value = deserialize(in.buffer, in.pos, length);
+			in.pos += length;
+			return value;
+		}
+		default:
+			throw new IllegalArgumentException("Invalid document data - unknown tag " + tag);
+		}
+	}
+
+	private static String readDeflatedString(Input in) {
+		int length = in.readSize();
+		int compressedLength = in.readSize();
+		in.checkLength(compressedLength);
+		byte[] bytes = new byte[length];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(in.buffer, in.pos, compressedLength);
+			int read = inflater.inflate(bytes);
+			if (read != length) {
+				throw new IllegalArgumentException("Invalid document data - compressed text is corrupt");
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Invalid document data - " + e.getMessage(), e);
+		} finally {
+			inflater.end();
+		}
+		in.pos += compressedLength;
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static List<Object> readList(Input in, List<Object> list, int size) {
+		for (int i = 0; i < size; i++) {
+			list.add(readValue(in));
+		}
+		return list;
+	}
+
+	private static Map<Object, Object> readMap(Input in, Map<Object, Object> map, int size) {
+		for (int i = 0; i < size; i++) {
+			Object key = readValue(in);
+			map.put(key, readValue(in));
+		}
+		return map;
+	}
+
+	private static byte[] serialize(Object value) {
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bos);
+			oos.writeObject(value);
+			oos.close();
+			return bos.toByteArray();
+		} catch (IOException e) {
+			logger.severe("Unable to serialize object of type '" + value.getClass().getName() + "' - " + e);
+			throw new IllegalArgumentException("Unable to serialize object of type '" + value.getClass().getName()
+					+ "'", e);
+		}
+	}
+
+	private static Object deserialize(byte[] data, int offset, int length) {
+		try {
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data, offset, length));
+			return ois.readObject();
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Invalid document data - " + e.getMessage(), e);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalArgumentException("Invalid document data - " + e.getMessage(), e);
+		}
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * A growing byte buffer
+	 */
+	private static class Output {
+		private byte[] buffer;
+		private int pos = 0;
+
+		Output(int size) {
+			buffer = new byte[size];
+		}
+
+		private void ensureCapacity(int length) {
+			if (pos + length > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, pos + length));
+			}
+		}
+
+		void writeByte(int value) {
+			ensureCapacity(1);
+			buffer[pos++] = (byte) value;
+		}
+
+		void writeVarLong(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7FL) != 0) {
+				buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[pos++] = (byte) value;
+		}
+
+		void writeInt(int value) {
+			ensureCapacity(4);
+			for (int i = 24; i >= 0; i -= 8) {
+				buffer[pos++] = (byte) (value >>> i);
+			}
+		}
+
+		void writeLong(long value) {
+			ensureCapacity(8);
+			for (int i = 56; i >= 0; i -= 8) {
+				buffer[pos++] = (byte) (value >>> i);
+			}
+		}
+
+		void writeBytes(byte[] bytes) {
+			writeBytes(bytes, bytes.length);
+		}
+
+		void writeBytes(byte[] bytes, int length) {
+			writeVarLong(length);
+			ensureCapacity(length);
+			System.arraycopy(bytes, 0, buffer, pos, length);
+			pos += length;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, pos);
+		}
+	}
+
+	/**
+	 * Reads from a byte array
+	 */
+	private static class Input {
+		private final byte[] buffer;
+		private int pos;
+
+		Input(byte[] buffer, int pos) {
+			this.buffer = buffer;
+			this.pos = pos;
+		}
+
+		int readByte() {
+			if (pos >= buffer.length) {
+				throw new IllegalArgumentException("Invalid document data - unexpected end of data");
+			}
+			return buffer[pos++];
+		}
+
+		long readVarLong() {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = readByte();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IllegalArgumentException("Invalid document data - malformed number");
+		}
+
+		int readSize() {
+			long size = readVarLong();
+			if (size < 0 || size > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Invalid document data - invalid size " + size);
+			}
+			return (int) size;
+		}
+
+		int readInt() {
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				value = (value << 8) | (readByte() & 0xFF);
+			}
+			return value;
+		}
+
+		long readLong() {
+			long value = 0;
+			for (int i = 0; i < 8; i++) {
+				value = (value << 8) | (readByte() & 0xFF);
+			}
+			return value;
+		}
+
+		byte[] readBytes() {
+			int length = readSize();
+			checkLength(length);
+			byte[] bytes = Arrays.copyOfRange(buffer, pos, pos + length);
+			pos += length;
+			return bytes;
+		}
+
+		String readString() {
+			int length = readSize();
+			checkLength(length);
+			String value = new String(buffer, pos, length, StandardCharsets.UTF_8);
+			pos += length;
+			return value;
+		}
+
+		void checkLength(int length) {
+			if (length > buffer.length - pos) {
+				throw new IllegalArgumentException("Invalid document data - unexpected end of data");
+			}
+		}
+	}
+}
@@ -0,0 +1,318 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine.jpa;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.imixs.workflow.SingleValueList;
+
+/**
+ * The FileContent entity holds the content of a file attachment stored in the
+ * item '$file' of a Document. The content is stored separately from the
+ * document data. So loading a document does not read the binary data of its
+ * attachments.
+ * <p>
+ * The id of a FileContent is the SHA-256 digest of the content. So a file
+ * attached to many documents (e.g. to the versions of a workitem) is stored
+ * only once. The refCount counts the documents referring to the content. The
+ * content is removed if the last document referring to it is updated or
+ * removed. The refCount is updated by bulk updates only, so the entity has no
+ * version and documents sharing a content can be saved concurrently.
+ * <p>
+ * In the document data a file attachment is stored as a reference. A reference
+ * is a list containing the content type, null instead of the content, the
+ * digest and the size of the content:
+ * 
+ * <pre>
+ * [contentType, null, digest, size]
+ * </pre>
+ * 
+ * So a reference can not be mistaken for an empty file.
+ * 
+ * The DocumentService replaces the content of new attachments by a reference
+ * when a document is saved and resolves references by the methods getFile()
+ * and loadFiles().
+ * 
+ * @see org.imixs.workflow.engine.DocumentService
+ * @author rsoika
+ * @version 1.0
+ */
+@javax.persistence.Entity
+public class FileContent implements java.io.Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private String id;
+	private Calendar created;
+	private long fileSize;
+	private int refCount;
+	private byte[] data;
+
+	public FileContent() {
+		super();
+	}
+
+	/**
+	 * Creates a new FileContent for the given data. The id is computed from the
+	 * data. The reference count of a new FileContent is 0 and is updated by the
+	 * DocumentService.
+	 * 
+	 * @param data
+	 */
+	public FileContent(byte[] data) {
+		this();
+		this.id = computeDigest(data);
+		this.data = data;
+		this.fileSize = data.length;
+		this.refCount = 0;
+		this.created = Calendar.getInstance();
+	}
+
+	/**
+	 * returns the SHA-256 digest of the content.
+	 * 
+	 * @return digest as hex string
+	 */
+	@Id
+	public String getId() {
+		return id;
+	}
+
+	protected void setId(String id) {
+		this.id = id;
+	}
+
+	@Temporal(TemporalType.TIMESTAMP)
+	public Calendar getCreated() {
+		return created;
+	}
+
+	public void setCreated(Calendar created) {
+		this.created = created;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	/**
+	 * returns the number of documents referring to this content.
+	 * 
+	 * @return reference count
+	 */
+	public int getRefCount() {
+		return refCount;
+	}
+
+	public void setRefCount(int refCount) {
+		this.refCount = refCount;
+	}
+
+	/**
+	 * returns the content. The content is loaded lazy.
+	 * 
+	 * @return content
+	 */
+	@Lob
+	@Basic(fetch = FetchType.LAZY)
+	@Column(name = "DATA")
+	public byte[] getData() {
+		return data;
+	}
+
+	public void setData(byte[] data) {
+		this.data = data;
+	}
+
+	/**
+	 * Computes the SHA-256 digest of the given data.
+	 * 
+	 * @param data
+	 * @return digest as lower case hex string
+	 */
+	public static String computeDigest(byte[] data) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			byte[] hash = md.digest(data);
+			StringBuilder sb = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+				sb.append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 is supported by every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Creates a file reference. The reference contains the content type, null
+	 * instead of the content, the digest and the size of the content.
+	 * 
+	 * @param contentType
+	 * @param digest
+	 * @param size
+	 * @return reference
+	 */
+	public static List<Object> createReference(String contentType, String digest, long size) {
+		List<Object> reference = new ArrayList<Object>(4);
+		reference.add(contentType);
+		reference.add(null);
+		reference.add(digest);
+		reference.add(Long.valueOf(size));
+		return reference;
+	}
+
+	/**
+	 * Returns true if the given file data is a reference to a FileContent.
+	 * 
+	 * @param fileData
+	 * @return true if the file data is a reference
+	 */
+	public static boolean isReference(List<?> fileData) {
+		return fileData != null && fileData.size() >= 3 && fileData.get(1) == null
+				&& fileData.get(2) instanceof String;
+	}
+
+	/**
+	 * Returns the digest of a file reference or null if the file data is not a
+	 * reference.
+	 * 
+	 * @param fileData
+	 * @return digest
+	 */
+	public static String getDigest(List<?> fileData) {
+		if (isReference(fileData)) {
+			return (String) fileData.get(2);
+		}
+		return null;
+	}
+
+	/**
+	 * Replaces the content of each file in the item '$file' of the given data by
+	 * a reference. Files which are already stored as a reference are not
+	 * changed.
+	 * <p>
+	 * The method replaces the item '$file' in the given map by a new item. The
+	 * former file map and the file data are not changed. So the method can be
+	 * applied to a shallow copy of the item values of a document.
+	 * 
+	 * @param data
+	 *            - the item values of a document
+	 * @return the replaced contents by their digest
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, byte[]> createReferences(Map<String, List<Object>> data) {
+		Map<String, byte[]> contents = new HashMap<String, byte[]>();
+		Map<String, Object> files = getFileMap(data);
+		if (files == null) {
+			return contents;
+		}
+		Map<String, Object> references = new LinkedHashMap<String, Object>(files);
+		for (Map.Entry<String, Object> entry : references.entrySet()) {
+			if (!(entry.getValue() instanceof List)) {
+				continue;
+			}
+			List<Object> fileData = (List<Object>) entry.getValue();
+			if (fileData.size() < 2 || !(fileData.get(1) instanceof byte[]) || ((byte[]) fileData.get(1)).length == 0) {
+				continue;
+			}
+			byte[] content = (byte[]) fileData.get(1);
+			String digest = computeDigest(content);
+			contents.put(digest, content);
+			entry.setValue(createReference((String) fileData.get(0), digest, content.length));
+		}
+		if (!contents.isEmpty()) {
+			data.put("$file", new SingleValueList<Object>(references));
+		}
+		return contents;
+	}
+
+	/**
+	 * Returns the digests of all file references in the item '$file' of the
+	 * given data.
+	 * 
+	 * @param data
+	 *            - the item values of a document
+	 * @return set of digests
+	 */
+	public static Set<String> getDigests(Map<String, List<Object>> data) {
+		Set<String> result = new HashSet<String>();
+		Map<String, Object> files = getFileMap(data);
+		if (files == null) {
+			return result;
+		}
+		for (Object fileData : files.values()) {
+			if (fileData instanceof List) {
+				String digest = getDigest((List<?>) fileData);
+				if (digest != null) {
+					result.add(digest);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the file map stored in the item '$file' or null if no files are
+	 * stored.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> getFileMap(Map<String, List<Object>> data) {
+		if (data == null) {
+			return null;
+		}
+		List<Object> vFiles = data.get("$file");
+		if (vFiles != null && !vFiles.isEmpty() && vFiles.get(0) instanceof Map) {
+			return (Map<String, Object>) vFiles.get(0);
+		}
+		return null;
+	}
+}
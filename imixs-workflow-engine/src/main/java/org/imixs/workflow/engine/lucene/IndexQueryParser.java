@@ -0,0 +1,219 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine.lucene;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+
+/**
+ * The IndexQueryParser extends the lucene QueryParser to search typed index
+ * fields. A range query on an item with the index field type date, long or
+ * double is converted into a range query on the points of the item. All other
+ * queries are parsed by the QueryParser.
+ * <p>
+ * Date values are given in the format 'yyyyMMddHHmmss' or a prefix of it
+ * (yyyy, yyyyMM, yyyyMMdd, yyyyMMddHH, yyyyMMddHHmm). The result is the same
+ * as the string range query on the keywords of the item:
+ * 
+ * <pre>
+ * $modified:[20180101 TO 20190101]
+ * </pre>
+ * 
+ * @see LuceneUpdateService#addTypedItemValues
+ * @author rsoika
+ */
+class IndexQueryParser extends QueryParser {
+
+	private static final String DATE_PATTERN = "yyyyMMddHHmmss";
+	// smallest date for each prefix length
+	private static final String DATE_TEMPLATE = "00000101000000";
+
+	private final Map<String, String> indexFieldTypes;
+
+	IndexQueryParser(String f, Analyzer a, Map<String, String> indexFieldTypes) {
+		super(f, a);
+		if (indexFieldTypes == null) {
+			indexFieldTypes = Collections.emptyMap();
+		}
+		this.indexFieldTypes = indexFieldTypes;
+	}
+
+	@Override
+	protected Query getRangeQuery(String field, String part1, String part2, boolean startInclusive,
+			boolean endInclusive) throws ParseException {
+		// the typed fields are indexed with the lower cased item name
+		String fieldName = field.toLowerCase();
+		String type = indexFieldTypes.get(fieldName);
+		Query query = null;
+		if (LuceneUpdateService.TYPE_DATE.equals(type)) {
+			query = getDateRangeQuery(fieldName, part1, part2, startInclusive, endInclusive);
+		} else if (LuceneUpdateService.TYPE_LONG.equals(type)) {
+			query = getLongRangeQuery(fieldName, part1, part2, startInclusive, endInclusive);
+		} else if (LuceneUpdateService.TYPE_DOUBLE.equals(type)) {
+			query = getDoubleRangeQuery(fieldName, part1, part2, startInclusive, endInclusive);
+		}
+		if (query == null) {
+			// no typed field or no valid bounds
+			query = super.getRangeQuery(field, part1, part2, startInclusive, endInclusive);
+		}
+		return query;
+	}
+
+	/**
+	 * Returns a LongPoint range query for two date values. A prefix of the date
+	 * pattern is compared like a string, so a lower bound includes all dates
+	 * starting with the prefix and an upper bound excludes them.
+	 * 
+	 * @return range query or null if one of the bounds is not a valid date
+	 */
+	Query getDateRangeQuery(String field, String part1, String part2, boolean startInclusive,
+			boolean endInclusive) {
+		long lower = Long.MIN_VALUE;
+		long upper = Long.MAX_VALUE;
+		if (!isOpen(part1)) {
+			Date date = parseDate(part1);
+			if (date == null) {
+				return null;
+			}
+			lower = date.getTime();
+			if (!startInclusive && part1.length() == DATE_PATTERN.length()) {
+				// the keyword has a precision of seconds
+				lower += 1000;
+			}
+		}
+		if (!isOpen(part2)) {
+			Date date = parseDate(part2);
+			if (date == null) {
+				return null;
+			}
+			upper = date.getTime() - 1;
+			if (endInclusive && part2.length() == DATE_PATTERN.length()) {
+				upper += 1000;
+			}
+		}
+		return LongPoint.newRangeQuery(field, lower, upper);
+	}
+
+	/**
+	 * Returns a LongPoint range query for two long values.
+	 * 
+	 * @return range query or null if one of the bounds is not a valid long
+	 */
+	Query getLongRangeQuery(String field, String part1, String part2, boolean startInclusive,
+			boolean endInclusive) {
+		long lower = Long.MIN_VALUE;
+		long upper = Long.MAX_VALUE;
+		try {
+			if (!isOpen(part1)) {
+				lower = Long.parseLong(part1);
+				if (!startInclusive) {
+					if (lower == Long.MAX_VALUE) {
+						return LongPoint.newSetQuery(field);
+					}
+					lower++;
+				}
+			}
+			if (!isOpen(part2)) {
+				upper = Long.parseLong(part2);
+				if (!endInclusive) {
+					if (upper == Long.MIN_VALUE) {
+						return LongPoint.newSetQuery(field);
+					}
+					upper--;
+				}
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return LongPoint.newRangeQuery(field, lower, upper);
+	}
+
+	/**
+	 * Returns a DoublePoint range query for two double values.
+	 * 
+	 * @return range query or null if one of the bounds is not a valid double
+	 */
+	Query getDoubleRangeQuery(String field, String part1, String part2, boolean startInclusive,
+			boolean endInclusive) {
+		double lower = Double.NEGATIVE_INFINITY;
+		double upper = Double.POSITIVE_INFINITY;
+		try {
+			if (!isOpen(part1)) {
+				lower = Double.parseDouble(part1);
+				if (!startInclusive) {
+					lower = DoublePoint.nextUp(lower);
+				}
+			}
+			if (!isOpen(part2)) {
+				upper = Double.parseDouble(part2);
+				if (!endInclusive) {
+					upper = DoublePoint.nextDown(upper);
+				}
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return DoublePoint.newRangeQuery(field, lower, upper);
+	}
+
+	/**
+	 * Parses a date in the format 'yyyyMMddHHmmss' or a prefix of it.
+	 * 
+	 * @return date or null if the value is not a valid date
+	 */
+	static Date parseDate(String value) {
+		int length = value.length();
+		if (length < 4 || length > DATE_PATTERN.length() || length % 2 != 0) {
+			return null;
+		}
+		for (int i = 0; i < length; i++) {
+			if (!Character.isDigit(value.charAt(i))) {
+				return null;
+			}
+		}
+		SimpleDateFormat dateformat = new SimpleDateFormat(DATE_PATTERN);
+		dateformat.setLenient(false);
+		ParsePosition position = new ParsePosition(0);
+		return dateformat.parse(value + DATE_TEMPLATE.substring(length), position);
+	}
+
+	private static boolean isOpen(String part) {
+		return part == null || "*".equals(part);
+	}
+
+}
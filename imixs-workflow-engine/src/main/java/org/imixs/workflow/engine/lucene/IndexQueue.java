@@ -0,0 +1,191 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+
+package org.imixs.workflow.engine.lucene;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.document.Document;
+
+/**
+ * The IndexQueue holds the pending index changes of the LuceneUpdateService in
+ * the asynchronous index mode. The key of an entry is the $uniqueid of a
+ * document. A null document removes the document from the index.
+ * <p>
+ * Changes of the same document are coalesced, so only the last change is
+ * written. Each change gets a sequence number. The sequence number of the last
+ * written change is used by the LuceneUpdateService to wait until all changes
+ * queued before are written into the index.
+ * 
+ * @author rsoika
+ * @version 1.0
+ */
+class IndexQueue {
+
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private long sequence = 0;
+	private long writtenSequence = 0;
+	private long coalescedCount = 0;
+	private long writtenCount = 0;
+
+	/**
+	 * Adds a change to the queue. A pending change of the same document is
+	 * replaced.
+	 * 
+	 * @param uniqueID
+	 * @param document
+	 *            - null to remove the document from the index
+	 * @return the size of the queue
+	 */
+	synchronized int put(String uniqueID, Document document) {
+		// the entries are ordered by the sequence number
+		if (entries.remove(uniqueID) != null) {
+			coalescedCount++;
+		}
+		entries.put(uniqueID, new Entry(document, ++sequence, System.currentTimeMillis()));
+		return entries.size();
+	}
+
+	/**
+	 * Removes the oldest changes from the queue.
+	 * 
+	 * @param maxSize
+	 *            - max number of changes
+	 * @return a batch of changes or null if the queue is empty
+	 */
+	synchronized Batch drain(int maxSize) {
+		if (entries.isEmpty()) {
+			return null;
+		}
+		Batch batch = new Batch();
+		Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator();
+		while (iter.hasNext() && batch.documents.size() < maxSize) {
+			Map.Entry<String, Entry> entry = iter.next();
+			batch.documents.put(entry.getKey(), entry.getValue().document);
+			batch.sequence = entry.getValue().sequence;
+			iter.remove();
+		}
+		return batch;
+	}
+
+	/**
+	 * Marks a batch as written.
+	 */
+	synchronized void written(Batch batch) {
+		writtenCount += batch.documents.size();
+		if (batch.sequence > writtenSequence) {
+			writtenSequence = batch.sequence;
+		}
+	}
+
+	/**
+	 * Puts back the changes of a batch which could not be written. Changes
+	 * queued in the meantime are not replaced.
+	 */
+	synchronized void requeue(Batch batch) {
+		Map<String, Entry> newEntries = new LinkedHashMap<String, Entry>(entries);
+		entries.clear();
+		long time = System.currentTimeMillis();
+		for (Map.Entry<String, Document> entry : batch.documents.entrySet()) {
+			if (!newEntries.containsKey(entry.getKey())) {
+				entries.put(entry.getKey(), new Entry(entry.getValue(), batch.sequence, time));
+			}
+		}
+		entries.putAll(newEntries);
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the sequence number of the last queued change.
+	 */
+	synchronized long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Returns the sequence number of the last written change. All changes with a
+	 * lower sequence number are written too.
+	 */
+	synchronized long getWrittenSequence() {
+		return writtenSequence;
+	}
+
+	/**
+	 * Returns the time in milliseconds the oldest change is waiting in the queue.
+	 */
+	synchronized long getLag() {
+		if (entries.isEmpty()) {
+			return 0;
+		}
+		return System.currentTimeMillis() - entries.values().iterator().next().time;
+	}
+
+	/**
+	 * Returns the number of changes replaced by a later change of the same
+	 * document.
+	 */
+	synchronized long getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	/**
+	 * Returns the number of changes written into the index.
+	 */
+	synchronized long getWrittenCount() {
+		return writtenCount;
+	}
+
+	/**
+	 * A batch of changes removed from the queue.
+	 */
+	static class Batch {
+		private final Map<String, Document> documents = new LinkedHashMap<String, Document>();
+		private long sequence;
+
+		Map<String, Document> getDocuments() {
+			return documents;
+		}
+	}
+
+	private static class Entry {
+		private final Document document;
+		private final long sequence;
+		private final long time;
+
+		Entry(Document document, long sequence, long time) {
+			this.document = document;
+			this.sequence = sequence;
+			this.time = time;
+		}
+	}
+}
@@ -28,10 +28,21 @@
 package org.imixs.workflow.engine.lucene;
 
 import java.io.IOException;
-import java.nio.file.Paths;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
@@ -44,21 +55,29 @@ import javax.ejb.Stateless;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.analysis.standard.ClassicAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.queryparser.classic.QueryParser.Operator;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.SortedNumericSelector;
+import org.apache.lucene.search.SortedNumericSortField;
+import org.apache.lucene.search.SortedSetSelector;
+import org.apache.lucene.search.SortedSetSortField;
+import org.apache.lucene.search.TermInSetQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopDocsCollector;
 import org.apache.lucene.search.TopFieldCollector;
 import org.apache.lucene.search.TopScoreDocCollector;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.engine.DocumentService;
 import org.imixs.workflow.engine.PropertyService;
@@ -69,7 +88,8 @@ import org.imixs.workflow.exceptions.QueryException;
  * This session ejb provides a service to search the lucene index. The EJB uses
  * the IndexSearcher to query the current index. As the index can change across
  * multiple searches we can not share a single IndexSearcher instance. For that
- * reason the EJB is creating a new IndexSearch per-search.
+ * reason the EJB acquires a near-real-time IndexSearcher from the
+ * LuceneUpdateService per-search and releases it after the search.
  * 
  * The service provides a set of public methods which can be used to query
  * workitems or collections of workitems. A search term can be escaped by
@@ -102,6 +122,27 @@ public class LuceneSearchService {
 	@EJB
 	DocumentService documentService;
 
+	@EJB
+	LuceneUpdateService luceneUpdateService;
+
+	// cache of access filter queries per set of user names
+	private static final int ACCESS_FILTER_CACHE_SIZE = 1000;
+	private static final Map<Set<String>, Query> accessFilterCache = new ConcurrentHashMap<Set<String>, Query>();
+
+	// cache of counts (count, time) per extended query of the last index reader.
+	// The reader is referenced weakly, so the cache does not keep a closed reader
+	// in memory. The least recently used count is removed if the cache is full.
+	private static final int COUNT_CACHE_SIZE = 1000;
+	private final Map<Query, long[]> countCache = new LinkedHashMap<Query, long[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Query, long[]> eldest) {
+			return size() > COUNT_CACHE_SIZE;
+		}
+	};
+	private WeakReference<IndexReader> countCacheReader = null;
+
 	private static Logger logger = Logger.getLogger(LuceneSearchService.class.getName());
 
 	/**
@@ -169,6 +210,39 @@ public class LuceneSearchService {
 	 */
 	public List<ItemCollection> search(String sSearchTerm, int pageSize, int pageIndex, Sort sortOrder,
 			Operator defaultOperator) throws QueryException {
+		return search(sSearchTerm, pageSize, pageIndex, sortOrder, defaultOperator, null);
+	}
+
+	/**
+	 * Returns a collection of documents matching matching the provided search term.
+	 * The provided search term will we extended with a users roles to test the read
+	 * access level of each workitem matching the search term.
+	 * <p>
+	 * If the optional param 'itemNames' is provided, the documents are not loaded
+	 * from the database. The method returns ItemCollections containing only the
+	 * $uniqueid and the given items read from the stored fields of the index.
+	 * Only items listed in the property 'lucence.storeFieldList' are stored in
+	 * the index. Such a projection must not be saved. The full document can be
+	 * loaded on demand by its $uniqueid.
+	 * 
+	 * @param sSearchTerm
+	 * @param pageSize
+	 *            - docs per page
+	 * @param pageIndex
+	 *            - page number
+	 * @param sortOrder
+	 *            - optional to sort the result
+	 * @param defaultOperator
+	 *            - optional to change the default search operator
+	 * @param itemNames
+	 *            - optional list of items to be returned from the index
+	 * 
+	 * @return collection of search result
+	 * @throws QueryException
+	 *             in case the searchtem is not understandable.
+	 */
+	public List<ItemCollection> search(String sSearchTerm, int pageSize, int pageIndex, Sort sortOrder,
+			Operator defaultOperator, List<String> itemNames) throws QueryException {
 
 		long ltime = System.currentTimeMillis();
 		if (pageSize <= 0) {
@@ -183,9 +257,9 @@ public class LuceneSearchService {
 
 		ArrayList<ItemCollection> workitems = new ArrayList<ItemCollection>();
 
-		sSearchTerm = getExtendedSearchTerm(sSearchTerm);
 		// test if searchtem is provided
 		if (sSearchTerm == null || "".equals(sSearchTerm)) {
+			logger.warning("No search term provided!");
 			return workitems;
 		}
 
@@ -195,8 +269,9 @@ public class LuceneSearchService {
 			return workitems;
 		}
 
+		IndexSearcher searcher = null;
 		try {
-			IndexSearcher searcher = createIndexSearcher(prop);
+			searcher = luceneUpdateService.acquireIndexSearcher();
 			QueryParser parser = createQueryParser(prop);
 
 			parser.setAllowLeadingWildcard(true);
@@ -223,7 +298,7 @@ public class LuceneSearchService {
 						+ DEFAULT_MAX_SEARCH_RESULT + ") -> new MAX_SEARCH_RESULT is set to " + maxSearchResult);
 			}
 
-			Query query = parser.parse(sSearchTerm);
+			Query query = getExtendedQuery(parser.parse(sSearchTerm));
 			if (sortOrder != null) {
 				// sorted by sortoder
 				logger.finest("lucene result sorted by sortOrder= '" + sortOrder + "' ");
@@ -253,42 +328,288 @@ public class LuceneSearchService {
 			logger.fine("lucene returned " + scoreDosArray.length + " documents in "
 					+ (System.currentTimeMillis() - lsearchtime) + " ms - total hits=" + topDocs.totalHits);
 
-			for (ScoreDoc scoredoc : scoreDosArray) {
-				// Retrieve the matched document and show relevant details
-				Document doc = searcher.doc(scoredoc.doc);
+			workitems.addAll(loadDocuments(searcher, scoreDosArray, itemNames));
 
-				String sID = doc.get("$uniqueid");
-				logger.finest("lucene lookup $uniqueid=" + sID);
-				ItemCollection itemCol = documentService.load(sID);
-				if (itemCol != null) {
-					workitems.add(itemCol);
-				} else {
-					logger.warning("lucene index returned unreadable workitem : " + sID);
-					// this situation happens if the search index returned
-					// documents the current user has no read access.
-					// this should normally avoided with the $readaccess
-					// search phrase! So if this happens we need to check
-					// the createDocument method!
-				}
+			logger.fine("lucene search result computed in " + (System.currentTimeMillis() - ltime) + " ms");
+		} catch (IOException e) {
+			// in case of an IOException we just print an error message and
+			// return an empty result
+			logger.severe("Lucene index error: " + e.getMessage());
+			throw new InvalidAccessException(InvalidAccessException.INVALID_INDEX, e.getMessage(), e);
+		} catch (ParseException e) {
+			logger.severe("Lucene search error: " + e.getMessage());
+			throw new QueryException(QueryException.QUERY_NOT_UNDERSTANDABLE, e.getMessage(), e);
+		} finally {
+			luceneUpdateService.releaseIndexSearcher(searcher);
+		}
+
+		return workitems;
+	}
+
+	/**
+	 * Returns one page of documents matching the provided search term. The
+	 * provided search term will we extended with a users roles to test the read
+	 * access level of each workitem matching the search term.
+	 * <p>
+	 * In difference to the search by a page index, the page is defined by a
+	 * cursor returned by the previous search. The cost of a search does not depend
+	 * on the position of the page and the search result is not limited by the
+	 * DEFAULT_MAX_SEARCH_RESULT. So the method can be used to iterate over large
+	 * search results. The first page is requested with an empty cursor. The
+	 * cursor of the SearchResult is null if the end of the search result is
+	 * reached.
+	 * <p>
+	 * The cursor is based on the sort values of the last hit. The $uniqueid is
+	 * added to the sort order to order hits with the same sort values. So the
+	 * cursor does not depend on internal document numbers and stays valid if
+	 * documents are updated or the index is merged. Documents updated during the
+	 * iteration may be skipped or returned twice only if their sort values
+	 * change.
+	 * <p>
+	 * If the index contains documents without the sort field of the $uniqueid,
+	 * the index is reindexed at startup and the method throws an
+	 * InvalidAccessException until the reindex is finished.
+	 * 
+	 * @param sSearchTerm
+	 * @param pageSize
+	 *            - docs per page
+	 * @param cursor
+	 *            - cursor returned by the previous search or null for the first
+	 *            page
+	 * @param sortOrder
+	 *            - optional to sort the result
+	 * @param defaultOperator
+	 *            - optional to change the default search operator
+	 * @param itemNames
+	 *            - optional list of items to be returned from the index
+	 * @return search result
+	 * @throws QueryException
+	 *             in case the searchtem or the cursor is not understandable.
+	 */
+	public SearchResult search(String sSearchTerm, int pageSize, String cursor, Sort sortOrder,
+			Operator defaultOperator, List<String> itemNames) throws QueryException {
+		long ltime = System.currentTimeMillis();
+		if (pageSize <= 0) {
+			pageSize = DEFAULT_PAGE_SIZE;
+		}
+
+		// test if searchtem is provided
+		if (sSearchTerm == null || "".equals(sSearchTerm)) {
+			logger.warning("No search term provided!");
+			return new SearchResult(new ArrayList<ItemCollection>(), null);
+		}
+
+		Properties prop = propertyService.getProperties();
+		if (prop.isEmpty()) {
+			logger.warning("imixs.properties not found!");
+			return new SearchResult(new ArrayList<ItemCollection>(), null);
+		}
+
+		// hits without a sort value of the $uniqueid can not be ordered, so a
+		// page would end the iteration early
+		if (luceneUpdateService.isIndexSortFieldMissing()) {
+			throw new InvalidAccessException(InvalidAccessException.INVALID_INDEX,
+					"cursor search not possible - the lucene index is reindexed, please try again later.");
+		}
+
+		FieldDoc after = decodeCursor(cursor);
+		IndexSearcher searcher = null;
+		try {
+			searcher = luceneUpdateService.acquireIndexSearcher();
+			QueryParser parser = createQueryParser(prop);
+			parser.setAllowLeadingWildcard(true);
+			// set default operator?
+			if (defaultOperator != null) {
+				parser.setDefaultOperator(defaultOperator);
+			}
+
+			Query query = getExtendedQuery(parser.parse(sSearchTerm));
+			if (after != null) {
+				// hits with the same sort values as the cursor are the hit of the
+				// cursor itself, so they are skipped by the highest document number.
+				// This is only correct because the $uniqueid is the last sort field:
+				// the sort values of each hit are unique, so no other hit can have
+				// the same sort values. Without this tie breaker, hits with equal
+				// sort values on the next page would be skipped.
+				after.doc = Math.max(0, searcher.getIndexReader().maxDoc() - 1);
 			}
+			TopDocs topDocs = searcher.searchAfter(after, query, pageSize, createCursorSort(sortOrder));
+			ScoreDoc[] scoreDosArray = topDocs.scoreDocs;
 
-			searcher.getIndexReader().close();
+			String nextCursor = null;
+			if (scoreDosArray.length == pageSize) {
+				nextCursor = encodeCursor((FieldDoc) scoreDosArray[scoreDosArray.length - 1]);
+			}
+			List<ItemCollection> workitems = loadDocuments(searcher, scoreDosArray, itemNames);
 
 			logger.fine("lucene search result computed in " + (System.currentTimeMillis() - ltime) + " ms");
+			return new SearchResult(workitems, nextCursor);
 		} catch (IOException e) {
-			// in case of an IOException we just print an error message and
-			// return an empty result
 			logger.severe("Lucene index error: " + e.getMessage());
 			throw new InvalidAccessException(InvalidAccessException.INVALID_INDEX, e.getMessage(), e);
 		} catch (ParseException e) {
 			logger.severe("Lucene search error: " + e.getMessage());
 			throw new QueryException(QueryException.QUERY_NOT_UNDERSTANDABLE, e.getMessage(), e);
+		} catch (IllegalArgumentException e) {
+			// the cursor does not match the sort order
+			logger.severe("Lucene search error: " + e.getMessage());
+			throw new QueryException(QueryException.QUERY_NOT_UNDERSTANDABLE, "invalid cursor: " + e.getMessage(),
+					e);
+		} finally {
+			luceneUpdateService.releaseIndexSearcher(searcher);
+		}
+	}
+
+	/**
+	 * Loads the documents of a list of hits. If a list of itemNames is provided,
+	 * the documents are created from the stored fields of the index. Otherwise all
+	 * documents are loaded at once by the DocumentService.
+	 */
+	private List<ItemCollection> loadDocuments(IndexSearcher searcher, ScoreDoc[] scoreDosArray,
+			List<String> itemNames) throws IOException {
+		List<ItemCollection> workitems = new ArrayList<ItemCollection>();
+		// the fields to be loaded from the index
+		Set<String> fieldsToLoad = new HashSet<String>();
+		fieldsToLoad.add("$uniqueid");
+		if (itemNames != null) {
+			for (String itemName : itemNames) {
+				fieldsToLoad.add(itemName.toLowerCase().trim());
+			}
+		}
+
+		List<String> ids = new ArrayList<String>();
+		for (ScoreDoc scoredoc : scoreDosArray) {
+			// Retrieve the matched document and show relevant details
+			Document doc = searcher.doc(scoredoc.doc, fieldsToLoad);
+
+			String sID = doc.get("$uniqueid");
+			logger.finest("lucene lookup $uniqueid=" + sID);
+			if (itemNames != null) {
+				workitems.add(createProjection(doc));
+			} else {
+				ids.add(sID);
+			}
+		}
+
+		// load all documents of the page at once
+		if (!ids.isEmpty()) {
+			workitems.addAll(documentService.load(ids));
+			if (workitems.size() < ids.size()) {
+				logger.warning("lucene index returned " + (ids.size() - workitems.size())
+						+ " unreadable workitems");
+				// this situation happens if the search index returned
+				// documents the current user has no read access.
+				// this should normally avoided with the $readaccess
+				// search phrase! So if this happens we need to check
+				// the createDocument method!
+			}
 		}
 
 		return workitems;
 	}
 
+	/**
+	 * Returns the sort order of a cursor search. The $uniqueid is added to the
+	 * given sort order, or to the relevance if no sort order is given, so the
+	 * sort values of each hit are unique.
+	 * 
+	 * @param sortOrder
+	 *            - optional sort order
+	 * @return sort order
+	 */
+	static Sort createCursorSort(Sort sortOrder) {
+		SortField uniqueIDSortField = new SortField(LuceneUpdateService.UNIQUEID_SORT_FIELD, SortField.Type.STRING);
+		if (sortOrder == null) {
+			return new Sort(SortField.FIELD_SCORE, uniqueIDSortField);
+		}
+		SortField[] sortFields = Arrays.copyOf(sortOrder.getSort(), sortOrder.getSort().length + 1);
+		sortFields[sortFields.length - 1] = uniqueIDSortField;
+		return new Sort(sortFields);
+	}
 
+	/**
+	 * Encodes the position of a hit into an opaque cursor string. The cursor
+	 * contains only the sort values of the hit and no internal document number,
+	 * because the document numbers change if documents are updated or merged.
+	 * 
+	 * @param fieldDoc
+	 * @return cursor
+	 */
+	static String encodeCursor(FieldDoc fieldDoc) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < fieldDoc.fields.length; i++) {
+			Object value = fieldDoc.fields[i];
+			if (i > 0) {
+				sb.append(':');
+			}
+			if (value == null) {
+				sb.append('n');
+			} else if (value instanceof BytesRef) {
+				BytesRef bytes = (BytesRef) value;
+				sb.append('s').append(Base64.getUrlEncoder().withoutPadding()
+						.encodeToString(Arrays.copyOfRange(bytes.bytes, bytes.offset, bytes.offset + bytes.length)));
+			} else if (value instanceof Integer) {
+				sb.append('i').append(value);
+			} else if (value instanceof Long) {
+				sb.append('l').append(value);
+			} else if (value instanceof Float) {
+				sb.append('f').append(value);
+			} else if (value instanceof Double) {
+				sb.append('d').append(value);
+			} else {
+				throw new IllegalArgumentException("unsupported sort value " + value.getClass().getName());
+			}
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Decodes a cursor created by the method encodeCursor. The document number of
+	 * the returned FieldDoc is not defined.
+	 * 
+	 * @param cursor
+	 * @return FieldDoc or null if the cursor is empty
+	 * @throws QueryException
+	 *             if the cursor is invalid
+	 */
+	static FieldDoc decodeCursor(String cursor) throws QueryException {
+		if (cursor == null || cursor.isEmpty()) {
+			return null;
+		}
+		try {
+			String[] tokens = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+			Object[] fields = new Object[tokens.length];
+			for (int i = 0; i < fields.length; i++) {
+				String token = tokens[i];
+				String value = token.substring(1);
+				switch (token.charAt(0)) {
+				case 'n':
+					fields[i] = null;
+					break;
+				case 's':
+					fields[i] = new BytesRef(Base64.getUrlDecoder().decode(value));
+					break;
+				case 'i':
+					fields[i] = Integer.valueOf(value);
+					break;
+				case 'l':
+					fields[i] = Long.valueOf(value);
+					break;
+				case 'f':
+					fields[i] = Float.valueOf(value);
+					break;
+				case 'd':
+					fields[i] = Double.valueOf(value);
+					break;
+				default:
+					throw new IllegalArgumentException("unknown type '" + token.charAt(0) + "'");
+				}
+			}
+			return new FieldDoc(0, Float.NaN, fields);
+		} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+			throw new QueryException(QueryException.QUERY_NOT_UNDERSTANDABLE, "invalid cursor: " + cursor, e);
+		}
+	}
 
 	/**
 	 * Returns the total hits for a given search term from the lucene index. The
@@ -296,27 +617,29 @@ public class LuceneSearchService {
 	 * a users roles to test the read access level of each workitem matching the
 	 * search term.
 	 * 
-	 * The optional param 'maxResult' can be set to overwrite the
-	 * DEFAULT_MAX_SEARCH_RESULT.
+	 * The hits are counted by IndexSearcher.count() without collecting or
+	 * scoring any document. The count is not limited, so the param 'maxResult'
+	 * is no longer evaluated.
+	 * 
+	 * If the property 'lucence.countCacheTTL' (in ms, default 0) is set, the
+	 * count of a query is cached for the given time per set of user names and
+	 * roles. The cache is cleared each time the index searcher was refreshed.
 	 * 
 	 * @see search(String, int, int, Sort, Operator)
 	 * 
 	 * @param sSearchTerm
 	 * @param maxResult
-	 *            - max search result 
+	 *            - no longer evaluated
 	 * @return total hits of search result
 	 * @throws QueryException
 	 *             in case the searchterm is not understandable.
 	 */
 	public int getTotalHits(String sSearchTerm, int maxResult, Operator defaultOperator) throws QueryException {
 		int result;
-		if (maxResult <= 0) {
-			maxResult = DEFAULT_MAX_SEARCH_RESULT;
-		}
 
-		sSearchTerm = getExtendedSearchTerm(sSearchTerm);
 		// test if searchtem is provided
 		if (sSearchTerm == null || "".equals(sSearchTerm)) {
+			logger.warning("No search term provided!");
 			return 0;
 		}
 
@@ -326,8 +649,9 @@ public class LuceneSearchService {
 			return 0;
 		}
 
+		IndexSearcher searcher = null;
 		try {
-			IndexSearcher searcher = createIndexSearcher(prop);
+			searcher = luceneUpdateService.acquireIndexSearcher();
 			QueryParser parser = createQueryParser(prop);
 
 			parser.setAllowLeadingWildcard(true);
@@ -337,20 +661,14 @@ public class LuceneSearchService {
 				parser.setDefaultOperator(defaultOperator);
 			}
 
-			TopDocsCollector<?> collector = null;
-
-			Query query = parser.parse(sSearchTerm);
-			// MAX_SEARCH_RESULT is limiting the total number of hits
-			collector = TopScoreDocCollector.create(maxResult);
+			Query query = getExtendedQuery(parser.parse(sSearchTerm));
 
-			// - ignore time limiting for now
-			// Counter clock = Counter.newCounter(true);
-			// TimeLimitingCollector timeLimitingCollector = new
-			// TimeLimitingCollector(collector, clock, 10);
-
-			// start search....
-			searcher.search(query, collector);
-			result = collector.getTotalHits();
+			long countCacheTTL = Long.parseLong(prop.getProperty("lucence.countCacheTTL", "0"));
+			if (countCacheTTL > 0) {
+				result = getCachedCount(searcher, query, countCacheTTL);
+			} else {
+				result = searcher.count(query);
+			}
 
 			logger.fine("lucene count result = " + result);
 		} catch (IOException e) {
@@ -361,98 +679,183 @@ public class LuceneSearchService {
 		} catch (ParseException e) {
 			logger.severe("Lucene search error: " + e.getMessage());
 			throw new QueryException(QueryException.QUERY_NOT_UNDERSTANDABLE, e.getMessage(), e);
+		} finally {
+			luceneUpdateService.releaseIndexSearcher(searcher);
 		}
 
 		return result;
 	}
 
 	/**
-	 * Returns the extended search term for a given query. The search term will we
-	 * extended with a users roles to test the read access level of each workitem
-	 * matching the search term. 
-	 * 
-	 * The optional param 'defaultOperator' can be set to Operator.AND
+	 * Returns the count of a query from the count cache. The query already
+	 * contains the access filter, so the cache is keyed by the query and the
+	 * set of user names. The cache is cleared if the index reader of the
+	 * searcher has changed since the last call. The cache holds at most
+	 * COUNT_CACHE_SIZE counts.
 	 * 
-	 * @param sSearchTerm
-	 * @param defaultOperator
-	 *            - optional to change the default search operator
-	 * 
-	 * @return extended search term
-	 * @throws QueryException
-	 *             in case the searchtem is not understandable.
+	 * @param searcher
+	 * @param query
+	 *            - the extended query
+	 * @param ttl
+	 *            - time to live of a cached count in ms
+	 * @return count
+	 * @throws IOException
 	 */
-	String getExtendedSearchTerm(String sSearchTerm) throws QueryException {
-		// test if searchtem is provided
-		if (sSearchTerm == null || "".equals(sSearchTerm)) {
-			logger.warning("No search term provided!");
-			return "";
+	int getCachedCount(IndexSearcher searcher, Query query, long ttl) throws IOException {
+		long now = System.currentTimeMillis();
+		IndexReader reader = searcher.getIndexReader();
+		synchronized (countCache) {
+			if (countCacheReader == null || countCacheReader.get() != reader) {
+				countCache.clear();
+				countCacheReader = new WeakReference<IndexReader>(reader);
+			}
+			long[] entry = countCache.get(query);
+			if (entry != null && now - entry[1] < ttl) {
+				return (int) entry[0];
+			}
 		}
-		// extend the Search Term if user is not ACCESSLEVEL_MANAGERACCESS
-		if (!documentService.isUserInRole(DocumentService.ACCESSLEVEL_MANAGERACCESS)) {
-			// get user names list
-			List<String> userNameList = documentService.getUserNameList();
-			// create search term (always add ANONYMOUS)
-			String sAccessTerm = "($readaccess:" + LuceneUpdateService.ANONYMOUS;
-			for (String aRole : userNameList) {
-				if (!"".equals(aRole))
-					sAccessTerm += " OR $readaccess:\"" + aRole + "\"";
+		int count = searcher.count(query);
+		synchronized (countCache) {
+			if (countCacheReader.get() == reader) {
+				countCache.put(query, new long[] { count, now });
 			}
-			sAccessTerm += ") AND ";
-			sSearchTerm = sAccessTerm + sSearchTerm;
 		}
-		logger.fine("lucene final searchTerm=" + sSearchTerm);
-
-		return sSearchTerm;
+		return count;
 	}
 
 	/**
-	 * Creates a Lucene FSDirectory Instance. The method uses the proeprty
-	 * LockFactory to set a custom LockFactory.
+	 * Returns the extended query for a given search query. The query will we
+	 * extended with a filter on the users names and roles to test the read access
+	 * level of each workitem matching the search query. The filter does not
+	 * affect the score.
 	 * 
-	 * For example: org.apache.lucene.store.SimpleFSLockFactory
-	 * 
-	 * @return
-	 * @throws IOException
+	 * @param query
+	 *            - the parsed search query
+	 * @return extended query
 	 */
-	Directory createIndexDirectory(Properties prop) throws IOException {
-		logger.finest("lucene createIndexDirectory...");
-		// read configuration
-		String sIndexDir = prop.getProperty("lucence.indexDir", LuceneUpdateService.DEFAULT_INDEX_DIRECTORY);
-		Directory indexDir;
-		indexDir = FSDirectory.open(Paths.get(sIndexDir));
-		return indexDir;
+	Query getExtendedQuery(Query query) {
+		// extend the query if user is not ACCESSLEVEL_MANAGERACCESS
+		if (!documentService.isUserInRole(DocumentService.ACCESSLEVEL_MANAGERACCESS)) {
+			query = new BooleanQuery.Builder().add(query, Occur.MUST)
+					.add(getAccessFilter(documentService.getUserNameList()), Occur.FILTER).build();
+		}
+		logger.fine("lucene final query=" + query);
+		return query;
 	}
 
 	/**
-	 * returns a IndexSearcher instance
+	 * Returns a query matching all documents readable by the given user names and
+	 * roles (always including ANONYMOUS). The queries are cached per list of
+	 * names, so the lucene query cache can reuse the filter across searches.
 	 * 
-	 * @param prop
-	 * @return
-	 * @throws IOException
-	 * @throws Exception
+	 * @param userNameList
+	 *            - user name and roles
+	 * @return access filter query
 	 */
-	IndexSearcher createIndexSearcher(Properties prop) throws IOException {
-		logger.finest("lucene createIndexSearcher...");
+	static Query getAccessFilter(List<String> userNameList) {
+		Set<String> names = new TreeSet<String>();
+		names.add(LuceneUpdateService.ANONYMOUS);
+		for (String aRole : userNameList) {
+			if (aRole != null && !aRole.isEmpty()) {
+				names.add(aRole);
+			}
+		}
+		Query filter = accessFilterCache.get(names);
+		if (filter == null) {
+			List<BytesRef> terms = new ArrayList<BytesRef>(names.size());
+			for (String name : names) {
+				terms.add(new BytesRef(name));
+			}
+			filter = new TermInSetQuery("$readaccess", terms);
+			if (accessFilterCache.size() >= ACCESS_FILTER_CACHE_SIZE) {
+				accessFilterCache.clear();
+			}
+			accessFilterCache.put(names, filter);
+		}
+		return filter;
+	}
 
-		Directory indexDir = createIndexDirectory(prop);
-		IndexReader reader = DirectoryReader.open(indexDir);
-		IndexSearcher searcher = new IndexSearcher(reader);
+	/**
+	 * Creates an ItemCollection from the stored fields of a lucene document.
+	 * Binary values tagged with the type STORED_TYPE_DATE are converted into a
+	 * Date. Other binary values are returned as byte arrays.
+	 * 
+	 * @see LuceneUpdateService#addStoredItemValues
+	 * @param doc
+	 * @return ItemCollection
+	 */
+	ItemCollection createProjection(Document doc) {
+		ItemCollection itemCol = new ItemCollection();
+		for (IndexableField field : doc.getFields()) {
+			Object value;
+			BytesRef bytes = field.binaryValue();
+			if (bytes != null) {
+				if (bytes.length == 9 && bytes.bytes[bytes.offset] == LuceneUpdateService.STORED_TYPE_DATE) {
+					value = new Date(ByteBuffer.wrap(bytes.bytes, bytes.offset + 1, 8).getLong());
+				} else {
+					value = Arrays.copyOfRange(bytes.bytes, bytes.offset, bytes.offset + bytes.length);
+				}
+			} else if (field.numericValue() != null) {
+				value = field.numericValue();
+			} else {
+				value = field.stringValue();
+			}
+			itemCol.appendItemValue(field.name(), value);
+		}
+		return itemCol;
+	}
 
-		return searcher;
+	/**
+	 * Returns a SortField for an item. The type of the SortField depends on the
+	 * index field type of the item (property 'lucence.indexFieldTypes'). Typed
+	 * items with multiple values are sorted by the smallest value, or the largest
+	 * value in reverse order. The item $uniqueid is sorted by its sort field.
+	 * Other items are sorted by the string value of the first value.
+	 * 
+	 * @param itemName
+	 *            - item to sort by
+	 * @param reverse
+	 *            - sort direction
+	 * @return SortField
+	 */
+	public SortField createSortField(String itemName, boolean reverse) {
+		if ("$uniqueid".equals(itemName.toLowerCase().trim())) {
+			return new SortField(LuceneUpdateService.UNIQUEID_SORT_FIELD, SortField.Type.STRING, reverse);
+		}
+		String type = luceneUpdateService.getIndexFieldType(itemName);
+		if (type != null) {
+			itemName = itemName.toLowerCase().trim();
+		}
+		if (LuceneUpdateService.TYPE_DATE.equals(type) || LuceneUpdateService.TYPE_LONG.equals(type)) {
+			return new SortedNumericSortField(itemName, SortField.Type.LONG, reverse,
+					reverse ? SortedNumericSelector.Type.MAX : SortedNumericSelector.Type.MIN);
+		}
+		if (LuceneUpdateService.TYPE_DOUBLE.equals(type)) {
+			return new SortedNumericSortField(itemName, SortField.Type.DOUBLE, reverse,
+					reverse ? SortedNumericSelector.Type.MAX : SortedNumericSelector.Type.MIN);
+		}
+		if (LuceneUpdateService.TYPE_KEYWORD.equals(type)) {
+			return new SortedSetSortField(itemName, reverse,
+					reverse ? SortedSetSelector.Type.MAX : SortedSetSelector.Type.MIN);
+		}
+		return new SortField(itemName, SortField.Type.STRING, reverse);
 	}
 
 	/**
 	 * Returns in instance of a QueyParser based on a KeywordAnalyser. The method
 	 * set the lucene DefaultOperator to 'OR' if not specified otherwise in the
-	 * imixs.properties.
+	 * imixs.properties. Range queries on typed index fields are converted into
+	 * point range queries.
 	 * 
+	 * @see IndexQueryParser
 	 * @see issue #28 - normalizeSearchTerm
 	 * @param prop
 	 * @return
 	 */
 	QueryParser createQueryParser(Properties prop) {
 		// use the keywordAnalyzer for searching a search term.
-		QueryParser parser = new QueryParser("content", new KeywordAnalyzer());
+		QueryParser parser = new IndexQueryParser("content", new KeywordAnalyzer(),
+				luceneUpdateService.getIndexFieldTypes());
 		// set default operator to 'AND' if not defined by property setting
 		String defaultOperator = prop.getProperty("lucene.defaultOperator");
 		if (defaultOperator != null && "OR".equals(defaultOperator.toUpperCase())) {
@@ -27,40 +27,76 @@
 
 package org.imixs.workflow.engine.lucene;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
 import javax.ejb.Singleton;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.TemporalType;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.apache.lucene.analysis.standard.ClassicAnalyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoublePoint;
 import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.LongPoint;
 import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.WorkflowKernel;
+import org.imixs.workflow.engine.DocumentService;
 import org.imixs.workflow.engine.PropertyService;
 import org.imixs.workflow.exceptions.IndexException;
 import org.imixs.workflow.exceptions.PluginException;
@@ -78,11 +114,59 @@ import org.imixs.workflow.exceptions.PluginException;
  * searchable after a workitem was updated
  * <li>The property "IndexFieldList" lists all fields which should be indexed as
  * keywords by the lucene search engine
+ * <li>The property "StoreFieldList" lists all fields which should be stored in
+ * the index. These fields can be returned by a search without loading the
+ * document from the database.
+ * <li>The property "IndexFieldTypes" maps items to a typed index field (date,
+ * long, double or keyword). Typed fields support range queries on points and
+ * sorting by multiple values.
  * </ul>
  * 
  * The singleton pattern is used to avoid conflicts within multi-thread
  * scenarios. The service is used by the LucenPlugin to update the lucene index
  * during a workflow processing step.
+ * <p>
+ * The service holds one long-lived IndexWriter. An update is added to the
+ * buffer of the writer and committed after the commit interval (property
+ * 'lucence.commitInterval' in ms, default 1000). A commit interval of 0 commits
+ * each update. Pending changes are committed by a timer and on shutdown.
+ * <p>
+ * The service also provides near-real-time IndexSearchers for the
+ * LuceneSearchService based on a SearcherManager. The searchers see all
+ * updates of the writer, including uncommitted changes. The property
+ * 'lucence.refreshInterval' (in ms, default 0) defines how often the searcher
+ * is refreshed. With the default value each search sees the latest changes.
+ * <p>
+ * The IndexWriter and the SearcherManager are thread safe, so all methods of
+ * the service can be called concurrently.
+ * <p>
+ * For bulk workloads the index can be updated asynchronously (property
+ * 'lucence.asyncIndex=true'). In this mode index changes are added to a
+ * bounded queue which is written by a timer in the interval
+ * 'lucence.asyncIndexInterval' (in ms, default 500). Multiple changes of the
+ * same document are coalesced. If the queue exceeds the size
+ * 'lucence.asyncQueueSize' (default 10000) the calling thread writes the queue.
+ * The method waitForIndex() can be used to wait until all queued changes are
+ * searchable. The queue is not persisted. Instead a high-water mark is written
+ * into the file 'imixs-index-queue.pending' in the index directory when the
+ * first change is queued. The file is removed by the next commit after all
+ * queued changes were written. If the file exists after a restart (e.g. after
+ * a server crash), all documents modified since the high-water mark are
+ * reindexed. The property 'lucence.asyncRecoveryMargin' (in ms, default
+ * 300000) extends this period for transactions which were committed after
+ * the documents were modified. Documents removed in this period are not
+ * removed from the index.
+ * <p>
+ * If the index changes of a committed transaction can not be written, the
+ * high-water mark is written in the same way and the documents modified since
+ * the begin of the transaction are reindexed by a timer. Documents removed by
+ * the transaction are removed from the index unless the server is restarted
+ * before. A failed recovery is repeated after one minute.
+ * <p>
+ * Cursor searches sort by the field '$uniqueid.sort'. If the index contains
+ * documents without this field - e.g. an index created by a previous version -
+ * all documents are reindexed at startup in the same way. Cursor searches are
+ * rejected until the reindex is finished.
  * 
  * 
  * @see http://stackoverflow.com/questions/34880347/why-did-lucene-indexwriter-
@@ -92,18 +176,65 @@ import org.imixs.workflow.exceptions.PluginException;
  * @author rsoika
  */
 @Singleton
+@Lock(LockType.READ)
 public class LuceneUpdateService {
 
 	protected static final String DEFAULT_ANALYSER = "org.apache.lucene.analysis.standard.ClassicAnalyzer";
 	protected static final String DEFAULT_INDEX_DIRECTORY = "imixs-workflow-index";
 	protected static final String ANONYMOUS = "ANONYMOUS";
+	protected static final long DEFAULT_COMMIT_INTERVAL = 1000;
+	protected static final long DEFAULT_REFRESH_INTERVAL = 0;
+	protected static final long DEFAULT_ASYNC_INDEX_INTERVAL = 500;
+	protected static final int DEFAULT_ASYNC_QUEUE_SIZE = 10000;
+	protected static final int DEFAULT_ASYNC_BATCH_SIZE = 1000;
+	protected static final long DEFAULT_ASYNC_RECOVERY_MARGIN = 300000;
+	protected static final String INDEX_QUEUE_MARKER = "imixs-index-queue.pending";
+	private static final String TIMER_COMMIT = "commit";
+	private static final String TIMER_INDEX = "index";
+	private static final String TIMER_RECOVER = "recover";
+	private static final long INDEX_RECOVERY_RETRY_INTERVAL = 60000;
+
+	// types of the property lucence.indexFieldTypes
+	public static final String TYPE_DATE = "date";
+	public static final String TYPE_LONG = "long";
+	public static final String TYPE_DOUBLE = "double";
+	public static final String TYPE_KEYWORD = "keyword";
+	private static final List<String> INDEX_FIELD_TYPES = Arrays.asList(TYPE_DATE, TYPE_LONG, TYPE_DOUBLE,
+			TYPE_KEYWORD);
+
+	// sort field of the $uniqueid used as a stable tie breaker by cursor searches
+	public static final String UNIQUEID_SORT_FIELD = "$uniqueid.sort";
+
+	// type tag of a Date stored as a binary field
+	static final byte STORED_TYPE_DATE = 'D';
 
 	private List<String> searchFieldList = null;
 	private List<String> indexFieldListAnalyse = null;
 	private List<String> indexFieldListNoAnalyse = null;
+	private List<String> storeFieldList = null;
+	private Map<String, String> indexFieldTypes = null;
 	private String indexDirectoryPath = null;
 	private String analyserClass = null;
 	private Properties properties = null;
+	private long commitInterval = DEFAULT_COMMIT_INTERVAL;
+	private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+	private volatile long lastCommit = 0;
+	private volatile long lastRefresh = 0;
+	private IndexWriter indexWriter = null;
+	private SearcherManager searcherManager = null;
+	private IndexQueue indexQueue = null;
+	private int asyncQueueSize = DEFAULT_ASYNC_QUEUE_SIZE;
+	private int asyncBatchSize = DEFAULT_ASYNC_BATCH_SIZE;
+	private final Object indexQueueLock = new Object();
+	private final Object indexQueueMarkerLock = new Object();
+	private File indexQueueMarker = null;
+	private long indexQueueMark = 0;
+	private boolean indexRecoveryPending = false;
+	private long indexRecoveryRepeatMark = 0;
+	private final Set<String> indexRecoveryRemovals = new LinkedHashSet<String>();
+	private long asyncIndexInterval = DEFAULT_ASYNC_INDEX_INTERVAL;
+	private volatile boolean indexSortFieldMissing = false;
+	private long asyncRecoveryMargin = DEFAULT_ASYNC_RECOVERY_MARGIN;
 
 	// default field lists
 	private static List<String> DEFAULT_SEARCH_FIELD_LIST = Arrays.asList("$workflowsummary", "$workflowabstract");
@@ -111,12 +242,32 @@ public class LuceneUpdateService {
 			"$workitemid", "$uniqueidref", "type", "$writeaccess", "$modified", "$created", "namcreator", "$creator",
 			"$editor", "$lasteditor", "$workflowgroup", "$workflowstatus", "txtworkflowgroup", "txtname", "namowner",
 			"txtworkitemref");
+	private static List<String> DEFAULT_STORE_FIELD_LIST = Arrays.asList("type", "$modelversion", "$processid",
+			"$workitemid", "$uniqueidref", "$created", "$modified", "$creator", "$editor", "$lasteditor",
+			"$workflowgroup", "$workflowstatus", "$workflowsummary", "$workflowabstract", "txtname");
 
 	@EJB
 	PropertyService propertyService;
 
+	@PersistenceContext(unitName = "org.imixs.workflow.jpa")
+	private EntityManager manager;
+
+	@Resource
+	TimerService timerService;
+
+	@Resource
+	TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
 	private static Logger logger = Logger.getLogger(LuceneUpdateService.class.getName());
 
+	// the SimpleDateFormat is not thread safe
+	private static final ThreadLocal<SimpleDateFormat> dateFormat = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat("yyyyMMddHHmmss");
+		}
+	};
+
 	/**
 	 * PostContruct event - The method loads the lucene index properties from
 	 * the imixs.properties file from the classpath. If no properties are
@@ -137,6 +288,44 @@ public class LuceneUpdateService {
 		String sFulltextFieldList = properties.getProperty("lucence.fulltextFieldList");
 		String sIndexFieldListAnalyse = properties.getProperty("lucence.indexFieldListAnalyze");
 		String sIndexFieldListNoAnalyse = properties.getProperty("lucence.indexFieldListNoAnalyze");
+		String sStoreFieldList = properties.getProperty("lucence.storeFieldList");
+		String sIndexFieldTypes = properties.getProperty("lucence.indexFieldTypes");
+
+		commitInterval = Long.parseLong(
+				properties.getProperty("lucence.commitInterval", String.valueOf(DEFAULT_COMMIT_INTERVAL)));
+		refreshInterval = Long.parseLong(
+				properties.getProperty("lucence.refreshInterval", String.valueOf(DEFAULT_REFRESH_INTERVAL)));
+		asyncIndexInterval = Long.parseLong(
+				properties.getProperty("lucence.asyncIndexInterval", String.valueOf(DEFAULT_ASYNC_INDEX_INTERVAL)));
+		asyncQueueSize = Integer.parseInt(
+				properties.getProperty("lucence.asyncQueueSize", String.valueOf(DEFAULT_ASYNC_QUEUE_SIZE)));
+		asyncBatchSize = Integer.parseInt(
+				properties.getProperty("lucence.asyncBatchSize", String.valueOf(DEFAULT_ASYNC_BATCH_SIZE)));
+		asyncRecoveryMargin = Long.parseLong(
+				properties.getProperty("lucence.asyncRecoveryMargin", String.valueOf(DEFAULT_ASYNC_RECOVERY_MARGIN)));
+		if (Boolean.parseBoolean(properties.getProperty("lucence.asyncIndex", "false"))) {
+			indexQueue = new IndexQueue();
+		}
+		// test if queued changes were lost
+		indexQueueMarker = new File(indexDirectoryPath, INDEX_QUEUE_MARKER);
+		indexQueueMark = readIndexQueueMarker();
+		indexRecoveryPending = indexQueueMark > 0;
+		if (indexRecoveryPending) {
+			logger.warning("lucene index queue was not written completely - documents modified since "
+					+ new Date(indexQueueMark) + " will be reindexed");
+		}
+		// test if the index was created before the sort field of the $uniqueid
+		// was introduced
+		indexSortFieldMissing = isUniqueIdSortFieldMissing();
+		if (indexSortFieldMissing) {
+			logger.warning("lucene index contains documents without the field '" + UNIQUEID_SORT_FIELD
+					+ "' - all documents will be reindexed");
+			if (indexQueueMark != 1) {
+				indexQueueMark = 1;
+				writeIndexQueueMarker();
+			}
+			indexRecoveryPending = true;
+		}
 
 		logger.finest("lucene IndexDir=" + indexDirectoryPath);
 		logger.finest("lucene FulltextFieldList=" + sFulltextFieldList);
@@ -183,6 +372,248 @@ public class LuceneUpdateService {
 					indexFieldListNoAnalyse.add(sName);
 			}
 		}
+
+		// compute store field list
+		storeFieldList = new ArrayList<String>();
+		// add all static default field list
+		storeFieldList.addAll(DEFAULT_STORE_FIELD_LIST);
+		if (sStoreFieldList != null && !sStoreFieldList.isEmpty()) {
+			StringTokenizer st = new StringTokenizer(sStoreFieldList, ",");
+			while (st.hasMoreElements()) {
+				String sName = st.nextToken().toLowerCase().trim();
+				// $uniqueid is always stored, $readaccess is never stored
+				if (!"$uniqueid".equals(sName) && !"$readaccess".equals(sName) && !storeFieldList.contains(sName))
+					storeFieldList.add(sName);
+			}
+		}
+
+		// compute index field types (item:type)
+		indexFieldTypes = new LinkedHashMap<String, String>();
+		if (sIndexFieldTypes != null && !sIndexFieldTypes.isEmpty()) {
+			StringTokenizer st = new StringTokenizer(sIndexFieldTypes, ",");
+			while (st.hasMoreElements()) {
+				String sMapping = st.nextToken();
+				int iPos = sMapping.lastIndexOf(':');
+				String sName = iPos > 0 ? sMapping.substring(0, iPos).toLowerCase().trim() : "";
+				String sType = iPos > 0 ? sMapping.substring(iPos + 1).toLowerCase().trim() : "";
+				if (sName.isEmpty() || !INDEX_FIELD_TYPES.contains(sType) || "$uniqueid".equals(sName)
+						|| "$readaccess".equals(sName)) {
+					logger.warning("lucene invalid IndexFieldType '" + sMapping + "' - expected item:"
+							+ INDEX_FIELD_TYPES);
+					continue;
+				}
+				indexFieldTypes.put(sName, sType);
+			}
+		}
+		logger.finest("lucene IndexFieldTypes=" + indexFieldTypes);
+
+		// start the commit timer
+		if (commitInterval > 0 && timerService != null) {
+			timerService.createIntervalTimer(commitInterval, commitInterval, new TimerConfig(TIMER_COMMIT, false));
+		}
+		// start the index timer
+		if (indexQueue != null && timerService != null) {
+			timerService.createIntervalTimer(asyncIndexInterval, asyncIndexInterval,
+					new TimerConfig(TIMER_INDEX, false));
+		}
+		// start the recovery of lost index changes
+		if (indexRecoveryPending && timerService != null) {
+			timerService.createSingleActionTimer(asyncIndexInterval, new TimerConfig(TIMER_RECOVER, false));
+		}
+	}
+
+	/**
+	 * PreDestroy event - writes the index queue, commits pending changes and
+	 * closes the IndexWriter.
+	 */
+	@PreDestroy
+	void shutdown() {
+		try {
+			flushIndexQueue();
+		} catch (IndexException e) {
+			logger.severe("Unable to write lucene index queue: " + e.getMessage());
+		}
+		// commit explicitly to remove the high-water mark of the index queue
+		IndexWriter awriter = indexWriter;
+		if (awriter != null && awriter.isOpen()) {
+			try {
+				commit(awriter);
+			} catch (IOException | AlreadyClosedException e) {
+				logger.warning("lucene commit failed: " + e.getMessage());
+			}
+		}
+		close();
+	}
+
+	/**
+	 * Commits pending changes and closes the IndexWriter.
+	 */
+	void close() {
+		synchronized (this) {
+			try {
+				if (searcherManager != null) {
+					searcherManager.close();
+				}
+				if (indexWriter != null && indexWriter.isOpen()) {
+					logger.finest("lucene close IndexWriter...");
+					indexWriter.close();
+				}
+			} catch (IOException e) {
+				logger.warning("Unable to close lucene IndexWriter: " + e.getMessage());
+			} finally {
+				searcherManager = null;
+				indexWriter = null;
+			}
+		}
+	}
+
+	/**
+	 * Timeout event - writes the index queue or commits pending changes of the
+	 * IndexWriter.
+	 * 
+	 * @param timer
+	 */
+	@Timeout
+	void onTimeout(Timer timer) {
+		if (TIMER_INDEX.equals(timer.getInfo())) {
+			try {
+				flushIndexQueue();
+			} catch (IndexException e) {
+				logger.warning("Unable to write lucene index queue: " + e.getMessage());
+			}
+			return;
+		}
+		if (TIMER_RECOVER.equals(timer.getInfo())) {
+			try {
+				recoverIndex();
+			} catch (RuntimeException e) {
+				// IndexException or an error of the database
+				logger.severe("Unable to recover lucene index: " + e.getMessage() + " - retry in "
+						+ INDEX_RECOVERY_RETRY_INTERVAL + " ms");
+				timerService.createSingleActionTimer(INDEX_RECOVERY_RETRY_INTERVAL,
+						new TimerConfig(TIMER_RECOVER, false));
+			}
+			return;
+		}
+		commitIndex();
+	}
+
+	/**
+	 * Commits the uncommitted changes of the IndexWriter. The high-water mark of
+	 * the index queue is removed if all queued changes were committed.
+	 */
+	void commitIndex() {
+		IndexWriter awriter = indexWriter;
+		// changes written before are committed if the writer has no uncommitted
+		// changes
+		long writtenSequence = indexQueue != null ? indexQueue.getWrittenSequence() : 0;
+		if (awriter != null && awriter.isOpen() && awriter.hasUncommittedChanges()) {
+			try {
+				commit(awriter);
+			} catch (IOException | AlreadyClosedException e) {
+				logger.warning("lucene commit failed: " + e.getMessage());
+				resetIndexWriter(awriter);
+			}
+		} else if (awriter != null && awriter.isOpen()) {
+			unmarkIndexQueue(writtenSequence);
+		}
+	}
+
+	/**
+	 * Returns a near-real-time IndexSearcher. The searcher must be released by
+	 * the method releaseIndexSearcher after usage.
+	 * 
+	 * @return IndexSearcher
+	 * @throws IOException
+	 */
+	public IndexSearcher acquireIndexSearcher() throws IOException {
+		SearcherManager manager = getSearcherManager();
+		long now = System.currentTimeMillis();
+		if (refreshInterval <= 0 || now - lastRefresh >= refreshInterval) {
+			manager.maybeRefresh();
+			lastRefresh = now;
+		}
+		return manager.acquire();
+	}
+
+	/**
+	 * This method waits until all index changes queued before are searchable. In
+	 * the asynchronous index mode the index queue is written by the calling
+	 * thread. The method can be used by callers which need to search their own
+	 * changes.
+	 * 
+	 * @throws IndexException
+	 */
+	public void waitForIndex() {
+		if (indexQueue != null && indexQueue.getWrittenSequence() < indexQueue.getSequence()) {
+			flushIndexQueue();
+		}
+		try {
+			getSearcherManager().maybeRefreshBlocking();
+			lastRefresh = System.currentTimeMillis();
+		} catch (IOException | AlreadyClosedException e) {
+			throw new IndexException(IndexException.INVALID_INDEX, "Unable to refresh lucene search index", e);
+		}
+	}
+
+	/**
+	 * Returns the number of changes waiting in the index queue.
+	 * 
+	 * @return queue size or 0 if the asynchronous index mode is disabled
+	 */
+	public int getIndexQueueSize() {
+		return indexQueue != null ? indexQueue.size() : 0;
+	}
+
+	/**
+	 * Returns the time in milliseconds the oldest change is waiting in the index
+	 * queue.
+	 * 
+	 * @return lag in ms or 0 if the asynchronous index mode is disabled
+	 */
+	public long getIndexQueueLag() {
+		return indexQueue != null ? indexQueue.getLag() : 0;
+	}
+
+	/**
+	 * Returns the number of queued changes replaced by a later change of the same
+	 * document.
+	 * 
+	 * @return number of coalesced changes
+	 */
+	public long getIndexQueueCoalescedCount() {
+		return indexQueue != null ? indexQueue.getCoalescedCount() : 0;
+	}
+
+	/**
+	 * Returns the number of changes written from the index queue.
+	 * 
+	 * @return number of written changes
+	 */
+	public long getIndexQueueWrittenCount() {
+		return indexQueue != null ? indexQueue.getWrittenCount() : 0;
+	}
+
+	/**
+	 * Releases an IndexSearcher acquired by the method acquireIndexSearcher.
+	 * 
+	 * @param searcher
+	 */
+	public void releaseIndexSearcher(IndexSearcher searcher) {
+		if (searcher == null) {
+			return;
+		}
+		SearcherManager manager = searcherManager;
+		try {
+			if (manager != null) {
+				manager.release(searcher);
+			} else {
+				// the manager was closed
+				searcher.getIndexReader().decRef();
+			}
+		} catch (IOException | AlreadyClosedException e) {
+			logger.warning("Unable to release lucene IndexSearcher: " + e.getMessage());
+		}
 	}
 
 	/**
@@ -199,6 +630,12 @@ public class LuceneUpdateService {
 		config.replaceItemValue("lucence.fulltextFieldList", searchFieldList);
 		config.replaceItemValue("lucence.indexFieldListAnalyze", indexFieldListAnalyse);
 		config.replaceItemValue("lucence.indexFieldListNoAnalyze", indexFieldListNoAnalyse);
+		config.replaceItemValue("lucence.storeFieldList", storeFieldList);
+		List<String> fieldTypes = new ArrayList<String>();
+		for (Map.Entry<String, String> entry : getIndexFieldTypes().entrySet()) {
+			fieldTypes.add(entry.getKey() + ":" + entry.getValue());
+		}
+		config.replaceItemValue("lucence.indexFieldTypes", fieldTypes);
 
 		return config;
 	}
@@ -224,36 +661,14 @@ public class LuceneUpdateService {
 	 * @throws IndexException
 	 */
 	public void updateDocuments(Collection<ItemCollection> documents) {
-
-		IndexWriter awriter = null;
 		long ltime = System.currentTimeMillis();
-		try {
-			awriter = createIndexWriter();
-			// add workitem to search index....
-			for (ItemCollection workitem : documents) {
-				// create term
-				Term term = new Term("$uniqueid", workitem.getItemValueString("$uniqueid"));
-
-				logger.finest("lucene add/update workitem '" + workitem.getItemValueString(WorkflowKernel.UNIQUEID)
-						+ "' to index...");
-				awriter.updateDocument(term, createDocument(workitem));
-			}
-		} catch (IOException luceneEx) {
-			logger.warning("lucene error: " + luceneEx.getMessage());
-			throw new IndexException(IndexException.INVALID_INDEX, "Unable to update lucene search index", luceneEx);
-		} finally {
-			// close writer!
-			if (awriter != null) {
-				logger.finest("lucene close IndexWriter...");
-				try {
-					awriter.close();
-				} catch (CorruptIndexException e) {
-					throw new IndexException(IndexException.INVALID_INDEX, "Unable to close lucene IndexWriter: ", e);
-				} catch (IOException e) {
-					throw new IndexException(IndexException.INVALID_INDEX, "Unable to close lucene IndexWriter: ", e);
-				}
-			}
+		Map<String, Document> luceneDocuments = new LinkedHashMap<String, Document>();
+		for (ItemCollection workitem : documents) {
+			logger.finest("lucene add/update workitem '" + workitem.getItemValueString(WorkflowKernel.UNIQUEID)
+					+ "' to index...");
+			luceneDocuments.put(workitem.getItemValueString(WorkflowKernel.UNIQUEID), createDocument(workitem));
 		}
+		indexDocuments(luceneDocuments);
 
 		if (logger.isLoggable(Level.FINE)) {
 			logger.fine("lucene update worklist in " + (System.currentTimeMillis() - ltime) + " ms (" + documents.size()
@@ -269,37 +684,526 @@ public class LuceneUpdateService {
 	 * @throws PluginException
 	 */
 	public void removeDocument(String uniqueID) {
+		long ltime = System.currentTimeMillis();
+		indexDocuments(Collections.singletonMap(uniqueID, (Document) null));
+		logger.fine("lucene removeDocument in " + (System.currentTimeMillis() - ltime) + " ms");
+	}
+
+	/**
+	 * This method adds a single document into the search index after the current
+	 * transaction was committed. All index changes of one transaction are written
+	 * in one batch. If the transaction is rolled back the index is not changed.
+	 * <p>
+	 * The lucene document is created immediately, so later changes of the
+	 * ItemCollection are not reflected. If no transaction is active, the document
+	 * is updated immediately.
+	 * 
+	 * @param documentContext
+	 */
+	public void updateDocumentOnCommit(ItemCollection documentContext) {
+		TransactionalIndexUpdate indexUpdate = getTransactionalIndexUpdate();
+		if (indexUpdate == null) {
+			updateDocument(documentContext);
+		} else {
+			indexUpdate.put(documentContext.getItemValueString(WorkflowKernel.UNIQUEID),
+					createDocument(documentContext));
+		}
+	}
+
+	/**
+	 * This method adds a collection of documents into the search index after the
+	 * current transaction was committed. If no transaction is active, the
+	 * documents are updated immediately in one batch.
+	 * 
+	 * @param documents
+	 *            of ItemCollections to be indexed
+	 */
+	public void updateDocumentsOnCommit(Collection<ItemCollection> documents) {
+		if (documents == null || documents.isEmpty()) {
+			return;
+		}
+		TransactionalIndexUpdate indexUpdate = getTransactionalIndexUpdate();
+		if (indexUpdate == null) {
+			updateDocuments(documents);
+		} else {
+			for (ItemCollection documentContext : documents) {
+				indexUpdate.put(documentContext.getItemValueString(WorkflowKernel.UNIQUEID),
+						createDocument(documentContext));
+			}
+		}
+	}
+
+	/**
+	 * This method removes a single document from the search index after the
+	 * current transaction was committed. If no transaction is active, the document
+	 * is removed immediately.
+	 * 
+	 * @param uniqueID
+	 *            of the workitem to be removed
+	 */
+	public void removeDocumentOnCommit(String uniqueID) {
+		TransactionalIndexUpdate indexUpdate = getTransactionalIndexUpdate();
+		if (indexUpdate == null) {
+			removeDocument(uniqueID);
+		} else {
+			indexUpdate.put(uniqueID, null);
+		}
+	}
+
+	/**
+	 * Writes a map of lucene documents into the index or adds them to the index
+	 * queue in the asynchronous index mode. If the queue is full, the queue is
+	 * written by the calling thread.
+	 * 
+	 * @param documents
+	 * @throws IndexException
+	 */
+	void indexDocuments(Map<String, Document> documents) {
+		if (indexQueue == null) {
+			writeDocuments(documents);
+			return;
+		}
+		int size = 0;
+		for (Map.Entry<String, Document> entry : documents.entrySet()) {
+			size = indexQueue.put(entry.getKey(), entry.getValue());
+		}
+		// the marker is written after the changes were queued, so a concurrent
+		// commit can not remove the marker of these changes
+		markIndexQueue();
+		if (size >= asyncQueueSize) {
+			logger.fine("lucene index queue size=" + size + " exceeds " + asyncQueueSize);
+			flushIndexQueue();
+		}
+	}
+
+	/**
+	 * Writes all changes of the index queue in batches.
+	 * 
+	 * @return number of written changes
+	 * @throws IndexException
+	 */
+	int flushIndexQueue() {
+		if (indexQueue == null) {
+			return 0;
+		}
+		int count = 0;
+		long ltime = System.currentTimeMillis();
+		// only one thread writes the queue to keep the order of the changes
+		synchronized (indexQueueLock) {
+			IndexQueue.Batch batch;
+			while ((batch = indexQueue.drain(asyncBatchSize)) != null) {
+				try {
+					writeDocuments(batch.getDocuments());
+				} catch (IndexException e) {
+					indexQueue.requeue(batch);
+					throw e;
+				}
+				indexQueue.written(batch);
+				count += batch.getDocuments().size();
+			}
+		}
+		if (count > 0 && logger.isLoggable(Level.FINE)) {
+			logger.fine("lucene write index queue in " + (System.currentTimeMillis() - ltime) + " ms (" + count
+					+ " documents)");
+		}
+		return count;
+	}
+
+	/**
+	 * Writes a map of lucene documents into the index. The key of the map is the
+	 * $uniqueid of a document. A null value removes the document from the index.
+	 * 
+	 * @param documents
+	 * @throws IndexException
+	 */
+	void writeDocuments(Map<String, Document> documents) {
 		IndexWriter awriter = null;
+		try {
+			awriter = getIndexWriter();
+			for (Map.Entry<String, Document> entry : documents.entrySet()) {
+				Term term = new Term("$uniqueid", entry.getKey());
+				if (entry.getValue() != null) {
+					awriter.updateDocument(term, entry.getValue());
+				} else {
+					awriter.deleteDocuments(term);
+				}
+			}
+			maybeCommit(awriter);
+		} catch (IOException | AlreadyClosedException luceneEx) {
+			logger.warning("lucene error: " + luceneEx.getMessage());
+			resetIndexWriter(awriter);
+			throw new IndexException(IndexException.INVALID_INDEX, "Unable to update lucene search index", luceneEx);
+		}
+	}
+
+	/**
+	 * Returns the index changes of the current transaction. The changes are
+	 * registered as a synchronization of the transaction on first usage. The
+	 * method returns null if no transaction is active.
+	 */
+	private TransactionalIndexUpdate getTransactionalIndexUpdate() {
+		if (transactionSynchronizationRegistry == null
+				|| transactionSynchronizationRegistry.getTransactionKey() == null) {
+			return null;
+		}
+		TransactionalIndexUpdate indexUpdate = (TransactionalIndexUpdate) transactionSynchronizationRegistry
+				.getResource(TransactionalIndexUpdate.class);
+		if (indexUpdate == null) {
+			indexUpdate = new TransactionalIndexUpdate();
+			transactionSynchronizationRegistry.registerInterposedSynchronization(indexUpdate);
+			transactionSynchronizationRegistry.putResource(TransactionalIndexUpdate.class, indexUpdate);
+		}
+		return indexUpdate;
+	}
+
+	/**
+	 * Returns the shared IndexWriter. The writer is created on first usage or if
+	 * the writer was closed after an error.
+	 * 
+	 * @return IndexWriter
+	 * @throws IOException
+	 */
+	synchronized IndexWriter getIndexWriter() throws IOException {
+		if (indexWriter == null || !indexWriter.isOpen()) {
+			logger.finest("lucene open IndexWriter...");
+			if (searcherManager != null) {
+				searcherManager.close();
+				searcherManager = null;
+			}
+			indexWriter = createIndexWriter();
+			searcherManager = new SearcherManager(indexWriter, null);
+			lastCommit = System.currentTimeMillis();
+		}
+		return indexWriter;
+	}
+
+	private synchronized SearcherManager getSearcherManager() throws IOException {
+		getIndexWriter();
+		return searcherManager;
+	}
+
+	/**
+	 * Commits the changes of the IndexWriter if the commit interval has expired.
+	 */
+	private void maybeCommit(IndexWriter awriter) throws IOException {
+		if (commitInterval <= 0 || System.currentTimeMillis() - lastCommit >= commitInterval) {
+			commit(awriter);
+		}
+	}
+
+	private void commit(IndexWriter awriter) throws IOException {
+		// all changes written before the commit are persisted by the commit
+		long writtenSequence = indexQueue != null ? indexQueue.getWrittenSequence() : 0;
+		lastCommit = System.currentTimeMillis();
+		awriter.commit();
+		unmarkIndexQueue(writtenSequence);
+	}
+
+	/**
+	 * Reindexes all documents modified since the high-water mark of the index
+	 * queue. The method is called by a timer after a restart if the index queue
+	 * was not written completely before, or if the index changes of a committed
+	 * transaction could not be written. If a new recovery is requested while
+	 * the recovery is running, the documents modified since the new mark are
+	 * reindexed again.
+	 * 
+	 * @throws IndexException
+	 */
+	void recoverIndex() {
+		long mark;
+		synchronized (indexQueueMarkerLock) {
+			if (!indexRecoveryPending) {
+				return;
+			}
+			mark = indexQueueMark;
+			indexRecoveryRepeatMark = 0;
+		}
 		long ltime = System.currentTimeMillis();
+		int count = 0;
+		while (mark > 0) {
+			// removed documents are deleted first, so a document created again is
+			// added by the reindex
+			Map<String, Document> removals = new LinkedHashMap<String, Document>();
+			synchronized (indexQueueMarkerLock) {
+				for (String uniqueID : indexRecoveryRemovals) {
+					removals.put(uniqueID, null);
+				}
+				indexRecoveryRemovals.clear();
+			}
+			indexDocuments(removals);
+			count += removals.size() + reindexDocuments(mark - asyncRecoveryMargin);
+			flushIndexQueue();
+			synchronized (indexQueueMarkerLock) {
+				mark = indexRecoveryRepeatMark;
+				indexRecoveryRepeatMark = 0;
+				if (mark == 0) {
+					indexRecoveryPending = false;
+				}
+			}
+		}
+		indexSortFieldMissing = false;
+		try {
+			commit(getIndexWriter());
+		} catch (IOException | AlreadyClosedException e) {
+			throw new IndexException(IndexException.INVALID_INDEX, "Unable to commit lucene search index", e);
+		}
+		logger.info("lucene index recovered in " + (System.currentTimeMillis() - ltime) + " ms (" + count
+				+ " documents reindexed)");
+	}
+
+	/**
+	 * Reindexes all documents modified since the given time. The documents are
+	 * read in blocks ordered by their id, so documents modified in the meantime
+	 * are not skipped.
+	 * 
+	 * @param time
+	 * @return number of reindexed documents
+	 */
+	private int reindexDocuments(long time) {
+		Calendar since = Calendar.getInstance();
+		since.setTimeInMillis(time);
+		String lastId = "";
+		int count = 0;
+		while (true) {
+			Query q = manager.createQuery("SELECT document FROM Document AS document"
+					+ " WHERE document.modified >= :since AND document.id > :id ORDER BY document.id");
+			q.setParameter("since", since, TemporalType.TIMESTAMP);
+			q.setParameter("id", lastId);
+			q.setMaxResults(asyncBatchSize);
+			@SuppressWarnings("unchecked")
+			List<org.imixs.workflow.engine.jpa.Document> documentList = q.getResultList();
+			if (documentList.isEmpty()) {
+				break;
+			}
+			Map<String, Document> documents = new LinkedHashMap<String, Document>();
+			for (org.imixs.workflow.engine.jpa.Document doc : documentList) {
+				ItemCollection document = ItemCollection.createByReference(doc.getData());
+				documents.put(doc.getId(),
+						document.getItemValueBoolean(DocumentService.NOINDEX) ? null : createDocument(document));
+				lastId = doc.getId();
+			}
+			// the entities are only read
+			manager.clear();
+			indexDocuments(documents);
+			count += documents.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Requests a reindex of all documents modified since the given time. The
+	 * time is written as the high-water mark, so the reindex is also done after
+	 * a restart. The reindex is started by a timer. The given documents are
+	 * removed from the index by the recovery. The removals are held in memory
+	 * only.
+	 * 
+	 * @param time
+	 *            - the time the lost changes started
+	 * @param removedIDs
+	 *            - the $uniqueid of removed documents
+	 */
+	void requestIndexRecovery(long time, Collection<String> removedIDs) {
+		synchronized (indexQueueMarkerLock) {
+			indexRecoveryRemovals.addAll(removedIDs);
+			if (indexQueueMark == 0 || time < indexQueueMark) {
+				indexQueueMark = time;
+				writeIndexQueueMarker();
+			}
+			if (indexRecoveryPending) {
+				// a running recovery is repeated for the new changes
+				if (indexRecoveryRepeatMark == 0 || time < indexRecoveryRepeatMark) {
+					indexRecoveryRepeatMark = time;
+				}
+				return;
+			}
+			indexRecoveryPending = true;
+		}
+		logger.warning("lucene index recovery requested - documents modified since " + new Date(time)
+				+ " will be reindexed");
+		if (timerService != null) {
+			timerService.createSingleActionTimer(asyncIndexInterval, new TimerConfig(TIMER_RECOVER, false));
+		}
+	}
+
+	/**
+	 * Returns true if the index changes lost after a restart are not yet
+	 * reindexed.
+	 * 
+	 * @return true if the index recovery is pending
+	 */
+	public boolean isIndexRecoveryPending() {
+		synchronized (indexQueueMarkerLock) {
+			return indexRecoveryPending;
+		}
+	}
+
+	/**
+	 * Returns true if the index contains documents without the sort field of
+	 * the $uniqueid and the reindex of these documents is not yet finished.
+	 * Cursor searches are not possible in this case, because hits without a
+	 * sort value can not be ordered.
+	 * 
+	 * @return true if the sort field of the $uniqueid is missing
+	 */
+	public boolean isIndexSortFieldMissing() {
+		return indexSortFieldMissing;
+	}
+
+	/**
+	 * Writes the high-water mark of the index queue if no mark exists. The mark
+	 * is the time the first change was queued since the last complete commit.
+	 */
+	private void markIndexQueue() {
+		synchronized (indexQueueMarkerLock) {
+			if (indexQueueMark > 0) {
+				return;
+			}
+			indexQueueMark = System.currentTimeMillis();
+			writeIndexQueueMarker();
+		}
+	}
+
+	/**
+	 * Writes the current high-water mark into the marker file.
+	 */
+	private void writeIndexQueueMarker() {
 		try {
-			awriter = createIndexWriter();
-			Term term = new Term("$uniqueid", uniqueID);
-			awriter.deleteDocuments(term);
-		} catch (CorruptIndexException e) {
-			throw new IndexException(IndexException.INVALID_INDEX,
-					"Unable to remove workitem '" + uniqueID + "' from search index", e);
-		} catch (LockObtainFailedException e) {
-			throw new IndexException(IndexException.INVALID_INDEX,
-					"Unable to remove workitem '" + uniqueID + "' from search index", e);
+			indexQueueMarker.getParentFile().mkdirs();
+			Files.write(indexQueueMarker.toPath(), String.valueOf(indexQueueMark).getBytes(StandardCharsets.UTF_8));
 		} catch (IOException e) {
-			throw new IndexException(IndexException.INVALID_INDEX,
-					"Unable to remove workitem '" + uniqueID + "' from search index", e);
-		} finally {
-			// close writer!
-			if (awriter != null) {
-				logger.finest("lucene close IndexWriter...");
-				try {
-					awriter.close();
-				} catch (CorruptIndexException e) {
-					throw new IndexException(IndexException.INVALID_INDEX, "Unable to close lucene IndexWriter: ", e);
-				} catch (IOException e) {
-					throw new IndexException(IndexException.INVALID_INDEX, "Unable to close lucene IndexWriter: ", e);
+			logger.warning("Unable to write lucene index queue marker: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Tests if the index contains a document without the sort field of the
+	 * $uniqueid. The method reads only the doc values of the sort field and is
+	 * called once at startup.
+	 * 
+	 * @return true if a document without the sort field exists
+	 */
+	private boolean isUniqueIdSortFieldMissing() {
+		try (Directory indexDir = FSDirectory.open(Paths.get(indexDirectoryPath))) {
+			if (!DirectoryReader.indexExists(indexDir)) {
+				return false;
+			}
+			try (DirectoryReader reader = DirectoryReader.open(indexDir)) {
+				for (LeafReaderContext context : reader.leaves()) {
+					LeafReader leafReader = context.reader();
+					Bits docsWithField = leafReader.getDocsWithField(UNIQUEID_SORT_FIELD);
+					Bits liveDocs = leafReader.getLiveDocs();
+					for (int i = 0; i < leafReader.maxDoc(); i++) {
+						if ((liveDocs == null || liveDocs.get(i)) && (docsWithField == null || !docsWithField.get(i))) {
+							return true;
+						}
+					}
 				}
 			}
+		} catch (IOException e) {
+			logger.warning("Unable to read lucene index: " + e.getMessage());
 		}
+		return false;
+	}
 
-		logger.fine("lucene removeDocument in " + (System.currentTimeMillis() - ltime) + " ms");
+	/**
+	 * Removes the high-water mark of the index queue if all queued changes were
+	 * written before the last commit and no recovery is pending.
+	 * 
+	 * @param writtenSequence
+	 *            - the sequence number written before the last commit
+	 */
+	private void unmarkIndexQueue(long writtenSequence) {
+		synchronized (indexQueueMarkerLock) {
+			if (indexQueueMark == 0 || indexRecoveryPending
+					|| (indexQueue != null && indexQueue.getSequence() > writtenSequence)) {
+				return;
+			}
+			if (!indexQueueMarker.delete() && indexQueueMarker.exists()) {
+				logger.warning("Unable to delete lucene index queue marker '" + indexQueueMarker.getPath() + "'");
+				return;
+			}
+			indexQueueMark = 0;
+		}
+	}
+
+	/**
+	 * Reads the high-water mark of the index queue.
+	 * 
+	 * @return the mark or 0 if no mark exists
+	 */
+	private long readIndexQueueMarker() {
+		if (!indexQueueMarker.exists()) {
+			return 0;
+		}
+		try {
+			String mark = new String(Files.readAllBytes(indexQueueMarker.toPath()), StandardCharsets.UTF_8).trim();
+			return Long.parseLong(mark);
+		} catch (IOException | NumberFormatException e) {
+			// the complete index is rebuilt
+			logger.warning("Invalid lucene index queue marker: " + e.getMessage());
+			return 1;
+		}
+	}
+
+	/**
+	 * Closes the IndexWriter after an error. The writer will be opened again on
+	 * the next update.
+	 */
+	private synchronized void resetIndexWriter(IndexWriter awriter) {
+		if (awriter == null || awriter != indexWriter) {
+			return;
+		}
+		logger.warning("lucene reset IndexWriter...");
+		close();
+	}
+
+	/**
+	 * Collects the index changes of one transaction and writes them into the
+	 * index after the transaction was committed. If the changes can not be
+	 * written, a recovery of the index is requested.
+	 */
+	class TransactionalIndexUpdate implements Synchronization {
+		private final Map<String, Document> documents = new LinkedHashMap<String, Document>();
+		// the first change of the transaction was collected at this time. Changes
+		// made before in the same transaction are covered by the recovery margin.
+		private final long created = System.currentTimeMillis();
 
+		void put(String uniqueID, Document document) {
+			// keep the order of the last change
+			documents.remove(uniqueID);
+			documents.put(uniqueID, document);
+		}
+
+		@Override
+		public void beforeCompletion() {
+		}
+
+		@Override
+		public void afterCompletion(int status) {
+			if (status != Status.STATUS_COMMITTED) {
+				logger.finest("lucene transaction rolled back - discard " + documents.size() + " index updates");
+				return;
+			}
+			long ltime = System.currentTimeMillis();
+			try {
+				indexDocuments(documents);
+			} catch (IndexException e) {
+				// the transaction is already committed, so the documents are
+				// reindexed by a recovery
+				logger.severe("Unable to update lucene search index after commit: " + e.getMessage());
+				List<String> removedIDs = new ArrayList<String>();
+				for (Map.Entry<String, Document> entry : documents.entrySet()) {
+					if (entry.getValue() == null) {
+						removedIDs.add(entry.getKey());
+					}
+				}
+				requestIndexRecovery(created, removedIDs);
+			}
+			if (logger.isLoggable(Level.FINE)) {
+				logger.fine("lucene update " + documents.size() + " documents after commit in "
+						+ (System.currentTimeMillis() - ltime) + " ms");
+			}
+		}
 	}
 
 	/**
@@ -329,20 +1233,21 @@ public class LuceneUpdateService {
 	 * The property 'AnalyzeIndexFields' defines if a indexfield value should by
 	 * analyzed by the Lucene Analyzer (default=false)
 	 * 
+	 * The values are read by the method readItemValue which does not copy or
+	 * allocate value lists. The content of the search fields is collected in one
+	 * StringBuilder.
+	 * 
 	 * @param aworkitem
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	Document createDocument(ItemCollection aworkitem) {
-		String sValue = null;
 		Document doc = new Document();
 		// combine all search fields from the search field list into one field
 		// ('content') for the lucene document
-		String sContent = "";
+		StringBuilder content = new StringBuilder(256);
 		for (String aFieldname : searchFieldList) {
-			sValue = "";
 			// check value list - skip empty fields
-			List<?> vValues = aworkitem.getItemValue(aFieldname);
+			List<?> vValues = aworkitem.readItemValue(aFieldname);
 			if (vValues.size() == 0)
 				continue;
 			// get all values of a value list field
@@ -350,26 +1255,11 @@ public class LuceneUpdateService {
 				if (o == null)
 					// skip null values
 					continue;
-
-				if (o instanceof Calendar || o instanceof Date) {
-					SimpleDateFormat dateformat = new SimpleDateFormat("yyyyMMddHHmmss");
-					// convert calendar to string
-					String sDateValue;
-					if (o instanceof Calendar)
-						sDateValue = dateformat.format(((Calendar) o).getTime());
-					else
-						sDateValue = dateformat.format((Date) o);
-					sValue += sDateValue + ",";
-
-				} else
-					// simple string representation
-					sValue += o.toString() + ",";
-			}
-			if (sValue != null) {
-				logger.finest("lucene add SearchField: " + aFieldname + "=" + sValue);
-				sContent += sValue + ",";
+				content.append(formatValue(o)).append(',');
 			}
+			content.append(',');
 		}
+		String sContent = content.toString();
 		logger.finest("add lucene field content=" + sContent);
 		doc.add(new TextField("content", sContent, Store.NO));
 
@@ -381,29 +1271,57 @@ public class LuceneUpdateService {
 		}
 		// ... and not analyzed...
 		for (String aFieldname : indexFieldListNoAnalyse) {
-			addItemValues(doc, aworkitem, aFieldname, false);
+			if (!indexFieldTypes.containsKey(aFieldname)) {
+				addItemValues(doc, aworkitem, aFieldname, false);
+			}
+		}
+		// ... and typed
+		for (Map.Entry<String, String> entry : indexFieldTypes.entrySet()) {
+			addTypedItemValues(doc, aworkitem, entry.getKey(), entry.getValue());
+		}
+
+		// add stored fields
+		for (String aFieldname : storeFieldList) {
+			addStoredItemValues(doc, aworkitem, aFieldname);
 		}
 
-		// add $uniqueid not analyzed
-		doc.add(new StringField("$uniqueid", aworkitem.getItemValueString("$uniqueid"), Store.YES));
+		// add $uniqueid not analyzed and as a sort field
+		String uniqueID = aworkitem.getItemValueString("$uniqueid");
+		doc.add(new StringField("$uniqueid", uniqueID, Store.YES));
+		doc.add(new SortedDocValuesField(UNIQUEID_SORT_FIELD, new BytesRef(uniqueID)));
 
 		// add $readAccess not analyzed
-		List<String> vReadAccess = (List<String>) aworkitem.getItemValue("$readAccess");
-		if (vReadAccess.size() == 0 || (vReadAccess.size() == 1 && "".equals(vReadAccess.get(0).toString()))) {
+		List<?> vReadAccess = aworkitem.readItemValue("$readaccess");
+		if (vReadAccess.size() == 0 || (vReadAccess.size() == 1 && "".equals(String.valueOf(vReadAccess.get(0))))) {
 			// if emtpy add the ANONYMOUS default entry
-			sValue = ANONYMOUS;
-			doc.add(new StringField("$readaccess", sValue, Store.NO));
+			doc.add(new StringField("$readaccess", ANONYMOUS, Store.NO));
 		} else {
-			sValue = "";
 			// add each role / username as a single field value
-			for (String sReader : vReadAccess) {
-				doc.add(new StringField("$readaccess", sReader, Store.NO));
+			for (Object sReader : vReadAccess) {
+				doc.add(new StringField("$readaccess", String.valueOf(sReader), Store.NO));
 			}
 
 		}
 		return doc;
 	}
 
+	/**
+	 * Returns the string representation of an item value. Dates and Calendars
+	 * are formatted as 'yyyyMMddHHmmss'.
+	 * 
+	 * @param value
+	 * @return string value
+	 */
+	static String formatValue(Object value) {
+		if (value instanceof Calendar) {
+			return dateFormat.get().format(((Calendar) value).getTime());
+		}
+		if (value instanceof Date) {
+			return dateFormat.get().format((Date) value);
+		}
+		return value.toString();
+	}
+
 	/**
 	 * adds a field value into a lucene document
 	 * 
@@ -426,7 +1344,7 @@ public class LuceneUpdateService {
 		// doc.add(...)
 		itemName = itemName.toLowerCase().trim();
 
-		List<?> vValues = workitem.getItemValue(itemName);
+		List<?> vValues = workitem.readItemValue(itemName);
 		if (vValues.size() == 0) {
 			return;
 		}
@@ -436,24 +1354,10 @@ public class LuceneUpdateService {
 
 		boolean firstValue = true;
 		for (Object singleValue : vValues) {
-
-			// Object o = vValues.firstElement();
-			if (singleValue instanceof Calendar || singleValue instanceof Date) {
-				SimpleDateFormat dateformat = new SimpleDateFormat("yyyyMMddHHmmss");
-
-				// convert calendar to string
-				String sDateValue;
-				if (singleValue instanceof Calendar) {
-					sDateValue = dateformat.format(((Calendar) singleValue).getTime());
-				} else {
-					sDateValue = dateformat.format((Date) singleValue);
-				}
-				sValue = sDateValue;
-
-			} else {
-				// simple string representation
-				sValue = singleValue.toString();
+			if (singleValue == null) {
+				continue;
 			}
+			sValue = formatValue(singleValue);
 
 			logger.finest("lucene add IndexField (analyse=" + analyzeValue + "): " + itemName + "=" + sValue);
 			if (analyzeValue) {
@@ -478,4 +1382,150 @@ public class LuceneUpdateService {
 
 	}
 
+	/**
+	 * adds the values of an item as typed fields into a lucene document. Each
+	 * value is indexed as a keyword like in the method addItemValues, so term
+	 * queries still work. In addition the values are indexed by type:
+	 * <ul>
+	 * <li>date - a LongPoint and a SortedNumericDocValuesField of the time in
+	 * milliseconds
+	 * <li>long - a LongPoint and a SortedNumericDocValuesField
+	 * <li>double - a DoublePoint and a SortedNumericDocValuesField of the sortable
+	 * long value
+	 * <li>keyword - a SortedSetDocValuesField
+	 * </ul>
+	 * All values of a multi value item are added to the doc values, so the item
+	 * can be sorted by its smallest or largest value. Values which do not match
+	 * the type are only indexed as a keyword.
+	 * 
+	 * @see LuceneSearchService#createSortField
+	 * @param doc
+	 *            an existing lucene document
+	 * @param workitem
+	 *            the workitem containg the values
+	 * @param itemName
+	 *            the Fieldname inside the workitem
+	 * @param type
+	 *            the index field type
+	 */
+	void addTypedItemValues(Document doc, ItemCollection workitem, String itemName, String type) {
+		for (Object value : workitem.readItemValue(itemName)) {
+			if (value == null) {
+				continue;
+			}
+			if (value instanceof Calendar) {
+				value = ((Calendar) value).getTime();
+			}
+			String sValue = formatValue(value);
+			doc.add(new StringField(itemName, sValue, Store.NO));
+
+			if (TYPE_KEYWORD.equals(type)) {
+				doc.add(new SortedSetDocValuesField(itemName, new BytesRef(sValue)));
+			} else if (TYPE_DATE.equals(type)) {
+				if (value instanceof Date) {
+					long time = ((Date) value).getTime();
+					doc.add(new LongPoint(itemName, time));
+					doc.add(new SortedNumericDocValuesField(itemName, time));
+				}
+			} else if (TYPE_LONG.equals(type)) {
+				Long number = null;
+				if (value instanceof Long || value instanceof Integer || value instanceof Short
+						|| value instanceof Byte) {
+					number = ((Number) value).longValue();
+				} else if (value instanceof String) {
+					try {
+						number = Long.parseLong(sValue.trim());
+					} catch (NumberFormatException e) {
+						logger.finest("lucene value of '" + itemName + "' is not a long: " + sValue);
+					}
+				}
+				if (number != null) {
+					doc.add(new LongPoint(itemName, number));
+					doc.add(new SortedNumericDocValuesField(itemName, number));
+				}
+			} else if (TYPE_DOUBLE.equals(type)) {
+				Double number = null;
+				if (value instanceof Number) {
+					number = ((Number) value).doubleValue();
+				} else if (value instanceof String) {
+					try {
+						number = Double.parseDouble(sValue.trim());
+					} catch (NumberFormatException e) {
+						logger.finest("lucene value of '" + itemName + "' is not a double: " + sValue);
+					}
+				}
+				if (number != null) {
+					doc.add(new DoublePoint(itemName, number));
+					doc.add(new SortedNumericDocValuesField(itemName, NumericUtils.doubleToSortableLong(number)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the index field type of an item defined by the property
+	 * 'lucence.indexFieldTypes' or null if the item has no typed index field.
+	 * 
+	 * @param itemName
+	 * @return date, long, double, keyword or null
+	 */
+	public String getIndexFieldType(String itemName) {
+		if (itemName == null || indexFieldTypes == null) {
+			return null;
+		}
+		return indexFieldTypes.get(itemName.toLowerCase().trim());
+	}
+
+	/**
+	 * Returns the index field types defined by the property
+	 * 'lucence.indexFieldTypes'.
+	 * 
+	 * @return map of item names and index field types
+	 */
+	public Map<String, String> getIndexFieldTypes() {
+		if (indexFieldTypes == null) {
+			return Collections.emptyMap();
+		}
+		return Collections.unmodifiableMap(indexFieldTypes);
+	}
+
+	/**
+	 * adds the values of an item as stored fields into a lucene document. Numbers
+	 * are stored with their type. Dates are stored as a binary value starting
+	 * with the type tag STORED_TYPE_DATE followed by 8 bytes holding the time in
+	 * milliseconds. All other values are stored as strings.
+	 * 
+	 * @see LuceneSearchService#createProjection
+	 * @param doc
+	 *            an existing lucene document
+	 * @param workitem
+	 *            the workitem containg the values
+	 * @param itemName
+	 *            the Fieldname inside the workitem
+	 */
+	void addStoredItemValues(Document doc, ItemCollection workitem, String itemName) {
+		for (Object value : workitem.readItemValue(itemName)) {
+			if (value == null) {
+				continue;
+			}
+			if (value instanceof Calendar) {
+				value = ((Calendar) value).getTime();
+			}
+			if (value instanceof Date) {
+				doc.add(new StoredField(itemName,
+						ByteBuffer.allocate(9).put(STORED_TYPE_DATE).putLong(((Date) value).getTime()).array()));
+			} else if (value instanceof Integer) {
+				doc.add(new StoredField(itemName, (Integer) value));
+			} else if (value instanceof Long) {
+				doc.add(new StoredField(itemName, (Long) value));
+			} else if (value instanceof Double) {
+				doc.add(new StoredField(itemName, (Double) value));
+			} else if (value instanceof Float) {
+				doc.add(new StoredField(itemName, (Float) value));
+			} else {
+				doc.add(new StoredField(itemName, value.toString()));
+			}
+		}
+	}
+
 }
@@ -130,7 +130,19 @@ public class RulePlugin extends AbstractPlugin {
 			return adocumentContext; // nothing to do
 
 		String sEngineType = adocumentActivity.getItemValueString("txtBusinessRuleEngine");
-		RuleEngine ruleEngine = new RuleEngine(sEngineType);
+		// the script engine is returned to the pool by close()
+		try (RuleEngine ruleEngine = new RuleEngine(sEngineType)) {
+			evaluateScript(ruleEngine, script, adocumentContext, adocumentActivity);
+		}
+		return adocumentContext;
+
+	}
+
+	/**
+	 * Evaluates the script and updates the workitem and the event.
+	 */
+	private void evaluateScript(RuleEngine ruleEngine, String script, ItemCollection adocumentContext,
+			ItemCollection adocumentActivity) throws PluginException {
 
 		ItemCollection result = ruleEngine.evaluateBusinessRule(script, adocumentContext, adocumentActivity);
 
@@ -205,9 +217,6 @@ public class RulePlugin extends AbstractPlugin {
 		// Finally update the Activity entity. Values can be provided optional
 		// by the script variable 'event'...
 		updateEvent(ruleEngine, adocumentActivity);
-
-		return adocumentContext;
-
 	}
 
 	/**
@@ -228,7 +237,7 @@ public class RulePlugin extends AbstractPlugin {
 		// if isValid is not provided by result then we look for a
 		// direct var definition (this is for backward compatibility of
 		// older scripts)
-		isValidActivity = (Boolean) ruleEngine.getScriptEngine().get("isValid");
+		isValidActivity = (Boolean) ruleEngine.getVariable("isValid");
 
 		// if isValid==false then throw a PluginException....
 		if (isValidActivity != null && !isValidActivity) {
@@ -239,7 +248,7 @@ public class RulePlugin extends AbstractPlugin {
 			// if errorCode is not provided by result then we look for a
 			// direct var definition (this is for backward compatibility
 			// of older scripts)
-			oErrorCode = ruleEngine.getScriptEngine().get("errorCode");
+			oErrorCode = ruleEngine.getVariable("errorCode");
 
 			if (oErrorCode != null && oErrorCode instanceof String) {
 				sErrorCode = oErrorCode.toString();
@@ -264,7 +273,7 @@ public class RulePlugin extends AbstractPlugin {
 		// direct
 		// var definition (this is for backward compatibility of older
 		// scripts)
-		followUp = ruleEngine.getScriptEngine().get("followUp");
+		followUp = ruleEngine.getVariable("followUp");
 
 		// If followUp is defined we update now the activityEntity....
 		if (followUp != null) {
@@ -234,6 +234,9 @@ public class VersionPlugin extends AbstractPlugin {
 		if ("".equals(id))
 			throw new PluginException(VersionPlugin.class.getSimpleName(), INVALID_WORKITEM,
 					"Error - unable to create a version from a new workitem!");
+		// load the content of the file attachments, because the new version is
+		// not allowed to refer to the files of the source workitem
+		getWorkflowService().getDocumentService().loadFiles(itemColNewVersion);
 		// remove $Uniqueid to force the generation of a new Entity Instance.
 		itemColNewVersion.getAllItems().remove("$uniqueid");
 
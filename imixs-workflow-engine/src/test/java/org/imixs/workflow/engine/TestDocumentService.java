@@ -0,0 +1,154 @@
+package org.imixs.workflow.engine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.exceptions.AccessDeniedException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Test class for the method restore() of the DocumentService. The test
+ * verifies that a backup is restored in blocks by the method saveAll() and that
+ * the documents of a block are saved one by one if the block can not be saved.
+ *
+ * @author rsoika
+ */
+public class TestDocumentService {
+
+	DocumentService documentService;
+	File backupFile;
+	List<List<String>> savedBlocks;
+	List<String> savedDocuments;
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void setup() throws IOException {
+		// write a backup with 5 documents
+		backupFile = File.createTempFile("imixs-backup", ".tmp");
+		ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(backupFile));
+		for (int i = 1; i <= 5; i++) {
+			ItemCollection document = new ItemCollection();
+			document.replaceItemValue("$uniqueid", "D" + i);
+			document.replaceItemValue("$Version", 3);
+			out.writeObject(document.getAllItems());
+		}
+		out.close();
+
+		savedBlocks = new ArrayList<List<String>>();
+		savedDocuments = new ArrayList<String>();
+		documentService = Mockito.spy(new DocumentService());
+		documentService.setBatchSize(2);
+		Mockito.doAnswer(new Answer<List<ItemCollection>>() {
+			@Override
+			public List<ItemCollection> answer(InvocationOnMock invocation) throws Throwable {
+				List<String> block = new ArrayList<String>();
+				for (ItemCollection document : (Collection<ItemCollection>) invocation.getArguments()[0]) {
+					Assert.assertFalse(document.hasItem("$Version"));
+					block.add(document.getUniqueID());
+				}
+				savedBlocks.add(block);
+				return null;
+			}
+		}).when(documentService).saveAll(Mockito.anyCollection());
+		// the document 'D4' can not be saved
+		Mockito.doAnswer(new Answer<ItemCollection>() {
+			@Override
+			public ItemCollection answer(InvocationOnMock invocation) throws Throwable {
+				ItemCollection document = (ItemCollection) invocation.getArguments()[0];
+				if ("D4".equals(document.getUniqueID())) {
+					throw new AccessDeniedException(AccessDeniedException.OPERATION_NOTALLOWED,
+							"You are not allowed to perform this operation");
+				}
+				savedDocuments.add(document.getUniqueID());
+				return document;
+			}
+		}).when(documentService).save(Mockito.any(ItemCollection.class));
+	}
+
+	@After
+	public void teardown() {
+		backupFile.delete();
+	}
+
+	/**
+	 * Test if the documents are restored in blocks of the batch size.
+	 */
+	@Test
+	public void testRestore() throws IOException {
+		documentService.restore(backupFile.getPath());
+
+		Assert.assertEquals(3, savedBlocks.size());
+		Assert.assertEquals(2, savedBlocks.get(0).size());
+		Assert.assertEquals(2, savedBlocks.get(1).size());
+		Assert.assertEquals(1, savedBlocks.get(2).size());
+		Assert.assertEquals("D5", savedBlocks.get(2).get(0));
+		Assert.assertTrue(savedDocuments.isEmpty());
+	}
+
+	/**
+	 * Test if the documents of a block are saved one by one if the block can not
+	 * be saved. Only the document which is not allowed is skipped.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRestoreFallback() throws IOException {
+		Mockito.doThrow(new AccessDeniedException(AccessDeniedException.OPERATION_NOTALLOWED,
+				"You are not allowed to perform this operation")).when(documentService)
+				.saveAll(Mockito.anyCollection());
+
+		documentService.restore(backupFile.getPath());
+
+		Assert.assertEquals(4, savedDocuments.size());
+		Assert.assertFalse(savedDocuments.contains("D4"));
+		Assert.assertTrue(savedDocuments.contains("D5"));
+	}
+
+	/**
+	 * Test a restore with a block which can not be saved between blocks saved
+	 * by saveAll(). Only the documents of the failed block are saved one by one.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRestoreBlockFallback() throws IOException {
+		// the block containing the document 'D4' can not be saved
+		Mockito.doAnswer(new Answer<List<ItemCollection>>() {
+			@Override
+			public List<ItemCollection> answer(InvocationOnMock invocation) throws Throwable {
+				List<String> block = new ArrayList<String>();
+				for (ItemCollection document : (Collection<ItemCollection>) invocation.getArguments()[0]) {
+					block.add(document.getUniqueID());
+				}
+				if (block.contains("D4")) {
+					throw new AccessDeniedException(AccessDeniedException.OPERATION_NOTALLOWED,
+							"You are not allowed to perform this operation");
+				}
+				savedBlocks.add(block);
+				return null;
+			}
+		}).when(documentService).saveAll(Mockito.anyCollection());
+
+		documentService.restore(backupFile.getPath());
+
+		Mockito.verify(documentService, Mockito.times(3)).saveAll(Mockito.anyCollection());
+		Assert.assertEquals(2, savedBlocks.size());
+		Assert.assertEquals(Arrays.asList("D1", "D2"), savedBlocks.get(0));
+		Assert.assertEquals(Arrays.asList("D5"), savedBlocks.get(1));
+		// only the documents of the failed block are saved one by one
+		Assert.assertEquals(Arrays.asList("D3"), savedDocuments);
+		Mockito.verify(documentService, Mockito.times(2)).save(Mockito.any(ItemCollection.class));
+	}
+
+}
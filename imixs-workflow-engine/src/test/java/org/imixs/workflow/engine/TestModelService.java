@@ -1,5 +1,7 @@
 package org.imixs.workflow.engine;
 
+import java.util.List;
+
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.Model;
 import org.imixs.workflow.WorkflowKernel;
@@ -56,4 +58,73 @@ public class TestModelService extends WorkflowMockEnvironment {
 
 	}
 
+	/**
+	 * This test verifies the plugin pipeline of a model version. The pipeline
+	 * must be replaced if the model is updated.
+	 * 
+	 * @throws ModelException
+	 */
+	@Test
+	public void testPluginPipeline() throws ModelException {
+		Model model = modelService.getModel(DEFAULT_MODEL_VERSION);
+		PluginPipeline pipeline = modelService.getPluginPipeline(model);
+		Assert.assertEquals(4, pipeline.getPluginClassNames().size());
+		Assert.assertEquals("org.imixs.workflow.engine.plugins.AccessPlugin", pipeline.getPluginClassNames().get(0));
+		Assert.assertNotNull(pipeline.getPluginClass("org.imixs.workflow.engine.plugins.AccessPlugin"));
+		Assert.assertSame(pipeline, modelService.getPluginPipeline(model));
+
+		// update model
+		modelService.removeModel(DEFAULT_MODEL_VERSION);
+		this.loadModel();
+		Model newModel = modelService.getModel(DEFAULT_MODEL_VERSION);
+		Assert.assertNotSame(pipeline, modelService.getPluginPipeline(newModel));
+	}
+
+	/**
+	 * This test measures the lookup of the plugin classes per processing call by
+	 * reading the model definition and loading the plugin classes by name,
+	 * compared to the cached plugin pipeline. The plugin instances are created in
+	 * both cases.
+	 * 
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPerformancePluginSetup() throws Exception {
+		Model model = modelService.getModel(DEFAULT_MODEL_VERSION);
+		// a ModelService without a mock
+		ModelService modelService = new ModelService() {
+			@Override
+			void init() {
+			}
+		};
+		modelService.addModel(model);
+		int loops = 20000;
+		for (int run = 0; run < 3; run++) {
+			// the first runs are a warm up
+			long l = System.nanoTime();
+			for (int i = 0; i < loops; i++) {
+				ItemCollection profile = model.getDefinition();
+				List<String> vPlugins = (List<String>) profile.getItemValue("txtPlugins");
+				for (String pluginClassName : vPlugins) {
+					Assert.assertNotNull(Class.forName(pluginClassName).newInstance());
+				}
+			}
+			long timeByName = (System.nanoTime() - l) / loops;
+
+			l = System.nanoTime();
+			for (int i = 0; i < loops; i++) {
+				PluginPipeline pipeline = modelService.getPluginPipeline(model);
+				for (String pluginClassName : pipeline.getPluginClassNames()) {
+					Assert.assertNotNull(pipeline.getPluginClass(pluginClassName).newInstance());
+				}
+			}
+			long timePipeline = (System.nanoTime() - l) / loops;
+			if (run == 2) {
+				System.out.println("Performancetest plugin setup per process call: by name=" + timeByName
+						+ "ns pipeline=" + timePipeline + "ns");
+			}
+		}
+	}
+
 }
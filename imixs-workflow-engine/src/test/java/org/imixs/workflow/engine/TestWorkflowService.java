@@ -2,6 +2,7 @@ package org.imixs.workflow.engine;
 
 import static org.mockito.Mockito.when;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
@@ -12,11 +13,14 @@ import org.imixs.workflow.exceptions.AccessDeniedException;
 import org.imixs.workflow.exceptions.ModelException;
 import org.imixs.workflow.exceptions.PluginException;
 import org.imixs.workflow.exceptions.ProcessingErrorException;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import com.sun.management.ThreadMXBean;
+
 import junit.framework.Assert;
 
 /**
@@ -66,6 +70,30 @@ public class TestWorkflowService {
 
 	}
 
+	/**
+	 * This test verifies that the item names of a workitem are normalized when
+	 * the workitem is merged into the current instance.
+	 */
+	@Test
+	public void testProcessMergeItemNames()
+			throws AccessDeniedException, ProcessingErrorException, PluginException, ModelException {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue(WorkflowKernel.UNIQUEID, "W0000-00001");
+		workitem.replaceItemValue(WorkflowKernel.MODELVERSION, WorkflowMockEnvironment.DEFAULT_MODEL_VERSION);
+		workitem.replaceItemValue(WorkflowKernel.PROCESSID, 100);
+		workitem.replaceItemValue(WorkflowKernel.ACTIVITYID, 10);
+		// item names not normalized by the client
+		List<Object> value = new ArrayList<Object>();
+		value.add("Anna");
+		workitem.getAllItems().put(" TxtName", value);
+
+		workitem = workflowMockEnvironment.workflowService.processWorkItem(workitem);
+
+		Assert.assertEquals("Anna", workitem.getItemValueString("txtname"));
+		Assert.assertTrue(workitem.getAllItems().containsKey("txtname"));
+		Assert.assertFalse(workitem.getAllItems().containsKey(" TxtName"));
+	}
+
 	/**
 	 * test if the method getEvents returns correct lists of public events.
 	 */
@@ -227,4 +255,63 @@ public class TestWorkflowService {
 		Assert.assertEquals(2, eventList.size());
 	}
 
+	/**
+	 * This test measures the memory allocated by the method processWorkItem() for
+	 * a workitem with a large file attachment. The workitem is deep copied only
+	 * once by the WorkflowKernel.
+	 * 
+	 * For comparison the test also measures the allocation of the copies made by
+	 * former versions in processWorkItem() (merge with the current instance) and
+	 * in DocumentService.save() (clone before persisting). The allocation per call
+	 * must be less than the allocation of these copies alone.
+	 */
+	@Test
+	public void testPerformanceProcessAllocation()
+			throws AccessDeniedException, ProcessingErrorException, PluginException, ModelException {
+		Object threadBean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadBean instanceof ThreadMXBean);
+		ThreadMXBean allocationBean = (ThreadMXBean) threadBean;
+		Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+		long threadId = Thread.currentThread().getId();
+
+		int fileSize = 4 * 1024 * 1024;
+		int count = 20;
+		long allocatedProcess = 0;
+		long allocatedFormer = 0;
+		for (int i = 0; i < count + 5; i++) {
+			// reset the current instance
+			workflowMockEnvironment.database.get("W0000-00001").replaceItemValue(WorkflowKernel.PROCESSID, 100);
+			ItemCollection workitem = new ItemCollection();
+			workitem.replaceItemValue(WorkflowKernel.UNIQUEID, "W0000-00001");
+			workitem.replaceItemValue(WorkflowKernel.MODELVERSION, WorkflowMockEnvironment.DEFAULT_MODEL_VERSION);
+			workitem.replaceItemValue(WorkflowKernel.PROCESSID, 100);
+			workitem.replaceItemValue(WorkflowKernel.ACTIVITYID, 10);
+			workitem.addFile(new byte[fileSize], "scan.pdf", "application/pdf");
+
+			long l = allocationBean.getThreadAllocatedBytes(threadId);
+			ItemCollection result = workflowMockEnvironment.workflowService.processWorkItem(workitem);
+			long allocated = allocationBean.getThreadAllocatedBytes(threadId) - l;
+
+			// copies made by former versions
+			l = allocationBean.getThreadAllocatedBytes(threadId);
+			new ItemCollection().replaceAllItems(workitem.getAllItems());
+			result.clone();
+			long former = allocationBean.getThreadAllocatedBytes(threadId) - l;
+
+			Assert.assertEquals(200, result.getProcessID());
+			// skip warm up
+			if (i >= 5) {
+				allocatedProcess += allocated;
+				allocatedFormer += former;
+			}
+		}
+		allocatedProcess = allocatedProcess / count / 1024;
+		allocatedFormer = allocatedFormer / count / 1024;
+
+		System.out.println("Performancetest processWorkItem allocation (" + (fileSize / 1024)
+				+ " KB attachment): per call=" + allocatedProcess + " KB, removed copies=" + allocatedFormer
+				+ " KB");
+		Assert.assertTrue(allocatedProcess < allocatedFormer);
+	}
+
 }
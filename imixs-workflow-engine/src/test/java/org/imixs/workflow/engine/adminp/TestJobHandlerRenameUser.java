@@ -0,0 +1,150 @@
+package org.imixs.workflow.engine.adminp;
+
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ejb.SessionContext;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.engine.DocumentService;
+import org.imixs.workflow.engine.lucene.SearchResult;
+import org.imixs.workflow.exceptions.AccessDeniedException;
+import org.imixs.workflow.exceptions.QueryException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Test class for the JobHandlerRenameUser. The test verifies that a block of
+ * workitems is saved by the method saveAll() and that the workitems are saved
+ * one by one if the block can not be saved.
+ *
+ * @author rsoika
+ */
+public class TestJobHandlerRenameUser {
+
+	JobHandlerRenameUser jobHandler;
+	DocumentService documentService;
+	Map<String, ItemCollection> database;
+	List<Collection<ItemCollection>> savedBlocks;
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void setup() throws QueryException {
+		database = new LinkedHashMap<String, ItemCollection>();
+		for (int i = 1; i <= 3; i++) {
+			ItemCollection workitem = new ItemCollection();
+			workitem.replaceItemValue("$uniqueid", "W" + i);
+			workitem.replaceItemValue("type", "workitem");
+			workitem.replaceItemValue("namOwner", "anna");
+			workitem.replaceItemValue("$WriteAccess", "anna");
+			database.put("W" + i, workitem);
+		}
+		savedBlocks = new ArrayList<Collection<ItemCollection>>();
+
+		documentService = Mockito.mock(DocumentService.class);
+		// the search returns copies of all workitems
+		when(documentService.find(Mockito.anyString(), Mockito.anyInt(), Mockito.anyString(), Mockito.anyString(),
+				Mockito.anyBoolean(), Mockito.anyList())).thenAnswer(new Answer<SearchResult>() {
+					@Override
+					public SearchResult answer(InvocationOnMock invocation) throws Throwable {
+						List<ItemCollection> result = new ArrayList<ItemCollection>();
+						for (ItemCollection workitem : database.values()) {
+							result.add((ItemCollection) workitem.clone());
+						}
+						return new SearchResult(result, null);
+					}
+				});
+		when(documentService.load(Mockito.anyString())).thenAnswer(new Answer<ItemCollection>() {
+			@Override
+			public ItemCollection answer(InvocationOnMock invocation) throws Throwable {
+				ItemCollection workitem = database.get(invocation.getArguments()[0]);
+				return workitem == null ? null : (ItemCollection) workitem.clone();
+			}
+		});
+		// the workitem 'W2' can not be saved
+		when(documentService.save(Mockito.any(ItemCollection.class))).thenAnswer(new Answer<ItemCollection>() {
+			@Override
+			public ItemCollection answer(InvocationOnMock invocation) throws Throwable {
+				ItemCollection workitem = (ItemCollection) invocation.getArguments()[0];
+				if ("W2".equals(workitem.getUniqueID())) {
+					throw new AccessDeniedException(AccessDeniedException.OPERATION_NOTALLOWED,
+							"Operation not allowed, document is immutable!");
+				}
+				if (!workitem.getUniqueID().isEmpty()) {
+					database.put(workitem.getUniqueID(), workitem);
+				}
+				return workitem;
+			}
+		});
+		when(documentService.saveAll(Mockito.anyCollection())).thenAnswer(new Answer<List<ItemCollection>>() {
+			@Override
+			public List<ItemCollection> answer(InvocationOnMock invocation) throws Throwable {
+				Collection<ItemCollection> block = (Collection<ItemCollection>) invocation.getArguments()[0];
+				savedBlocks.add(new ArrayList<ItemCollection>(block));
+				for (ItemCollection workitem : block) {
+					database.put(workitem.getUniqueID(), workitem);
+				}
+				return new ArrayList<ItemCollection>(block);
+			}
+		});
+
+		jobHandler = new JobHandlerRenameUser();
+		jobHandler.documentService = documentService;
+		jobHandler.ctx = Mockito.mock(SessionContext.class);
+		when(jobHandler.ctx.getBusinessObject(JobHandlerRenameUser.class)).thenReturn(jobHandler);
+	}
+
+	/**
+	 * Test if only the modified workitems are saved in one block.
+	 */
+	@Test
+	public void testUpdateWorkitemUserIds() {
+		database.get("W3").replaceItemValue("namOwner", "tom");
+		database.get("W3").replaceItemValue("$WriteAccess", "tom");
+		List<ItemCollection> workitems = new ArrayList<ItemCollection>(database.values());
+
+		int updates = jobHandler.updateWorkitemUserIds(workitems, "anna", "manfred", true);
+
+		Assert.assertEquals(2, updates);
+		Assert.assertEquals(1, savedBlocks.size());
+		Assert.assertEquals(2, savedBlocks.get(0).size());
+		Assert.assertEquals("manfred", database.get("W1").getItemValueString("namOwner"));
+		Assert.assertEquals("tom", database.get("W3").getItemValueString("namOwner"));
+		Mockito.verify(documentService, Mockito.never()).save(Mockito.any(ItemCollection.class));
+	}
+
+	/**
+	 * Test if the workitems are updated one by one if the block can not be saved.
+	 * Only the workitem which can not be saved is skipped.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRunFallback() throws AdminPException {
+		when(documentService.saveAll(Mockito.anyCollection())).thenThrow(
+				new AccessDeniedException(AccessDeniedException.OPERATION_NOTALLOWED, "Operation not allowed"));
+
+		ItemCollection adminp = new ItemCollection();
+		adminp.replaceItemValue("namFrom", "anna");
+		adminp.replaceItemValue("namTo", "manfred");
+		adminp.replaceItemValue("keyReplace", true);
+
+		Assert.assertTrue(jobHandler.run(adminp));
+
+		Assert.assertEquals(2, adminp.getItemValueInteger("numUpdates"));
+		Assert.assertEquals(3, adminp.getItemValueInteger("numProcessed"));
+		Assert.assertEquals("Finished", adminp.getItemValueString("$workflowStatus"));
+		Assert.assertEquals("manfred", database.get("W1").getItemValueString("namOwner"));
+		Assert.assertEquals("anna", database.get("W2").getItemValueString("namOwner"));
+		Assert.assertEquals("manfred", database.get("W3").getItemValueString("namOwner"));
+	}
+
+}
@@ -0,0 +1,247 @@
+package org.imixs.workflow.engine.jpa;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.Model;
+import org.imixs.workflow.WorkflowKernel;
+import org.imixs.workflow.bpmn.BPMNParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for the DocumentCodec. The test verifies that all known value
+ * types are decoded unchanged, that data written in the former serialized
+ * format can be read, and compares the size and the time to encode and decode
+ * a sample of model entities and workitems with the former format.
+ * 
+ * @author rsoika
+ */
+public class TestDocumentCodec {
+
+	/**
+	 * Test the encoding and decoding of all known value types
+	 */
+	@Test
+	public void testEncodeDecode() {
+		ItemCollection workitem = createWorkitem(1);
+		workitem.replaceItemValue("_short", (short) -3);
+		workitem.replaceItemValue("_byte", (byte) 7);
+		workitem.replaceItemValue("_char", 'ü');
+		workitem.replaceItemValue("_float", 1.5f);
+		workitem.replaceItemValue("_long", Long.MIN_VALUE);
+		workitem.replaceItemValue("_bigdecimal", new BigDecimal("12345.6789"));
+		workitem.replaceItemValue("_unicode", "Grüße – 你好");
+		// null values are removed by the ItemCollection
+		workitem.getAllItems().put("_null", new Vector<Object>(Arrays.asList("a", null, "b")));
+		// fallback by serialization
+		workitem.replaceItemValue("_timestamp", new Timestamp(System.currentTimeMillis()));
+		workitem.replaceItemValue("_calendar", Calendar.getInstance());
+
+		byte[] data = DocumentCodec.encodeBinary(workitem.getAllItems());
+		Assert.assertFalse(DocumentCodec.isSerialized(data));
+		Map<String, List<Object>> result = DocumentCodec.decode(data);
+		assertData(workitem.getAllItems(), result);
+		// single value lists are decoded as Vector like the former format
+		Assert.assertEquals(Vector.class, result.get("txtname").getClass());
+		Assert.assertEquals(workitem.getAllItems().getClass(), result.getClass());
+		Assert.assertEquals(3, result.get("_null").size());
+	}
+
+	/**
+	 * Large text values are compressed
+	 */
+	@Test
+	public void testCompression() {
+		ItemCollection workitem = new ItemCollection();
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			text.append("Line ").append(i).append(" of a long text.\n");
+		}
+		workitem.replaceItemValue("txtdescription", text.toString());
+		byte[] data = DocumentCodec.encodeBinary(workitem.getAllItems());
+		Assert.assertTrue(data.length < text.length() / 2);
+		Assert.assertEquals(text.toString(),
+				new ItemCollection(DocumentCodec.decode(data)).getItemValueString("txtdescription"));
+	}
+
+	/**
+	 * Data written in the former format is detected and decoded. A document
+	 * which is only read keeps the former data. After setData the data is
+	 * written in the new format.
+	 */
+	@Test
+	public void testLegacyFormat() throws IOException {
+		ItemCollection workitem = createWorkitem(1);
+		byte[] legacy = serialize(workitem.getAllItems());
+		Assert.assertTrue(DocumentCodec.isSerialized(legacy));
+		assertData(workitem.getAllItems(), DocumentCodec.decode(legacy));
+
+		Document document = new Document();
+		document.setRawData(legacy);
+		Assert.assertEquals(workitem.getItemValueString("txtname"),
+				new ItemCollection(document.getData()).getItemValueString("txtname"));
+		Assert.assertSame(legacy, document.getRawData());
+
+		document.setData(document.getData());
+		byte[] data = document.getRawData();
+		Assert.assertFalse(DocumentCodec.isSerialized(data));
+		assertData(workitem.getAllItems(), DocumentCodec.decode(data));
+	}
+
+	/**
+	 * Invalid data must not be decoded
+	 */
+	@Test
+	public void testInvalidData() {
+		byte[] data = DocumentCodec.encodeBinary(createWorkitem(1).getAllItems());
+		for (byte[] invalid : new byte[][] { "some text".getBytes(), Arrays.copyOf(data, data.length / 2) }) {
+			try {
+				DocumentCodec.decode(invalid);
+				Assert.fail();
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		Assert.assertNull(DocumentCodec.decode(null));
+	}
+
+	/**
+	 * This test compares the size and the time to encode and decode the model
+	 * entities of the test models and a set of workitems with the former
+	 * serialized format.
+	 */
+	@Test
+	public void testPerformanceCodec() throws Exception {
+		List<Map<String, List<Object>>> sample = new ArrayList<Map<String, List<Object>>>();
+		for (String modelFile : Arrays.asList("/bpmn/TestWorkflowService.bpmn", "/bpmn/plugin-test.bpmn",
+				"/bpmn/TestSplitAndJoinPlugin.bpmn")) {
+			InputStream inputStream = getClass().getResourceAsStream(modelFile);
+			Model model = BPMNParser.parseModel(inputStream, "UTF-8");
+			for (ItemCollection task : model.findAllTasks()) {
+				sample.add(new ItemCollection(task).getAllItems());
+				for (ItemCollection event : model.findAllEventsByTask(task.getItemValueInteger("numprocessid"))) {
+					sample.add(new ItemCollection(event).getAllItems());
+				}
+			}
+		}
+		int modelEntities = sample.size();
+		for (int i = 0; i < 500; i++) {
+			sample.add(createWorkitem(i).getAllItems());
+		}
+		int loops = 20;
+
+		// warm up
+		for (Map<String, List<Object>> data : sample) {
+			DocumentCodec.decode(DocumentCodec.encodeSerialized(data));
+			DocumentCodec.decode(DocumentCodec.encodeBinary(data));
+		}
+
+		long sizeLegacy = 0;
+		long sizeBinary = 0;
+		for (Map<String, List<Object>> data : sample) {
+			sizeLegacy += DocumentCodec.encodeSerialized(data).length;
+			sizeBinary += DocumentCodec.encodeBinary(data).length;
+		}
+
+		long[] timeLegacy = measure(sample, loops, false);
+		long[] timeBinary = measure(sample, loops, true);
+
+		System.out.println("Performancetest document codec (" + modelEntities + " model entities, "
+				+ (sample.size() - modelEntities) + " workitems): avg size serialized=" + sizeLegacy / sample.size()
+				+ " bytes binary=" + sizeBinary / sample.size() + " bytes - save serialized=" + timeLegacy[0]
+				+ "us binary=" + timeBinary[0] + "us - load serialized=" + timeLegacy[1] + "us binary="
+				+ timeBinary[1] + "us");
+	}
+
+	/**
+	 * Returns the average time in us to encode and decode the sample
+	 */
+	private long[] measure(List<Map<String, List<Object>>> sample, int loops, boolean binary) {
+		List<byte[]> encoded = new ArrayList<byte[]>();
+		long l = System.nanoTime();
+		for (int i = 0; i < loops; i++) {
+			encoded.clear();
+			for (Map<String, List<Object>> data : sample) {
+				encoded.add(binary ? DocumentCodec.encodeBinary(data) : DocumentCodec.encodeSerialized(data));
+			}
+		}
+		long timeEncode = (System.nanoTime() - l) / loops / sample.size() / 1000;
+		l = System.nanoTime();
+		for (int i = 0; i < loops; i++) {
+			for (byte[] data : encoded) {
+				DocumentCodec.decode(data);
+			}
+		}
+		long timeDecode = (System.nanoTime() - l) / loops / sample.size() / 1000;
+		return new long[] { timeEncode, timeDecode };
+	}
+
+	/**
+	 * Compares the items and the content of the file 'test.txt'. Lists of byte
+	 * arrays are not equal by the method equals.
+	 */
+	private void assertData(Map<String, List<Object>> expected, Map<String, List<Object>> actual) {
+		ItemCollection expectedItems = new ItemCollection(expected);
+		ItemCollection actualItems = new ItemCollection(actual);
+		Assert.assertArrayEquals((byte[]) expectedItems.getFile("test.txt").get(1),
+				(byte[]) actualItems.getFile("test.txt").get(1));
+		Assert.assertEquals(expectedItems.getFile("test.txt").get(0), actualItems.getFile("test.txt").get(0));
+		expectedItems.removeItem("$file");
+		actualItems.removeItem("$file");
+		Assert.assertEquals(expectedItems.getAllItems(), actualItems.getAllItems());
+	}
+
+	private byte[] serialize(Object value) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(value);
+		oos.close();
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Creates a workitem with a typical set of items
+	 */
+	private ItemCollection createWorkitem(int i) {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue(WorkflowKernel.UNIQUEID, WorkflowKernel.generateUniqueID());
+		workitem.replaceItemValue("type", "workitem");
+		workitem.replaceItemValue("$modelversion", "1.0.0");
+		workitem.replaceItemValue("$processid", 1000 + (i % 10) * 100);
+		workitem.replaceItemValue("$workflowstatus", "Open");
+		workitem.replaceItemValue("$workflowgroup", "Ticket");
+		workitem.replaceItemValue("$workflowsummary", "Ticket " + i);
+		workitem.replaceItemValue("$created", new Date());
+		workitem.replaceItemValue("$modified", new Date());
+		workitem.replaceItemValue("txtname", "Some name " + i);
+		workitem.replaceItemValue("namteam", Arrays.asList("Anna", "Manfred", "Eddy"));
+		workitem.replaceItemValue("$readaccess", Arrays.asList("anna", "team1"));
+		workitem.replaceItemValue("numvalue", i);
+		workitem.replaceItemValue("dblamount", i * 1.5);
+		workitem.replaceItemValue("keyapproved", i % 2 == 0);
+		StringBuilder description = new StringBuilder();
+		for (int j = 0; j < 20; j++) {
+			description.append("Line ").append(j).append(" of the description of workitem ").append(i)
+					.append(".\n");
+		}
+		workitem.replaceItemValue("txtdescription", description.toString());
+		for (int j = 0; j < 30; j++) {
+			workitem.replaceItemValue("txtattribute" + j, "value " + j);
+		}
+		workitem.addFile(("content of file " + i).getBytes(), "test.txt", "text/plain");
+		return workitem;
+	}
+}
@@ -0,0 +1,111 @@
+package org.imixs.workflow.engine.jpa;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.xml.XMLItemCollectionAdapter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for the file references of the FileContent. The test verifies
+ * that the content of file attachments is replaced by a reference, that files
+ * with the same content get the same digest and that references are not
+ * changed by the DocumentCodec.
+ *
+ * @author rsoika
+ */
+public class TestFileContent {
+
+	/**
+	 * Test the SHA-256 digest
+	 */
+	@Test
+	public void testComputeDigest() throws Exception {
+		// SHA-256 test vectors
+		Assert.assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+				FileContent.computeDigest("abc".getBytes("UTF-8")));
+		Assert.assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+				FileContent.computeDigest(new byte[0]));
+
+		FileContent fileContent = new FileContent("abc".getBytes("UTF-8"));
+		Assert.assertEquals(FileContent.computeDigest("abc".getBytes("UTF-8")), fileContent.getId());
+		Assert.assertEquals(3, fileContent.getFileSize());
+		Assert.assertEquals(0, fileContent.getRefCount());
+	}
+
+	/**
+	 * Test the reference format
+	 */
+	@Test
+	public void testReference() throws Exception {
+		List<Object> reference = FileContent.createReference("text/plain", "abc", 3);
+		Assert.assertTrue(FileContent.isReference(reference));
+		Assert.assertEquals("abc", FileContent.getDigest(reference));
+		Assert.assertEquals("text/plain", reference.get(0));
+		Assert.assertEquals(Long.valueOf(3), reference.get(3));
+
+		ItemCollection workitem = new ItemCollection();
+		workitem.addFile("abc".getBytes("UTF-8"), "test.txt", "text/plain");
+		Assert.assertFalse(FileContent.isReference(workitem.getFile("test.txt")));
+		Assert.assertNull(FileContent.getDigest(workitem.getFile("test.txt")));
+		Assert.assertFalse(FileContent.isReference(null));
+
+		// an empty file is not a reference
+		workitem.addFile(new byte[0], "empty.txt", "text/plain");
+		Assert.assertFalse(FileContent.isReference(workitem.getFile("empty.txt")));
+	}
+
+	/**
+	 * Test if the content of all files is replaced by a reference and files with
+	 * the same content refer to the same digest.
+	 */
+	@Test
+	public void testCreateReferences() throws Exception {
+		byte[] content = "Some PDF content".getBytes("UTF-8");
+		String digest = FileContent.computeDigest(content);
+		ItemCollection workitem = new ItemCollection();
+		workitem.addFile(content, "order.pdf", "application/pdf");
+		workitem.addFile(content.clone(), "copy.pdf", "application/pdf");
+		workitem.addFile("Hello World".getBytes("UTF-8"), "test.txt", "text/plain");
+		Assert.assertTrue(FileContent.getDigests(workitem.getAllItems()).isEmpty());
+
+		Map<String, byte[]> contents = FileContent.createReferences(workitem.getAllItems());
+		Assert.assertEquals(2, contents.size());
+		Assert.assertArrayEquals(content, contents.get(digest));
+
+		// the item '$file' holds only references
+		Assert.assertEquals(3, workitem.getFileNames().size());
+		List<Object> fileData = workitem.getFile("order.pdf");
+		Assert.assertTrue(FileContent.isReference(fileData));
+		Assert.assertEquals("application/pdf", fileData.get(0));
+		Assert.assertNull(fileData.get(1));
+		Assert.assertEquals(digest, fileData.get(2));
+		Assert.assertEquals(Long.valueOf(content.length), fileData.get(3));
+		Assert.assertEquals(digest, FileContent.getDigest(workitem.getFile("copy.pdf")));
+
+		Set<String> digests = FileContent.getDigests(workitem.getAllItems());
+		Assert.assertEquals(2, digests.size());
+		Assert.assertTrue(digests.contains(digest));
+
+		// references are not changed
+		Assert.assertTrue(FileContent.createReferences(workitem.getAllItems()).isEmpty());
+		Assert.assertEquals(digests, FileContent.getDigests(workitem.getAllItems()));
+
+		// references are not changed by the DocumentCodec
+		Map<String, List<Object>> decoded = DocumentCodec.decode(DocumentCodec.encode(workitem.getAllItems()));
+		Assert.assertEquals(digests, FileContent.getDigests(decoded));
+
+		// references are not changed by the XML adapter
+		ItemCollection xmlWorkitem = XMLItemCollectionAdapter
+				.getItemCollection(XMLItemCollectionAdapter.putItemCollection(workitem));
+		Assert.assertEquals(digests, FileContent.getDigests(xmlWorkitem.getAllItems()));
+
+		// documents without files
+		Assert.assertTrue(FileContent.createReferences(new ItemCollection().getAllItems()).isEmpty());
+		Assert.assertTrue(FileContent.getDigests(null).isEmpty());
+	}
+
+}
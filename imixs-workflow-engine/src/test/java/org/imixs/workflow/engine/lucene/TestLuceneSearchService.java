@@ -0,0 +1,618 @@
+package org.imixs.workflow.engine.lucene;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.util.BytesRef;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.WorkflowKernel;
+import org.imixs.workflow.engine.DocumentService;
+import org.imixs.workflow.engine.PropertyService;
+import org.imixs.workflow.exceptions.InvalidAccessException;
+import org.imixs.workflow.exceptions.QueryException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test class for the LuceneSearchService. The test verifies the search result
+ * with a projection of stored fields, the bulk load of a result page, the
+ * read access filter, the cursor based paging, the missing sort field of an
+ * old index, the count of hits and the
+ * typed index fields.
+ * 
+ * @author rsoika
+ */
+public class TestLuceneSearchService {
+
+	private LuceneUpdateService luceneUpdateService;
+	private LuceneSearchService luceneSearchService;
+	private File indexDir;
+	private Properties properties;
+
+	@Before
+	public void setup() {
+		indexDir = new File("target/lucene-test-index-" + System.nanoTime());
+
+		properties = new Properties();
+		properties.setProperty("lucence.indexDir", indexDir.getPath());
+		properties.setProperty("lucence.fulltextFieldList", "txtname,txtsubject");
+		properties.setProperty("lucence.storeFieldList", "numvalue,dblvalue,namteam");
+		properties.setProperty("lucence.indexFieldTypes",
+				"datdate:date,numcount:long,numamount:double,namteam:keyword");
+		PropertyService propertyService = Mockito.mock(PropertyService.class);
+		when(propertyService.getProperties()).thenReturn(properties);
+
+		luceneUpdateService = new LuceneUpdateService();
+		luceneUpdateService.propertyService = propertyService;
+		luceneUpdateService.init();
+
+		luceneSearchService = new LuceneSearchService();
+		luceneSearchService.propertyService = propertyService;
+		luceneSearchService.luceneUpdateService = luceneUpdateService;
+		luceneSearchService.documentService = Mockito.mock(DocumentService.class);
+		when(luceneSearchService.documentService.isUserInRole(DocumentService.ACCESSLEVEL_MANAGERACCESS))
+				.thenReturn(true);
+		when(luceneSearchService.documentService.load(anyString())).thenReturn(new ItemCollection());
+		when(luceneSearchService.documentService.load(anyCollectionOf(String.class)))
+				.thenReturn(new ArrayList<ItemCollection>());
+	}
+
+	@After
+	public void teardown() {
+		luceneUpdateService.close();
+		File[] files = indexDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		indexDir.delete();
+	}
+
+	/**
+	 * Test the projection of stored fields. The documents must not be loaded.
+	 */
+	@Test
+	public void testProjection() throws QueryException {
+		Date created = new Date();
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue(WorkflowKernel.UNIQUEID, WorkflowKernel.generateUniqueID());
+		workitem.replaceItemValue("type", "workitem");
+		workitem.replaceItemValue("txtname", "Anna");
+		workitem.replaceItemValue("txtsubject", "not stored");
+		workitem.replaceItemValue("$created", created);
+		workitem.replaceItemValue("numvalue", 42);
+		workitem.replaceItemValue("dblvalue", 1.5);
+		workitem.replaceItemValue("namteam", Arrays.asList("Manfred", "Eddy"));
+		luceneUpdateService.updateDocument(workitem);
+
+		List<ItemCollection> result = luceneSearchService.search("(type:\"workitem\")", 10, 0, null, null,
+				Arrays.asList("txtName", "$created", "numvalue", "dblvalue", "namteam", "txtsubject"));
+		Assert.assertEquals(1, result.size());
+		ItemCollection projection = result.get(0);
+		Assert.assertEquals(workitem.getUniqueID(), projection.getUniqueID());
+		Assert.assertEquals("Anna", projection.getItemValueString("txtname"));
+		Assert.assertEquals(created, projection.getItemValueDate("$created"));
+		Assert.assertEquals(42, projection.getItemValue("numvalue").get(0));
+		Assert.assertEquals(1.5, projection.getItemValue("dblvalue").get(0));
+		Assert.assertEquals(Arrays.asList("Manfred", "Eddy"), projection.getItemValue("namteam"));
+		// not in the store field list
+		Assert.assertFalse(projection.hasItem("txtsubject"));
+		// not requested
+		Assert.assertFalse(projection.hasItem("$modified"));
+		verify(luceneSearchService.documentService, never()).load(anyCollectionOf(String.class));
+
+		// a binary value is only converted into a Date if it is tagged as a date
+		Document doc = new Document();
+		doc.add(new StoredField("txtbinary", new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+		projection = luceneSearchService.createProjection(doc);
+		Assert.assertNull(projection.getItemValueDate("txtbinary"));
+		Assert.assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 },
+				(byte[]) projection.getItemValue("txtbinary").get(0));
+	}
+
+	/**
+	 * Without a projection all documents of a page are loaded at once in the
+	 * order of the search result.
+	 */
+	@Test
+	public void testLoadPage() throws QueryException {
+		List<String> ids = new ArrayList<String>();
+		List<ItemCollection> workitems = new ArrayList<ItemCollection>();
+		for (int i = 0; i < 5; i++) {
+			ItemCollection workitem = new ItemCollection();
+			workitem.replaceItemValue(WorkflowKernel.UNIQUEID, WorkflowKernel.generateUniqueID());
+			workitem.replaceItemValue("type", "workitem");
+			workitem.replaceItemValue("txtname", "name" + i);
+			workitems.add(workitem);
+			ids.add(workitem.getUniqueID());
+		}
+		luceneUpdateService.updateDocuments(workitems);
+		when(luceneSearchService.documentService.load(ids)).thenReturn(workitems);
+
+		Sort sort = new Sort(new SortField("txtname", SortField.Type.STRING, false));
+		List<ItemCollection> result = luceneSearchService.search("(type:\"workitem\")", 10, 0, sort, null);
+		Assert.assertEquals(5, result.size());
+		verify(luceneSearchService.documentService, times(1)).load(ids);
+		verify(luceneSearchService.documentService, never()).load(anyString());
+	}
+
+	/**
+	 * Test the read access filter. A user can only find documents with an empty
+	 * $readaccess or a $readaccess containing one of his names or roles.
+	 */
+	@Test
+	public void testAccessFilter() throws QueryException {
+		when(luceneSearchService.documentService.isUserInRole(DocumentService.ACCESSLEVEL_MANAGERACCESS))
+				.thenReturn(false);
+		when(luceneSearchService.documentService.getUserNameList()).thenReturn(Arrays.asList("anna", "team1"));
+
+		List<ItemCollection> workitems = new ArrayList<ItemCollection>();
+		String[][] readAccess = { {}, { "team1" }, { "anna", "manfred" }, { "team2" }, { "Anna" } };
+		for (String[] readers : readAccess) {
+			ItemCollection workitem = new ItemCollection();
+			workitem.replaceItemValue(WorkflowKernel.UNIQUEID, WorkflowKernel.generateUniqueID());
+			workitem.replaceItemValue("type", "workitem");
+			workitem.replaceItemValue("$readaccess", Arrays.asList(readers));
+			workitems.add(workitem);
+		}
+		luceneUpdateService.updateDocuments(workitems);
+
+		List<ItemCollection> result = luceneSearchService.search("(type:\"workitem\")", 10, 0, null, null,
+				Arrays.asList("type"));
+		Assert.assertEquals(3, result.size());
+		Assert.assertEquals(3, luceneSearchService.getTotalHits("(type:\"workitem\")", 0, null));
+
+		// the filter is cached per set of names
+		Assert.assertSame(LuceneSearchService.getAccessFilter(Arrays.asList("anna", "team1")),
+				LuceneSearchService.getAccessFilter(Arrays.asList("team1", "anna", "")));
+	}
+
+	/**
+	 * This test compares the former string based access term with the cached
+	 * access filter for a user with 200 groups.
+	 */
+	@Test
+	public void testPerformanceAccessFilter() throws ParseException {
+		List<String> userNameList = new ArrayList<String>();
+		userNameList.add("anna");
+		for (int i = 0; i < 200; i++) {
+			userNameList.add("org.imixs.group.team" + i);
+		}
+		QueryParser parser = luceneSearchService.createQueryParser(new Properties());
+		String searchTerm = "(type:\"workitem\") AND ($processid:1000)";
+		int loops = 2000;
+
+		// warm up
+		for (int i = 0; i < 100; i++) {
+			parser.parse(createAccessTerm(userNameList) + searchTerm);
+			LuceneSearchService.getAccessFilter(userNameList);
+		}
+
+		long l = System.nanoTime();
+		for (int i = 0; i < loops; i++) {
+			parser.parse(createAccessTerm(userNameList) + searchTerm);
+		}
+		long timeString = (System.nanoTime() - l) / loops / 1000;
+
+		l = System.nanoTime();
+		for (int i = 0; i < loops; i++) {
+			new BooleanQuery.Builder().add(parser.parse(searchTerm), Occur.MUST)
+					.add(LuceneSearchService.getAccessFilter(userNameList), Occur.FILTER).build();
+		}
+		long timeFilter = (System.nanoTime() - l) / loops / 1000;
+
+		System.out.println("Performancetest lucene access query (200 groups): search term=" + timeString
+				+ "us filter=" + timeFilter + "us");
+	}
+
+	/**
+	 * Test paging through a search result with a cursor. Each document must be
+	 * returned exactly once - with and without a sort order.
+	 */
+	@Test
+	public void testCursor() throws QueryException {
+		List<ItemCollection> workitems = new ArrayList<ItemCollection>();
+		for (int i = 0; i < 25; i++) {
+			ItemCollection workitem = new ItemCollection();
+			workitem.replaceItemValue(WorkflowKernel.UNIQUEID, WorkflowKernel.generateUniqueID());
+			workitem.replaceItemValue("type", "workitem");
+			workitem.replaceItemValue("txtname", "name" + (100 + i));
+			workitems.add(workitem);
+		}
+		luceneUpdateService.updateDocuments(workitems);
+
+		Sort sort = new Sort(new SortField("txtname", SortField.Type.STRING, true));
+		for (Sort sortOrder : new Sort[] { null, sort }) {
+			List<String> names = new ArrayList<String>();
+			String cursor = "";
+			int pages = 0;
+			while (cursor != null) {
+				SearchResult result = luceneSearchService.search("(type:\"workitem\")", 10, cursor, sortOrder, null,
+						Arrays.asList("txtname"));
+				for (ItemCollection projection : result.getDocuments()) {
+					names.add(projection.getItemValueString("txtname"));
+				}
+				cursor = result.getCursor();
+				pages++;
+			}
+			Assert.assertEquals(3, pages);
+			Assert.assertEquals(25, names.size());
+			Assert.assertEquals(25, new HashSet<String>(names).size());
+			if (sortOrder != null) {
+				Assert.assertEquals("name124", names.get(0));
+				Assert.assertEquals("name100", names.get(24));
+			}
+		}
+	}
+
+	/**
+	 * Test paging with a cursor while the documents are updated. The documents
+	 * have the same sort value and get new document numbers by each update. Each
+	 * document must be returned exactly once.
+	 */
+	@Test
+	public void testCursorUpdate() throws QueryException {
+		List<ItemCollection> workitems = new ArrayList<ItemCollection>();
+		for (int i = 0; i < 25; i++) {
+			ItemCollection workitem = new ItemCollection();
+			workitem.replaceItemValue(WorkflowKernel.UNIQUEID, WorkflowKernel.generateUniqueID());
+			workitem.replaceItemValue("type", "workitem");
+			workitem.replaceItemValue("txtname", "name" + (100 + i));
+			workitem.replaceItemValue("datdate", new Date(1000));
+			workitems.add(workitem);
+		}
+		luceneUpdateService.updateDocuments(workitems);
+
+		Sort sort = new Sort(luceneSearchService.createSortField("datdate", false));
+		for (Sort sortOrder : new Sort[] { null, sort }) {
+			List<String> names = new ArrayList<String>();
+			String cursor = "";
+			while (cursor != null) {
+				SearchResult result = luceneSearchService.search("(type:\"workitem\")", 10, cursor, sortOrder, null,
+						Arrays.asList("txtname"));
+				for (ItemCollection projection : result.getDocuments()) {
+					names.add(projection.getItemValueString("txtname"));
+				}
+				cursor = result.getCursor();
+				// update all documents
+				luceneUpdateService.updateDocuments(workitems);
+			}
+			Assert.assertEquals(25, names.size());
+			Assert.assertEquals(25, new HashSet<String>(names).size());
+		}
+	}
+
+	/**
+	 * Test a cursor search on an index created before the sort field of the
+	 * $uniqueid was introduced. The missing sort field is detected at startup, a
+	 * reindex of all documents is marked and cursor searches are rejected, so a
+	 * backup can not end early.
+	 */
+	@Test
+	public void testCursorMissingSortField() throws QueryException, IOException {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue(WorkflowKernel.UNIQUEID, WorkflowKernel.generateUniqueID());
+		workitem.replaceItemValue("type", "workitem");
+		luceneUpdateService.updateDocument(workitem);
+		Assert.assertFalse(luceneUpdateService.isIndexSortFieldMissing());
+		// add a document without the sort field
+		luceneUpdateService.close();
+		IndexWriter indexWriter = luceneUpdateService.createIndexWriter();
+		Document doc = new Document();
+		doc.add(new StringField("$uniqueid", WorkflowKernel.generateUniqueID(), Store.YES));
+		doc.add(new StringField("type", "workitem", Store.NO));
+		indexWriter.addDocument(doc);
+		indexWriter.close();
+
+		luceneUpdateService.init();
+		Assert.assertTrue(luceneUpdateService.isIndexSortFieldMissing());
+		Assert.assertTrue(luceneUpdateService.isIndexRecoveryPending());
+		Assert.assertTrue(new File(indexDir, LuceneUpdateService.INDEX_QUEUE_MARKER).exists());
+		try {
+			luceneSearchService.search("(type:\"workitem\")", 10, "", null, null, Arrays.asList("txtname"));
+			Assert.fail("cursor search not rejected");
+		} catch (InvalidAccessException e) {
+			Assert.assertEquals(InvalidAccessException.INVALID_INDEX, e.getErrorCode());
+		}
+		// a search by page index is still possible
+		Assert.assertEquals(2,
+				luceneSearchService.search("(type:\"workitem\")", 10, 0, null, null, Arrays.asList("txtname")).size());
+	}
+
+	/**
+	 * Test the encoding and decoding of a cursor
+	 */
+	@Test
+	public void testEncodeCursor() throws QueryException {
+		FieldDoc fieldDoc = new FieldDoc(42, 1.5f, new Object[] { new BytesRef("Anna"), null, Long.valueOf(7),
+				Integer.valueOf(3), Float.valueOf(0.5f) });
+		FieldDoc decoded = LuceneSearchService.decodeCursor(LuceneSearchService.encodeCursor(fieldDoc));
+		Assert.assertArrayEquals(fieldDoc.fields, decoded.fields);
+		// the cursor does not contain the document number
+		Assert.assertFalse(new String(Base64.getUrlDecoder().decode(LuceneSearchService.encodeCursor(
+				new FieldDoc(42, 1.5f, new Object[] { new BytesRef("Anna") }))), StandardCharsets.UTF_8).contains("42"));
+
+		Assert.assertNull(LuceneSearchService.decodeCursor(""));
+		try {
+			LuceneSearchService.decodeCursor("no-valid-cursor");
+			Assert.fail();
+		} catch (QueryException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * This test compares paging by a page index with paging by a cursor through
+	 * the complete index.
+	 */
+	@Test
+	public void testPerformanceCursor() throws QueryException {
+		List<ItemCollection> workitems = new ArrayList<ItemCollection>();
+		for (int i = 0; i < 10000; i++) {
+			ItemCollection workitem = new ItemCollection();
+			workitem.replaceItemValue(WorkflowKernel.UNIQUEID, WorkflowKernel.generateUniqueID());
+			workitem.replaceItemValue("type", "workitem");
+			workitems.add(workitem);
+		}
+		luceneUpdateService.updateDocuments(workitems);
+		List<String> itemNames = Arrays.asList(WorkflowKernel.UNIQUEID);
+
+		long l = System.currentTimeMillis();
+		int count = 0;
+		int pageIndex = 0;
+		List<ItemCollection> page;
+		do {
+			page = luceneSearchService.search("(type:\"workitem\")", 100, pageIndex++, null, null, itemNames);
+			count += page.size();
+		} while (page.size() == 100);
+		long timePageIndex = System.currentTimeMillis() - l;
+		Assert.assertEquals(10000, count);
+
+		l = System.currentTimeMillis();
+		count = 0;
+		String cursor = "";
+		while (cursor != null) {
+			SearchResult result = luceneSearchService.search("(type:\"workitem\")", 100, cursor, null, null,
+					itemNames);
+			count += result.getDocuments().size();
+			cursor = result.getCursor();
+		}
+		long timeCursor = System.currentTimeMillis() - l;
+		Assert.assertEquals(10000, count);
+
+		System.out.println("Performancetest lucene paging (10000 documents): pageIndex=" + timePageIndex
+				+ "ms cursor=" + timeCursor + "ms");
+	}
+
+	/**
+	 * Test the count cache. A cached count is discarded after the index was
+	 * refreshed.
+	 */
+	@Test
+	public void testCountCache() throws QueryException {
+		properties.setProperty("lucence.countCacheTTL", "60000");
+		for (int i = 0; i < 3; i++) {
+			ItemCollection workitem = new ItemCollection();
+			workitem.replaceItemValue(WorkflowKernel.UNIQUEID, WorkflowKernel.generateUniqueID());
+			workitem.replaceItemValue("type", "workitem");
+			luceneUpdateService.updateDocument(workitem);
+		}
+		Assert.assertEquals(3, luceneSearchService.getTotalHits("(type:\"workitem\")", 0, null));
+		Assert.assertEquals(3, luceneSearchService.getTotalHits("( type:\"workitem\" )", 0, null));
+
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue(WorkflowKernel.UNIQUEID, WorkflowKernel.generateUniqueID());
+		workitem.replaceItemValue("type", "workitem");
+		luceneUpdateService.updateDocument(workitem);
+		Assert.assertEquals(4, luceneSearchService.getTotalHits("(type:\"workitem\")", 0, null));
+	}
+
+	/**
+	 * This test compares the former count by a TopScoreDocCollector with the
+	 * count by the IndexSearcher.
+	 */
+	@Test
+	public void testPerformanceCount() throws QueryException, ParseException, IOException {
+		List<ItemCollection> workitems = new ArrayList<ItemCollection>();
+		for (int i = 0; i < 10000; i++) {
+			ItemCollection workitem = new ItemCollection();
+			workitem.replaceItemValue(WorkflowKernel.UNIQUEID, WorkflowKernel.generateUniqueID());
+			workitem.replaceItemValue("type", "workitem");
+			workitem.replaceItemValue("txtname", "name" + i);
+			workitems.add(workitem);
+		}
+		luceneUpdateService.updateDocuments(workitems);
+		Query query = luceneSearchService.createQueryParser(properties).parse("(type:\"workitem\")");
+		int loops = 200;
+
+		IndexSearcher searcher = luceneUpdateService.acquireIndexSearcher();
+		try {
+			long l = System.nanoTime();
+			for (int i = 0; i < loops; i++) {
+				TopScoreDocCollector collector = TopScoreDocCollector
+						.create(LuceneSearchService.DEFAULT_MAX_SEARCH_RESULT);
+				searcher.search(query, collector);
+				Assert.assertEquals(10000, collector.getTotalHits());
+			}
+			long timeCollector = (System.nanoTime() - l) / loops / 1000;
+
+			l = System.nanoTime();
+			for (int i = 0; i < loops; i++) {
+				Assert.assertEquals(10000, searcher.count(query));
+			}
+			long timeCount = (System.nanoTime() - l) / loops / 1000;
+
+			System.out.println("Performancetest lucene count (10000 documents): collector=" + timeCollector
+					+ "us count=" + timeCount + "us");
+		} finally {
+			luceneUpdateService.releaseIndexSearcher(searcher);
+		}
+	}
+
+	/**
+	 * Test range queries on typed index fields. The result of a date range must
+	 * be the same as the result of the string range on the keywords. Number
+	 * ranges are compared numerically.
+	 */
+	@Test
+	public void testTypedRangeQuery() throws QueryException {
+		Calendar cal = Calendar.getInstance();
+		cal.clear();
+		cal.set(2018, Calendar.JANUARY, 31, 23, 59, 59);
+		cal.set(Calendar.MILLISECOND, 500);
+		createTypedWorkitem("a", cal.getTime(), 2, 0.5);
+		cal.set(2018, Calendar.FEBRUARY, 1, 0, 0, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		createTypedWorkitem("b", cal.getTime(), 5, 1.5);
+		cal.set(2018, Calendar.MARCH, 15, 12, 0, 0);
+		createTypedWorkitem("c", cal.getTime(), 10, 2.5);
+		cal.set(2019, Calendar.JANUARY, 1, 0, 0, 0);
+		createTypedWorkitem("d", cal.getTime(), 20, 3.5);
+
+		// date ranges
+		Assert.assertEquals("", searchNames("datdate:[20180101 TO 20180131]"));
+		Assert.assertEquals("a", searchNames("datdate:[20180101 TO 20180201}"));
+		// a prefix is always lower than a full date, like for the keywords
+		Assert.assertEquals("a", searchNames("datdate:[20180101 TO 20180201]"));
+		Assert.assertEquals("a", searchNames("datdate:[20180101 TO 20180201000000}"));
+		Assert.assertEquals("ab", searchNames("datdate:[20180101 TO 20180201000000]"));
+		Assert.assertEquals("bc", searchNames("datdate:{20180131235959 TO 2019}"));
+		Assert.assertEquals("abc", searchNames("datdate:[20180131235959 TO 2019}"));
+		Assert.assertEquals("cd", searchNames("datdate:[201803 TO *]"));
+		// term query on the keyword
+		Assert.assertEquals("b", searchNames("datdate:20180201000000"));
+
+		// number ranges
+		Assert.assertEquals("bc", searchNames("numcount:[5 TO 10]"));
+		Assert.assertEquals("c", searchNames("numcount:{5 TO 10]"));
+		Assert.assertEquals("abc", searchNames("numcount:[* TO 20}"));
+		Assert.assertEquals("c", searchNames("numcount:10"));
+		Assert.assertEquals("cd", searchNames("numamount:{1.5 TO *]"));
+		Assert.assertEquals("ab", searchNames("numamount:[0.5 TO 1.5]"));
+
+		// the field name is not case sensitive
+		Assert.assertEquals("cd", searchNames("datDate:[201803 TO *]"));
+		Assert.assertEquals("bc", searchNames("numCount:[5 TO 10]"));
+		Assert.assertEquals("ab", searchNames("NUMAMOUNT:[0.5 TO 1.5]"));
+	}
+
+	/**
+	 * Test the sort order of typed index fields. Numbers are sorted numerically,
+	 * multi value items are sorted by the smallest or largest value.
+	 */
+	@Test
+	public void testTypedSort() throws QueryException {
+		Calendar cal = Calendar.getInstance();
+		cal.set(2018, Calendar.MARCH, 15, 12, 0, 0);
+		createTypedWorkitem("a", cal.getTime(), 10, 20.5, "Manfred");
+		cal.set(2017, Calendar.MARCH, 15, 12, 0, 0);
+		createTypedWorkitem("b", cal.getTime(), 2, 3.5, "Eddy", "Zora");
+		cal.set(2019, Calendar.MARCH, 15, 12, 0, 0);
+		createTypedWorkitem("c", cal.getTime(), 20, 100.0, "Anna");
+
+		Assert.assertEquals("bac", searchNames("numcount", false));
+		Assert.assertEquals("cab", searchNames("numcount", true));
+		Assert.assertEquals("bac", searchNames("numamount", false));
+		Assert.assertEquals("bac", searchNames("datdate", false));
+		Assert.assertEquals("cba", searchNames("namteam", false));
+		Assert.assertEquals("bac", searchNames("namteam", true));
+		// not typed
+		Assert.assertEquals("abc", searchNames("txtname", false));
+		Assert.assertEquals(SortField.Type.STRING, luceneSearchService.createSortField("txtname", false).getType());
+
+		// cursor on a numeric sort field
+		Sort sort = new Sort(luceneSearchService.createSortField("numcount", false));
+		SearchResult result = luceneSearchService.search("(type:\"workitem\")", 2, "", sort, null,
+				Arrays.asList("txtname"));
+		Assert.assertEquals(2, result.getDocuments().size());
+		result = luceneSearchService.search("(type:\"workitem\")", 2, result.getCursor(), sort, null,
+				Arrays.asList("txtname"));
+		Assert.assertEquals(1, result.getDocuments().size());
+		Assert.assertEquals("c", result.getDocuments().get(0).getItemValueString("txtname"));
+	}
+
+	private void createTypedWorkitem(String name, Date date, int count, double amount, String... team) {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue(WorkflowKernel.UNIQUEID, WorkflowKernel.generateUniqueID());
+		workitem.replaceItemValue("type", "workitem");
+		workitem.replaceItemValue("txtname", name);
+		workitem.replaceItemValue("datdate", date);
+		workitem.replaceItemValue("numcount", count);
+		workitem.replaceItemValue("numamount", amount);
+		workitem.replaceItemValue("namteam", Arrays.asList(team));
+		luceneUpdateService.updateDocument(workitem);
+	}
+
+	/**
+	 * Returns the names of all workitems matching a query sorted by name
+	 */
+	private String searchNames(String query) throws QueryException {
+		List<ItemCollection> result = luceneSearchService.search(query, 10, 0,
+				new Sort(luceneSearchService.createSortField("txtname", false)), null, Arrays.asList("txtname"));
+		String names = "";
+		for (ItemCollection projection : result) {
+			names += projection.getItemValueString("txtname");
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the names of all workitems sorted by an item
+	 */
+	private String searchNames(String sortBy, boolean reverse) throws QueryException {
+		List<ItemCollection> result = luceneSearchService.search("(type:\"workitem\")", 10, 0,
+				new Sort(luceneSearchService.createSortField(sortBy, reverse)), null, Arrays.asList("txtname"));
+		String names = "";
+		for (ItemCollection projection : result) {
+			names += projection.getItemValueString("txtname");
+		}
+		return names;
+	}
+
+	/**
+	 * The former access term build by the LuceneSearchService
+	 */
+	private String createAccessTerm(List<String> userNameList) {
+		String sAccessTerm = "($readaccess:" + LuceneUpdateService.ANONYMOUS;
+		for (String aRole : userNameList) {
+			if (!"".equals(aRole))
+				sAccessTerm += " OR $readaccess:\"" + aRole + "\"";
+		}
+		return sAccessTerm + ") AND ";
+	}
+}
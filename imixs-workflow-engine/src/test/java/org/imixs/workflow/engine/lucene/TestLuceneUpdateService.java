@@ -0,0 +1,558 @@
+package org.imixs.workflow.engine.lucene;
+
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.WorkflowKernel;
+import org.imixs.workflow.engine.PropertyService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test class for the LuceneUpdateService. The test verifies that updates of the
+ * shared IndexWriter are visible to the near-real-time searcher, that
+ * transactional updates are written after commit only or request a recovery
+ * if they can not be written, that the asynchronous
+ * index queue coalesces changes and marks lost changes, and compares
+ * the save throughput with the former strategy opening a new IndexWriter for
+ * each update. The creation of lucene documents is compared with the former
+ * implementation.
+ * 
+ * @author rsoika
+ */
+public class TestLuceneUpdateService {
+
+	private LuceneUpdateService luceneUpdateService;
+	private File indexDir;
+	private Properties properties;
+
+	@Before
+	public void setup() {
+		indexDir = new File("target/lucene-test-index-" + System.nanoTime());
+
+		properties = new Properties();
+		properties.setProperty("lucence.indexDir", indexDir.getPath());
+		properties.setProperty("lucence.fulltextFieldList", "txtname,txtsubject");
+		properties.setProperty("lucence.indexFieldListNoAnalyze", "type,$modelversion");
+
+		luceneUpdateService = new LuceneUpdateService();
+		luceneUpdateService.propertyService = Mockito.mock(PropertyService.class);
+		when(luceneUpdateService.propertyService.getProperties()).thenReturn(properties);
+		luceneUpdateService.init();
+	}
+
+	@After
+	public void teardown() {
+		luceneUpdateService.close();
+		deleteDirectory(indexDir);
+	}
+
+	/**
+	 * An updated or removed document must be visible for the next search
+	 * without an explicit commit.
+	 */
+	@Test
+	public void testNearRealTimeSearch() throws IOException {
+		ItemCollection workitem = createWorkitem(1);
+		luceneUpdateService.updateDocument(workitem);
+		Assert.assertEquals(1, count(workitem.getUniqueID()));
+
+		// update the same document
+		luceneUpdateService.updateDocument(workitem);
+		Assert.assertEquals(1, count(workitem.getUniqueID()));
+
+		luceneUpdateService.removeDocument(workitem.getUniqueID());
+		Assert.assertEquals(0, count(workitem.getUniqueID()));
+	}
+
+	/**
+	 * Index updates within a transaction are written after the commit in one
+	 * batch. Only the last change of a document is applied.
+	 */
+	@Test
+	public void testTransactionCommit() throws IOException {
+		TransactionSynchronizationRegistryMock registry = new TransactionSynchronizationRegistryMock();
+		luceneUpdateService.transactionSynchronizationRegistry = registry;
+
+		ItemCollection workitem = createWorkitem(1);
+		ItemCollection removed = createWorkitem(2);
+		luceneUpdateService.updateDocument(removed);
+
+		luceneUpdateService.updateDocumentOnCommit(workitem);
+		luceneUpdateService.updateDocumentOnCommit(createWorkitem(3));
+		luceneUpdateService.removeDocumentOnCommit(removed.getUniqueID());
+		Assert.assertEquals(1, registry.synchronizations.size());
+		// not yet visible
+		Assert.assertEquals(0, count(workitem.getUniqueID()));
+		Assert.assertEquals(1, count(removed.getUniqueID()));
+
+		registry.complete(Status.STATUS_COMMITTED);
+		Assert.assertEquals(1, count(workitem.getUniqueID()));
+		Assert.assertEquals(0, count(removed.getUniqueID()));
+	}
+
+	/**
+	 * If the index updates of a committed transaction can not be written, a
+	 * recovery is requested. The high-water mark is kept until the index was
+	 * recovered, also after a restart.
+	 */
+	@Test
+	public void testTransactionIndexFailure() throws IOException {
+		TransactionSynchronizationRegistryMock registry = new TransactionSynchronizationRegistryMock();
+		luceneUpdateService.transactionSynchronizationRegistry = registry;
+		File marker = new File(indexDir, LuceneUpdateService.INDEX_QUEUE_MARKER);
+		// a second IndexWriter holds the write lock of the index
+		luceneUpdateService.close();
+		IndexWriter lockingWriter = luceneUpdateService.createIndexWriter();
+
+		luceneUpdateService.updateDocumentOnCommit(createWorkitem(1));
+		luceneUpdateService.removeDocumentOnCommit(WorkflowKernel.generateUniqueID());
+		registry.complete(Status.STATUS_COMMITTED);
+		Assert.assertTrue(marker.exists());
+		Assert.assertTrue(luceneUpdateService.isIndexRecoveryPending());
+
+		// the marker is not removed by a commit
+		lockingWriter.close();
+		luceneUpdateService.updateDocument(createWorkitem(2));
+		luceneUpdateService.commitIndex();
+		Assert.assertTrue(marker.exists());
+
+		// the recovery is also done after a restart
+		luceneUpdateService.close();
+		luceneUpdateService.init();
+		Assert.assertTrue(luceneUpdateService.isIndexRecoveryPending());
+	}
+
+	/**
+	 * Index updates of a rolled back transaction must not be written.
+	 */
+	@Test
+	public void testTransactionRollback() throws IOException {
+		TransactionSynchronizationRegistryMock registry = new TransactionSynchronizationRegistryMock();
+		luceneUpdateService.transactionSynchronizationRegistry = registry;
+
+		ItemCollection workitem = createWorkitem(1);
+		luceneUpdateService.updateDocumentOnCommit(workitem);
+		registry.complete(Status.STATUS_ROLLEDBACK);
+		Assert.assertEquals(0, count(workitem.getUniqueID()));
+
+		// without a transaction the update is written immediately
+		registry.transactionKey = null;
+		luceneUpdateService.updateDocumentOnCommit(workitem);
+		Assert.assertEquals(1, count(workitem.getUniqueID()));
+	}
+
+	/**
+	 * In the asynchronous index mode changes are queued and coalesced. The method
+	 * waitForIndex writes the queue. If the queue is full, the caller writes the
+	 * queue.
+	 */
+	@Test
+	public void testAsyncIndex() throws IOException {
+		properties.setProperty("lucence.asyncIndex", "true");
+		properties.setProperty("lucence.asyncQueueSize", "50");
+		luceneUpdateService.init();
+
+		List<ItemCollection> workitems = new ArrayList<ItemCollection>();
+		for (int i = 0; i < 10; i++) {
+			workitems.add(createWorkitem(i));
+		}
+		luceneUpdateService.updateDocuments(workitems);
+		luceneUpdateService.updateDocument(workitems.get(0));
+		Assert.assertEquals(10, luceneUpdateService.getIndexQueueSize());
+		Assert.assertEquals(1, luceneUpdateService.getIndexQueueCoalescedCount());
+		Assert.assertTrue(luceneUpdateService.getIndexQueueLag() >= 0);
+		// not yet visible
+		Assert.assertEquals(0, count(workitems.get(0).getUniqueID()));
+
+		luceneUpdateService.waitForIndex();
+		Assert.assertEquals(0, luceneUpdateService.getIndexQueueSize());
+		Assert.assertEquals(10, luceneUpdateService.getIndexQueueWrittenCount());
+		Assert.assertEquals(1, count(workitems.get(0).getUniqueID()));
+
+		// the last change wins
+		luceneUpdateService.updateDocument(workitems.get(1));
+		luceneUpdateService.removeDocument(workitems.get(1).getUniqueID());
+		luceneUpdateService.waitForIndex();
+		Assert.assertEquals(0, count(workitems.get(1).getUniqueID()));
+
+		// back-pressure
+		for (int i = 0; i < 60; i++) {
+			luceneUpdateService.updateDocument(createWorkitem(i));
+			Assert.assertTrue(luceneUpdateService.getIndexQueueSize() < 50);
+		}
+		Assert.assertEquals(10, luceneUpdateService.getIndexQueueSize());
+	}
+
+	/**
+	 * In the asynchronous index mode a high-water mark is written with the first
+	 * queued change. The mark is removed by the next commit after the queue was
+	 * written. A mark left after a crash is detected by the next start and not
+	 * removed before the index was recovered.
+	 */
+	@Test
+	public void testIndexQueueMarker() throws IOException {
+		properties.setProperty("lucence.asyncIndex", "true");
+		luceneUpdateService.init();
+		File marker = new File(indexDir, LuceneUpdateService.INDEX_QUEUE_MARKER);
+		Assert.assertFalse(marker.exists());
+
+		luceneUpdateService.updateDocument(createWorkitem(1));
+		Assert.assertTrue(marker.exists());
+		luceneUpdateService.waitForIndex();
+		luceneUpdateService.commitIndex();
+		Assert.assertFalse(marker.exists());
+		Assert.assertFalse(luceneUpdateService.isIndexRecoveryPending());
+
+		// simulate a crash - the queue is not written
+		luceneUpdateService.updateDocument(createWorkitem(2));
+		Assert.assertTrue(marker.exists());
+		luceneUpdateService.close();
+		luceneUpdateService.init();
+		Assert.assertTrue(luceneUpdateService.isIndexRecoveryPending());
+		luceneUpdateService.updateDocument(createWorkitem(3));
+		luceneUpdateService.waitForIndex();
+		luceneUpdateService.commitIndex();
+		Assert.assertTrue(marker.exists());
+	}
+
+	/**
+	 * This test compares the time a caller spends to save documents with the
+	 * synchronous and the asynchronous index mode.
+	 */
+	@Test
+	public void testPerformanceAsyncIndex() throws IOException {
+		int loops = 2000;
+		// warm up
+		for (int i = 0; i < 20; i++) {
+			luceneUpdateService.updateDocument(createWorkitem(i));
+		}
+
+		long l = System.nanoTime();
+		for (int i = 0; i < loops; i++) {
+			luceneUpdateService.updateDocument(createWorkitem(i));
+		}
+		long timeSync = (System.nanoTime() - l) / loops / 1000;
+
+		properties.setProperty("lucence.asyncIndex", "true");
+		luceneUpdateService.init();
+		l = System.nanoTime();
+		ItemCollection workitem = null;
+		for (int i = 0; i < loops; i++) {
+			workitem = createWorkitem(i);
+			luceneUpdateService.updateDocument(workitem);
+		}
+		long timeAsync = (System.nanoTime() - l) / loops / 1000;
+		luceneUpdateService.waitForIndex();
+		long timeTotal = (System.nanoTime() - l) / loops / 1000;
+
+		System.out.println("Performancetest lucene async index: sync save=" + timeSync + "us async save="
+				+ timeAsync + "us async incl. index=" + timeTotal + "us");
+		Assert.assertEquals(1, count(workitem.getUniqueID()));
+	}
+
+	/**
+	 * This test compares the number of saves per second with a new IndexWriter
+	 * per update (the former behavior) and the shared IndexWriter.
+	 */
+	@Test
+	public void testPerformanceSaves() throws IOException {
+		int loops = 100;
+
+		// warm up
+		for (int i = 0; i < 20; i++) {
+			luceneUpdateService.updateDocument(createWorkitem(i));
+		}
+
+		// new IndexWriter per update (the shared writer holds the index lock)
+		luceneUpdateService.close();
+		long l = System.nanoTime();
+		for (int i = 0; i < loops; i++) {
+			ItemCollection workitem = createWorkitem(i);
+			IndexWriter writer = luceneUpdateService.createIndexWriter();
+			try {
+				writer.updateDocument(new Term("$uniqueid", workitem.getUniqueID()),
+						luceneUpdateService.createDocument(workitem));
+			} finally {
+				writer.close();
+			}
+		}
+		long savesOld = loops * 1000000000L / (System.nanoTime() - l);
+
+		// shared IndexWriter
+		l = System.nanoTime();
+		ItemCollection workitem = null;
+		for (int i = 0; i < loops; i++) {
+			workitem = createWorkitem(i);
+			luceneUpdateService.updateDocument(workitem);
+		}
+		long savesNew = loops * 1000000000L / (System.nanoTime() - l);
+
+		System.out.println("Performancetest lucene saves/s: new IndexWriter=" + savesOld + " shared IndexWriter="
+				+ savesNew);
+
+		Assert.assertEquals(1, count(workitem.getUniqueID()));
+	}
+
+	/**
+	 * The content and the keywords of a lucene document must be the same as
+	 * created by the former implementation.
+	 */
+	@Test
+	public void testCreateDocument() {
+		properties.setProperty("lucence.fulltextFieldList", "txtname,txtsubject,txtdescription,datdate,namteam");
+		properties.setProperty("lucence.indexFieldListNoAnalyze", "type,$modelversion,datdate,namteam,numvalue");
+		luceneUpdateService.init();
+
+		ItemCollection workitem = createRealisticWorkitem(1);
+		Document doc = luceneUpdateService.createDocument(workitem);
+		Document legacyDoc = createLegacyDocument(workitem);
+		Assert.assertEquals(legacyDoc.get("content"), doc.get("content"));
+		for (String itemName : Arrays.asList("type", "$modified", "datdate", "namteam", "numvalue")) {
+			Assert.assertArrayEquals(legacyDoc.getValues(itemName), doc.getValues(itemName));
+		}
+		Assert.assertEquals(2, doc.getValues("namteam").length);
+		Assert.assertArrayEquals(new String[] { "anna", "team1" }, doc.getValues("$readaccess"));
+	}
+
+	/**
+	 * This test compares the creation of lucene documents for 10000 workitems
+	 * with the former implementation and measures the time to index them.
+	 */
+	@Test
+	public void testPerformanceCreateDocument() throws IOException {
+		properties.setProperty("lucence.fulltextFieldList", "txtname,txtsubject,txtdescription,datdate,namteam");
+		properties.setProperty("lucence.indexFieldListNoAnalyze", "type,$modelversion,datdate,namteam,numvalue");
+		luceneUpdateService.init();
+		int loops = 10000;
+		List<ItemCollection> workitems = new ArrayList<ItemCollection>();
+		for (int i = 0; i < loops; i++) {
+			workitems.add(createRealisticWorkitem(i));
+		}
+		// warm up
+		for (int i = 0; i < 1000; i++) {
+			createLegacyDocument(workitems.get(i));
+			luceneUpdateService.createDocument(workitems.get(i));
+		}
+
+		long l = System.nanoTime();
+		for (ItemCollection workitem : workitems) {
+			createLegacyDocument(workitem);
+		}
+		long timeLegacy = (System.nanoTime() - l) / loops / 1000;
+
+		l = System.nanoTime();
+		for (ItemCollection workitem : workitems) {
+			luceneUpdateService.createDocument(workitem);
+		}
+		long timeNew = (System.nanoTime() - l) / loops / 1000;
+
+		l = System.currentTimeMillis();
+		luceneUpdateService.updateDocuments(workitems);
+		long timeIndex = System.currentTimeMillis() - l;
+
+		System.out.println("Performancetest lucene createDocument: former=" + timeLegacy + "us new=" + timeNew
+				+ "us - index 10000 workitems=" + timeIndex + "ms");
+		Assert.assertEquals(1, count(workitems.get(loops - 1).getUniqueID()));
+	}
+
+	/**
+	 * The content and the keywords of a lucene document as created by the former
+	 * implementation of the method createDocument. The stored fields are
+	 * created like in the current implementation.
+	 */
+	@SuppressWarnings("unchecked")
+	private Document createLegacyDocument(ItemCollection aworkitem) {
+		ItemCollection config = luceneUpdateService.getConfiguration();
+		Document doc = new Document();
+		String sContent = "";
+		for (String aFieldname : (List<String>) config.getItemValue("lucence.fulltextFieldList")) {
+			String sValue = "";
+			List<?> vValues = aworkitem.getItemValue(aFieldname);
+			if (vValues.size() == 0)
+				continue;
+			for (Object o : vValues) {
+				if (o == null)
+					continue;
+				if (o instanceof Calendar || o instanceof Date) {
+					SimpleDateFormat dateformat = new SimpleDateFormat("yyyyMMddHHmmss");
+					if (o instanceof Calendar)
+						sValue += dateformat.format(((Calendar) o).getTime()) + ",";
+					else
+						sValue += dateformat.format((Date) o) + ",";
+				} else
+					sValue += o.toString() + ",";
+			}
+			sContent += sValue + ",";
+		}
+		doc.add(new TextField("content", sContent, Store.NO));
+
+		for (String itemName : (List<String>) config.getItemValue("lucence.indexFieldListNoAnalyze")) {
+			List<?> vValues = aworkitem.getItemValue(itemName);
+			if (vValues.size() == 0 || vValues.get(0) == null) {
+				continue;
+			}
+			boolean firstValue = true;
+			for (Object singleValue : vValues) {
+				String sValue;
+				if (singleValue instanceof Calendar || singleValue instanceof Date) {
+					SimpleDateFormat dateformat = new SimpleDateFormat("yyyyMMddHHmmss");
+					if (singleValue instanceof Calendar) {
+						sValue = dateformat.format(((Calendar) singleValue).getTime());
+					} else {
+						sValue = dateformat.format((Date) singleValue);
+					}
+				} else {
+					sValue = singleValue.toString();
+				}
+				doc.add(new StringField(itemName, sValue, Store.NO));
+				if (firstValue) {
+					doc.add(new SortedDocValuesField(itemName, new BytesRef(sValue)));
+				}
+				firstValue = false;
+			}
+		}
+		for (String aFieldname : (List<String>) config.getItemValue("lucence.storeFieldList")) {
+			luceneUpdateService.addStoredItemValues(doc, aworkitem, aFieldname);
+		}
+		return doc;
+	}
+
+	/**
+	 * Creates a workitem with a typical set of items and a long description
+	 */
+	private ItemCollection createRealisticWorkitem(int i) {
+		ItemCollection workitem = createWorkitem(i);
+		StringBuilder description = new StringBuilder();
+		for (int j = 0; j < 50; j++) {
+			description.append("Line ").append(j).append(" of the description of workitem ").append(i)
+					.append(" with some more text.\n");
+		}
+		workitem.replaceItemValue("txtdescription", description.toString());
+		workitem.replaceItemValue("$created", new Date());
+		workitem.replaceItemValue("datdate", new Date());
+		workitem.replaceItemValue("namteam", Arrays.asList("Anna", "Manfred"));
+		workitem.replaceItemValue("namcreator", "anna");
+		workitem.replaceItemValue("$processid", 1000 + (i % 10) * 100);
+		workitem.replaceItemValue("$workflowstatus", "Open");
+		workitem.replaceItemValue("$workflowgroup", "Ticket");
+		workitem.replaceItemValue("$workflowsummary", "Ticket " + i);
+		workitem.replaceItemValue("numvalue", i);
+		workitem.replaceItemValue("$readaccess", Arrays.asList("anna", "team1"));
+		for (int j = 0; j < 30; j++) {
+			workitem.replaceItemValue("txtattribute" + j, "value " + j);
+		}
+		return workitem;
+	}
+
+	private int count(String uniqueID) throws IOException {
+		IndexSearcher searcher = luceneUpdateService.acquireIndexSearcher();
+		try {
+			return searcher.count(new TermQuery(new Term("$uniqueid", uniqueID)));
+		} finally {
+			luceneUpdateService.releaseIndexSearcher(searcher);
+		}
+	}
+
+	private ItemCollection createWorkitem(int i) {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue(WorkflowKernel.UNIQUEID, WorkflowKernel.generateUniqueID());
+		workitem.replaceItemValue("type", "workitem");
+		workitem.replaceItemValue("$modelversion", "1.0.0");
+		workitem.replaceItemValue("txtname", "Some name " + i);
+		workitem.replaceItemValue("txtsubject", "Some subject text for the fulltext index");
+		workitem.replaceItemValue("$modified", new Date());
+		return workitem;
+	}
+
+	/**
+	 * Simple TransactionSynchronizationRegistry for one transaction.
+	 */
+	class TransactionSynchronizationRegistryMock implements TransactionSynchronizationRegistry {
+		Object transactionKey = new Object();
+		Map<Object, Object> resources = new HashMap<Object, Object>();
+		List<Synchronization> synchronizations = new ArrayList<Synchronization>();
+
+		void complete(int status) {
+			for (Synchronization synchronization : synchronizations) {
+				synchronization.beforeCompletion();
+				synchronization.afterCompletion(status);
+			}
+			synchronizations.clear();
+			resources.clear();
+		}
+
+		@Override
+		public Object getTransactionKey() {
+			return transactionKey;
+		}
+
+		@Override
+		public void putResource(Object key, Object value) {
+			resources.put(key, value);
+		}
+
+		@Override
+		public Object getResource(Object key) {
+			return resources.get(key);
+		}
+
+		@Override
+		public void registerInterposedSynchronization(Synchronization sync) {
+			synchronizations.add(sync);
+		}
+
+		@Override
+		public int getTransactionStatus() {
+			return Status.STATUS_ACTIVE;
+		}
+
+		@Override
+		public void setRollbackOnly() {
+		}
+
+		@Override
+		public boolean getRollbackOnly() {
+			return false;
+		}
+	}
+
+	private void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+}
@@ -1,6 +1,10 @@
 package org.imixs.workflow.faces.fileupload;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.URLDecoder;
 import java.util.ArrayList;
@@ -8,6 +12,7 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletResponse;
@@ -192,12 +197,20 @@ public class AjaxFileUploadServlet extends HttpServlet {
 	 * @return
 	 * @throws IOException
 	 */
-	private void writeFileContent(ServletResponse response, FileData fileData) throws IOException {
+	private void writeFileContent(HttpServletResponse response, FileData fileData) throws IOException {
 		logger.fine("[MulitpartRequestFilter] write file content...");
-		ServletOutputStream output = response.getOutputStream();
-		output.write(fileData.getData());
-		// now return json string of uploaded files....
 		response.setContentType(fileData.getContentType());
+		// the header is set from the long value, because setContentLength(int)
+		// overflows for files larger than 2 GB
+		response.setHeader("Content-Length", String.valueOf(fileData.getSize()));
+		ServletOutputStream output = response.getOutputStream();
+		// stream the content in chunks
+		InputStream input = fileData.getInputStream();
+		try {
+			FileData.copy(input, output);
+		} finally {
+			input.close();
+		}
 		output.close();
 	}
 
@@ -251,7 +264,7 @@ public class AjaxFileUploadServlet extends HttpServlet {
 		// found?
 		if (pos > -1) {
 			logger.fine("[MultipartRequestWrapper] remove file '" + file + "'");
-			fileDataList.remove(pos);
+			fileDataList.remove(pos).delete();
 
 			// store file content into session
 			setFileList(httpRequest, fileDataList);
@@ -263,6 +276,9 @@ public class AjaxFileUploadServlet extends HttpServlet {
 	/**
 	 * This method adds mulitple files into the FileDataList stored in the
 	 * current user session
+	 * <p>
+	 * The content of each file is spooled into a temporary file. So the content
+	 * of uploaded files is not held in the user session.
 	 * 
 	 * @param httpRequest
 	 */
@@ -271,11 +287,6 @@ public class AjaxFileUploadServlet extends HttpServlet {
 
 		try {
 			for (Part p : httpRequest.getParts()) {
-				byte[] b = new byte[(int) p.getSize()];
-				p.getInputStream().read(b);
-				p.getInputStream().close();
-				// params.put(p.getName(), new String[] { new String(b) });
-
 				// test if part contains a file
 				String fileName = getFilename(p);
 				if (fileName != null) {
@@ -298,7 +309,7 @@ public class AjaxFileUploadServlet extends HttpServlet {
 					// extract the file content...
 					FileData fileData = null;
 					logger.fine("Filename : " + fileName + ", contentType " + p.getContentType());
-					fileData = new FileData(fileName, p.getContentType(), b);
+					fileData = new FileData(fileName, p.getContentType(), spoolFile(p));
 					if (fileData != null) {
 						// remove existing file
 						List<FileData> fileDataList = removeFile(httpRequest, fileData.getName());
@@ -319,6 +330,37 @@ public class AjaxFileUploadServlet extends HttpServlet {
 
 	}
 
+	/**
+	 * Copies the content of a part in chunks into a temporary file. The file is
+	 * created in the temp directory of the servlet context. Files not attached to
+	 * a workitem are removed by the FileUploadSessionListener when the session
+	 * ends.
+	 * 
+	 * @see FileUploadSessionListener
+	 * @param part
+	 * @return temporary file
+	 * @throws IOException
+	 */
+	private File spoolFile(Part part) throws IOException {
+		File tempDir = (File) getServletContext().getAttribute(ServletContext.TEMPDIR);
+		File file = File.createTempFile("imixs-upload", ".tmp", tempDir);
+		InputStream input = part.getInputStream();
+		OutputStream output = new FileOutputStream(file);
+		boolean completed = false;
+		try {
+			FileData.copy(input, output);
+			completed = true;
+		} finally {
+			input.close();
+			output.close();
+			if (!completed) {
+				file.delete();
+			}
+		}
+		part.delete();
+		return file;
+	}
+
 	/**
 	 * gets an uploaded fileData from the fileDataList stored in the crrent user
 	 * session...
@@ -1,18 +1,38 @@
 package org.imixs.workflow.faces.fileupload;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Logger;
+
 /**
  * This class represents an uploaded file object
- * 
+ *
  * The class was developed initially by theironicprogrammer@gmail.com
- * 
+ * <p>
+ * The content of an uploaded file can be spooled into a temporary file. In
+ * this case the content is not held in memory until it is read by the method
+ * getData(). The temporary file is removed by the method delete().
+ * <p>
+ * Note: a file attached to a workitem is held in memory once, because the item
+ * '$file' stores the content as a byte array. The spooling only avoids that
+ * uploaded files are held in the http session until the workitem is saved.
+ *
  * @author theironicprogrammer@gmail.com, rsoika
  * @see http://ironicprogrammer.blogspot.de/2010/03/file-upload-in-jsf2.html
  */
 public class FileData {
 
+	private static Logger logger = Logger.getLogger(FileData.class.getName());
+
 	private String name;
 	private String contentType;
 	private byte[] data;
+	private File file;
 
 	public FileData(String fileName, String contentType, byte[] fileData) {
 		this.name = fileName;
@@ -20,6 +40,20 @@ public class FileData {
 		this.data = fileData;
 	}
 
+	/**
+	 * Creates a FileData with the content spooled into a temporary file
+	 *
+	 * @param fileName
+	 * @param contentType
+	 * @param file
+	 *            - temporary file holding the content
+	 */
+	public FileData(String fileName, String contentType, File file) {
+		this.name = fileName;
+		this.contentType = contentType;
+		this.file = file;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -28,11 +62,53 @@ public class FileData {
 		return contentType;
 	}
 
+	/**
+	 * Returns the content. If the content is spooled into a temporary file, the
+	 * file is read on each call. The file is read directly into the returned
+	 * array, so the content is held in memory only once.
+	 *
+	 * @return content
+	 */
 	public byte[] getData() {
+		if (data == null && file != null) {
+			try {
+				long size = file.length();
+				if (size > Integer.MAX_VALUE) {
+					throw new IOException("file size " + size + " exceeds the maximum size of an attachment");
+				}
+				byte[] content = new byte[(int) size];
+				DataInputStream in = new DataInputStream(getInputStream());
+				try {
+					in.readFully(content);
+				} finally {
+					in.close();
+				}
+				return content;
+			} catch (IOException e) {
+				logger.warning("Unable to read file '" + name + "' - " + e.getMessage());
+				return null;
+			}
+		}
 		return data;
 	}
 
+	/**
+	 * Returns an InputStream to read the content
+	 *
+	 * @return InputStream
+	 * @throws IOException
+	 */
+	public InputStream getInputStream() throws IOException {
+		if (data == null && file != null) {
+			return new FileInputStream(file);
+		}
+		return new ByteArrayInputStream(data);
+	}
+
 	public long getSize() {
+		if (data == null && file != null) {
+			return file.length();
+		}
 		return data.length;
 	}
 
@@ -45,6 +121,38 @@ public class FileData {
 	}
 
 	public void setData(byte[] fileData) {
+		delete();
 		this.data = fileData;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Removes the temporary file holding the content
+	 */
+	public void delete() {
+		if (file != null) {
+			if (!file.delete() && file.exists()) {
+				logger.warning("Unable to delete temporary file '" + file.getPath() + "'");
+			}
+			file = null;
+		}
+	}
+
+	/**
+	 * Copies a stream in chunks of 8 KB
+	 *
+	 * @param in
+	 * @param out
+	 * @return number of bytes copied
+	 * @throws IOException
+	 */
+	public static long copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[8192];
+		long count = 0;
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+			count += n;
+		}
+		return count;
+	}
+}
@@ -58,6 +58,8 @@ public class FileUploadController implements Serializable {
 			// now add the file content into blobWorkitem
 			workitem.addFile(aFile.getData(), aFile.getName(),
 					aFile.getContentType());
+			// remove the temporary file
+			aFile.delete();
 		}
 
 		// reset session IMIXS_FILEDATA_LIST
@@ -94,9 +96,18 @@ public class FileUploadController implements Serializable {
 	 * clears the current uploaded files from the session param
 	 * IMIXS_FILEDATA_LIST
 	 */
+	@SuppressWarnings("unchecked")
 	public void reset() {
 		HttpServletRequest httpRequest = (HttpServletRequest) (FacesContext
 				.getCurrentInstance().getExternalContext().getRequest());
+		List<FileData> fileDataList = (List<FileData>) httpRequest.getSession()
+				.getAttribute(AjaxFileUploadServlet.IMIXS_FILEDATA_LIST);
+		if (fileDataList != null) {
+			// remove the temporary files
+			for (FileData aFile : fileDataList) {
+				aFile.delete();
+			}
+		}
 		httpRequest.getSession().removeAttribute(
 				AjaxFileUploadServlet.IMIXS_FILEDATA_LIST);
 
@@ -0,0 +1,47 @@
+package org.imixs.workflow.faces.fileupload;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.servlet.annotation.WebListener;
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+
+/**
+ * The FileUploadSessionListener removes the temporary files of uploaded files
+ * which were not attached to a workitem when the user session ends. The files
+ * are spooled by the AjaxFileUploadServlet and are stored in the session
+ * attribute IMIXS_FILEDATA_LIST.
+ *
+ * @see AjaxFileUploadServlet
+ * @author rsoika
+ *
+ */
+@WebListener
+public class FileUploadSessionListener implements HttpSessionListener {
+
+	private static Logger logger = Logger.getLogger(FileUploadSessionListener.class.getName());
+
+	@Override
+	public void sessionCreated(HttpSessionEvent event) {
+		// no op
+	}
+
+	/**
+	 * Deletes the temporary files of all uploaded files stored in the session.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public void sessionDestroyed(HttpSessionEvent event) {
+		List<FileData> fileDataList = (List<FileData>) event.getSession()
+				.getAttribute(AjaxFileUploadServlet.IMIXS_FILEDATA_LIST);
+		if (fileDataList == null) {
+			return;
+		}
+		logger.fine("sessionDestroyed - removing " + fileDataList.size() + " uploaded files");
+		for (FileData aFile : fileDataList) {
+			aFile.delete();
+		}
+	}
+
+}
@@ -27,6 +27,7 @@
 
 package org.imixs.workflow.faces.util;
 
+import java.util.List;
 import java.util.ListIterator;
 import java.util.Vector;
 
@@ -74,10 +75,10 @@ public class VectorConverter implements Converter {
 			Object value) throws ConverterException {
 
 		String s = "";
-		Vector vValues = null;
+		List vValues = null;
 
-		if (value instanceof Vector)
-			vValues = (Vector) value;
+		if (value instanceof List)
+			vValues = (List) value;
 		else
 			vValues = new Vector();
 		ListIterator li = vValues.listIterator();
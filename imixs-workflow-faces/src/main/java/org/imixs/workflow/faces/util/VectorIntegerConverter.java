@@ -27,6 +27,7 @@
 
 package org.imixs.workflow.faces.util;
 
+import java.util.List;
 import java.util.ListIterator;
 import java.util.Vector;
 
@@ -76,7 +77,7 @@ public class VectorIntegerConverter implements Converter {
 			Object value) throws ConverterException {
 
 		String s = "";
-		Vector vValues = (Vector)value;
+		List vValues = (List)value;
 		ListIterator li = vValues.listIterator();
 		while(li.hasNext()){
 			if(li.hasPrevious()){
@@ -66,6 +66,7 @@ public class ViewController implements Serializable {
 	private int pageSize = 10;
 	private int pageIndex = 0;
 	private boolean endOfList = false;
+	private List<String> itemNames = null;
 
 	/* result */
 	private List<ItemCollection> workitems = null;
@@ -159,6 +160,27 @@ public class ViewController implements Serializable {
 		this.sortReverse = sortReverse;
 	}
 
+	/**
+	 * Returns the items to be read from the search index
+	 * 
+	 * @return
+	 */
+	public List<String> getItemNames() {
+		return itemNames;
+	}
+
+	/**
+	 * Defines the items (the columns of a view) to be read from the search index.
+	 * If set, the workitems are not loaded from the database and contain only
+	 * these items. The items must be stored in the index (see property
+	 * 'lucence.storeFieldList').
+	 * 
+	 * @param itemNames
+	 */
+	public void setItemNames(List<String> itemNames) {
+		this.itemNames = itemNames;
+	}
+
 	/**
 	 * returns the maximum size of a search result
 	 * 
@@ -270,7 +292,8 @@ public class ViewController implements Serializable {
 		}
 
 		// load data
-		workitems = getDocumentService().find(_query, getPageSize(), getPageIndex(), getSortBy(), isSortReverse());
+		workitems = getDocumentService().find(_query, getPageSize(), getPageIndex(), getSortBy(), isSortReverse(),
+				getItemNames());
 
 		// if no result is defined return an empty list.
 		if (workitems == null) {
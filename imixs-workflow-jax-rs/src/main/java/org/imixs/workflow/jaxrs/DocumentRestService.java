@@ -58,6 +58,7 @@ import javax.ws.rs.core.StreamingOutput;
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.WorkflowKernel;
 import org.imixs.workflow.engine.DocumentService;
+import org.imixs.workflow.engine.lucene.SearchResult;
 import org.imixs.workflow.engine.lucene.LuceneUpdateService;
 import org.imixs.workflow.exceptions.AccessDeniedException;
 import org.imixs.workflow.exceptions.QueryException;
@@ -128,7 +129,8 @@ public class DocumentRestService {
 	}
 
 	/**
-	 * returns a single document defined by $uniqueid
+	 * returns a single document defined by $uniqueid. The content of the file
+	 * attachments is loaded if the item '$file' is requested.
 	 * 
 	 * @param uniqueid
 	 * @return
@@ -140,7 +142,11 @@ public class DocumentRestService {
 		ItemCollection document;
 		try {
 			document = documentService.load(uniqueid);
-			return XMLItemCollectionAdapter.putItemCollection(document, DocumentRestService.getItemList(items));
+			List<String> itemList = DocumentRestService.getItemList(items);
+			if (document != null && (itemList == null || itemList.contains("$file"))) {
+				documentService.loadFiles(document);
+			}
+			return XMLItemCollectionAdapter.putItemCollection(document, itemList);
 		} catch (Exception e) {
 			e.printStackTrace();
 			return null;
@@ -149,11 +155,18 @@ public class DocumentRestService {
 
 	/**
 	 * Returns a resultset for a lucene Search Query
+	 * <p>
+	 * If the param 'cursor' is provided, the page is defined by the cursor instead
+	 * of the pageIndex. The first page is requested with an empty cursor. The
+	 * result contains the cursor of the next page. The cursor is empty if the end
+	 * of the search result is reached.
 	 * 
 	 * @param query
 	 * @param pageSize
 	 * @param pageIndex
 	 * @param items
+	 * @param cursor
+	 *            - optional cursor of the previous page
 	 * @return
 	 */
 	@GET
@@ -161,11 +174,20 @@ public class DocumentRestService {
 	public DocumentCollection findDocumentsByQuery(@PathParam("query") String query,
 			@DefaultValue("-1") @QueryParam("pageSize") int pageSize,
 			@DefaultValue("0") @QueryParam("pageIndex") int pageIndex, @QueryParam("sortBy") String sortBy,
-			@QueryParam("sortReverse") boolean sortReverse, @QueryParam("items") String items) {
+			@QueryParam("sortReverse") boolean sortReverse, @QueryParam("items") String items,
+			@QueryParam("cursor") String cursor) {
 		Collection<ItemCollection> col = null;
 		try {
 			// decode query...
 			String decodedQuery = URLDecoder.decode(query, "UTF-8");
+			if (cursor != null) {
+				SearchResult result = documentService.find(decodedQuery, pageSize, cursor, sortBy, sortReverse,
+						null);
+				DocumentCollection documentCollection = XMLItemCollectionAdapter
+						.putCollection(result.getDocuments(), getItemList(items));
+				documentCollection.setCursor(result.getCursor() != null ? result.getCursor() : "");
+				return documentCollection;
+			}
 			col = documentService.find(decodedQuery, pageSize, pageIndex, sortBy, sortReverse);
 			return XMLItemCollectionAdapter.putCollection(col, getItemList(items));
 		} catch (Exception e) {
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.jaxrs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * The FileStreamingOutput writes the content of a file attachment in chunks
+ * into the response stream. The class supports single byte ranges as defined
+ * by the HTTP 'Range' header. So clients can resume a download or read a part
+ * of a large file without transferring the complete content.
+ * <p>
+ * Note: the content is provided as a byte array, because the DocumentService
+ * stores the content of a file as a JPA Lob. So a file is held in memory once
+ * during the download. The chunks only avoid a second copy in the response
+ * buffer.
+ * 
+ * @author rsoika
+ * 
+ */
+public class FileStreamingOutput implements StreamingOutput {
+
+	public static final int CHUNK_SIZE = 8192;
+
+	private static final int SC_PARTIAL_CONTENT = 206;
+	private static final int SC_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
+	private final byte[] content;
+	private final int offset;
+	private final int length;
+
+	/**
+	 * Creates a FileStreamingOutput for a part of the content
+	 * 
+	 * @param content
+	 * @param offset
+	 *            - first byte to be written
+	 * @param length
+	 *            - number of bytes to be written
+	 */
+	public FileStreamingOutput(byte[] content, int offset, int length) {
+		this.content = content;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * Writes the content in chunks of 8 KB. The response is flushed after each
+	 * chunk.
+	 */
+	@Override
+	public void write(OutputStream output) throws IOException, WebApplicationException {
+		int pos = offset;
+		int end = offset + length;
+		while (pos < end) {
+			int len = Math.min(CHUNK_SIZE, end - pos);
+			output.write(content, pos, len);
+			output.flush();
+			pos += len;
+		}
+	}
+
+	/**
+	 * Builds a response for a file. If a valid byte range is requested, the
+	 * method returns the status 206 (Partial Content) with the requested part
+	 * of the content. If the range can not be satisfied, the method returns the
+	 * status 416. In all other cases the complete content is returned.
+	 * 
+	 * @param content
+	 *            - the file content
+	 * @param contentType
+	 *            - the content type of the file
+	 * @param range
+	 *            - the HTTP Range header or null
+	 * @return response
+	 */
+	public static Response buildResponse(byte[] content, String contentType, String range) {
+		long[] byteRange = parseRange(range, content.length);
+		if (byteRange == null) {
+			return Response.ok(new FileStreamingOutput(content, 0, content.length), contentType)
+					.header("Accept-Ranges", "bytes").header("Content-Length", content.length).build();
+		}
+		if (byteRange.length == 0) {
+			return Response.status(SC_REQUESTED_RANGE_NOT_SATISFIABLE).header("Content-Range", "bytes */" + content.length)
+					.build();
+		}
+		int offset = (int) byteRange[0];
+		int length = (int) (byteRange[1] - byteRange[0] + 1);
+		return Response.status(SC_PARTIAL_CONTENT).entity(new FileStreamingOutput(content, offset, length))
+				.type(contentType).header("Accept-Ranges", "bytes")
+				.header("Content-Range", "bytes " + byteRange[0] + "-" + byteRange[1] + "/" + content.length)
+				.header("Content-Length", length).build();
+	}
+
+	/**
+	 * Parses a HTTP Range header (e.g. 'bytes=0-499', 'bytes=500-' or
+	 * 'bytes=-500'). Only a single byte range is supported.
+	 * 
+	 * @param range
+	 *            - the Range header
+	 * @param size
+	 *            - the size of the content
+	 * @return the first and last byte position of the range, an empty array if
+	 *         the range can not be satisfied, or null if no valid single byte
+	 *         range is requested.
+	 */
+	public static long[] parseRange(String range, long size) {
+		if (range == null || !range.trim().startsWith("bytes=")) {
+			return null;
+		}
+		String spec = range.trim().substring(6).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0 || spec.indexOf(',') > -1) {
+			// multiple ranges are not supported
+			return null;
+		}
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+			long start;
+			long end;
+			if (first.isEmpty()) {
+				// suffix range - the last n bytes
+				if (last.isEmpty()) {
+					return null;
+				}
+				long suffix = Long.parseLong(last);
+				if (suffix <= 0) {
+					return new long[0];
+				}
+				start = Math.max(0, size - suffix);
+				end = size - 1;
+			} else {
+				start = Long.parseLong(first);
+				end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+				if (start < 0 || end < start) {
+					// invalid range
+					return null;
+				}
+				end = Math.min(end, size - 1);
+			}
+			if (start >= size) {
+				return new long[0];
+			}
+			return new long[] { start, end };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
@@ -228,7 +228,7 @@ public class ModelRestServiceV3 {
 		ItemCollection modelEntity = modelService.loadModelEntity(version);
 		if (modelEntity != null) {
 			return workflowRestService.getWorkItemFile(modelEntity.getUniqueID(), modelEntity.getFileNames().get(0),
-					uriInfo);
+					null, uriInfo);
 		} else {
 			return Response.status(Response.Status.NOT_FOUND).build();
 		}
@@ -35,9 +35,9 @@ import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.Vector;
 import java.util.logging.Logger;
@@ -49,6 +49,7 @@ import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.Encoded;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
@@ -69,6 +70,7 @@ import org.imixs.workflow.exceptions.ModelException;
 import org.imixs.workflow.exceptions.PluginException;
 import org.imixs.workflow.exceptions.ProcessingErrorException;
 import org.imixs.workflow.exceptions.WorkflowException;
+import org.imixs.workflow.jaxrs.FileStreamingOutput;
 import org.imixs.workflow.jee.ejb.EntityService;
 import org.imixs.workflow.util.JSONParser;
 
@@ -135,7 +137,8 @@ public class WorkflowRestServiceV3 {
 	}
 
 	/**
-	 * returns a singel workitem defined by $uniqueid
+	 * returns a singel workitem defined by $uniqueid. The content of the file
+	 * attachments is loaded if the item '$file' is requested.
 	 * 
 	 * @param uniqueid
 	 * @return
@@ -147,7 +150,11 @@ public class WorkflowRestServiceV3 {
 		ItemCollection workitem;
 		try {
 			workitem = workflowService.getWorkItem(uniqueid);
-			return XMLItemCollectionAdapter.putItemCollection(workitem, EntityRestServiceV3.getItemList(items));
+			List<String> itemList = EntityRestServiceV3.getItemList(items);
+			if (workitem != null && (itemList == null || itemList.contains("$file"))) {
+				workflowService.getDocumentService().loadFiles(workitem);
+			}
+			return XMLItemCollectionAdapter.putItemCollection(workitem, itemList);
 		} catch (Exception e) {
 			e.printStackTrace();
 			return null;
@@ -161,85 +168,57 @@ public class WorkflowRestServiceV3 {
 	 * The file name will be encoded. With a URLDecode the filename is decoded
 	 * in different formats and searched in the file list. This is not a nice
 	 * solution.
+	 * <p>
+	 * The method reads only the file and not the complete workitem. The content
+	 * is written in chunks. A single byte range can be requested by the HTTP
+	 * header 'Range'.
 	 * 
+	 * @see FileStreamingOutput
 	 * @param uniqueid
 	 * @return
 	 */
-	@SuppressWarnings({ "rawtypes" })
 	@GET
 	@Path("/workitem/{uniqueid}/file/{file}")
 	public Response getWorkItemFile(@PathParam("uniqueid") String uniqueid, @PathParam("file") @Encoded String file,
-			@Context UriInfo uriInfo) {
-	
-		ItemCollection workItem;
+			@HeaderParam("Range") String range, @Context UriInfo uriInfo) {
+
 		try {
-			workItem = workflowService.getWorkItem(uniqueid);
-	
-			if (workItem != null) {
-	
-				String fileNameUTF8 = URLDecoder.decode(file, "UTF-8");
-				String fileNameISO = URLDecoder.decode(file, "ISO-8859-1");
-	
-				// fetch $file from hashmap....
-				Map mapFiles = workItem.getFiles();
-				if (mapFiles != null) {
-					Object fileInfoObject = null;
-					// try to guess encodings.....
-					fileInfoObject = mapFiles.get(fileNameUTF8);
-					if (fileInfoObject == null)
-						fileInfoObject = mapFiles.get(fileNameISO);
-					if (fileInfoObject == null)
-						fileInfoObject = mapFiles.get(file);
-	
-					if (fileInfoObject != null) {
-						String sContentType = null;
-						byte[] fileContent = null;
-						// fileInfoObject can be a List or a an Array
-						if (fileInfoObject instanceof List) {
-							sContentType = ((List) fileInfoObject).get(0).toString();
-							fileContent = (byte[]) ((List) fileInfoObject).get(1);
-						} else {
-							// seems to be an array...
-							sContentType = ((Object[]) fileInfoObject)[0].toString();
-							fileContent = (byte[]) ((Object[]) fileInfoObject)[1];
-						}
-	
-						// Set content type in order of the contentType stored
-						// in the $file attribute
-						Response.ResponseBuilder builder = Response.ok(fileContent, sContentType);
-	
-						return builder.build();
-	
-					} else {
-						logger.warning("WorklfowRestService unable to open file: '" + file + "' in workitem '"
-								+ uniqueid + "' - error: Filename not found!");
-	
-						// workitem not found
-						return Response.status(Response.Status.NOT_FOUND).build();
-					}
-				} else {
-					logger.warning("WorklfowRestService unable to open file: '" + file + "' in workitem '" + uniqueid
-							+ "' - error: No files available!");
-	
-					// workitem not found
+			String fileNameUTF8 = URLDecoder.decode(file, "UTF-8");
+			String fileNameISO = URLDecoder.decode(file, "ISO-8859-1");
+
+			// try to guess encodings.....
+			List<Object> fileData = workflowService.getDocumentService().getFile(uniqueid,
+					Arrays.asList(fileNameUTF8, fileNameISO, file));
+
+			if (fileData != null) {
+				// file data can be stored as an array
+				if (fileData.size() == 1 && fileData.get(0) instanceof Object[]) {
+					fileData = Arrays.asList((Object[]) fileData.get(0));
+				}
+				if (fileData.size() < 2 || !(fileData.get(1) instanceof byte[])) {
+					logger.warning("WorklfowRestService unable to open file: '" + file + "' in workitem '"
+							+ uniqueid + "' - error: file content not found!");
 					return Response.status(Response.Status.NOT_FOUND).build();
 				}
+				// Set content type in order of the contentType stored
+				// in the $file attribute
+				return FileStreamingOutput.buildResponse((byte[]) fileData.get(1), fileData.get(0).toString(),
+						range);
 			} else {
 				logger.warning("WorklfowRestService unable to open file: '" + file + "' in workitem '" + uniqueid
-						+ "' - error: Workitem not found!");
+						+ "' - error: Workitem or filename not found!");
 				// workitem not found
 				return Response.status(Response.Status.NOT_FOUND).build();
 			}
-	
+
 		} catch (Exception e) {
 			logger.severe("WorklfowRestService unable to open file: '" + file + "' in workitem '" + uniqueid
 					+ "' - error: " + e.getMessage());
 			e.printStackTrace();
 		}
-	
+
 		logger.severe("WorklfowRestService unable to open file: '" + file + "' in workitem '" + uniqueid + "'");
 		return Response.status(Response.Status.NOT_FOUND).build();
-	
 	}
 
 	/**
@@ -0,0 +1,97 @@
+package org.imixs.workflow.jaxrs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for the FileStreamingOutput. The test verifies the parsing of
+ * the HTTP Range header and the chunked output of a file.
+ *
+ * @author rsoika
+ *
+ */
+public class TestFileStreamingOutput {
+
+	/**
+	 * test parsing a single byte range
+	 */
+	@Test
+	public void testParseRange() {
+		Assert.assertArrayEquals(new long[] { 0, 499 }, FileStreamingOutput.parseRange("bytes=0-499", 1000));
+		Assert.assertArrayEquals(new long[] { 500, 999 }, FileStreamingOutput.parseRange("bytes=500-", 1000));
+		Assert.assertArrayEquals(new long[] { 800, 999 }, FileStreamingOutput.parseRange("bytes=-200", 1000));
+		// the last byte position is limited to the size
+		Assert.assertArrayEquals(new long[] { 900, 999 }, FileStreamingOutput.parseRange("bytes=900-5000", 1000));
+		Assert.assertArrayEquals(new long[] { 0, 999 }, FileStreamingOutput.parseRange("bytes=-5000", 1000));
+
+		// no range or unsupported ranges
+		Assert.assertNull(FileStreamingOutput.parseRange(null, 1000));
+		Assert.assertNull(FileStreamingOutput.parseRange("items=0-10", 1000));
+		Assert.assertNull(FileStreamingOutput.parseRange("bytes=0-10,20-30", 1000));
+		Assert.assertNull(FileStreamingOutput.parseRange("bytes=10-5", 1000));
+		Assert.assertNull(FileStreamingOutput.parseRange("bytes=a-b", 1000));
+
+		// not satisfiable
+		Assert.assertEquals(0, FileStreamingOutput.parseRange("bytes=1000-", 1000).length);
+		Assert.assertEquals(0, FileStreamingOutput.parseRange("bytes=-0", 1000).length);
+	}
+
+	/**
+	 * test writing the content in chunks
+	 */
+	@Test
+	public void testWrite() throws IOException {
+		byte[] content = new byte[FileStreamingOutput.CHUNK_SIZE * 3 + 17];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+
+		// count the chunks written
+		final int[] writes = new int[1];
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		OutputStream out = new java.io.FilterOutputStream(bos) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				writes[0]++;
+				Assert.assertTrue(len <= FileStreamingOutput.CHUNK_SIZE);
+				out.write(b, off, len);
+			}
+		};
+		new FileStreamingOutput(content, 0, content.length).write(out);
+		Assert.assertArrayEquals(content, bos.toByteArray());
+		Assert.assertEquals(4, writes[0]);
+
+		// write a range
+		bos.reset();
+		new FileStreamingOutput(content, 100, 50).write(bos);
+		Assert.assertArrayEquals(Arrays.copyOfRange(content, 100, 150), bos.toByteArray());
+	}
+
+	/**
+	 * test the status and headers of the response
+	 */
+	@Test
+	public void testBuildResponse() {
+		byte[] content = new byte[1000];
+
+		Response response = FileStreamingOutput.buildResponse(content, "application/pdf", null);
+		Assert.assertEquals(200, response.getStatus());
+		Assert.assertEquals("bytes", response.getMetadata().getFirst("Accept-Ranges"));
+
+		response = FileStreamingOutput.buildResponse(content, "application/pdf", "bytes=100-199");
+		Assert.assertEquals(206, response.getStatus());
+		Assert.assertEquals("bytes 100-199/1000", response.getMetadata().getFirst("Content-Range"));
+		Assert.assertEquals(100, response.getMetadata().getFirst("Content-Length"));
+
+		response = FileStreamingOutput.buildResponse(content, "application/pdf", "bytes=2000-");
+		Assert.assertEquals(416, response.getStatus());
+		Assert.assertEquals("bytes */1000", response.getMetadata().getFirst("Content-Range"));
+	}
+}